@@ -16,6 +16,7 @@ package org.sakaiproject.evaluation.dao;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
@@ -33,6 +34,8 @@ public interface EvaluationAssignmentDao {
 
     public int countParticipantsForEval(Long evaluationId, String[] evalGroupIds);
 
+    public Map<Long, Map<String, Integer>> countParticipantsByGroup(Long[] evaluationIds, String[] evalGroupIds);
+
     public List<EvalAssignGroup> getApprovedAssignGroupsForEvaluation(Long evaluationId, String evalGroupId);
 
     public int countApprovedAssignGroupsForEvaluation(Long evaluationId, String[] evalGroupIds);
@@ -53,6 +56,8 @@ public interface EvaluationAssignmentDao {
 
     public List<EvalAssignGroup> getAssignGroupsByEvalAndNodeIds(Long evaluationId, Set<String> nodeIds);
 
+    public List<EvalAssignGroup> getAssignGroupsForEvalGroupsInStates(Collection<String> evalGroupIds, boolean includeSubgroups, String[] evalStates);
+
     public void deleteAssignHierarchyAndGroups(Set<EvalAssignHierarchy> assignHierarchies, Set<EvalAssignGroup> assignGroups);
 
     public void saveAssignUsers(Collection<EvalAssignUser> assignUsers);
@@ -64,6 +69,9 @@ public interface EvaluationAssignmentDao {
     public List<EvalAssignUser> getParticipantsForEval(Long evaluationId, String userId, String[] evalGroupIds,
             String assignTypeConstant, String assignStatusConstant, String includeConstant, String evalStateConstant);
 
+    public Map<String, List<EvalAssignUser>> getParticipantsForEvalByGroups(Long evaluationId, String[] evalGroupIds,
+            String assignTypeConstant, String assignStatusConstant, String includeConstant);
+
     public Set<String> getViewableEvalGroupIds(Long evaluationId, String permissionConstant, String[] evalGroupIds);
 
     public EvalAssignGroup getAssignGroupById(Long assignGroupId);
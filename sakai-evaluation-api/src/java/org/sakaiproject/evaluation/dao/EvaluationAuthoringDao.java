@@ -106,8 +106,19 @@ public interface EvaluationAuthoringDao {
 
     public List<EvalTemplateItem> getTemplateItemsByTemplate(Long templateId, String[] nodeIds, String[] instructorIds, String[] groupIds);
 
+    /**
+     * Get all the template items (every hierarchy level) for a template with their items, scales and
+     * scale options loaded and then evicted from the session so they can be shared outside of it
+     * 
+     * @param templateId the unique id of an EvalTemplate object
+     * @return a list of detached {@link EvalTemplateItem} objects, ordered by displayOrder
+     */
+    public List<EvalTemplateItem> getDetachedTemplateItemsByTemplate(Long templateId);
+
     public List<EvalTemplateItem> getTemplateItemsByEvaluation(Long evalId, String[] nodeIds, String[] instructorIds, String[] groupIds);
 
+    public EvalTemplate getTemplateForEvaluation(Long evalId);
+
     public EvalScale getScaleById(Long scaleId);
 
     public void saveScale(EvalScale scale);
@@ -19,9 +19,33 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.sakaiproject.evaluation.model.EvalEmailOutbox;
+
 public interface EvaluationConsolidatedEmailDao {
 
-    public List<Map<String,Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, int page);
+    /**
+     * Get the next page of (user, email template) pairs from the email processing queue and mark
+     * the matching EvalAssignUser records as sent, pages are ordered by user id and then template id.
+     * The queue entries in the page are marked as processed and are not returned again
+     * 
+     * @param sendingAvailableEmails if true then mark the available email as sent, else the reminder email
+     * @param pageSize the maximum number of pairs to return
+     * @param shard only return the pairs in this shard (see {@link #assignConsolidatedEmailShards(int)}), null for all
+     * @param afterUserId the user id of the last pair of the previous page, null for the first page
+     * @param afterEmailTemplateId the template id of the last pair of the previous page, null for the first page
+     * @return the pairs in the page (see {@link org.sakaiproject.evaluation.logic.EvalEvaluationService#getConsolidatedEmailMapping(boolean, int, Integer, String, Long)})
+     */
+    public List<Map<String,Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize,
+            Integer shard, String afterUserId, Long afterEmailTemplateId);
+
+    /**
+     * Split the users in the email processing queue into shards by a hash of the user id,
+     * all the entries for one user end up in the same shard, entries which already have a shard are left alone
+     * 
+     * @param shards the number of shards, the shards are numbered 0 to shards - 1
+     * @return the number of queue entries assigned to a shard
+     */
+    public int assignConsolidatedEmailShards(int shards);
 
     public int selectConsolidatedEmailRecipients(boolean useAvailableEmailSent, Date availableEmailSent,
             boolean useReminderEmailSent, Date reminderEmailSent, String emailTemplateType);
@@ -33,4 +57,58 @@ public interface EvaluationConsolidatedEmailDao {
     public Set<String> getAllSiteIDsMatchingSectionTitle(String sectionTitleWithWildcards);
 
     public Set<String> getAllSiteIDsMatchingSiteTitle(String siteTitleWithWildcards);
+
+    /**
+     * Save a new or changed message in the email outbox
+     * 
+     * @param outboxEmail the outbox message
+     */
+    public void saveOutboxEmail(EvalEmailOutbox outboxEmail);
+
+    /**
+     * Get the messages in the email outbox which are ready to be delivered, this includes pending messages
+     * whose next attempt time has passed and messages whose sending lease has expired,
+     * ordered by template type, group and id so the messages for one template and group are delivered together
+     * 
+     * @param now the current time
+     * @param maxResults the maximum number of messages to return
+     * @return the list of due messages (may be empty)
+     */
+    public List<EvalEmailOutbox> getDueOutboxEmails(Date now, int maxResults);
+
+    /**
+     * Claim a due outbox message for sending, only one caller (across the cluster) can claim a message
+     * until the lease runs out
+     * 
+     * @param outboxId the id of the outbox message
+     * @param now the current time, the message must be due at this time
+     * @param leaseUntil the time at which the claim expires if the message has not been updated
+     * @return true if the message was claimed by this call
+     */
+    public boolean claimOutboxEmail(Long outboxId, Date now, Date leaseUntil);
+
+    /**
+     * Get the groups which already have a message queued in the email outbox for an evaluation by a job run
+     * 
+     * @param evaluationId the id of the evaluation
+     * @param emailTemplateType the type of the email template (EMAIL_TEMPLATE_* constant)
+     * @param recipientType [OPTIONAL] the recipient type of the message, null matches any
+     * @param runId only include messages queued by this run (see {@link org.sakaiproject.evaluation.model.EvalEmailOutbox#getRunId()})
+     * @return the set of evalGroupIds
+     */
+    public Set<String> getOutboxEmailGroupIds(Long evaluationId, String emailTemplateType, String recipientType, String runId);
+
+    /**
+     * @param status the status of the outbox messages (STATUS_* constant from {@link EvalEmailOutbox})
+     * @return the number of messages in the email outbox with this status
+     */
+    public int countOutboxEmails(String status);
+
+    /**
+     * Remove the sent messages from the email outbox
+     * 
+     * @param sentBefore only remove messages which were sent before this time
+     * @return the number of messages removed
+     */
+    public int deleteSentOutboxEmails(Date sentBefore);
 }
@@ -29,6 +29,8 @@ public interface EvaluationLockDao {
 
     public boolean lockEvaluation(EvalEvaluation evaluation, Boolean lockState);
 
+    public boolean lockEvaluationGraph(Long evaluationId);
+
     public boolean isUsedScale(Long scaleId);
 
     public boolean isUsedItem(Long itemId);
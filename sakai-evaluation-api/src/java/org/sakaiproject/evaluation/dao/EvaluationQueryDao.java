@@ -18,6 +18,7 @@ import java.util.Date;
 import java.util.List;
 
 import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.model.EvalJobSchedule;
 
 public interface EvaluationQueryDao {
 
@@ -37,6 +38,93 @@ public interface EvaluationQueryDao {
 
     public List<EvalEvaluation> getEvaluationsNotViewableOrDeleted();
 
+    /**
+     * Find the evaluations whose dates say they should be in the given state but which are
+     * currently stored with another state, partial and deleted evaluations are never included
+     * 
+     * @param state one of the date based EVALUATION_STATE constants (inqueue, active, grace period, closed, viewable)
+     * @param now the time to compare the evaluation dates to
+     * @return the ids of the evaluations which need to move to this state (in id order)
+     */
+    public List<Long> getEvaluationIdsNeedingState(String state, Date now);
+
+    /**
+     * Move the given evaluations to the given state with a bulk update, only evaluations whose
+     * dates still match the state at the given time are updated
+     * 
+     * @param evaluationIds the ids from {@link #getEvaluationIdsNeedingState(String, Date)}
+     * @param state one of the date based EVALUATION_STATE constants
+     * @param now the same time used to find the evaluations
+     * @return the number of evaluations updated
+     */
+    public int updateEvaluationStates(List<Long> evaluationIds, String state, Date now);
+
+    /**
+     * Get the scheduled jobs for an evaluation
+     * 
+     * @param evaluationId the id of the evaluation
+     * @param jobType the type of job (JOB_TYPE_* constant), null for all types
+     * @return the scheduled jobs in fire date order
+     */
+    public List<EvalJobSchedule> getScheduledJobs(Long evaluationId, String jobType);
+
+    /**
+     * Save a new or changed scheduled job
+     * 
+     * @param job the scheduled job
+     */
+    public void saveScheduledJob(EvalJobSchedule job);
+
+    /**
+     * Remove a single scheduled job
+     * 
+     * @param job the scheduled job
+     */
+    public void deleteScheduledJob(EvalJobSchedule job);
+
+    /**
+     * Remove scheduled jobs for an evaluation
+     * 
+     * @param evaluationId the id of the evaluation
+     * @param jobType the type of job (JOB_TYPE_* constant), null for all types
+     * @return the number of jobs removed
+     */
+    public int deleteScheduledJobs(Long evaluationId, String jobType);
+
+    /**
+     * Claim the scheduled jobs which are due to run, each job is claimed with its own update which sets the
+     * holder and claim time and only the caller whose update changed the row gets the job, so a job is only
+     * handed out once even when several servers claim at the same time (jobs which were moved to a later fire
+     * date while being claimed are left alone), the claimed jobs stay in the schedule until they are completed
+     * with {@link #completeScheduledJob(Long, String)} and can be claimed again once the lease has run out
+     * 
+     * @param now the current time, jobs with a fire date at or before this are due
+     * @param maxResults the maximum number of jobs to claim
+     * @param holder a unique id for the claimer
+     * @param leaseTime the length of time (in milliseconds) that a claim is valid for
+     * @return the claimed jobs in fire date order
+     */
+    public List<EvalJobSchedule> claimDueScheduledJobs(Date now, int maxResults, String holder, long leaseTime);
+
+    /**
+     * Remove a claimed job from the schedule once it has run, nothing is removed if the claim is no longer
+     * held by this holder (e.g. the job was rescheduled while it was running)
+     * 
+     * @param jobId the id of the claimed job
+     * @param holder the holder which claimed the job
+     * @return true if the job was removed
+     */
+    public boolean completeScheduledJob(Long jobId, String holder);
+
+    /**
+     * Give up the claim on a job which was not run so it can be claimed again straight away
+     * 
+     * @param jobId the id of the claimed job
+     * @param holder the holder which claimed the job
+     * @return true if the claim was released
+     */
+    public boolean releaseScheduledJob(Long jobId, String holder);
+
     public List<EvalEvaluation> getEvaluationsByCategory(String evalCategory);
 
     public List<EvalEvaluation> getEvalsUserCanTake(String userId, Boolean activeOnly, Boolean approvedOnly,
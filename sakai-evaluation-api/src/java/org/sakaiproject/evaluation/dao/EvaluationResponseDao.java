@@ -15,9 +15,12 @@
 package org.sakaiproject.evaluation.dao;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.sakaiproject.evaluation.logic.model.EvalResponseAnswersHandler;
 import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalAnswerStats;
 import org.sakaiproject.evaluation.model.EvalResponse;
 
 public interface EvaluationResponseDao {
@@ -28,6 +31,8 @@ public interface EvaluationResponseDao {
 
     public int countResponses(Long evaluationId, String evalGroupId, Boolean completed);
 
+    public Map<Long, Map<String, Integer>> countResponsesByGroup(Long[] evaluationIds, String[] evalGroupIds, Boolean completed);
+
     public List<EvalResponse> getEvaluationResponses(Long evaluationId, String[] evalGroupIds, Boolean completed);
 
     public List<EvalResponse> getEvaluationResponses(Long[] evaluationIds, String ownerUserId, String[] evalGroupIds, Boolean completed);
@@ -38,6 +43,12 @@ public interface EvaluationResponseDao {
 
     public List<EvalAnswer> getAnswers(Long evalId, String[] evalGroupIds, Long[] templateItemIds);
 
+    public List<EvalAnswer> getNumericAnswers(Long evalId, String[] evalGroupIds, Long[] templateItemIds);
+
+    public int scrollAnswers(Long evalId, String[] evalGroupIds, Long[] templateItemIds, EvalResponseAnswersHandler handler);
+
+    public Map<String, Set<String>> getAnswerAssociates(Long evalId, String[] evalGroupIds);
+
     public List<Long> getResponseIds(Long evalId, String[] evalGroupIds, String[] userIds, Boolean completed);
 
     public void removeResponses(Long[] responseIds);
@@ -48,4 +59,14 @@ public interface EvaluationResponseDao {
 
     public EvalResponse getResponseById(Long responseId);
 
+    public List<EvalAnswerStats> getAnswerStats(Long evaluationId, String[] evalGroupIds);
+
+    public boolean updateAnswerStats(EvalResponse response);
+
+    public void markAnswerStatsStale(Long evaluationId, String evalGroupId);
+
+    public int rebuildAnswerStats(Long evaluationId, String evalGroupId);
+
+    public Map<Long, Set<String>> getStaleAnswerStatsGroups();
+
 }
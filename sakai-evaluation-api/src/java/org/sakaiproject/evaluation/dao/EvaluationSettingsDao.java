@@ -29,4 +29,13 @@ public interface EvaluationSettingsDao {
     public int countEvalConfigsByNames(String[] names);
 
     public void saveEvalConfig(EvalConfig config);
+
+    /**
+     * Increment a numeric config value, the row is locked until the end of the transaction
+     * so concurrent increments (from any server) never produce the same value
+     * 
+     * @param name the name of the config value, it is created with a value of 1 if it does not exist
+     * @return the new value
+     */
+    public long incrementEvalConfigCounter(String name);
 }
@@ -18,6 +18,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.model.EvalCompiledTemplate;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 import org.sakaiproject.evaluation.model.EvalItem;
 import org.sakaiproject.evaluation.model.EvalItemGroup;
@@ -216,6 +217,21 @@ public interface EvalAuthoringService {
     * @return an {@link EvalTemplateItem} object or null if not found
     */
    public EvalTemplateItem getTemplateItemById(Long templateItemId);
+
+   /**
+    * Get a set of template items by their ids in one lookup, only the template items which
+    * are part of the template used by the evaluation are returned, this is primarily for resolving
+    * the template items referenced by the answers when a user submits an evaluation<br/>
+    * NOTE: if the template is locked then the items come from the {@link #getCompiledTemplate(Long)}
+    * and are shared, they must not be changed
+    * 
+    * @param evaluationId the unique id of an {@link EvalEvaluation} object
+    * @param templateItemIds the ids of {@link EvalTemplateItem} objects
+    * @return a map of templateItemId -> {@link EvalTemplateItem}, ids which cannot be found or which
+    * are not in the evaluation template are not included
+    * @throws IllegalArgumentException if the evaluation or its template cannot be found
+    */
+   public Map<Long, EvalTemplateItem> getTemplateItemsForEvaluationByIds(Long evaluationId, Long[] templateItemIds);
    
    /**
     * Get a template item by its external id<br/>
@@ -279,7 +295,9 @@ public interface EvalAuthoringService {
    /**
     * Get all the templateItems for an evaluation based on a set of restrictions, this is primarily for
     * cases where you will be rendering an evaluation for a user or possibly a preview of an evaluation<br/>
-    * NOTE: Use this instead of attempting to lazy load a ton of items from the templates
+    * NOTE: Use this instead of attempting to lazy load a ton of items from the templates<br/>
+    * NOTE: if the template is locked then the items come from the {@link #getCompiledTemplate(Long)}
+    * and are shared, they must not be changed
     * 
     * @param evalId the unique id of an {@link EvalEvaluation} object
     * @param nodeIds the unique ids of a set of hierarchy nodes for which we 
@@ -294,6 +312,17 @@ public interface EvalAuthoringService {
     */
    public List<EvalTemplateItem> getTemplateItemsForEvaluation(Long evalId, String[] nodeIds, String[] instructorIds, String[] groupIds);
 
+   /**
+    * Get the compiled form of a locked template, this holds all the template items (with the items and
+    * scales loaded) in display order along with the decoded scale options and block children,
+    * it is built once for each lock of the template and then cached
+    * 
+    * @param templateId the unique id of an {@link EvalTemplate} object
+    * @return the compiled template (shared and read only) OR null if the template is not locked
+    * @throws IllegalArgumentException if the template cannot be found
+    */
+   public EvalCompiledTemplate getCompiledTemplate(Long templateId);
+
    // BLOCKS
 
    /**
@@ -15,9 +15,13 @@
 package org.sakaiproject.evaluation.logic;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.sakaiproject.evaluation.logic.exceptions.ResponseSaveException;
+import org.sakaiproject.evaluation.logic.model.EvalResponseAnswersHandler;
 import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalAnswerStats;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 import org.sakaiproject.evaluation.model.EvalResponse;
 
@@ -156,6 +160,95 @@ public interface EvalDeliveryService {
     */
    public List<EvalAnswer> getAnswersForEval(Long evaluationId, String[] evalGroupIds, Long[] templateItemIds);
 
+   /**
+    * Get the numeric answers associated with this evaluation without loading the text and comments,
+    * this is the same as {@link #getAnswersForEval(Long, String[], Long[])} but only the values needed to
+    * count the choices are read, the returned answers are not persistent, {@link EvalAnswer#getText()}
+    * and {@link EvalAnswer#getComment()} are always null and the response and template item only have the id set<br/>
+    * This is primarily used for reporting on the scaled and multiple choice items, use
+    * {@link #getAnswersForEval(Long, String[], Long[])} for the items which display text or comments
+    * 
+    * @param evaluationId the id of an {@link EvalEvaluation} object
+    * @param evalGroupIds the internal eval group ids (represents a site or group),
+    * if null or empty array include answers for all eval groups for this evaluation
+    * @param templateItemIds the ids of {@link EvalTemplateItem} objects to return answers for,
+    * if null or empty array then return the answers for all template items
+    * @return a list of {@link EvalAnswer} objects (without text or comments)
+    */
+   public List<EvalAnswer> getNumericAnswersForEval(Long evaluationId, String[] evalGroupIds, Long[] templateItemIds);
+
+   /**
+    * Get the answers associated with this evaluation one response at a time without loading them all
+    * into memory, this is the same as {@link #getAnswersForEval(Long, String[], Long[])} but the answers
+    * are passed to the handler as they are read from the database (with a cursor)<br/>
+    * The responses are handled in order by eval group id and then by response id,
+    * responses without any (matching) answers are not included<br/>
+    * This is primarily used for exporting the results of large evaluations
+    * 
+    * @param evaluationId the id of an {@link EvalEvaluation} object
+    * @param evalGroupIds the internal eval group ids (represents a site or group),
+    * if null or empty array include answers for all eval groups for this evaluation
+    * @param templateItemIds the ids of {@link EvalTemplateItem} objects to return answers for,
+    * if null or empty array then return the answers for all template items
+    * @param handler receives the decoded answers for each response
+    * @return the number of responses which were passed to the handler
+    */
+   public int getAnswersForEval(Long evaluationId, String[] evalGroupIds, Long[] templateItemIds, EvalResponseAnswersHandler handler);
+
+   /**
+    * Get the instructors and assistants which were answered about in the completed responses
+    * to this evaluation without loading the answers
+    * 
+    * @param evaluationId the id of an {@link EvalEvaluation} object
+    * @param evalGroupIds the internal eval group ids (represents a site or group),
+    * if null or empty array include all eval groups for this evaluation
+    * @return a map of associated type (e.g. {@link org.sakaiproject.evaluation.constant.EvalConstants#ITEM_CATEGORY_INSTRUCTOR})
+    * to the set of associated user ids
+    */
+   public Map<String, Set<String>> getAnswerAssociatesForEval(Long evaluationId, String[] evalGroupIds);
+
+   /**
+    * Get the pre-aggregated answer stats for the completed responses to this evaluation,
+    * these are kept up to date as responses are submitted and hold the same choice counts
+    * that would be produced from the answers for the numeric (scaled/MC/MA/block child) items<br/>
+    * The stats for all the groups are combined into one entry for each template item answer key
+    * 
+    * @param evaluationId the id of an {@link EvalEvaluation} object
+    * @param evalGroupIds the internal eval group ids (represents a site or group), must not be empty
+    * @return a map of templateItemAnswerKey (from {@link org.sakaiproject.evaluation.utils.TemplateItemUtils#makeTemplateItemAnswerKey(Long, String, String)})
+    * to the combined {@link EvalAnswerStats}, OR null if the stats are not current for one of the groups
+    * (in which case the answers should be used instead)
+    */
+   public Map<String, EvalAnswerStats> getAnswerStatsForEval(Long evaluationId, String[] evalGroupIds);
+
+   /**
+    * Rebuilds the pre-aggregated answer stats for all the completed responses to this evaluation,
+    * this is used to create the stats for responses saved before the stats existed
+    * and to repair them if they get out of sync with the answers
+    * 
+    * @param evaluationId the id of an {@link EvalEvaluation} object
+    * @return the number of answer stats entries which were stored
+    */
+   public int rebuildAnswerStats(Long evaluationId);
+
+   /**
+    * Rebuilds the pre-aggregated answer stats for the completed responses to this evaluation in one group
+    * 
+    * @param evaluationId the id of an {@link EvalEvaluation} object
+    * @param evalGroupId the internal eval group id (represents a site or group), null for all groups
+    * @return the number of answer stats entries which were stored
+    */
+   public int rebuildAnswerStats(Long evaluationId, String evalGroupId);
+
+   /**
+    * Get the groups whose pre-aggregated answer stats need to be rebuilt, the stats for a group are marked
+    * stale when a submission finds they do not match the completed responses (instead of rebuilding them
+    * during the submission) or completed responses are removed, rebuilding the stats clears the mark
+    * 
+    * @return a map of evaluation id to the set of internal eval group ids which need their stats rebuilt
+    */
+   public Map<Long, Set<String>> getStaleAnswerStatsGroups();
+
 
    // PERMISSIONS
 
@@ -92,10 +92,24 @@ public interface EvalEmailsLogic {
      * @param evaluationId the id of an EvalEvaluation object
      * @param includeEvaluatees if true, if evaluatees (probably instructors)
      * have not opted into an evaluation which is opt-in include notification, otherwise this does nothing
-     * @return an array of the email addresses that were sent to
+     * @return an array of the email addresses that were sent to,
+     * or of the userIds the emails were queued for if {@link EvalSettings#EMAIL_USE_OUTBOX} is enabled
      */
     public String[] sendEvalAvailableNotifications(Long evaluationId, boolean includeEvaluatees);
 
+    /**
+     * Same as {@link #sendEvalAvailableNotifications(Long, boolean)} but for a run of a job,
+     * when the emails are queued in the outbox a rerun with the same runId (e.g. after the job was
+     * interrupted) skips the groups and messages which that run already queued
+     * 
+     * @param evaluationId the id of an EvalEvaluation object
+     * @param includeEvaluatees see {@link #sendEvalAvailableNotifications(Long, boolean)}
+     * @param runId [OPTIONAL] identifies the job run, null to always send to every group
+     * @return an array of the email addresses that were sent to,
+     * or of the userIds the emails were queued for if {@link EvalSettings#EMAIL_USE_OUTBOX} is enabled
+     */
+    public String[] sendEvalAvailableNotifications(Long evaluationId, boolean includeEvaluatees, String runId);
+
     /**
      * Send late notification to evaluators that there is an evaluation ready for them to take
      * and includes information about the evaluation (dates), also includes links to
@@ -117,10 +131,24 @@ public interface EvalEmailsLogic {
      * 
      * @param evaluationId the id of an EvalEvaluation object
      * @param includeConstant a constant to indicate what users should receive the notification, EVAL_INCLUDE_* from {@link EvalConstants}
-     * @return an array of the email addresses that were sent to
+     * @return an array of the email addresses that were sent to,
+     * or of the userIds the emails were queued for if {@link EvalSettings#EMAIL_USE_OUTBOX} is enabled
      */
     public String[] sendEvalReminderNotifications(Long evaluationId, String includeConstant);
 
+    /**
+     * Same as {@link #sendEvalReminderNotifications(Long, String)} but for a run of a job,
+     * when the emails are queued in the outbox a rerun with the same runId (e.g. after the job was
+     * interrupted) skips the groups which that run already queued
+     * 
+     * @param evaluationId the id of an EvalEvaluation object
+     * @param includeConstant a constant to indicate what users should receive the notification, EVAL_INCLUDE_* from {@link EvalConstants}
+     * @param runId [OPTIONAL] identifies the job run, null to always send to every group
+     * @return an array of the email addresses that were sent to,
+     * or of the userIds the emails were queued for if {@link EvalSettings#EMAIL_USE_OUTBOX} is enabled
+     */
+    public String[] sendEvalReminderNotifications(Long evaluationId, String includeConstant, String runId);
+
     /**
      * Send notifications that the evaluation is now complete and the results are viewable,
      * includes stats for the evaluation (response rate, etc.) and links directly to
@@ -23,6 +23,7 @@ import java.util.Set;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.model.EvalGroup;
+import org.sakaiproject.evaluation.logic.model.EvalResponseRate;
 import org.sakaiproject.evaluation.logic.model.EvalReminderStatus;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalAssignHierarchy;
@@ -54,6 +55,11 @@ public interface EvalEvaluationService {
     public static final String CSV_RESULTS_REPORT_SECTIONED = "csvResultsReportSectioned";
     public static final String XLS_RESULTS_REPORT_SECTIONED = "xlsResultsReportSectioned";
 
+    /**
+     * How long the results of {@link #getResponseRates(String, Map)} are reused for a user (in ms)
+     */
+    public static final long RESPONSE_RATES_CACHE_TTL_MS = 30 * 1000L;
+
     public static boolean isSectionedResultsExport(String exportType) {
         return CSV_RESULTS_REPORT_SECTIONED.equals(exportType)
                 || XLS_RESULTS_REPORT_SECTIONED.equals(exportType);
@@ -172,6 +178,29 @@ public interface EvalEvaluationService {
      */
     public String returnAndFixEvalState(EvalEvaluation evaluation, boolean saveState);
 
+    /**
+     * Get the current state of an evaluation based on its dates without changing or saving it,
+     * use this on read paths (page views and the like), the stored state is brought up to date by
+     * {@link #advanceEvaluationStates()} which runs on a timer<br/>
+     * <b>NOTE:</b> special states ({@link EvalConstants#EVALUATION_STATE_PARTIAL} and
+     * {@link EvalConstants#EVALUATION_STATE_DELETED}) are returned as they are stored
+     * 
+     * @param evaluation an {@link EvalEvaluation} object (persistent or not)
+     * @return an EVALUATION_STATE constant from 
+     * {@link org.sakaiproject.evaluation.constant.EvalConstants}
+     */
+    public String getEffectiveEvalState(EvalEvaluation evaluation);
+
+    /**
+     * Moves all evaluations whose dates have passed into their new state, this runs
+     * one query and one bulk update per state instead of loading and saving each evaluation,
+     * the state change events are fired for the evaluations which changed<br/>
+     * <b>WARNING:</b> This is not really for general use, it is run by the state update timer
+     * 
+     * @return a map of the ids of the evaluations which changed state to their new state constant
+     */
+    public Map<Long, String> advanceEvaluationStates();
+
 
     // EVAL REMINDER STATUS
 
@@ -282,6 +311,23 @@ public interface EvalEvaluationService {
      */
     public List<EvalAssignUser> getParticipantsForEval(Long evaluationId, String userId, String[] evalGroupIds, String assignTypeConstant, String assignStatusConstant, String includeConstant, String evalStateConstant);
 
+    /**
+     * Get the participants for an evaluation grouped by eval group using a single lookup,
+     * the results for each group are the same as calling 
+     * {@link #getParticipantsForEval(Long, String, String[], String, String, String, String)} with only that group
+     * 
+     * @param evaluationId the unique id of an {@link EvalEvaluation} object
+     * @param evalGroupIds (OPTIONAL) an array of unique IDs for eval groups, 
+     * if this is null or empty then results include participants from the entire evaluation
+     * @param assignTypeConstant (OPTIONAL) see {@link #getParticipantsForEval(Long, String, String[], String, String, String, String)}
+     * @param assignStatusConstant (OPTIONAL) see {@link #getParticipantsForEval(Long, String, String[], String, String, String, String)}
+     * @param includeConstant (OPTIONAL) see {@link #getParticipantsForEval(Long, String, String[], String, String, String, String)}
+     * @return a map of evalGroupId -> the list of user assignments in that group, 
+     * groups without any matching participants are not included
+     * @throws IllegalArgumentException if the evaluationId is null or the inputs are invalid
+     */
+    public Map<String, List<EvalAssignUser>> getParticipantsForEvalByGroups(Long evaluationId, String[] evalGroupIds, String assignTypeConstant, String assignStatusConstant, String includeConstant);
+
     /**
      * Gets the total count of evaluator participants for an evaluation (will not include evaluatee or assistants) <br/>
      * Convenience method related to {@link #getParticipantsForEval(Long, String, String, String, String, String, String)} <br/>
@@ -295,6 +341,23 @@ public interface EvalEvaluationService {
      */
     public int countParticipantsForEval(Long evaluationId, String[] evalGroupIds);
 
+    /**
+     * Gets the completed response and evaluator participant counts for a set of groups in a set of evaluations
+     * using one grouped count query for each, this is the batch equivalent of calling
+     * {@link EvalDeliveryService#countResponses(Long, String, Boolean)} (completed only) and
+     * {@link #countParticipantsForEval(Long, String[])} for every (evaluation, group) pair <br/>
+     * The results are cached for a short time for each user so repeated page loads do not rerun the counts,
+     * counts may therefore be up to {@link #RESPONSE_RATES_CACHE_TTL_MS} out of date <br/>
+     * <b>NOTE:</b> the participant count is always 0 if the evaluation is anonymous
+     *
+     * @param userId the internal user id of the user viewing the rates (used to key the cache)
+     * @param evalGroupIds a map of evaluationId -> the eval group ids in that evaluation to get the rates for
+     * @return a map of evaluationId -> (evalGroupId -> {@link EvalResponseRate}),
+     * contains an entry for every requested pair (with 0 counts if there are none)
+     * @throws IllegalArgumentException if the userId is null or any evaluation cannot be found
+     */
+    public Map<Long, Map<String, EvalResponseRate>> getResponseRates(String userId, Map<Long, String[]> evalGroupIds);
+
     /**
      * Get the list of users who are taking an evaluation in a specific group
      * or leave out the group to get all users in the evaluation
@@ -691,21 +754,32 @@ public interface EvalEvaluationService {
 
     /**
      * Access one page of summary info needed to render consolidated email templates. 
-     * The summary info consists of a user-id, a user-eid, a template-id (EmailTemplate.ID) and the earliest 
+     * The summary info consists of a user-id, a template-id (EmailTemplate.ID) and the earliest 
      * due date of Active evals which use the email template and which the referenced user can take.
-     * @param sendingAvailableEmails TODO
+     * Pages are ordered by user-id and then template-id, pass the user-id and template-id of the
+     * last item of a page to get the next page. The EvalAssignUser records for the page are marked as sent
+     * and the page is not returned again.
+     * @param sendingAvailableEmails true if the available emails are being sent, false for reminders
      * @param pageSize The maximum number of mappings to return. A mapping consists of a user-id, an email template
      * 		id and a date.
-     * @param page The zero-based starting page. In other words, return a page of items beginning at index 
-     * 		(pageSize * page).
-     * @return A mapping from user-id to data about the evals that user can take. The data for each users is 
-     * 		a mapping from string values (EvalConstants.KEY_USER_ID, EvalConstants.KEY_USER_EID, 
-     * 		EvalConstants.KEY_EMAIL_TEMPLATE_ID and EvalConstants.KEY_EARLIEST_DUE_DATE) to a String 
-     * 		object for EvalConstants.KEY_USER_ID, a String object for EvalConstants.KEY_USER_EID, a Long 
-     * 		object for EvalConstants.KEY_EMAIL_TEMPLATE_ID and a Date object forEvalConstants.KEY_EARLIEST_DUE_DATE).  
-
+     * @param shard only return mappings in this shard (see {@link #assignConsolidatedEmailShards(int)}), null for all shards
+     * @param afterUserId the user-id of the last mapping in the previous page, null to get the first page
+     * @param afterEmailTemplateId the template-id of the last mapping in the previous page, null to get the first page
+     * @return A list of the mappings for the users in the page. Each mapping is from string values 
+     * 		(EvalConstants.KEY_USER_ID, EvalConstants.KEY_EMAIL_TEMPLATE_ID and EvalConstants.KEY_EARLIEST_DUE_DATE) 
+     * 		to a String object for EvalConstants.KEY_USER_ID, a Long object for EvalConstants.KEY_EMAIL_TEMPLATE_ID 
+     * 		and a Date object for EvalConstants.KEY_EARLIEST_DUE_DATE.  
      */
-	public List<Map<String, Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, int page);
+	public List<Map<String, Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, 
+			Integer shard, String afterUserId, Long afterEmailTemplateId);
+
+	/**
+	 * Split the users in the email processing queue into shards by a hash of the user-id so the shards
+	 * can be sent independently. All mappings for one user are in the same shard.
+	 * @param shards the number of shards, numbered 0 to shards - 1
+	 * @return the number of queue records assigned to a shard
+	 */
+	public int assignConsolidatedEmailShards(int shards);
 
 	/**
 	 * Retrieve the email processing queue by adding one record for each evalAssignUser record 
@@ -780,6 +854,18 @@ public interface EvalEvaluationService {
 
     public void exportReport(EvalEvaluation evaluation, String[] groupIds, String evaluateeId, OutputStream outputStream, String exportType);
 
+    /**
+     * Exports several reports for the same evaluation and groups, the permissions are checked once and
+     * the structures, group names and counts are loaded once and shared by all the reports
+     * (this is faster than calling {@link #exportReport(EvalEvaluation, String[], String, OutputStream, String)} for each)
+     * @param evaluation - Evaluation to generate the reports for
+     * @param groupIds - Group ids include, if this is null it uses getResultsViewableEvalGroupIdsForCurrentUser
+     * @param outputStreams - map of export type -> the output stream to write that report to,
+     *   the reports are written in the map order, EvalEvaluationService.PDF_RESULTS_REPORT_INDIVIDUAL is not allowed
+     * @throws SecurityException
+     */
+    public void exportReports(EvalEvaluation evaluation, String[] groupIds, Map<String, OutputStream> outputStreams);
+
 	
  	/**
  	 * Retrieve a list of evaluations with matching eval group Ids.
@@ -49,4 +49,20 @@ public interface EvalLockManager {
      */
     public Boolean releaseLock(String lockId, String executerId);
 
+    /**
+     * Lock an evaluation and its template, items and scales (this happens when the first response is completed),
+     * evaluations which are already known to be locked are skipped without going to the database
+     * 
+     * @param evaluationId the id of a saved evaluation
+     */
+    public void lockEvaluation(Long evaluationId);
+
+    /**
+     * Forget that an evaluation is locked, this must be called when an evaluation is unlocked
+     * so that the next completed response will lock it again
+     * 
+     * @param evaluationId the id of an evaluation
+     */
+    public void clearEvaluationLock(Long evaluationId);
+
 }
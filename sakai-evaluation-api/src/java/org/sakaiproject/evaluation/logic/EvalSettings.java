@@ -14,6 +14,8 @@
  */
 package org.sakaiproject.evaluation.logic;
 
+import java.util.Map;
+
 import org.sakaiproject.evaluation.constant.EvalConstants;
 
 /**
@@ -347,6 +349,37 @@ public interface EvalSettings {
      * CONSTANT: Log the email addresses of users receiving email. - {@link Boolean}, default False
      */
     public static final String LOG_EMAIL_RECIPIENTS = "LOG_EMAIL_RECIPIENTS:java.lang.Boolean";
+    /**
+     * CONSTANT: Queue the available and reminder emails in the email outbox instead of sending them immediately,
+     * the outbox is delivered by the Email Outbox Sender job (which must be scheduled) - {@link Boolean}, default False
+     */
+    public static final String EMAIL_USE_OUTBOX = "EMAIL_USE_OUTBOX:java.lang.Boolean";
+    /**
+     * CONSTANT: The maximum number of emails per second each server sends from the email outbox. 0 causes no limit. - {@link Integer}, default 10
+     */
+    public static final String EMAIL_OUTBOX_MESSAGES_PER_SECOND = "EMAIL_OUTBOX_MESSAGES_PER_SECOND:java.lang.Integer";
+    /**
+     * CONSTANT: The number of worker threads each server uses to send the emails in the email outbox. - {@link Integer}, default 2
+     */
+    public static final String EMAIL_OUTBOX_WORKER_THREADS = "EMAIL_OUTBOX_WORKER_THREADS:java.lang.Integer";
+    /**
+     * CONSTANT: The number of times delivery of a message in the email outbox is attempted before it is marked as failed. - {@link Integer}, default 5
+     */
+    public static final String EMAIL_OUTBOX_MAX_ATTEMPTS = "EMAIL_OUTBOX_MAX_ATTEMPTS:java.lang.Integer";
+    /**
+     * CONSTANT: The number of shards the consolidated email recipients are split into (by user), 
+     * the shards are sent on the server running the consolidated email job. - {@link Integer}, default 8
+     */
+    public static final String CONSOLIDATED_EMAIL_SHARDS = "CONSOLIDATED_EMAIL_SHARDS:java.lang.Integer";
+    /**
+     * CONSTANT: The number of worker threads used to send the consolidated email shards. - {@link Integer}, default 4
+     */
+    public static final String CONSOLIDATED_EMAIL_WORKER_THREADS = "CONSOLIDATED_EMAIL_WORKER_THREADS:java.lang.Integer";
+    /**
+     * CONSTANT: The maximum number of consolidated emails per second sent by the consolidated email job. 0 uses the rate from
+     * EMAIL_BATCH_SIZE and EMAIL_WAIT_INTERVAL (no limit if either is 0). - {@link Integer}, default 0
+     */
+    public static final String CONSOLIDATED_EMAIL_MESSAGES_PER_SECOND = "CONSOLIDATED_EMAIL_MESSAGES_PER_SECOND:java.lang.Integer";
     /**
      * CONSTANT: Log a message every LOG_PROGRESS_EVERY operations during batch operations. 0 cause no logging of progress messages.- {@link Integer},default 0}
      */
@@ -496,12 +529,31 @@ public interface EvalSettings {
      * If true, memberships in all unassigned EvalAssignGroup will be synchronized with the group provider on server startup.  Default is true.
      */
 	public static final String SYNC_UNASSIGNED_GROUPS_ON_STARTUP = "SYNC_UNASSIGNED_GROUPS_ON_STARTUP:java.lang.Boolean";
+
+    /**
+     * If true, the user assignments for a site and its groups are synchronized shortly after the Sakai membership
+     * of the site changes (only the evaluations which are assigned to the changed groups are synchronized),
+     * the scheduled group membership sync job is then only needed to reconcile the rest.  Default is true.
+     */
+	public static final String SYNC_USER_ASSIGNMENTS_ON_MEMBERSHIP_CHANGE = "SYNC_USER_ASSIGNMENTS_ON_MEMBERSHIP_CHANGE:java.lang.Boolean";
 	
 	/**
-	 * If this is set, it identifies the server that should handle syncing of evaluations. Otherwise, more than one server may try to sync.  Default is null.
+	 * If this is set, it identifies the server that should handle syncing of evaluations. Otherwise, more than one server may try to sync
+	 * (the evaluations are split into shards which are leased by whichever server gets to them first).  Default is null.
 	 */
 	public static final String SYNC_SERVER = "SYNC_SERVER:java.lang.String";
 
+	/**
+	 * The number of worker threads each server uses to synchronize evaluations in the group membership sync job.  Default is 4.
+	 */
+	public static final String SYNC_WORKER_THREADS = "SYNC_WORKER_THREADS:java.lang.Integer";
+
+	/**
+	 * Set to true once the evaluation jobs which were waiting in the Sakai scheduler from before the evaluation job schedule
+	 * have been moved into it, this happens once in the first run of the scheduled job timer.  Default is false.
+	 */
+	public static final String LEGACY_JOBS_MIGRATED = "LEGACY_JOBS_MIGRATED:java.lang.Boolean";
+
 	/**
 	 * If this is set then the local CSS file identified at the given path will be loaded on all pages,
 	 * if not set or blank or null then this does nothing
@@ -525,6 +577,7 @@ public interface EvalSettings {
         DISABLE_QUESTION_BLOCKS,
         DISPLAY_HIERARCHY_HEADERS,
         DISPLAY_HIERARCHY_OPTIONS,
+        EMAIL_USE_OUTBOX,
         ENABLE_ADMINISTRATING_BOX,
         ENABLE_ADHOC_GROUPS,
         ENABLE_ADHOC_USERS,
@@ -565,6 +618,7 @@ public interface EvalSettings {
         INSTRUCTOR_ALLOWED_CREATE_EVALUATIONS,
         ITEM_USE_RESULTS_SHARING,
         ITEM_USE_COURSE_CATEGORY_ONLY,
+        LEGACY_JOBS_MIGRATED,
         LOG_EMAIL_RECIPIENTS,
         REQUIRE_COMMENTS_BLOCK,
         STUDENT_SAVE_WITHOUT_SUBMIT,
@@ -573,6 +627,7 @@ public interface EvalSettings {
         SYNC_USER_ASSIGNMENTS_ON_GROUP_UPDATE,
         SYNC_USER_ASSIGNMENTS_ON_STATE_CHANGE,
         SYNC_UNASSIGNED_GROUPS_ON_STARTUP,
+        SYNC_USER_ASSIGNMENTS_ON_MEMBERSHIP_CHANGE,
         USE_ADMIN_AS_FROM_EMAIL,
         USE_EXPERT_ITEMS,
         USE_EXPERT_TEMPLATES,
@@ -640,4 +695,11 @@ public interface EvalSettings {
      */
     public void resetCache(String settingConstant);
 
+    /**
+     * Get the statistics for the settings cache
+     * 
+     * @return a map of statistic name -> value (hits, misses, reloads and the current settings version)
+     */
+    public Map<String, Long> getCacheStatistics();
+
 }
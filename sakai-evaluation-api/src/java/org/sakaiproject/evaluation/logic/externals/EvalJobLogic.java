@@ -15,6 +15,7 @@
 package org.sakaiproject.evaluation.logic.externals;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.model.EvalScheduledJob;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 
 /**
@@ -30,6 +31,12 @@ public interface EvalJobLogic {
    public static String ACTION_UPDATE = "Update";
    public static String ACTION_DELETE = "Delete";
 
+   /**
+    * The length of time (in milliseconds) that a claim on a scheduled job is held for,
+    * a job which is not completed within this time can be claimed again
+    */
+   public static long JOB_CLAIM_LEASE_TIME = 1000L * 60L * 30L;
+
    /**
     * Handle job scheduling changes when a date changed 
     * by editing and saving an Evaluation necessitates
@@ -73,5 +80,63 @@ public interface EvalJobLogic {
     */
    public void jobAction(Long evaluationId, String jobType);
 
+   /**
+    * Run a job claimed with {@link #claimDueJobs(int, String)}, this is the same as {@link #jobAction(Long, String)}
+    * except that the emails put in the outbox are marked with the job (and its fire date) so when the job
+    * is run again after it was interrupted the groups it already queued are skipped
+    * 
+    * @param job a job claimed with {@link #claimDueJobs(int, String)}
+    */
+   public void jobAction(EvalScheduledJob job);
+
+   /**
+    * Claim the scheduled jobs which are due to run now (in the order they fell due),
+    * each job is only handed out to one holder at a time and should then be run with {@link #jobAction(EvalScheduledJob)}
+    * and completed with {@link #completeJob(EvalScheduledJob, String)}, a job which is not completed
+    * can be claimed again once {@link #JOB_CLAIM_LEASE_TIME} has passed
+    * 
+    * @param maxJobs the maximum number of jobs to claim
+    * @param holder a unique id for the claimer (normally a server id plus the run)
+    * @return the claimed jobs, empty if none are due
+    */
+   public EvalScheduledJob[] claimDueJobs(int maxJobs, String holder);
+
+   /**
+    * Remove a claimed job from the job schedule once it has run successfully
+    * (a job which was rescheduled while it ran is kept for its new date)
+    * 
+    * @param job a job claimed with {@link #claimDueJobs(int, String)}
+    * @param holder the holder used to claim the job
+    */
+   public void completeJob(EvalScheduledJob job, String holder);
+
+   /**
+    * Give up the claim on a job which was not run so it is claimed again in the next run
+    * 
+    * @param job a job claimed with {@link #claimDueJobs(int, String)}
+    * @param holder the holder used to claim the job
+    */
+   public void releaseJob(EvalScheduledJob job, String holder);
+
+   /**
+    * Handle a job which was scheduled with the Sakai scheduler before the jobs were kept in
+    * the evaluation job schedule, the job is skipped if the evaluation now has a job of the
+    * same type in the schedule, otherwise this is the same as {@link #jobAction(Long, String)}
+    * 
+    * @param evaluationId the unique id for an {@link EvalEvaluation}
+    * @param jobType the job type from {@link EvalConstants}
+    */
+   public void legacyJobAction(Long evaluationId, String jobType);
+
+   /**
+    * Move the jobs which are still waiting in the Sakai scheduler from before the jobs were kept
+    * in the evaluation job schedule into the schedule (keeping their fire dates), this only needs
+    * to run once after the upgrade, jobs for evaluations which already have a job of the same type
+    * in the schedule (or no longer exist) are simply removed from the Sakai scheduler
+    * 
+    * @return the number of jobs moved into the evaluation job schedule
+    */
+   public int migrateLegacyJobs();
+
 
 }
@@ -75,6 +75,20 @@ public interface ExternalEvalGroups {
 	 */
 	public Set<String> getUserIdsForEvalGroup(String evalGroupId, String permission, Boolean sectionAware);
 
+	/**
+	 * Get the user ids that have a specific permission, for a batch of eval groups at once.
+	 * Use this instead of calling {@link #getUserIdsForEvalGroup(String, String, Boolean)} in a loop
+	 * (e.g. when synchronizing the user assignments of an evaluation with hundreds of assigned groups),
+	 * the memberships are resolved with as few lookups as possible.
+	 *
+	 * @param evalGroupIds the internal unique IDs for the evalGroups
+	 * @param permission a permission string constant
+	 * @param sectionAware if returning users for one section of a site/group or all sections
+	 * @return a Map (evalGroupId -&gt; Set of user ids) with one entry per input evalGroupId,
+	 * the sets are new mutable copies which the caller is free to change
+	 */
+	public Map<String, Set<String>> getUserIdsForEvalGroups(Collection<String> evalGroupIds, String permission, Boolean sectionAware);
+
 	/**
 	 * Get a count of all user ids that have a specific permission in a evalGroupId
 	 * 
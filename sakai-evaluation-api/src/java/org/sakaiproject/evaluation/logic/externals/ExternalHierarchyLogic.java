@@ -16,6 +16,7 @@ package org.sakaiproject.evaluation.logic.externals;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.sakaiproject.coursemanagement.api.Section;
@@ -118,4 +119,14 @@ public interface ExternalHierarchyLogic extends EvalHierarchyProvider, ExternalH
     */
    public List<EvalHierarchyNode> getSortedNodes(Collection<EvalHierarchyNode> nodes);
 
+   /**
+    * Get the hierarchy nodes above many eval groups at once, the same as calling
+    * {@link #getNodesAboveEvalGroup(String)} for each group but the hierarchy rules, sites
+    * and sections shared by the groups are only looked up once
+    * 
+    * @param evalGroupIds the unique IDs of eval groups
+    * @return a map of evalGroupId -> List of {@link EvalHierarchyNode} objects (ordered from root to evalgroup)
+    */
+   public Map<String, List<EvalHierarchyNode>> getNodesAboveEvalGroups(Collection<String> evalGroupIds);
+
 }
@@ -37,6 +37,13 @@ public interface ExternalScheduler {
     */
    public EvalScheduledJob[] findScheduledJobs(Long evaluationId, String jobType);
 
+   /**
+    * Find all jobs of any type which are waiting to run for the evaluation system
+    * 
+    * @return an array of jobs
+    */
+   public EvalScheduledJob[] findAllScheduledJobs();
+
    /**
     * Delete this job if it can be found
     * 
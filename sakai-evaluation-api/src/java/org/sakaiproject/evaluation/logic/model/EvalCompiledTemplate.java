@@ -0,0 +1,165 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.model.EvalItem;
+import org.sakaiproject.evaluation.model.EvalScale;
+import org.sakaiproject.evaluation.model.EvalTemplate;
+import org.sakaiproject.evaluation.model.EvalTemplateItem;
+import org.sakaiproject.evaluation.utils.ArrayUtils;
+import org.sakaiproject.evaluation.utils.TemplateItemUtils;
+
+/**
+ * The fully loaded form of a locked template which is built once and then shared (and cached) for
+ * all the requests which take, preview or report on evaluations using the template<br/>
+ * Holds all the template items (at every hierarchy level) in display order with their items and scales loaded,
+ * the decoded scale options, and the block parent to child links<br/>
+ * <b>NOTE:</b> the template items in here are shared between threads and must be treated as read only
+ * (block children come from {@link #getBlockChildTemplateItems(Long)}, not the transient field on the item),
+ * this is only safe because a locked template (and the items and scales in it) cannot be changed
+ */
+public class EvalCompiledTemplate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Long templateId;
+    private final long lockVersion;
+    private final List<EvalTemplateItem> templateItems;
+    private final Map<Long, List<EvalTemplateItem>> blockChildItems;
+    private final Map<Long, String[]> scaleOptions;
+
+    /**
+     * @param templateId the id of the locked template
+     * @param lockVersion the version of the template when it was locked, see {@link #makeLockVersion(EvalTemplate)}
+     * @param templateItems all the template items in the template (every hierarchy level) in display order,
+     * these must be fully loaded (including the scale options) and detached from the session,
+     * they are never written to here or by anything which reads them from the compiled template
+     */
+    public EvalCompiledTemplate(Long templateId, long lockVersion, List<EvalTemplateItem> templateItems) {
+        if (templateId == null || templateItems == null) {
+            throw new IllegalArgumentException("templateId and templateItems must be set");
+        }
+        this.templateId = templateId;
+        this.lockVersion = lockVersion;
+        this.templateItems = Collections.unmodifiableList(new ArrayList<>(templateItems));
+
+        Map<Long, String[]> options = new HashMap<>();
+        Map<Long, List<EvalTemplateItem>> children = new HashMap<>();
+        for (EvalTemplateItem templateItem : this.templateItems) {
+            EvalItem item = templateItem.getItem();
+            EvalScale scale = item == null ? null : item.getScale();
+            if (scale != null && scale.getId() != null && ! options.containsKey(scale.getId())) {
+                List<String> scaleOptionsList = scale.getOptions();
+                options.put(scale.getId(), scaleOptionsList == null ? new String[0] : scaleOptionsList.toArray(new String[0]));
+            }
+            if (TemplateItemUtils.isBlockParent(templateItem)) {
+                List<EvalTemplateItem> childItems = Collections.unmodifiableList(
+                        TemplateItemUtils.getChildItems(this.templateItems, templateItem.getId()));
+                children.put(templateItem.getId(), childItems);
+            }
+        }
+        this.scaleOptions = options;
+        this.blockChildItems = children;
+    }
+
+    /**
+     * @param template a template
+     * @return the version of the template which identifies this lock of it,
+     * locking a template always updates the last modified date so this changes each time it is (re)locked
+     */
+    public static long makeLockVersion(EvalTemplate template) {
+        return template.getLastModified() == null ? 0L : template.getLastModified().getTime();
+    }
+
+    public Long getTemplateId() {
+        return templateId;
+    }
+
+    public long getLockVersion() {
+        return lockVersion;
+    }
+
+    /**
+     * @return all the template items in this template in display order (read only)
+     */
+    public List<EvalTemplateItem> getTemplateItems() {
+        return templateItems;
+    }
+
+    /**
+     * Get the template items limited by the hierarchy settings, this matches the template items which
+     * would be returned by the authoring service lookups for a template with the same restrictions
+     * 
+     * @param nodeIds the unique ids of a set of hierarchy nodes,
+     * null excludes all TIs associated with nodes, an empty array will include all TIs associated with nodes
+     * @param instructorIds a set of internal userIds of instructors for instructor added items,
+     * null will exclude all instructor added items, empty array will include all
+     * @param groupIds the unique eval group ids associated with a set of TIs in this template,
+     * null excludes all associated TIs, empty array includes all
+     * @return a new list of the matching template items in display order
+     */
+    public List<EvalTemplateItem> getTemplateItems(String[] nodeIds, String[] instructorIds, String[] groupIds) {
+        List<EvalTemplateItem> results = new ArrayList<>();
+        for (EvalTemplateItem templateItem : templateItems) {
+            String level = templateItem.getHierarchyLevel();
+            if (EvalConstants.HIERARCHY_LEVEL_TOP.equals(level)
+                    || (EvalConstants.HIERARCHY_LEVEL_NODE.equals(level) && matchesLevel(nodeIds, templateItem))
+                    || (EvalConstants.HIERARCHY_LEVEL_INSTRUCTOR.equals(level) && matchesLevel(instructorIds, templateItem))
+                    || (EvalConstants.HIERARCHY_LEVEL_GROUP.equals(level) && matchesLevel(groupIds, templateItem))) {
+                results.add(templateItem);
+            }
+        }
+        return results;
+    }
+
+    private static boolean matchesLevel(String[] ids, EvalTemplateItem templateItem) {
+        if (ids == null) {
+            return false;
+        }
+        return ids.length == 0 || ArrayUtils.contains(ids, templateItem.getHierarchyNodeId());
+    }
+
+    /**
+     * @param blockParentId the id of a block parent template item in this template
+     * @return the block child template items in display order (read only) or empty if there are none
+     */
+    public List<EvalTemplateItem> getBlockChildTemplateItems(Long blockParentId) {
+        List<EvalTemplateItem> childItems = blockChildItems.get(blockParentId);
+        return childItems == null ? Collections.emptyList() : childItems;
+    }
+
+    /**
+     * @param scaleId the id of a scale used by an item in this template
+     * @return a copy of the scale options or null if the scale is not used in this template
+     */
+    public String[] getScaleOptions(Long scaleId) {
+        String[] options = scaleOptions.get(scaleId);
+        return options == null ? null : options.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "compiledTemplate:" + templateId + ":" + lockVersion + ":" + templateItems.size();
+    }
+
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.model;
+
+import java.util.List;
+
+import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalResponse;
+
+/**
+ * Receives the answers for a set of responses one response at a time,
+ * this allows large numbers of responses to be processed (e.g. exported) without holding all the answers in memory
+ * 
+ * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#getAnswersForEval(Long, String[], Long[], EvalResponseAnswersHandler)
+ */
+public interface EvalResponseAnswersHandler {
+
+    /**
+     * Handle the answers for a single response,
+     * the response and answers are evicted from the session once this returns so they should not be kept
+     * 
+     * @param response the completed response
+     * @param answers the answers for this response (decoded), will contain at least one answer
+     */
+    public void handleResponseAnswers(EvalResponse response, List<EvalAnswer> answers);
+
+}
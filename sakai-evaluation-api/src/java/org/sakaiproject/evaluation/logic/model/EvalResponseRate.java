@@ -0,0 +1,71 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.model;
+
+import org.sakaiproject.evaluation.utils.EvalUtils;
+
+/**
+ * The completed response and participant counts for one group in one evaluation,
+ * see {@link org.sakaiproject.evaluation.logic.EvalEvaluationService#getResponseRates(String, java.util.Map)}
+ */
+public class EvalResponseRate {
+
+    private final Long evaluationId;
+    private final String evalGroupId;
+    private final int responsesCount;
+    private final int participantsCount;
+
+    public EvalResponseRate(Long evaluationId, String evalGroupId, int responsesCount, int participantsCount) {
+        this.evaluationId = evaluationId;
+        this.evalGroupId = evalGroupId;
+        this.responsesCount = responsesCount;
+        this.participantsCount = participantsCount;
+    }
+
+    public Long getEvaluationId() {
+        return evaluationId;
+    }
+
+    public String getEvalGroupId() {
+        return evalGroupId;
+    }
+
+    /**
+     * @return the number of completed responses
+     */
+    public int getResponsesCount() {
+        return responsesCount;
+    }
+
+    /**
+     * @return the number of evaluator participants (always 0 for anonymous evaluations)
+     */
+    public int getParticipantsCount() {
+        return participantsCount;
+    }
+
+    /**
+     * @return the human readable response rate (e.g. "11% ( 3 / 98 )"),
+     * see {@link EvalUtils#makeResponseRateStringFromCounts(int, int)}
+     */
+    public String getResponseRate() {
+        return EvalUtils.makeResponseRateStringFromCounts(responsesCount, participantsCount);
+    }
+
+    @Override
+    public String toString() {
+        return "rate:" + evaluationId + ":" + evalGroupId + ":" + responsesCount + "/" + participantsCount;
+    }
+}
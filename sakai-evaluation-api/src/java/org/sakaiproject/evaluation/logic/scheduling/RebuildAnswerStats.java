@@ -0,0 +1,26 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.scheduling;
+
+import org.quartz.Job;
+
+public interface RebuildAnswerStats extends Job {
+
+	/**
+	 * RebuildAnswerStats: Name of class that rebuilds the pre-aggregated answer stats used by the reports.
+	 */
+	public static final String REBUILD_ANSWER_STATS_BEAN_NAME = "org.sakaiproject.evaluation.logic.scheduling.RebuildAnswerStats";
+
+}
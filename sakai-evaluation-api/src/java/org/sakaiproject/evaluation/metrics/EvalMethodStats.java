@@ -0,0 +1,109 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.metrics;
+
+/**
+ * A point in time copy of the statistics for one service or DAO method,
+ * the latencies are in microseconds and are estimated from the timed calls
+ */
+public class EvalMethodStats implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private long calls;
+    private long errors;
+    private long timedCalls;
+    private long meanMicros;
+    private long p50Micros;
+    private long p95Micros;
+    private long p99Micros;
+    private long maxMicros;
+
+    public EvalMethodStats(String name, long calls, long errors, long timedCalls, long meanMicros,
+            long p50Micros, long p95Micros, long p99Micros, long maxMicros) {
+        this.name = name;
+        this.calls = calls;
+        this.errors = errors;
+        this.timedCalls = timedCalls;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p95Micros = p95Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @return the estimated total time spent in this method (in microseconds)
+     */
+    public long getEstimatedTotalMicros() {
+        return meanMicros * calls;
+    }
+
+    /**
+     * @return the method name (e.g. EvaluationResponseDao.getResponseIds)
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of calls (timed or not)
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return the number of calls which threw an exception
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the number of calls which were timed
+     */
+    public long getTimedCalls() {
+        return timedCalls;
+    }
+
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP95Micros() {
+        return p95Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": calls=" + calls + ": errors=" + errors + ": timed=" + timedCalls + ": mean=" + meanMicros
+                + " us: p50=" + p50Micros + " us: p95=" + p95Micros + " us: p99=" + p99Micros + " us: max=" + maxMicros + " us";
+    }
+
+}
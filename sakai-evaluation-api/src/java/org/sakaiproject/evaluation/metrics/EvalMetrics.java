@@ -0,0 +1,71 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.metrics;
+
+import java.util.List;
+
+/**
+ * Collects call counts and latency histograms for the evaluation services and DAOs,
+ * the counts are kept with lock-free counters so this is cheap enough to leave on in production
+ * (in the sampled mode only some of the calls are timed)
+ */
+public interface EvalMetrics {
+
+    /**
+     * Mode: nothing is recorded
+     */
+    public static final String MODE_OFF = "off";
+    /**
+     * Mode: every call is counted and one in every sampleRate calls is timed
+     */
+    public static final String MODE_SAMPLED = "sampled";
+    /**
+     * Mode: every call is counted and timed
+     */
+    public static final String MODE_ALL = "all";
+
+    /**
+     * @return the current mode (MODE_* constant)
+     */
+    public String getMode();
+
+    /**
+     * @param mode the MODE_* constant to switch to
+     * @throws IllegalArgumentException if the mode is not valid
+     */
+    public void setMode(String mode);
+
+    /**
+     * @return in the sampled mode, one in this many calls is timed
+     */
+    public int getSampleRate();
+
+    /**
+     * @param sampleRate in the sampled mode, one in this many calls is timed (must be 1 or more)
+     */
+    public void setSampleRate(int sampleRate);
+
+    /**
+     * @return the current statistics for every method that has been called,
+     * ordered by the estimated total time spent in the method (highest first)
+     */
+    public List<EvalMethodStats> getMethodStats();
+
+    /**
+     * Clear all the recorded statistics
+     */
+    public void reset();
+
+}
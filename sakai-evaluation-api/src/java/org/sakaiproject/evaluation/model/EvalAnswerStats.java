@@ -0,0 +1,197 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.model;
+
+import java.util.Date;
+
+/**
+ * Pre-aggregated answer totals for the completed responses to an evaluation,
+ * there is one of these for each (evaluation, evalGroupId, templateItem, associatedType, associatedId)
+ * which has answers to a numeric item (scaled, multiple choice, multiple answer, block child)<br/>
+ * A row with a null templateItemId is the group summary row, its answerCount is the
+ * number of completed responses which have been added into the stats for the group<br/>
+ * <b>NOTE:</b> rows are additive, if more than one row exists for the same key then the totals
+ * are the sum of all the rows
+ */
+public class EvalAnswerStats implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * answerCount of a group summary row whose stats no longer match the answers,
+     * the stats for the group are not used until they are rebuilt
+     */
+    public static final int ANSWER_COUNT_STALE = -1;
+
+    private Long id;
+
+    private Date lastModified;
+
+    private Long evaluationId;
+
+    private String evalGroupId;
+
+    /**
+     * the template item these answers are for, null for the group summary row
+     */
+    private Long templateItemId;
+
+    /**
+     * the type of the association (null for course items), uses constant strings
+     */
+    private String associatedType;
+
+    /**
+     * the id of the associated instructor/assistant (null for course items)
+     */
+    private String associatedId;
+
+    /**
+     * the total number of answers counted in this row,
+     * for the group summary row this is the number of completed responses
+     */
+    private Integer answerCount;
+
+    /**
+     * the number of answers which were NA
+     */
+    private Integer naCount;
+
+    /**
+     * the sum of all the numeric (non-NA) answers
+     */
+    private Long numericSum;
+
+    /**
+     * encoded map of choice -> count for the answers (e.g. :0=12:3=4:),
+     * encoded using {@link org.sakaiproject.evaluation.utils.EvalUtils#encodeChoiceCounts(java.util.Map)}
+     */
+    private String choiceCountsCode;
+
+    // Constructors
+
+    /** default constructor */
+    public EvalAnswerStats() {
+    }
+
+    /** minimal constructor, all counts start at zero
+     * @param evaluationId
+     * @param evalGroupId
+     * @param templateItemId
+     * @param associatedType
+     * @param associatedId */
+    public EvalAnswerStats(Long evaluationId, String evalGroupId, Long templateItemId,
+            String associatedType, String associatedId) {
+        this.lastModified = new Date();
+        this.evaluationId = evaluationId;
+        this.evalGroupId = evalGroupId;
+        this.templateItemId = templateItemId;
+        this.associatedType = associatedType;
+        this.associatedId = associatedId;
+        this.answerCount = 0;
+        this.naCount = 0;
+        this.numericSum = 0L;
+    }
+
+    // Property accessors
+    public Long getId() {
+        return this.id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Date getLastModified() {
+        return this.lastModified;
+    }
+
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public Long getEvaluationId() {
+        return evaluationId;
+    }
+
+    public void setEvaluationId(Long evaluationId) {
+        this.evaluationId = evaluationId;
+    }
+
+    public String getEvalGroupId() {
+        return evalGroupId;
+    }
+
+    public void setEvalGroupId(String evalGroupId) {
+        this.evalGroupId = evalGroupId;
+    }
+
+    public Long getTemplateItemId() {
+        return templateItemId;
+    }
+
+    public void setTemplateItemId(Long templateItemId) {
+        this.templateItemId = templateItemId;
+    }
+
+    public String getAssociatedType() {
+        return associatedType;
+    }
+
+    public void setAssociatedType(String associatedType) {
+        this.associatedType = associatedType;
+    }
+
+    public String getAssociatedId() {
+        return associatedId;
+    }
+
+    public void setAssociatedId(String associatedId) {
+        this.associatedId = associatedId;
+    }
+
+    public Integer getAnswerCount() {
+        return answerCount;
+    }
+
+    public void setAnswerCount(Integer answerCount) {
+        this.answerCount = answerCount;
+    }
+
+    public Integer getNaCount() {
+        return naCount;
+    }
+
+    public void setNaCount(Integer naCount) {
+        this.naCount = naCount;
+    }
+
+    public Long getNumericSum() {
+        return numericSum;
+    }
+
+    public void setNumericSum(Long numericSum) {
+        this.numericSum = numericSum;
+    }
+
+    public String getChoiceCountsCode() {
+        return choiceCountsCode;
+    }
+
+    public void setChoiceCountsCode(String choiceCountsCode) {
+        this.choiceCountsCode = choiceCountsCode;
+    }
+
+}
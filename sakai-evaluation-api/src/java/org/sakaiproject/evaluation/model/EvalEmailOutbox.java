@@ -0,0 +1,294 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.model;
+
+import java.util.Date;
+
+/**
+ * A rendered email message waiting in the outbox to be delivered, there is one of these
+ * for each (evaluation, evalGroupId, emailTemplateType, recipientType) batch which is queued<br/>
+ * The delivery state (attempts, next attempt time, number of recipients already sent to)
+ * is kept on the row so an interrupted or failed delivery continues where it stopped
+ */
+public class EvalEmailOutbox implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Status: waiting to be sent (or waiting for a retry)
+     */
+    public static final String STATUS_PENDING = "pending";
+    /**
+     * Status: claimed by a sender, nextAttempt is the end of the lease
+     */
+    public static final String STATUS_SENDING = "sending";
+    /**
+     * Status: sent to all recipients
+     */
+    public static final String STATUS_SENT = "sent";
+    /**
+     * Status: gave up after the maximum number of attempts
+     */
+    public static final String STATUS_FAILED = "failed";
+
+    /**
+     * The separator used between the user ids in {@link #getToUserIds()}
+     */
+    public static final String RECIPIENT_SEPARATOR = "\n";
+
+    private Long id;
+
+    private Date lastModified;
+
+    /**
+     * when this message was put in the outbox
+     */
+    private Date queuedDate;
+
+    private Long evaluationId;
+
+    private String evalGroupId;
+
+    /**
+     * the type of the email template used to render this message, uses the EMAIL_TEMPLATE_* constants
+     */
+    private String emailTemplateType;
+
+    /**
+     * which recipients this batch is for when that is not implied by the template type
+     * (e.g. the EVAL_INCLUDE_* constant for reminders), may be null
+     */
+    private String recipientType;
+
+    /**
+     * identifies the run of the job which queued this message (e.g. the scheduled job and its fire date),
+     * a rerun of the same job skips the groups it already queued, may be null
+     */
+    private String runId;
+
+    private String fromAddress;
+
+    /**
+     * the internal user ids to send this message to, separated by {@link #RECIPIENT_SEPARATOR}
+     */
+    private String toUserIds;
+
+    private String subject;
+
+    private String message;
+
+    /**
+     * uses the STATUS_* constants
+     */
+    private String status;
+
+    /**
+     * the number of delivery attempts which have failed
+     */
+    private Integer attempts;
+
+    /**
+     * the earliest time at which the next delivery attempt may start
+     */
+    private Date nextAttempt;
+
+    /**
+     * the number of recipients (in order) which the message has already been sent to
+     */
+    private Integer sentCount;
+
+    private String lastError;
+
+    // Constructors
+
+    /** default constructor */
+    public EvalEmailOutbox() {
+    }
+
+    /** full constructor, the message is pending and can be sent immediately
+     * @param evaluationId
+     * @param evalGroupId
+     * @param emailTemplateType
+     * @param recipientType
+     * @param fromAddress
+     * @param toUserIds
+     * @param subject
+     * @param message */
+    public EvalEmailOutbox(Long evaluationId, String evalGroupId, String emailTemplateType, String recipientType,
+            String fromAddress, String[] toUserIds, String subject, String message) {
+        this.lastModified = new Date();
+        this.queuedDate = this.lastModified;
+        this.evaluationId = evaluationId;
+        this.evalGroupId = evalGroupId;
+        this.emailTemplateType = emailTemplateType;
+        this.recipientType = recipientType;
+        this.fromAddress = fromAddress;
+        this.toUserIds = String.join(RECIPIENT_SEPARATOR, toUserIds);
+        this.subject = subject;
+        this.message = message;
+        this.status = STATUS_PENDING;
+        this.attempts = 0;
+        this.nextAttempt = this.lastModified;
+        this.sentCount = 0;
+    }
+
+    /**
+     * @return the user ids this message is for, in the order they are sent to
+     */
+    public String[] getToUserIdsArray() {
+        if (toUserIds == null || toUserIds.isEmpty()) {
+            return new String[0];
+        }
+        return toUserIds.split(RECIPIENT_SEPARATOR);
+    }
+
+    // Property accessors
+    public Long getId() {
+        return this.id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Date getLastModified() {
+        return this.lastModified;
+    }
+
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public Date getQueuedDate() {
+        return queuedDate;
+    }
+
+    public void setQueuedDate(Date queuedDate) {
+        this.queuedDate = queuedDate;
+    }
+
+    public Long getEvaluationId() {
+        return evaluationId;
+    }
+
+    public void setEvaluationId(Long evaluationId) {
+        this.evaluationId = evaluationId;
+    }
+
+    public String getEvalGroupId() {
+        return evalGroupId;
+    }
+
+    public void setEvalGroupId(String evalGroupId) {
+        this.evalGroupId = evalGroupId;
+    }
+
+    public String getEmailTemplateType() {
+        return emailTemplateType;
+    }
+
+    public void setEmailTemplateType(String emailTemplateType) {
+        this.emailTemplateType = emailTemplateType;
+    }
+
+    public String getRecipientType() {
+        return recipientType;
+    }
+
+    public void setRecipientType(String recipientType) {
+        this.recipientType = recipientType;
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public void setRunId(String runId) {
+        this.runId = runId;
+    }
+
+    public String getFromAddress() {
+        return fromAddress;
+    }
+
+    public void setFromAddress(String fromAddress) {
+        this.fromAddress = fromAddress;
+    }
+
+    public String getToUserIds() {
+        return toUserIds;
+    }
+
+    public void setToUserIds(String toUserIds) {
+        this.toUserIds = toUserIds;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public Date getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(Date nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    public Integer getSentCount() {
+        return sentCount;
+    }
+
+    public void setSentCount(Integer sentCount) {
+        this.sentCount = sentCount;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+}
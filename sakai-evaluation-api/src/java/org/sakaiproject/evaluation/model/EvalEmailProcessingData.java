@@ -37,6 +37,7 @@ public class EvalEmailProcessingData implements Serializable {
 	protected Date evalDueDate;
 	protected Long responseId;
 	protected Byte processingStatus;
+	protected Integer shard;
 	/**
 	 * @return the id
 	 */
@@ -145,4 +146,16 @@ public class EvalEmailProcessingData implements Serializable {
 	public void setProcessingStatus(Byte processingStatus) {
 		this.processingStatus = processingStatus;
 	}
+	/**
+	 * @return the shard (partition of the users) this entry is sent in, null until the shards are assigned
+	 */
+	public Integer getShard() {
+		return shard;
+	}
+	/**
+	 * @param shard the shard to set
+	 */
+	public void setShard(Integer shard) {
+		this.shard = shard;
+	}
 }
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.model;
+
+import java.util.Date;
+
+/**
+ * A job which is scheduled to run for an evaluation at a fixed time (e.g. the evaluation
+ * becoming active or closing), the due jobs are picked up in fire date order by a single
+ * polling timer in the cluster and passed to the job logic, a job is claimed with a lease
+ * and only removed once it has run (a job whose lease ran out can be claimed again)<br/>
+ * There is normally one of these for each (evaluation, jobType)
+ */
+public class EvalJobSchedule implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Long id;
+
+    private Date lastModified;
+
+    private Long evaluationId;
+
+    /**
+     * the type of job to run, uses the JOB_TYPE_* constants
+     */
+    private String jobType;
+
+    /**
+     * the time at which the job should be run
+     */
+    private Date fireDate;
+
+    /**
+     * the holder of the current claim on this job, null if it is not claimed
+     */
+    private String claimedBy;
+
+    /**
+     * the time the job was claimed, the claim runs out after the lease time
+     */
+    private Date claimedAt;
+
+    // Constructors
+
+    /** default constructor */
+    public EvalJobSchedule() {
+    }
+
+    /** full constructor
+     * @param evaluationId
+     * @param jobType
+     * @param fireDate */
+    public EvalJobSchedule(Long evaluationId, String jobType, Date fireDate) {
+        this.lastModified = new Date();
+        this.evaluationId = evaluationId;
+        this.jobType = jobType;
+        this.fireDate = fireDate;
+    }
+
+    // Property accessors
+    public Long getId() {
+        return this.id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Date getLastModified() {
+        return this.lastModified;
+    }
+
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public Long getEvaluationId() {
+        return evaluationId;
+    }
+
+    public void setEvaluationId(Long evaluationId) {
+        this.evaluationId = evaluationId;
+    }
+
+    public String getJobType() {
+        return jobType;
+    }
+
+    public void setJobType(String jobType) {
+        this.jobType = jobType;
+    }
+
+    public Date getFireDate() {
+        return fireDate;
+    }
+
+    public void setFireDate(Date fireDate) {
+        this.fireDate = fireDate;
+    }
+
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public void setClaimedBy(String claimedBy) {
+        this.claimedBy = claimedBy;
+    }
+
+    public Date getClaimedAt() {
+        return claimedAt;
+    }
+
+    public void setClaimedAt(Date claimedAt) {
+        this.claimedAt = claimedAt;
+    }
+
+}
@@ -16,6 +16,7 @@
 package org.sakaiproject.evaluation.toolaccess;
 
 import java.io.OutputStream;
+import java.util.Map;
 
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 
@@ -24,4 +25,5 @@ public interface EvaluationAccessAPI {
 	public void setToolApi (ToolApi t);
 	public void exportReport(EvalEvaluation evaluation, String groupIds, OutputStream outputStream, String exportType);
 	public void exportReport(EvalEvaluation evaluation, String[] groupIds, String evaluateeId,OutputStream outputStream, String exportType);
+	public void exportReports(EvalEvaluation evaluation, String[] groupIds, Map<String, OutputStream> outputStreams);
 }
\ No newline at end of file
@@ -16,6 +16,7 @@
 package org.sakaiproject.evaluation.toolaccess;
 
 import java.io.OutputStream;
+import java.util.Map;
 
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 
@@ -27,4 +28,6 @@ public interface ToolApi {
 	
 	public void exportReport(EvalEvaluation evaluation, String[] groupIds, String evaluateeId, OutputStream outputStream, String exportType);
 
+	public void exportReports(EvalEvaluation evaluation, String[] groupIds, Map<String, OutputStream> outputStreams);
+
 }
@@ -0,0 +1,429 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.utils;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.model.EvalAnswer;
+
+/**
+ * A columnar index over a set of answers which is used by {@link TemplateItemDataList} to group and count them<br/>
+ * Each distinct templateItemAnswerKey (template item, associated type, associated id) is interned to an int ordinal
+ * the first time it is seen and everything else is kept in primitive arrays indexed by the ordinal or by the position
+ * of the answer, the choice counts are accumulated as the answers are indexed (multiple answer codes are parsed directly
+ * into the counts) so no key strings, boxed arrays or per key collections are created for each answer<br/>
+ * The answer lists are returned as read only views over the index
+ */
+public class AnswerAggregates {
+
+    private static final int INITIAL_KEYS = 64;
+    /**
+     * choices above this are only counted in the NA slot (no scale is anywhere near this long)
+     */
+    private static final int MAX_CHOICE = 1000;
+
+    private final EvalAnswer[] answers;
+
+    /**
+     * templateItemId -> associatedType -> associatedId -> ordinal (the course category is stored as null, null)
+     */
+    private final Map<Long, Map<String, Map<String, Integer>>> ordinals = new HashMap<>();
+    private int keysCount = 0;
+    private String[] keys = new String[INITIAL_KEYS];
+    private int[] naCounts = new int[INITIAL_KEYS];
+    private int[][] numericCounts = new int[INITIAL_KEYS][];
+    private int[] numericOutOfRangeCounts = new int[INITIAL_KEYS];
+    private int[][] multipleCounts = new int[INITIAL_KEYS][];
+    private int[] multipleOutOfRangeCounts = new int[INITIAL_KEYS];
+
+    /**
+     * the answers (positions in {@link #answers}) grouped by key ordinal,
+     * the answers for ordinal k are at keyOffsets[k] to keyOffsets[k+1]-1
+     */
+    private int[] keyOffsets;
+    private int[] keyAnswers;
+
+    private final Map<Long, Integer> responseOrdinals = new HashMap<>();
+    /**
+     * the answers (positions in {@link #answers}) grouped by response ordinal
+     */
+    private int[] responseOffsets;
+    private int[] responseAnswers;
+    /**
+     * the key ordinal of each answer (by position in {@link #answers})
+     */
+    private final int[] answerKeys;
+
+    /**
+     * Index and count the answers, this also sets the {@link EvalAnswer#NA} field of each answer
+     * (the same as {@link EvalUtils#decodeAnswerNA(EvalAnswer)})
+     * 
+     * @param answers the answers to index, all answers must have a response and a template item
+     * @throws IllegalArgumentException if a multiple answer code cannot be decoded
+     */
+    public AnswerAggregates(List<EvalAnswer> answers) {
+        this.answers = answers.toArray(new EvalAnswer[answers.size()]);
+        this.answerKeys = new int[this.answers.length];
+        int[] answerResponses = new int[this.answers.length];
+        for (int i = 0; i < this.answers.length; i++) {
+            EvalAnswer answer = this.answers[i];
+            int ordinal = internKey(answer.getTemplateItem().getId(), answer.getAssociatedType(), answer.getAssociatedId());
+            answerKeys[i] = ordinal;
+            Long responseId = answer.getResponse().getId();
+            Integer responseOrdinal = responseOrdinals.get(responseId);
+            if (responseOrdinal == null) {
+                responseOrdinal = responseOrdinals.size();
+                responseOrdinals.put(responseId, responseOrdinal);
+            }
+            answerResponses[i] = responseOrdinal;
+            countAnswer(ordinal, answer);
+        }
+        keyOffsets = new int[keysCount + 1];
+        keyAnswers = groupBy(answerKeys, keysCount, keyOffsets);
+        responseOffsets = new int[responseOrdinals.size() + 1];
+        responseAnswers = groupBy(answerResponses, responseOrdinals.size(), responseOffsets);
+    }
+
+    /**
+     * @param templateItemId the unique id of an {@link org.sakaiproject.evaluation.model.EvalTemplateItem}
+     * @param associatedType the type associated with the TI (can be null)
+     * @param associatedId the id of the thing associated with the TI (can be null)
+     * @return the ordinal for the templateItemAnswerKey OR -1 if there are no answers for it
+     */
+    public int getKeyOrdinal(Long templateItemId, String associatedType, String associatedId) {
+        if (EvalConstants.ITEM_CATEGORY_COURSE.equals(associatedType)) {
+            associatedType = null;
+            associatedId = null;
+        }
+        Map<String, Map<String, Integer>> typeOrdinals = ordinals.get(templateItemId);
+        if (typeOrdinals != null) {
+            Map<String, Integer> idOrdinals = typeOrdinals.get(associatedType);
+            if (idOrdinals != null) {
+                Integer ordinal = idOrdinals.get(associatedId);
+                if (ordinal != null) {
+                    return ordinal;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param ordinal a key ordinal from {@link #getKeyOrdinal(Long, String, String)}
+     * @return the key made by {@link TemplateItemUtils#makeTemplateItemAnswerKey(Long, String, String)}
+     */
+    public String getKey(int ordinal) {
+        return keys[ordinal];
+    }
+
+    /**
+     * @return the number of distinct templateItemAnswerKeys in the answers
+     */
+    public int getKeysCount() {
+        return keysCount;
+    }
+
+    /**
+     * @param ordinal a key ordinal (or -1)
+     * @return the number of answers for the key
+     */
+    public int countAnswers(int ordinal) {
+        if (ordinal < 0) {
+            return 0;
+        }
+        return keyOffsets[ordinal + 1] - keyOffsets[ordinal];
+    }
+
+    /**
+     * @param ordinal a key ordinal (or -1)
+     * @return a read only view of the answers for the key (in the order they were supplied), empty if there are none
+     */
+    public List<EvalAnswer> getAnswers(int ordinal) {
+        if (ordinal < 0) {
+            return Collections.emptyList();
+        }
+        return new AnswersView(keyAnswers, keyOffsets[ordinal], keyOffsets[ordinal + 1]);
+    }
+
+    /**
+     * Produces the same array as {@link TemplateItemDataList#getAnswerChoicesCounts(String, int, List)}
+     * for the answers of a key but from the counts which were accumulated when the answers were indexed
+     * 
+     * @param ordinal a key ordinal (or -1)
+     * @param templateItemType the type of the template item for the key
+     * @param scaleChoices the number of scale choices
+     * @return an integer array which is the same size as the number of choices + 1 (for NA)
+     * @throws IllegalArgumentException if this is not an itemType that has numeric answers (Scaled/MC/MA/...)
+     */
+    public int[] getAnswerChoicesCounts(int ordinal, String templateItemType, int scaleChoices) {
+        if (! EvalConstants.ITEM_TYPE_SCALED.equals(templateItemType) 
+                && ! EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(templateItemType) 
+                && ! EvalConstants.ITEM_TYPE_MULTIPLECHOICE.equals(templateItemType)
+                && ! EvalConstants.ITEM_TYPE_BLOCK_CHILD.equals(templateItemType) ) {
+            throw new IllegalArgumentException("The itemType needs to be one that has numeric answers, this one is invalid: " + templateItemType);
+        }
+        int[] togo = new int[scaleChoices + 1];
+        if (ordinal < 0) {
+            return togo;
+        }
+        int na = togo.length - 1;
+        int[] counts;
+        if (EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(templateItemType)) {
+            counts = multipleCounts[ordinal];
+            togo[na] += multipleOutOfRangeCounts[ordinal];
+        } else {
+            counts = numericCounts[ordinal];
+            togo[na] += numericOutOfRangeCounts[ordinal];
+        }
+        togo[na] += naCounts[ordinal];
+        if (counts != null) {
+            for (int choice = 0; choice < counts.length; choice++) {
+                if (choice < togo.length) {
+                    togo[choice] += counts[choice];
+                } else {
+                    togo[na] += counts[choice];
+                }
+            }
+        }
+        return togo;
+    }
+
+    /**
+     * @return the sorted list of the ids of all responses which have answers
+     */
+    public List<Long> getResponseIds() {
+        List<Long> responseIds = new ArrayList<>(responseOrdinals.keySet());
+        Collections.sort(responseIds);
+        return responseIds;
+    }
+
+    /**
+     * @param responseId a unique id for an {@link org.sakaiproject.evaluation.model.EvalResponse}
+     * @return a read only view of the answers for the response, empty if there are none
+     */
+    public List<EvalAnswer> getResponseAnswers(Long responseId) {
+        Integer responseOrdinal = responseOrdinals.get(responseId);
+        if (responseOrdinal == null) {
+            return Collections.emptyList();
+        }
+        return new AnswersView(responseAnswers, responseOffsets[responseOrdinal], responseOffsets[responseOrdinal + 1]);
+    }
+
+    /**
+     * @param responseId a unique id for an {@link org.sakaiproject.evaluation.model.EvalResponse}
+     * @param ordinal a key ordinal (or -1)
+     * @return the answer for the key in the response (the last one if there are several) or null if there is none
+     */
+    public EvalAnswer getAnswer(Long responseId, int ordinal) {
+        Integer responseOrdinal = responseOrdinals.get(responseId);
+        if (ordinal < 0 || responseOrdinal == null) {
+            return null;
+        }
+        for (int i = responseOffsets[responseOrdinal + 1] - 1; i >= responseOffsets[responseOrdinal]; i--) {
+            int position = responseAnswers[i];
+            if (answerKeys[position] == ordinal) {
+                return answers[position];
+            }
+        }
+        return null;
+    }
+
+    // INTERNAL
+
+    private int internKey(Long templateItemId, String associatedType, String associatedId) {
+        if (templateItemId == null) {
+            throw new IllegalArgumentException("templateItemId must be set");
+        }
+        if (EvalConstants.ITEM_CATEGORY_COURSE.equals(associatedType)) {
+            associatedType = null;
+            associatedId = null;
+        }
+        Map<String, Map<String, Integer>> typeOrdinals = ordinals.get(templateItemId);
+        if (typeOrdinals == null) {
+            typeOrdinals = new HashMap<>(4);
+            ordinals.put(templateItemId, typeOrdinals);
+        }
+        Map<String, Integer> idOrdinals = typeOrdinals.get(associatedType);
+        if (idOrdinals == null) {
+            idOrdinals = new HashMap<>(4);
+            typeOrdinals.put(associatedType, idOrdinals);
+        }
+        Integer ordinal = idOrdinals.get(associatedId);
+        if (ordinal == null) {
+            if (keysCount == keys.length) {
+                int size = keysCount * 2;
+                keys = Arrays.copyOf(keys, size);
+                naCounts = Arrays.copyOf(naCounts, size);
+                numericCounts = Arrays.copyOf(numericCounts, size);
+                numericOutOfRangeCounts = Arrays.copyOf(numericOutOfRangeCounts, size);
+                multipleCounts = Arrays.copyOf(multipleCounts, size);
+                multipleOutOfRangeCounts = Arrays.copyOf(multipleOutOfRangeCounts, size);
+            }
+            ordinal = keysCount++;
+            keys[ordinal] = TemplateItemUtils.makeTemplateItemAnswerKey(templateItemId, associatedType, associatedId);
+            idOrdinals.put(associatedId, ordinal);
+        }
+        return ordinal;
+    }
+
+    /**
+     * Adds the answer to both the single and multiple choice counts for the key,
+     * which of them is used is decided by the template item type when the counts are read
+     */
+    private void countAnswer(int ordinal, EvalAnswer answer) {
+        Integer numeric = answer.getNumeric();
+        answer.NA = EvalConstants.NA_VALUE.equals(numeric);
+        if (answer.NA) {
+            naCounts[ordinal]++;
+            return;
+        }
+        if (numeric != null && ! EvalConstants.NO_NUMERIC_ANSWER.equals(numeric)) {
+            if (numeric < 0 || numeric > MAX_CHOICE) {
+                numericOutOfRangeCounts[ordinal]++;
+            } else {
+                numericCounts[ordinal] = increment(numericCounts[ordinal], numeric);
+            }
+        }
+        String code = answer.getMultiAnswerCode();
+        if (code != null && ! EvalConstants.NO_MULTIPLE_ANSWER.equals(code)) {
+            countMultipleAnswers(ordinal, code);
+        }
+    }
+
+    /**
+     * Parses an encoded multiple answer (e.g. :1:3:) straight into the counts,
+     * anything other than the simple encoding goes through {@link EvalUtils#decodeMultipleAnswers(String)}
+     * so invalid codes fail in the same way
+     */
+    private void countMultipleAnswers(int ordinal, String code) {
+        if (! isSimpleMultipleAnswers(code)) {
+            for (Integer choice : EvalUtils.decodeMultipleAnswers(code)) {
+                countMultipleAnswer(ordinal, choice);
+            }
+            return;
+        }
+        int value = 0;
+        for (int i = 1; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c == ':') {
+                countMultipleAnswer(ordinal, value);
+                value = 0;
+            } else {
+                value = value * 10 + (c - '0');
+            }
+        }
+    }
+
+    /**
+     * @return true if the code is made of only separators and short runs of digits (:1:3:)
+     */
+    private static boolean isSimpleMultipleAnswers(String code) {
+        int length = code.length();
+        if (length < 3 || code.charAt(0) != ':' || code.charAt(length - 1) != ':') {
+            return false;
+        }
+        int digits = 0;
+        for (int i = 1; i < length; i++) {
+            char c = code.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 4) {
+                    return false;
+                }
+            } else if (c == ':' && digits > 0) {
+                digits = 0;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void countMultipleAnswer(int ordinal, int choice) {
+        if (choice < 0 || choice > MAX_CHOICE) {
+            multipleOutOfRangeCounts[ordinal]++;
+        } else {
+            multipleCounts[ordinal] = increment(multipleCounts[ordinal], choice);
+        }
+    }
+
+    private static int[] increment(int[] counts, int choice) {
+        if (counts == null) {
+            counts = new int[Math.max(choice + 1, 8)];
+        } else if (choice >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(choice + 1, counts.length * 2));
+        }
+        counts[choice]++;
+        return counts;
+    }
+
+    /**
+     * Counting sort of the positions by group (keeps the original order within each group)
+     * @param groups the group of each position
+     * @param groupsCount the number of groups
+     * @param offsets (OUT) filled with the start of each group, must be groupsCount + 1 long
+     * @return the positions ordered by group
+     */
+    private static int[] groupBy(int[] groups, int groupsCount, int[] offsets) {
+        for (int group : groups) {
+            offsets[group + 1]++;
+        }
+        for (int g = 0; g < groupsCount; g++) {
+            offsets[g + 1] += offsets[g];
+        }
+        int[] next = Arrays.copyOf(offsets, groupsCount);
+        int[] positions = new int[groups.length];
+        for (int i = 0; i < groups.length; i++) {
+            positions[next[groups[i]]++] = i;
+        }
+        return positions;
+    }
+
+    /**
+     * Read only view of a range of the answers in one of the indexes
+     */
+    private class AnswersView extends AbstractList<EvalAnswer> implements RandomAccess {
+        private final int[] positions;
+        private final int from;
+        private final int to;
+
+        AnswersView(int[] positions, int from, int to) {
+            this.positions = positions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public EvalAnswer get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (to - from));
+            }
+            return answers[positions[from + index]];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+}
@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
@@ -26,6 +27,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
@@ -529,6 +531,64 @@ public class EvalUtils {
         return decoded;
     }
 
+    /**
+     * Encodes a map of choice -> count into a string so it can be stored in a format like so:
+     * :0=12:3=4:<br/>It will sort the choices in ascending order and skip any zero counts<br/>
+     * Pairs with the {@link #decodeChoiceCounts(String)} method
+     *
+     * @param choiceCounts a map of answer choice -> number of times it was chosen, can be null or empty
+     * @return the encoded string, will be null if there are no counts
+     */
+    public static String encodeChoiceCounts(Map<Integer, Integer> choiceCounts) {
+        String encoded = null;
+        if (choiceCounts != null && ! choiceCounts.isEmpty()) {
+            List<Integer> choices = new ArrayList<>(choiceCounts.keySet());
+            Collections.sort(choices);
+            StringBuilder sb = new StringBuilder();
+            for (Integer choice : choices) {
+                Integer count = choiceCounts.get(choice);
+                if (count != null && count != 0) {
+                    sb.append(SEPARATOR);
+                    sb.append(choice);
+                    sb.append('=');
+                    sb.append(count);
+                }
+            }
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+                encoded = sb.toString();
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Decodes an encoded choice counts string (e.g. :0=12:3=4:) into a map of choice -> count
+     *
+     * @param encodedCounts a string encoded using {@link #encodeChoiceCounts(Map)}
+     * @return the decoded map (sorted by choice) or an empty map if the encoded string is empty
+     * @throws IllegalArgumentException if the string cannot be decoded correctly
+     */
+    public static Map<Integer, Integer> decodeChoiceCounts(String encodedCounts) {
+        Map<Integer, Integer> decoded = new TreeMap<>();
+        if (encodedCounts != null && encodedCounts.length() > 0) {
+            if (! encodedCounts.startsWith(SEPARATOR) || ! encodedCounts.endsWith(SEPARATOR)) {
+                throw new IllegalArgumentException("This encoded string ("+encodedCounts+") is invalid, must adhere to the right format, example: :0=12:3=4:");
+            }
+            for (String pair : encodedCounts.split(SEPARATOR)) {
+                if ("".equals(pair)) {
+                    continue;
+                }
+                int eq = pair.indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("This encoded string ("+encodedCounts+") is invalid, it must have choice=count pairs in it, example: :0=12:3=4:");
+                }
+                decoded.put(Integer.valueOf(pair.substring(0, eq)), Integer.valueOf(pair.substring(eq + 1)));
+            }
+        }
+        return decoded;
+    }
+
     /**
      * Sets the persistent fields of this answer based on the NA setting in the
      * non-persistent field {@link EvalAnswer#NA}<br/>
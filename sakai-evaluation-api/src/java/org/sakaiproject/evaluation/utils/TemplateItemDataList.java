@@ -17,6 +17,7 @@ package org.sakaiproject.evaluation.utils;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -32,6 +33,7 @@ import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.logic.externals.ExternalHierarchyLogic;
 import org.sakaiproject.evaluation.logic.model.EvalHierarchyNode;
 import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalAnswerStats;
 import org.sakaiproject.evaluation.model.EvalAssignUser;
 import org.sakaiproject.evaluation.model.EvalResponse;
 import org.sakaiproject.evaluation.model.EvalScale;
@@ -141,16 +143,24 @@ public class TemplateItemDataList {
     }
 
     /**
-     * the internal mapping of answers to template items by associated key,
+     * the internal index of the answers by associated key and by response, with the choice counts for each key,
+     * the keys are the ones generated by {@link TemplateItemUtils#makeTemplateItemAnswerKey(Long, String, String)}
+     */
+    private AnswerAggregates answerAggregates = null;
+    /**
+     * the pre-aggregated answer stats (combined for all groups) by associated key,
      * key will be the one generated by {@link TemplateItemUtils#makeTemplateItemAnswerKey(Long, String, String)},
-     * the list of answers will be all answers for the related key
+     * this is null unless the stats are being used instead of the answers for the choice counts
      */
-    private Map<String, List<EvalAnswer>> answersMap = null;
+    private Map<String, EvalAnswerStats> answerStatsMap = null;
+
     /**
-     * the internal mapping of response ids -> (itemAnswerKey -> answer),
-     * key will be the one generated by {@link TemplateItemUtils#makeTemplateItemAnswerKey(Long, String, String)}
+     * @return true if the choice counts come from the pre-aggregated answer stats,
+     * false if they are calculated from the answers
      */
-    private Map<Long, Map<String, EvalAnswer>> responseAnswersMap = null;
+    public boolean isUsingAnswerStats() {
+        return answerStatsMap != null;
+    }
 
     /**
      * Generate the rendering data structure for working with template items,
@@ -242,7 +252,7 @@ public class TemplateItemDataList {
 
         List<EvalAnswer> evalAnswers = null;
         if (deliveryService != null) {
-            evalAnswers = deliveryService.getAnswersForEval(evaluationId, new String[] {evalGroupId}, null);
+            evalAnswers = loadAnswers(deliveryService, evaluationId, new String[] {evalGroupId}, evalTemplateItems);
         }
 
         construct(evalTemplateItems, evalHierarchyNodes, evalAssociates, evalAnswers);
@@ -264,10 +274,59 @@ public class TemplateItemDataList {
      * @param hierarchyLogic (OPTIONAL) the hierarchy service (used to lookup hierarchy levels for this group),
      * if null then no hierarchy levels are resolved and thus some items may be missing from the structure
      */
-    public TemplateItemDataList(Long evaluationId, String[] evalGroupIds, 
+    public TemplateItemDataList(Long evaluationId, String[] evalGroupIds,
             EvalAuthoringService authoringService, EvalDeliveryService deliveryService,
             ExternalHierarchyLogic hierarchyLogic) {
-        if (evaluationId == null 
+        this(evaluationId, evalGroupIds, authoringService, deliveryService, hierarchyLogic, false);
+    }
+
+    /**
+     * For building a structure which is used for looking at the results of an evaluation
+     * (report generation and response viewing)<br/>
+     * Same as {@link #TemplateItemDataList(Long, String[], EvalAuthoringService, EvalDeliveryService, ExternalHierarchyLogic)}
+     * but can optionally use the pre-aggregated answer stats for the choice counts<br/>
+     * <b>NOTE:</b> when the answer stats are used the answers are only loaded for the text items and the
+     * items which use comments, use {@link DataTemplateItem#getAnswerChoicesCounts(int)} and
+     * {@link DataTemplateItem#countAnswers()} to get the totals for the other items
+     * and do not use the per response answer methods
+     *
+     * @param evaluationId the unique id of the evaluation
+     * @param evalGroupIds an array of all eval group ids to get items/answers for
+     * @param authoringService the authoring service (used to lookup template items)
+     * @param deliveryService the delivery service (used to lookup evaluation answers)
+     * @param hierarchyLogic (OPTIONAL) the hierarchy service (used to lookup hierarchy levels for this group),
+     * if null then no hierarchy levels are resolved and thus some items may be missing from the structure
+     * @param useAnswerStats if true then use the answer stats if they are current for all the groups,
+     * if false (or the stats are not current) then all the answers are loaded
+     */
+    public TemplateItemDataList(Long evaluationId, String[] evalGroupIds,
+            EvalAuthoringService authoringService, EvalDeliveryService deliveryService,
+            ExternalHierarchyLogic hierarchyLogic, boolean useAnswerStats) {
+        this(evaluationId, evalGroupIds, authoringService, deliveryService, hierarchyLogic, useAnswerStats, true);
+    }
+
+    /**
+     * For building a structure which is used for looking at the results of an evaluation
+     * (report generation and response viewing)<br/>
+     * Same as {@link #TemplateItemDataList(Long, String[], EvalAuthoringService, EvalDeliveryService, ExternalHierarchyLogic, boolean)}
+     * but can optionally skip loading the answers entirely, this is used when the answers are streamed one response at a time
+     * (see {@link EvalDeliveryService#getAnswersForEval(Long, String[], Long[], org.sakaiproject.evaluation.logic.model.EvalResponseAnswersHandler)})
+     * and only the structure is needed, the answers for a response can then be matched to the data template items
+     * with {@link DataTemplateItem#getAnswer(Map)}
+     *
+     * @param evaluationId the unique id of the evaluation
+     * @param evalGroupIds an array of all eval group ids to get items/answers for
+     * @param authoringService the authoring service (used to lookup template items)
+     * @param deliveryService the delivery service (used to lookup evaluation answers)
+     * @param hierarchyLogic (OPTIONAL) the hierarchy service (used to lookup hierarchy levels for this group),
+     * if null then no hierarchy levels are resolved and thus some items may be missing from the structure
+     * @param useAnswerStats if true then use the answer stats if they are current for all the groups
+     * @param loadAnswers if false then no answers are loaded (the instructors and assistants are still looked up)
+     */
+    public TemplateItemDataList(Long evaluationId, String[] evalGroupIds,
+            EvalAuthoringService authoringService, EvalDeliveryService deliveryService,
+            ExternalHierarchyLogic hierarchyLogic, boolean useAnswerStats, boolean loadAnswers) {
+        if (evaluationId == null
                 || evalGroupIds == null || evalGroupIds.length == 0
                 || deliveryService == null
                 || authoringService == null) {
@@ -275,15 +334,59 @@ public class TemplateItemDataList {
         }
 
         // get all template items for all nodes/instructors, limit by eval and groups only
-        List<EvalTemplateItem> evalTemplateItems = authoringService.getTemplateItemsForEvaluation(evaluationId, new String[0], 
+        List<EvalTemplateItem> evalTemplateItems = authoringService.getTemplateItemsForEvaluation(evaluationId, new String[0],
                 new String[0], evalGroupIds);
 
+        if (useAnswerStats) {
+            this.answerStatsMap = deliveryService.getAnswerStatsForEval(evaluationId, evalGroupIds);
+        }
+
         // get all the answers
-        List<EvalAnswer> evalAnswers = deliveryService.getAnswersForEval(evaluationId, evalGroupIds, null);
+        List<EvalAnswer> evalAnswers;
+        if (! loadAnswers) {
+            evalAnswers = new ArrayList<>();
+        } else if (this.answerStatsMap == null) {
+            evalAnswers = loadAnswers(deliveryService, evaluationId, evalGroupIds, evalTemplateItems);
+        } else {
+            // only the text and comment answers are needed, the rest come from the stats
+            List<Long> answerTemplateItemIds = new ArrayList<>();
+            for (EvalTemplateItem templateItem : evalTemplateItems) {
+                if (TemplateItemUtils.isAnswerable(templateItem)
+                        && (! TemplateItemUtils.isRequireable(templateItem)
+                                || Boolean.TRUE.equals(templateItem.getUsesComment()))) {
+                    answerTemplateItemIds.add(templateItem.getId());
+                }
+            }
+            if (answerTemplateItemIds.isEmpty()) {
+                evalAnswers = new ArrayList<>();
+            } else {
+                evalAnswers = deliveryService.getAnswersForEval(evaluationId, evalGroupIds,
+                        answerTemplateItemIds.toArray(new Long[answerTemplateItemIds.size()]));
+            }
+        }
 
         // get the list of all instructors/assistants (getting it from the answers though so it may not be comprehensive)
         Set<String> instructorIds = TemplateItemDataList.getInstructorsForAnswers(evalAnswers);
         Set<String> assistantIds = TemplateItemDataList.getAssistantsForAnswers(evalAnswers);
+        if (! loadAnswers) {
+            Map<String, Set<String>> answerAssociates = deliveryService.getAnswerAssociatesForEval(evaluationId, evalGroupIds);
+            if (answerAssociates.containsKey(EvalConstants.ITEM_CATEGORY_INSTRUCTOR)) {
+                instructorIds.addAll(answerAssociates.get(EvalConstants.ITEM_CATEGORY_INSTRUCTOR));
+            }
+            if (answerAssociates.containsKey(EvalConstants.ITEM_CATEGORY_ASSISTANT)) {
+                assistantIds.addAll(answerAssociates.get(EvalConstants.ITEM_CATEGORY_ASSISTANT));
+            }
+        } else if (this.answerStatsMap != null) {
+            for (EvalAnswerStats stats : this.answerStatsMap.values()) {
+                if (! EvalUtils.isBlank(stats.getAssociatedId())) {
+                    if (EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals(stats.getAssociatedType())) {
+                        instructorIds.add(stats.getAssociatedId());
+                    } else if (EvalConstants.ITEM_CATEGORY_ASSISTANT.equals(stats.getAssociatedType())) {
+                        assistantIds.add(stats.getAssociatedId());
+                    }
+                }
+            }
+        }
 
         // Get the sorted list of all nodes for this set of template items
         List<EvalHierarchyNode> evalHierarchyNodes = null;
@@ -301,6 +404,53 @@ public class TemplateItemDataList {
         construct(evalTemplateItems, evalHierarchyNodes, evalAssociates, evalAnswers);
     }
 
+    /**
+     * Loads the answers for all the template items, the answers for the items which only have
+     * numeric answers (no text and no comments) are loaded without the text and comment columns
+     * and the full answers are only loaded for the items which display text or comments
+     * 
+     * @param deliveryService the delivery service (used to lookup evaluation answers)
+     * @param evaluationId the unique id of the evaluation
+     * @param evalGroupIds the eval group ids to get the answers for
+     * @param templateItems the template items to get the answers for
+     * @return the answers for the template items, the numeric only answers refer to the given template items
+     */
+    private static List<EvalAnswer> loadAnswers(EvalDeliveryService deliveryService, Long evaluationId,
+            String[] evalGroupIds, List<EvalTemplateItem> templateItems) {
+        Map<Long, EvalTemplateItem> numericItems = new HashMap<>();
+        List<Long> fullItemIds = new ArrayList<>();
+        for (EvalTemplateItem templateItem : templateItems) {
+            if (! TemplateItemUtils.isAnswerable(templateItem)) {
+                continue;
+            }
+            if (TemplateItemUtils.isRequireable(templateItem)
+                    && ! Boolean.TRUE.equals(templateItem.getUsesComment())) {
+                numericItems.put(templateItem.getId(), templateItem);
+            } else {
+                fullItemIds.add(templateItem.getId());
+            }
+        }
+
+        List<EvalAnswer> answers = new ArrayList<>();
+        if (! numericItems.isEmpty()) {
+            List<EvalAnswer> numericAnswers = deliveryService.getNumericAnswersForEval(evaluationId, evalGroupIds,
+                    numericItems.keySet().toArray(new Long[numericItems.size()]));
+            for (EvalAnswer answer : numericAnswers) {
+                // the answers only hold the template item id so point them at the loaded template items
+                answer.setTemplateItem(numericItems.get(answer.getTemplateItem().getId()));
+            }
+            answers.addAll(numericAnswers);
+        }
+        if (! fullItemIds.isEmpty()) {
+            answers.addAll(deliveryService.getAnswersForEval(evaluationId, evalGroupIds,
+                    fullItemIds.toArray(new Long[fullItemIds.size()])));
+        }
+        // keep the same order as when all the answers are loaded at once (by response and then by answer)
+        answers.sort(Comparator.comparing((EvalAnswer answer) -> answer.getResponse().getId())
+                .thenComparing(EvalAnswer::getId));
+        return answers;
+    }
+
     /**
      * Constructs the TIDL
      * @param allTemplateItems (REQUIRED)
@@ -578,38 +728,18 @@ public class TemplateItemDataList {
     }
 
     /**
-     * Builds both answer maps using the answers data (if there is any),
-     * the order of the answers inside the lists is effectively random
+     * Builds the answers index (by key and by response) and the choice counts using the answers data (if there is any),
+     * the answers inside each key or response are in the order they were supplied<br/>
+     * The NA value of every answer is decoded, the multiple answers are only decoded into
+     * {@link EvalAnswer#multipleAnswers} if that has not been done already (the delivery service does it)
      */
     protected void buildAnswerMaps() {
-        answersMap = new HashMap<>();
-        responseAnswersMap = new HashMap<>();
         for (EvalAnswer answer : answers) {
-            // decode the stored answers into the int array
-            answer.multipleAnswers = EvalUtils.decodeMultipleAnswers(answer.getMultiAnswerCode());
-            // decode the NA value
-            EvalUtils.decodeAnswerNA(answer);
-            // place the answers into a map which uses the TI, assocType, and assocId as a key
-            String key = TemplateItemUtils.makeTemplateItemAnswerKey(answer.getTemplateItem().getId(), 
-                    answer.getAssociatedType(), answer.getAssociatedId());
-            // place answer in answersMap
-            if (answersMap.containsKey(key)) {
-                answersMap.get(key).add(answer);
-            } else {
-                List<EvalAnswer> keyAnswers = new ArrayList<>();
-                keyAnswers.add(answer);
-                answersMap.put(key, keyAnswers);
-            }
-            // place answer in responseAnswersMap
-            Long responseId = answer.getResponse().getId();
-            if (responseAnswersMap.containsKey(responseId)) {
-                responseAnswersMap.get(responseId).put(key, answer);
-            } else {
-                Map<String,EvalAnswer> keyAnswerMap = new HashMap<>();
-                keyAnswerMap.put(key, answer);
-                responseAnswersMap.put(responseId, keyAnswerMap);
+            if (answer.multipleAnswers == null) {
+                answer.multipleAnswers = EvalUtils.decodeMultipleAnswers(answer.getMultiAnswerCode());
             }
         }
+        answerAggregates = new AnswerAggregates(answers);
     }
 
     /**
@@ -619,21 +749,31 @@ public class TemplateItemDataList {
      * @return the list of answers for this response id or empty list if none found
      */
     public List<EvalAnswer> getAnswersByResponseId(Long responseId) {
-        List<EvalAnswer> answersList = new ArrayList<>();
-        if (responseAnswersMap.containsKey(responseId)) {
-            answersList.addAll(responseAnswersMap.get(responseId).values());
-        }
-        return answersList;
+        return new ArrayList<>(answerAggregates.getResponseAnswers(responseId));
     }
 
     /**
      * @return the list of all responseIds for the set of answers in this data structure
      */
     public List<Long> getResponseIdsForAnswers() {
-        List<Long> responseIdsList = new ArrayList<>();
-        responseIdsList.addAll(responseAnswersMap.keySet());
-        Collections.sort(responseIdsList);
-        return responseIdsList;      
+        return answerAggregates.getResponseIds();
+    }
+
+    /**
+     * Makes a map of the answers for a single response which can be used with {@link DataTemplateItem#getAnswer(Map)},
+     * this is used when the answers are handled one response at a time instead of being loaded into this structure
+     * 
+     * @param answers the answers for a single response
+     * @return the map of templateItemAnswerKey -> answer
+     */
+    public static Map<String, EvalAnswer> makeResponseAnswersMap(List<EvalAnswer> answers) {
+        Map<String, EvalAnswer> keyAnswerMap = new HashMap<>();
+        for (EvalAnswer answer : answers) {
+            String key = TemplateItemUtils.makeTemplateItemAnswerKey(answer.getTemplateItem().getId(), 
+                    answer.getAssociatedType(), answer.getAssociatedId());
+            keyAnswerMap.put(key, answer);
+        }
+        return keyAnswerMap;
     }
 
 
@@ -663,6 +803,16 @@ public class TemplateItemDataList {
             }
             return key;
         }
+        private int keyOrdinal = -2;
+        /**
+         * @return the ordinal of the key in the answers index or -1 if there are no answers for it
+         */
+        private int getKeyOrdinal() {
+            if (keyOrdinal == -2) {
+                keyOrdinal = answerAggregates.getKeyOrdinal(templateItem.getId(), associateType, associateId);
+            }
+            return keyOrdinal;
+        }
         /**
          * The template item for this data object
          */
@@ -718,17 +868,10 @@ public class TemplateItemDataList {
             this.node = node;
             if (TemplateItemUtils.isBlockParent(templateItem)) {
                 this.blockChildItems = TemplateItemUtils.getChildItems(allTemplateItems, templateItem.getId());
-                this.templateItem.childTemplateItems = new ArrayList<>(blockChildItems); // for rendering
             } else if (TemplateItemUtils.isBlockChild(templateItem)) {
                 this.blockParentId = templateItem.getBlockId();
             }
-            // minor fixups to ensure nulls are filled in
-            if (templateItem.getUsesComment() == null) {
-                templateItem.setUsesComment(false);
-            }
-            if (templateItem.getUsesNA() == null) {
-                templateItem.setUsesNA(false);
-            }
+            // NOTE: the template item may be shared (compiled template cache) so it is never written to here
         }
 
         /**
@@ -805,6 +948,13 @@ public class TemplateItemDataList {
             return uses;
         }
 
+        /**
+         * @return true if this item is set to use the N/A option
+         */
+        public boolean usesNA() {
+            return Boolean.TRUE.equals(templateItem.getUsesNA());
+        }
+
         /**
          * @return the list of all comments for this item
          */
@@ -822,32 +972,69 @@ public class TemplateItemDataList {
         }
 
         /**
-         * @return the list of all answers related to this data template item,
+         * @return the list of all answers related to this data template item (read only),
          * this will be null if the item is not answerable
          */
         public List<EvalAnswer> getAnswers() {
             List<EvalAnswer> answers = null;
             if (TemplateItemUtils.isAnswerable(this.templateItem)) {
-                String key = getKey();
-                if (answersMap.containsKey(key)) {
-                    answers = answersMap.get(key);
-                } else {
-                    answers = new ArrayList<>();
-                }
+                answers = answerAggregates.getAnswers(getKeyOrdinal());
             }
             return answers;
         }
 
+        /**
+         * @return true if the totals for this item come from the pre-aggregated answer stats
+         */
+        private boolean usesAnswerStats() {
+            return answerStatsMap != null && TemplateItemUtils.isRequireable(this.templateItem);
+        }
+
+        /**
+         * @return the number of answers related to this data template item
+         * (from the answer stats if they are in use), 0 if the item is not answerable
+         */
+        public int countAnswers() {
+            int count = 0;
+            if (usesAnswerStats()) {
+                EvalAnswerStats stats = answerStatsMap.get(getKey());
+                if (stats != null) {
+                    count = stats.getAnswerCount();
+                }
+            } else if (TemplateItemUtils.isAnswerable(this.templateItem)) {
+                count = answerAggregates.countAnswers(getKeyOrdinal());
+            }
+            return count;
+        }
+
+        /**
+         * Get the choice counts for this item (from the answer stats if they are in use)
+         * @param scaleChoices the number of scale choices (normally this is the size of the {@link EvalScale#getOptions()} array)
+         * @return an integer array which is the same size as the number of choices + 1 (for NA)
+         * @see TemplateItemDataList#getAnswerChoicesCounts(String, int, List)
+         * @see AnswerAggregates#getAnswerChoicesCounts(int, String, int)
+         */
+        public int[] getAnswerChoicesCounts(int scaleChoices) {
+            if (usesAnswerStats()) {
+                return TemplateItemDataList.getAnswerChoicesCounts(answerStatsMap.get(getKey()), scaleChoices);
+            }
+            return answerAggregates.getAnswerChoicesCounts(getKeyOrdinal(), getTemplateItemType(), scaleChoices);
+        }
+
         /**
          * @param responseId a unique id for an {@link EvalResponse}
          * @return the answer related to this template item and the response or null if not found
          */
         public EvalAnswer getAnswer(Long responseId) {
-            EvalAnswer answer = null;
-            if (responseAnswersMap.containsKey(responseId)) {
-                answer = responseAnswersMap.get(responseId).get(this.key);
-            }
-            return answer;
+            return answerAggregates.getAnswer(responseId, getKeyOrdinal());
+        }
+
+        /**
+         * @param responseAnswersMap the answers for a single response (from {@link TemplateItemDataList#makeResponseAnswersMap(List)})
+         * @return the answer related to this template item in the response answers or null if not found
+         */
+        public EvalAnswer getAnswer(Map<String, EvalAnswer> responseAnswersMap) {
+            return responseAnswersMap.get(getKey());
         }
 
         @Override
@@ -1127,6 +1314,85 @@ public class TemplateItemDataList {
         }
     }
 
+    /**
+     * Produces the same array as {@link #getAnswerChoicesCounts(String, int, List)} but from
+     * the pre-aggregated answer stats instead of the list of answers
+     *
+     * @param stats the answer stats for a single template item answer key, can be null if there are no answers
+     * @param scaleChoices the number of scale choices (normally this is the size of the {@link EvalScale#getOptions()} array)
+     * @return an integer array which is the same size as the number of choices + 1 (for NA), ignore the last array entry if NA is not used for this item
+     */
+    public static int[] getAnswerChoicesCounts(EvalAnswerStats stats, int scaleChoices) {
+        int[] togo = new int[scaleChoices+1];
+        if (stats != null) {
+            togo[togo.length-1] += stats.getNaCount();
+            for (Entry<Integer, Integer> entry : EvalUtils.decodeChoiceCounts(stats.getChoiceCountsCode()).entrySet()) {
+                int choice = entry.getKey();
+                if (choice >= 0 && choice < togo.length) {
+                    togo[choice] += entry.getValue();
+                } else {
+                    // put it in the NA slot
+                    togo[togo.length-1] += entry.getValue();
+                }
+            }
+        }
+        return togo;
+    }
+
+    /**
+     * Adds (or removes if the weight is negative) an answer to the pre-aggregated answer stats,
+     * this counts answers exactly the way {@link #getAnswerChoicesCounts(String, int, List)} does
+     *
+     * @param stats the answer stats to update
+     * @param templateItemType the template item type from {@link TemplateItemUtils#getTemplateItemType(EvalTemplateItem)}
+     * @param numeric the stored numeric answer
+     * @param multiAnswerCode the stored multiple answer code
+     * @param weight the number of identical answers to add (normally 1)
+     * @throws IllegalArgumentException if this is not an itemType that has numeric answers (Scaled/MC/MA/...)
+     */
+    public static void addAnswerToStats(EvalAnswerStats stats, String templateItemType, Integer numeric, String multiAnswerCode, int weight) {
+        if (! EvalConstants.ITEM_TYPE_SCALED.equals(templateItemType)
+                && ! EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(templateItemType)
+                && ! EvalConstants.ITEM_TYPE_MULTIPLECHOICE.equals(templateItemType)
+                && ! EvalConstants.ITEM_TYPE_BLOCK_CHILD.equals(templateItemType) ) {
+            throw new IllegalArgumentException("The itemType needs to be one that has numeric answers, this one is invalid: " + templateItemType);
+        }
+        stats.setAnswerCount(stats.getAnswerCount() + weight);
+        if (EvalConstants.NA_VALUE.equals(numeric)) {
+            stats.setNaCount(stats.getNaCount() + weight);
+            return;
+        }
+        Map<Integer, Integer> choiceCounts = EvalUtils.decodeChoiceCounts(stats.getChoiceCountsCode());
+        if (EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(templateItemType)) {
+            if (multiAnswerCode != null && ! EvalConstants.NO_MULTIPLE_ANSWER.equals(multiAnswerCode)) {
+                for (Integer choice : EvalUtils.decodeMultipleAnswers(multiAnswerCode)) {
+                    choiceCounts.merge(choice, weight, Integer::sum);
+                }
+            }
+        } else if (numeric != null && ! EvalConstants.NO_NUMERIC_ANSWER.equals(numeric)) {
+            choiceCounts.merge(numeric, weight, Integer::sum);
+            stats.setNumericSum(stats.getNumericSum() + ((long) numeric * weight));
+        }
+        stats.setChoiceCountsCode(EvalUtils.encodeChoiceCounts(choiceCounts));
+    }
+
+    /**
+     * Adds the totals from one set of answer stats into another (e.g. to combine the stats for several groups)
+     *
+     * @param stats the answer stats to add to
+     * @param other the answer stats to add in
+     */
+    public static void addAnswerStats(EvalAnswerStats stats, EvalAnswerStats other) {
+        stats.setAnswerCount(stats.getAnswerCount() + other.getAnswerCount());
+        stats.setNaCount(stats.getNaCount() + other.getNaCount());
+        stats.setNumericSum(stats.getNumericSum() + other.getNumericSum());
+        Map<Integer, Integer> choiceCounts = EvalUtils.decodeChoiceCounts(stats.getChoiceCountsCode());
+        for (Entry<Integer, Integer> entry : EvalUtils.decodeChoiceCounts(other.getChoiceCountsCode()).entrySet()) {
+            choiceCounts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+        stats.setChoiceCountsCode(EvalUtils.encodeChoiceCounts(choiceCounts));
+    }
+
     /**
      * Create a list of hierarchy nodes used in a set of template items,
      * this will return all hierarchy nodes which have items in this set assigned to them
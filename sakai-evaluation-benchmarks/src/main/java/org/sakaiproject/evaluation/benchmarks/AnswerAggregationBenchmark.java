@@ -0,0 +1,111 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.model.EvalTemplateItem;
+import org.sakaiproject.evaluation.utils.AnswerAggregates;
+import org.sakaiproject.evaluation.utils.TemplateItemDataList;
+import org.sakaiproject.evaluation.utils.TemplateItemDataList.DataTemplateItem;
+import org.sakaiproject.evaluation.utils.TemplateItemUtils;
+
+/**
+ * Benchmarks the report aggregation over the answers of a whole evaluation:
+ * indexing the answers into {@link AnswerAggregates} (as {@link TemplateItemDataList} does) and counting the answer choices,
+ * the size of the evaluation is set with the responses and items params (answers = responses * items)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class AnswerAggregationBenchmark {
+
+    @Param({"1000", "10000"})
+    public int responses;
+
+    @Param({"10", "30"})
+    public int items;
+
+    private BenchmarkDataLoad data;
+    private AnswerAggregates aggregates;
+    private List<DataTemplateItem> dataTemplateItems;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = new BenchmarkDataLoad(responses, items);
+        aggregates = new AnswerAggregates(data.answers);
+        dataTemplateItems = new TemplateItemDataList(data.templateItems, null, null, data.answers)
+                .getFlatListOfDataTemplateItems(true);
+    }
+
+    /**
+     * Indexing all answers by answer key and by response and counting their choices
+     */
+    @Benchmark
+    public AnswerAggregates buildAnswerAggregates() {
+        return new AnswerAggregates(data.answers);
+    }
+
+    /**
+     * The whole structure as the reports create it (includes {@link #buildAnswerAggregates()})
+     */
+    @Benchmark
+    public TemplateItemDataList buildTemplateItemDataList() {
+        return new TemplateItemDataList(data.templateItems, null, null, data.answers);
+    }
+
+    /**
+     * Counting the choices for every item through the data structure, as the reports do
+     */
+    @Benchmark
+    public void getAnswerChoicesCounts(Blackhole bh) {
+        for (DataTemplateItem dti : dataTemplateItems) {
+            if (dti.isAnswerable()) {
+                bh.consume(dti.getAnswerChoicesCounts(BenchmarkDataLoad.SCALE_CHOICES));
+            }
+        }
+    }
+
+    /**
+     * Counting the choices for every item directly from the answers index
+     */
+    @Benchmark
+    public void getAnswerChoicesCountsIndexed(Blackhole bh) {
+        for (EvalTemplateItem templateItem : data.templateItems) {
+            int ordinal = aggregates.getKeyOrdinal(templateItem.getId(), EvalConstants.ITEM_CATEGORY_COURSE, null);
+            bh.consume(aggregates.getAnswerChoicesCounts(ordinal, TemplateItemUtils.getTemplateItemType(templateItem),
+                    BenchmarkDataLoad.SCALE_CHOICES));
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.utils.EvalUtils;
+import org.sakaiproject.evaluation.utils.TemplateItemUtils;
+
+/**
+ * Benchmarks the per answer encoding and decoding helpers which run once for each answer
+ * in the reports, each invocation processes the whole batch of answers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AnswerEncodingBenchmark {
+
+    @Param({"10000"})
+    public int answers;
+
+    private Integer[][] multipleAnswers;
+    private String[] encodedAnswers;
+    private EvalAnswer[] evalAnswers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(BenchmarkDataLoad.SEED);
+        multipleAnswers = new Integer[answers][];
+        encodedAnswers = new String[answers];
+        for (int i = 0; i < answers; i++) {
+            multipleAnswers[i] = BenchmarkDataLoad.makeMultipleAnswers(random);
+            encodedAnswers[i] = EvalUtils.encodeMultipleAnswers(multipleAnswers[i].clone());
+        }
+        BenchmarkDataLoad data = new BenchmarkDataLoad(answers / 10, 10);
+        evalAnswers = data.answers.toArray(new EvalAnswer[data.answers.size()]);
+    }
+
+    @Benchmark
+    public void encodeMultipleAnswers(Blackhole bh) {
+        for (Integer[] keys : multipleAnswers) {
+            bh.consume(EvalUtils.encodeMultipleAnswers(keys));
+        }
+    }
+
+    @Benchmark
+    public void decodeMultipleAnswers(Blackhole bh) {
+        for (String encoded : encodedAnswers) {
+            bh.consume(EvalUtils.decodeMultipleAnswers(encoded));
+        }
+    }
+
+    @Benchmark
+    public void decodeAnswerNA(Blackhole bh) {
+        for (EvalAnswer answer : evalAnswers) {
+            bh.consume(EvalUtils.decodeAnswerNA(answer));
+        }
+    }
+
+    @Benchmark
+    public void makeTemplateItemAnswerKey(Blackhole bh) {
+        for (EvalAnswer answer : evalAnswers) {
+            bh.consume(TemplateItemUtils.makeTemplateItemAnswerKey(answer.getTemplateItem().getId(),
+                    answer.getAssociatedType(), answer.getAssociatedId()));
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.model.EvalItem;
+import org.sakaiproject.evaluation.model.EvalResponse;
+import org.sakaiproject.evaluation.model.EvalScale;
+import org.sakaiproject.evaluation.model.EvalTemplate;
+import org.sakaiproject.evaluation.model.EvalTemplateItem;
+import org.sakaiproject.evaluation.utils.EvalUtils;
+
+/**
+ * Builds a synthetic in-memory evaluation (template, items, responses and answers)
+ * in the same way as the EvalTestDataLoad used by the impl tests but without the database,
+ * the data is generated from a fixed seed so runs are comparable
+ * <br/>
+ * The template is made of scaled, multiple choice and multiple answer items (in rotation)
+ * and every response answers every item, about 5% of the answers are NA
+ */
+public class BenchmarkDataLoad {
+
+    public final static String ADMIN_USER_ID = "admin";
+    public final static String SITE1_REF = "/site/ref-1111111";
+    public final static int SCALE_CHOICES = 5;
+    public final static long SEED = 1234567890L;
+
+    public final static String[] SCALE_OPTIONS = {"Strongly Disagree", "Disagree", "Neutral", "Agree", "Strongly Agree"};
+    public final static String[] ITEM_CLASSIFICATIONS = {
+        EvalConstants.ITEM_TYPE_SCALED, EvalConstants.ITEM_TYPE_MULTIPLECHOICE, EvalConstants.ITEM_TYPE_MULTIPLEANSWER
+    };
+
+    public EvalScale scale;
+    public EvalTemplate template;
+    public EvalEvaluation evaluation;
+    public List<EvalTemplateItem> templateItems = new ArrayList<>();
+    public List<EvalResponse> responses = new ArrayList<>();
+    public List<EvalAnswer> answers = new ArrayList<>();
+
+    /**
+     * @param responsesCount the number of responses to generate
+     * @param itemsCount the number of (answerable) template items in the template
+     */
+    public BenchmarkDataLoad(int responsesCount, int itemsCount) {
+        Random random = new Random(SEED);
+
+        scale = new EvalScale(ADMIN_USER_ID, "Benchmark Scale", EvalConstants.SCALE_MODE_SCALE,
+                EvalConstants.SHARING_PUBLIC, Boolean.FALSE);
+        scale.setId(1L);
+        scale.setOptions(Arrays.asList(SCALE_OPTIONS));
+
+        template = new EvalTemplate(ADMIN_USER_ID, EvalConstants.TEMPLATE_TYPE_STANDARD, "Benchmark Template",
+                EvalConstants.SHARING_PUBLIC, Boolean.FALSE);
+        template.setId(1L);
+
+        Date now = new Date();
+        evaluation = new EvalEvaluation();
+        evaluation.setId(1L);
+        evaluation.setTitle("Benchmark Evaluation");
+        evaluation.setStartDate(now);
+        evaluation.setTemplate(template);
+
+        for (int i = 0; i < itemsCount; i++) {
+            String classification = ITEM_CLASSIFICATIONS[i % ITEM_CLASSIFICATIONS.length];
+            EvalItem item = new EvalItem(ADMIN_USER_ID, "Benchmark item " + i, EvalConstants.SHARING_PUBLIC,
+                    classification, Boolean.FALSE);
+            item.setId((long) i + 1);
+            item.setScale(scale);
+            item.setScaleDisplaySetting(EvalConstants.ITEM_SCALE_DISPLAY_FULL);
+            EvalTemplateItem templateItem = new EvalTemplateItem(ADMIN_USER_ID, template, item, i + 1,
+                    EvalConstants.ITEM_CATEGORY_COURSE, EvalConstants.HIERARCHY_LEVEL_TOP, EvalConstants.HIERARCHY_NODE_ID_NONE,
+                    null, EvalConstants.ITEM_SCALE_DISPLAY_FULL, Boolean.TRUE, Boolean.FALSE, Boolean.FALSE, null, null, null);
+            templateItem.setId((long) i + 1);
+            templateItems.add(templateItem);
+        }
+
+        for (int r = 0; r < responsesCount; r++) {
+            EvalResponse response = new EvalResponse("user" + r, SITE1_REF, evaluation, now);
+            response.setId((long) r + 1);
+            response.setEndTime(now);
+            responses.add(response);
+            for (EvalTemplateItem templateItem : templateItems) {
+                EvalItem item = templateItem.getItem();
+                EvalAnswer answer;
+                if (random.nextInt(20) == 0) {
+                    answer = new EvalAnswer(response, templateItem, item, null, EvalConstants.ITEM_CATEGORY_COURSE,
+                            EvalConstants.NA_VALUE);
+                } else if (EvalConstants.ITEM_TYPE_MULTIPLEANSWER.equals(item.getClassification())) {
+                    answer = new EvalAnswer(response, templateItem, item, null, EvalConstants.ITEM_CATEGORY_COURSE,
+                            null, EvalConstants.NO_NUMERIC_ANSWER, EvalUtils.encodeMultipleAnswers(makeMultipleAnswers(random)), null);
+                } else {
+                    answer = new EvalAnswer(response, templateItem, item, null, EvalConstants.ITEM_CATEGORY_COURSE,
+                            random.nextInt(SCALE_CHOICES));
+                }
+                answer.setId((long) answers.size() + 1);
+                answers.add(answer);
+            }
+        }
+    }
+
+    /**
+     * @return between 1 and {@link #SCALE_CHOICES} distinct choices
+     */
+    public static Integer[] makeMultipleAnswers(Random random) {
+        List<Integer> choices = new ArrayList<>();
+        for (int c = 0; c < SCALE_CHOICES; c++) {
+            if (random.nextBoolean()) {
+                choices.add(c);
+            }
+        }
+        if (choices.isEmpty()) {
+            choices.add(random.nextInt(SCALE_CHOICES));
+        }
+        return choices.toArray(new Integer[choices.size()]);
+    }
+
+}
@@ -0,0 +1,81 @@
+--
+-- Copyright 2003 Sakai Foundation Licensed under the
+-- Educational Community License, Version 2.0 (the "License"); you may
+-- not use this file except in compliance with the License. You may
+-- obtain a copy of the License at
+--
+-- http://www.osedu.org/licenses/ECL-2.0
+--
+-- Unless required by applicable law or agreed to in writing,
+-- software distributed under the License is distributed on an "AS IS"
+-- BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+-- or implied. See the License for the specific language governing
+-- permissions and limitations under the License.
+--
+
+-- MySQL conversion script - 25 to 26
+
+create table EVAL_ANSWER_STATS (
+    ID bigint not null auto_increment,
+    LAST_MODIFIED datetime not null,
+    EVALUATION_ID bigint not null,
+    GROUP_ID varchar(255) not null,
+    TEMPLATEITEM_ID bigint,
+    ASSOCIATED_TYPE varchar(255),
+    ASSOCIATED_ID varchar(255),
+    ANSWER_COUNT integer not null,
+    NA_COUNT integer not null,
+    NUMERIC_SUM bigint not null,
+    CHOICE_COUNTS varchar(2000),
+    primary key (ID)
+) ENGINE=InnoDB;
+
+create index eval_answer_stats_eval on EVAL_ANSWER_STATS (EVALUATION_ID, GROUP_ID);
+create index eval_answer_stats_count on EVAL_ANSWER_STATS (ANSWER_COUNT);
+
+-- mark the groups with existing completed responses as stale so the Rebuild Answer Stats job builds their stats
+insert into EVAL_ANSWER_STATS (LAST_MODIFIED, EVALUATION_ID, GROUP_ID, ANSWER_COUNT, NA_COUNT, NUMERIC_SUM)
+    select now(), EVALUATION_FK, GROUP_ID, -1, 0, 0 from (
+        select distinct EVALUATION_FK, GROUP_ID from EVAL_RESPONSE where END_TIME is not null
+    ) responses;
+
+create table EVAL_EMAIL_OUTBOX (
+    ID bigint not null auto_increment,
+    LAST_MODIFIED datetime not null,
+    QUEUED_DATE datetime not null,
+    EVALUATION_ID bigint not null,
+    GROUP_ID varchar(255),
+    TEMPLATE_TYPE varchar(255) not null,
+    RECIPIENT_TYPE varchar(255),
+    RUN_ID varchar(255),
+    FROM_ADDRESS varchar(255) not null,
+    TO_USER_IDS text not null,
+    SUBJECT text not null,
+    MESSAGE text not null,
+    STATUS varchar(255) not null,
+    ATTEMPTS integer not null,
+    NEXT_ATTEMPT datetime not null,
+    SENT_COUNT integer not null,
+    LAST_ERROR varchar(2000),
+    primary key (ID)
+) ENGINE=InnoDB;
+
+create index eval_email_outbox_due on EVAL_EMAIL_OUTBOX (STATUS, NEXT_ATTEMPT);
+create index eval_email_outbox_eval on EVAL_EMAIL_OUTBOX (EVALUATION_ID, TEMPLATE_TYPE);
+
+create table EVAL_JOB_SCHEDULE (
+    ID bigint not null auto_increment,
+    LAST_MODIFIED datetime not null,
+    EVALUATION_ID bigint not null,
+    JOB_TYPE varchar(255) not null,
+    FIRE_DATE datetime not null,
+    CLAIMED_BY varchar(255),
+    CLAIMED_AT datetime,
+    primary key (ID)
+) ENGINE=InnoDB;
+
+create index eval_job_schedule_fire on EVAL_JOB_SCHEDULE (FIRE_DATE);
+create index eval_job_schedule_eval on EVAL_JOB_SCHEDULE (EVALUATION_ID, JOB_TYPE);
+
+alter table EVAL_EMAIL_PROCESSING_QUEUE add (SHARD_NO integer);
+create index eval_emailq_shard on EVAL_EMAIL_PROCESSING_QUEUE (SHARD_NO, USER_ID, EMAIL_TEMPLATE_ID);
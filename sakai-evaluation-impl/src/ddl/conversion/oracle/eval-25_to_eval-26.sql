@@ -0,0 +1,81 @@
+--
+-- Copyright 2003 Sakai Foundation Licensed under the
+-- Educational Community License, Version 2.0 (the "License"); you may
+-- not use this file except in compliance with the License. You may
+-- obtain a copy of the License at
+--
+-- http://www.osedu.org/licenses/ECL-2.0
+--
+-- Unless required by applicable law or agreed to in writing,
+-- software distributed under the License is distributed on an "AS IS"
+-- BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+-- or implied. See the License for the specific language governing
+-- permissions and limitations under the License.
+--
+
+-- Oracle conversion script - 25 to 26
+
+create table EVAL_ANSWER_STATS (
+    ID number(19,0) not null,
+    LAST_MODIFIED timestamp not null,
+    EVALUATION_ID number(19,0) not null,
+    GROUP_ID varchar2(255 char) not null,
+    TEMPLATEITEM_ID number(19,0),
+    ASSOCIATED_TYPE varchar2(255 char),
+    ASSOCIATED_ID varchar2(255 char),
+    ANSWER_COUNT number(10,0) not null,
+    NA_COUNT number(10,0) not null,
+    NUMERIC_SUM number(19,0) not null,
+    CHOICE_COUNTS varchar2(2000 char),
+    primary key (ID)
+);
+
+create index eval_answer_stats_eval on EVAL_ANSWER_STATS (EVALUATION_ID, GROUP_ID);
+create index eval_answer_stats_count on EVAL_ANSWER_STATS (ANSWER_COUNT);
+
+-- mark the groups with existing completed responses as stale so the Rebuild Answer Stats job builds their stats
+insert into EVAL_ANSWER_STATS (ID, LAST_MODIFIED, EVALUATION_ID, GROUP_ID, ANSWER_COUNT, NA_COUNT, NUMERIC_SUM)
+    select hibernate_sequence.nextval, systimestamp, EVALUATION_FK, GROUP_ID, -1, 0, 0 from (
+        select distinct EVALUATION_FK, GROUP_ID from EVAL_RESPONSE where END_TIME is not null
+    );
+
+create table EVAL_EMAIL_OUTBOX (
+    ID number(19,0) not null,
+    LAST_MODIFIED timestamp not null,
+    QUEUED_DATE timestamp not null,
+    EVALUATION_ID number(19,0) not null,
+    GROUP_ID varchar2(255 char),
+    TEMPLATE_TYPE varchar2(255 char) not null,
+    RECIPIENT_TYPE varchar2(255 char),
+    RUN_ID varchar2(255 char),
+    FROM_ADDRESS varchar2(255 char) not null,
+    TO_USER_IDS clob not null,
+    SUBJECT clob not null,
+    MESSAGE clob not null,
+    STATUS varchar2(255 char) not null,
+    ATTEMPTS number(10,0) not null,
+    NEXT_ATTEMPT timestamp not null,
+    SENT_COUNT number(10,0) not null,
+    LAST_ERROR varchar2(2000 char),
+    primary key (ID)
+);
+
+create index eval_email_outbox_due on EVAL_EMAIL_OUTBOX (STATUS, NEXT_ATTEMPT);
+create index eval_email_outbox_eval on EVAL_EMAIL_OUTBOX (EVALUATION_ID, TEMPLATE_TYPE);
+
+create table EVAL_JOB_SCHEDULE (
+    ID number(19,0) not null,
+    LAST_MODIFIED timestamp not null,
+    EVALUATION_ID number(19,0) not null,
+    JOB_TYPE varchar2(255 char) not null,
+    FIRE_DATE timestamp not null,
+    CLAIMED_BY varchar2(255 char),
+    CLAIMED_AT timestamp,
+    primary key (ID)
+);
+
+create index eval_job_schedule_fire on EVAL_JOB_SCHEDULE (FIRE_DATE);
+create index eval_job_schedule_eval on EVAL_JOB_SCHEDULE (EVALUATION_ID, JOB_TYPE);
+
+alter table EVAL_EMAIL_PROCESSING_QUEUE add (SHARD_NO number(10,0));
+create index eval_emailq_shard on EVAL_EMAIL_PROCESSING_QUEUE (SHARD_NO, USER_ID, EMAIL_TEMPLATE_ID);
@@ -70,6 +70,21 @@
         primary key (ID)
     ) ENGINE=InnoDB;
 
+    create table EVAL_ANSWER_STATS (
+        ID bigint not null auto_increment,
+        LAST_MODIFIED datetime not null,
+        EVALUATION_ID bigint not null,
+        GROUP_ID varchar(255) not null,
+        TEMPLATEITEM_ID bigint,
+        ASSOCIATED_TYPE varchar(255),
+        ASSOCIATED_ID varchar(255),
+        ANSWER_COUNT integer not null,
+        NA_COUNT integer not null,
+        NUMERIC_SUM bigint not null,
+        CHOICE_COUNTS varchar(2000),
+        primary key (ID)
+    ) ENGINE=InnoDB;
+
     create table EVAL_ASSIGN_GROUP (
         ID bigint not null auto_increment,
         EID varchar(255),
@@ -127,6 +142,27 @@
         primary key (ID)
     ) ENGINE=InnoDB;
 
+    create table EVAL_EMAIL_OUTBOX (
+        ID bigint not null auto_increment,
+        LAST_MODIFIED datetime not null,
+        QUEUED_DATE datetime not null,
+        EVALUATION_ID bigint not null,
+        GROUP_ID varchar(255),
+        TEMPLATE_TYPE varchar(255) not null,
+        RECIPIENT_TYPE varchar(255),
+        RUN_ID varchar(255),
+        FROM_ADDRESS varchar(255) not null,
+        TO_USER_IDS text not null,
+        SUBJECT text not null,
+        MESSAGE text not null,
+        STATUS varchar(255) not null,
+        ATTEMPTS integer not null,
+        NEXT_ATTEMPT datetime not null,
+        SENT_COUNT integer not null,
+        LAST_ERROR varchar(2000),
+        primary key (ID)
+    ) ENGINE=InnoDB;
+
     create table EVAL_EMAIL_PROCESSING_QUEUE (
         ID bigint not null auto_increment,
         EAU_ID bigint,
@@ -137,6 +173,7 @@
         RESPONSE_ID bigint,
         EVAL_DUE_DATE datetime,
         PROCESSING_STATUS tinyint,
+        SHARD_NO integer,
         primary key (ID)
     ) ENGINE=InnoDB;
 
@@ -256,6 +293,17 @@
         primary key (ID)
     ) ENGINE=InnoDB;
 
+    create table EVAL_JOB_SCHEDULE (
+        ID bigint not null auto_increment,
+        LAST_MODIFIED datetime not null,
+        EVALUATION_ID bigint not null,
+        JOB_TYPE varchar(255) not null,
+        FIRE_DATE datetime not null,
+        CLAIMED_BY varchar(255),
+        CLAIMED_AT datetime,
+        primary key (ID)
+    ) ENGINE=InnoDB;
+
     create table EVAL_LOCK (
         ID bigint not null auto_increment,
         LAST_MODIFIED datetime not null,
@@ -396,6 +444,18 @@
 
     create index eval_answer_num on EVAL_ANSWER (NUM_ANSWER);
 
+    create index eval_answer_stats_count on EVAL_ANSWER_STATS (ANSWER_COUNT);
+
+    create index eval_answer_stats_eval on EVAL_ANSWER_STATS (EVALUATION_ID, GROUP_ID);
+
+    create index eval_email_outbox_due on EVAL_EMAIL_OUTBOX (STATUS, NEXT_ATTEMPT);
+
+    create index eval_email_outbox_eval on EVAL_EMAIL_OUTBOX (EVALUATION_ID, TEMPLATE_TYPE);
+
+    create index eval_job_schedule_fire on EVAL_JOB_SCHEDULE (FIRE_DATE);
+
+    create index eval_job_schedule_eval on EVAL_JOB_SCHEDULE (EVALUATION_ID, JOB_TYPE);
+
     alter table EVAL_ANSWER 
         add index ANSWER_RESPONSE_FKC (RESPONSE_FK), 
         add constraint ANSWER_RESPONSE_FKC 
@@ -468,6 +528,8 @@
 
     create index eval_emailq_evalid on EVAL_EMAIL_PROCESSING_QUEUE (EVALUATION_ID);
 
+    create index eval_emailq_shard on EVAL_EMAIL_PROCESSING_QUEUE (SHARD_NO, USER_ID, EMAIL_TEMPLATE_ID);
+
     create index eval_templ_owner on EVAL_EMAIL_TEMPLATE (OWNER);
 
     create index eval_templ_type on EVAL_EMAIL_TEMPLATE (TEMPLATE_TYPE);
@@ -70,6 +70,21 @@
         primary key (ID)
     );
 
+    create table EVAL_ANSWER_STATS (
+        ID number(19,0) not null,
+        LAST_MODIFIED timestamp not null,
+        EVALUATION_ID number(19,0) not null,
+        GROUP_ID varchar2(255 char) not null,
+        TEMPLATEITEM_ID number(19,0),
+        ASSOCIATED_TYPE varchar2(255 char),
+        ASSOCIATED_ID varchar2(255 char),
+        ANSWER_COUNT number(10,0) not null,
+        NA_COUNT number(10,0) not null,
+        NUMERIC_SUM number(19,0) not null,
+        CHOICE_COUNTS varchar2(2000 char),
+        primary key (ID)
+    );
+
     create table EVAL_ASSIGN_GROUP (
         ID number(19,0) not null,
         EID varchar2(255 char),
@@ -127,6 +142,27 @@
         primary key (ID)
     );
 
+    create table EVAL_EMAIL_OUTBOX (
+        ID number(19,0) not null,
+        LAST_MODIFIED timestamp not null,
+        QUEUED_DATE timestamp not null,
+        EVALUATION_ID number(19,0) not null,
+        GROUP_ID varchar2(255 char),
+        TEMPLATE_TYPE varchar2(255 char) not null,
+        RECIPIENT_TYPE varchar2(255 char),
+        RUN_ID varchar2(255 char),
+        FROM_ADDRESS varchar2(255 char) not null,
+        TO_USER_IDS clob not null,
+        SUBJECT clob not null,
+        MESSAGE clob not null,
+        STATUS varchar2(255 char) not null,
+        ATTEMPTS number(10,0) not null,
+        NEXT_ATTEMPT timestamp not null,
+        SENT_COUNT number(10,0) not null,
+        LAST_ERROR varchar2(2000 char),
+        primary key (ID)
+    );
+
     create table EVAL_EMAIL_PROCESSING_QUEUE (
         ID number(19,0) not null,
         EAU_ID number(19,0),
@@ -137,6 +173,7 @@
         RESPONSE_ID number(19,0),
         EVAL_DUE_DATE timestamp,
         PROCESSING_STATUS number(3,0),
+        SHARD_NO number(10,0),
         primary key (ID)
     );
 
@@ -256,6 +293,17 @@
         primary key (ID)
     );
 
+    create table EVAL_JOB_SCHEDULE (
+        ID number(19,0) not null,
+        LAST_MODIFIED timestamp not null,
+        EVALUATION_ID number(19,0) not null,
+        JOB_TYPE varchar2(255 char) not null,
+        FIRE_DATE timestamp not null,
+        CLAIMED_BY varchar2(255 char),
+        CLAIMED_AT timestamp,
+        primary key (ID)
+    );
+
     create table EVAL_LOCK (
         ID number(19,0) not null,
         LAST_MODIFIED timestamp not null,
@@ -394,6 +442,18 @@
 
     create index eval_answer_num on EVAL_ANSWER (NUM_ANSWER);
 
+    create index eval_answer_stats_count on EVAL_ANSWER_STATS (ANSWER_COUNT);
+
+    create index eval_answer_stats_eval on EVAL_ANSWER_STATS (EVALUATION_ID, GROUP_ID);
+
+    create index eval_email_outbox_due on EVAL_EMAIL_OUTBOX (STATUS, NEXT_ATTEMPT);
+
+    create index eval_email_outbox_eval on EVAL_EMAIL_OUTBOX (EVALUATION_ID, TEMPLATE_TYPE);
+
+    create index eval_job_schedule_fire on EVAL_JOB_SCHEDULE (FIRE_DATE);
+
+    create index eval_job_schedule_eval on EVAL_JOB_SCHEDULE (EVALUATION_ID, JOB_TYPE);
+
     alter table EVAL_ANSWER 
         add constraint ANSWER_RESPONSE_FKC 
         foreign key (RESPONSE_FK) 
@@ -460,6 +520,8 @@
 
     create index eval_emailq_evalid on EVAL_EMAIL_PROCESSING_QUEUE (EVALUATION_ID);
 
+    create index eval_emailq_shard on EVAL_EMAIL_PROCESSING_QUEUE (SHARD_NO, USER_ID, EMAIL_TEMPLATE_ID);
+
     create index eval_templ_owner on EVAL_EMAIL_TEMPLATE (OWNER);
 
     create index eval_templ_type on EVAL_EMAIL_TEMPLATE (TEMPLATE_TYPE);
@@ -70,6 +70,21 @@
         primary key (ID)
     );
 
+    create table EVAL_ANSWER_STATS (
+        ID int8 not null,
+        LAST_MODIFIED timestamp not null,
+        EVALUATION_ID int8 not null,
+        GROUP_ID varchar(255) not null,
+        TEMPLATEITEM_ID int8,
+        ASSOCIATED_TYPE varchar(255),
+        ASSOCIATED_ID varchar(255),
+        ANSWER_COUNT int4 not null,
+        NA_COUNT int4 not null,
+        NUMERIC_SUM int8 not null,
+        CHOICE_COUNTS varchar(2000),
+        primary key (ID)
+    );
+
     create table EVAL_ASSIGN_GROUP (
         ID int8 not null,
         EID varchar(255),
@@ -127,6 +142,27 @@
         primary key (ID)
     );
 
+    create table EVAL_EMAIL_OUTBOX (
+        ID int8 not null,
+        LAST_MODIFIED timestamp not null,
+        QUEUED_DATE timestamp not null,
+        EVALUATION_ID int8 not null,
+        GROUP_ID varchar(255),
+        TEMPLATE_TYPE varchar(255) not null,
+        RECIPIENT_TYPE varchar(255),
+        RUN_ID varchar(255),
+        FROM_ADDRESS varchar(255) not null,
+        TO_USER_IDS text not null,
+        SUBJECT text not null,
+        MESSAGE text not null,
+        STATUS varchar(255) not null,
+        ATTEMPTS int4 not null,
+        NEXT_ATTEMPT timestamp not null,
+        SENT_COUNT int4 not null,
+        LAST_ERROR varchar(2000),
+        primary key (ID)
+    );
+
     create table EVAL_EMAIL_PROCESSING_QUEUE (
         ID int8 not null,
         EAU_ID int8,
@@ -137,6 +173,7 @@
         RESPONSE_ID int8,
         EVAL_DUE_DATE timestamp,
         PROCESSING_STATUS int2,
+        SHARD_NO int4,
         primary key (ID)
     );
 
@@ -256,6 +293,17 @@
         primary key (ID)
     );
 
+    create table EVAL_JOB_SCHEDULE (
+        ID int8 not null,
+        LAST_MODIFIED timestamp not null,
+        EVALUATION_ID int8 not null,
+        JOB_TYPE varchar(255) not null,
+        FIRE_DATE timestamp not null,
+        CLAIMED_BY varchar(255),
+        CLAIMED_AT timestamp,
+        primary key (ID)
+    );
+
     create table EVAL_LOCK (
         ID int8 not null,
         LAST_MODIFIED timestamp not null,
@@ -394,6 +442,18 @@
 
     create index eval_answer_num on EVAL_ANSWER (NUM_ANSWER);
 
+    create index eval_answer_stats_count on EVAL_ANSWER_STATS (ANSWER_COUNT);
+
+    create index eval_answer_stats_eval on EVAL_ANSWER_STATS (EVALUATION_ID, GROUP_ID);
+
+    create index eval_email_outbox_due on EVAL_EMAIL_OUTBOX (STATUS, NEXT_ATTEMPT);
+
+    create index eval_email_outbox_eval on EVAL_EMAIL_OUTBOX (EVALUATION_ID, TEMPLATE_TYPE);
+
+    create index eval_job_schedule_fire on EVAL_JOB_SCHEDULE (FIRE_DATE);
+
+    create index eval_job_schedule_eval on EVAL_JOB_SCHEDULE (EVALUATION_ID, JOB_TYPE);
+
     alter table EVAL_ANSWER 
         add constraint ANSWER_RESPONSE_FKC 
         foreign key (RESPONSE_FK) 
@@ -460,6 +520,8 @@
 
     create index eval_emailq_evalid on EVAL_EMAIL_PROCESSING_QUEUE (EVALUATION_ID);
 
+    create index eval_emailq_shard on EVAL_EMAIL_PROCESSING_QUEUE (SHARD_NO, USER_ID, EMAIL_TEMPLATE_ID);
+
     create index eval_templ_owner on EVAL_EMAIL_TEMPLATE (OWNER);
 
     create index eval_templ_type on EVAL_EMAIL_TEMPLATE (TEMPLATE_TYPE);
@@ -15,12 +15,15 @@
 package org.sakaiproject.evaluation.dao;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.hibernate.Session;
 import org.hibernate.query.Query;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
@@ -38,10 +41,10 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport implements EvaluationAssignmentDao {
 
-    private EvaluationResponseDao responseDao;
-    public void setResponseDao(EvaluationResponseDao responseDao) {
-        this.responseDao = responseDao;
-    }
+    /**
+     * the number of user assignments written to the database in one JDBC batch (and flushed together)
+     */
+    protected static final int ASSIGN_USER_BATCH_SIZE = 500;
 
     public EvalAssignUser getAssignUserByEid(String eid) {
         return findOneByEid(EvalAssignUser.class, eid, "assignUser");
@@ -88,6 +91,36 @@ public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport i
         return count == null ? 0 : count.intValue();
     }
 
+    public Map<Long, Map<String, Integer>> countParticipantsByGroup(Long[] evaluationIds, String[] evalGroupIds) {
+        if (evaluationIds == null || evaluationIds.length == 0) {
+            throw new IllegalArgumentException("evaluationIds cannot be empty");
+        }
+        StringBuilder hql = new StringBuilder(
+                "select assignUser.evaluation.id, assignUser.evalGroupId, count(assignUser.id) from EvalAssignUser assignUser "
+                + "where assignUser.evaluation.id in (:evaluationIds) "
+                + "and assignUser.type = :assignType "
+                + "and assignUser.status != :removedStatus");
+        boolean restrictGroups = evalGroupIds != null && evalGroupIds.length > 0;
+        if (restrictGroups) {
+            hql.append(" and assignUser.evalGroupId in (:evalGroupIds)");
+        }
+        hql.append(" group by assignUser.evaluation.id, assignUser.evalGroupId");
+
+        Query<Object[]> query = currentSession().createQuery(hql.toString(), Object[].class)
+                .setParameterList("evaluationIds", evaluationIds)
+                .setParameter("assignType", EvalAssignUser.TYPE_EVALUATOR)
+                .setParameter("removedStatus", EvalAssignUser.STATUS_REMOVED);
+        if (restrictGroups) {
+            query.setParameterList("evalGroupIds", evalGroupIds);
+        }
+        Map<Long, Map<String, Integer>> counts = new LinkedHashMap<>();
+        for (Object[] row : query.list()) {
+            counts.computeIfAbsent((Long) row[0], k -> new LinkedHashMap<>())
+                    .put((String) row[1], ((Number) row[2]).intValue());
+        }
+        return counts;
+    }
+
     public List<EvalAssignGroup> getApprovedAssignGroupsForEvaluation(Long evaluationId, String evalGroupId) {
         if (evaluationId == null) {
             throw new IllegalArgumentException("evaluationId cannot be null");
@@ -277,6 +310,54 @@ public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport i
                 .list();
     }
 
+    /**
+     * Finds the assigned groups for the given eval groups in all evaluations in the given states,
+     * this is used to find the (evaluation, group) pairs affected when the membership of some groups changes
+     * 
+     * @param evalGroupIds the eval group ids to find assignments for
+     * @param includeSubgroups if true then also include the groups under each eval group
+     * (e.g. the groups in a site for /site/siteId, these have ids which start with the eval group id followed by a /)
+     * @param evalStates the states of the evaluations to include
+     * @return the assigned groups with the evaluation loaded, ordered by evaluation and eval group id
+     */
+    public List<EvalAssignGroup> getAssignGroupsForEvalGroupsInStates(Collection<String> evalGroupIds, boolean includeSubgroups, String[] evalStates) {
+        if (evalGroupIds == null) {
+            throw new IllegalArgumentException("evalGroupIds cannot be null");
+        }
+        if (evalStates == null) {
+            throw new IllegalArgumentException("evalStates cannot be null");
+        }
+        if (evalGroupIds.isEmpty() || evalStates.length == 0) {
+            return new ArrayList<>(0);
+        }
+        List<String> groupIds = new ArrayList<>(evalGroupIds);
+        StringBuilder hql = new StringBuilder(
+                "select assignGroup from EvalAssignGroup assignGroup join fetch assignGroup.evaluation eval "
+                + "where eval.state in (:evalStates) and (assignGroup.evalGroupId in (:evalGroupIds)");
+        if (includeSubgroups) {
+            for (int i = 0; i < groupIds.size(); i++) {
+                hql.append(" or assignGroup.evalGroupId like :subgroups").append(i);
+            }
+        }
+        hql.append(") order by eval.id, assignGroup.evalGroupId");
+        Query<EvalAssignGroup> query = currentSession().createQuery(hql.toString(), EvalAssignGroup.class)
+                .setParameterList("evalStates", evalStates)
+                .setParameterList("evalGroupIds", groupIds);
+        if (includeSubgroups) {
+            for (int i = 0; i < groupIds.size(); i++) {
+                query.setParameter("subgroups" + i, groupIds.get(i) + "/%");
+            }
+        }
+        List<EvalAssignGroup> assignGroups = query.list();
+        if (includeSubgroups) {
+            // like treats _ as a wildcard so drop anything which is not really under one of the groups
+            Set<String> exactIds = new HashSet<>(groupIds);
+            assignGroups.removeIf(assignGroup -> ! exactIds.contains(assignGroup.getEvalGroupId())
+                    && groupIds.stream().noneMatch(id -> assignGroup.getEvalGroupId().startsWith(id + "/")));
+        }
+        return assignGroups;
+    }
+
     public void deleteAssignHierarchyAndGroups(Set<EvalAssignHierarchy> assignHierarchies, Set<EvalAssignGroup> assignGroups) {
         if (assignHierarchies == null) {
             throw new IllegalArgumentException("assignHierarchies cannot be null");
@@ -288,13 +369,54 @@ public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport i
         deleteAll(assignHierarchies);
     }
 
+    /**
+     * Saves the user assignments with JDBC batching, large collections are flushed every
+     * {@link #ASSIGN_USER_BATCH_SIZE} assignments and the flushed assignments are evicted
+     * so the session does not grow with the number of assignments
+     */
     public void saveAssignUsers(Collection<EvalAssignUser> assignUsers) {
         if (assignUsers == null) {
             throw new IllegalArgumentException("assignUsers cannot be null");
         }
-        saveOrUpdateAll(assignUsers);
+        if (assignUsers.size() <= ASSIGN_USER_BATCH_SIZE) {
+            saveOrUpdateAll(assignUsers);
+            return;
+        }
+        Session session = currentSession();
+        Integer jdbcBatchSize = session.getJdbcBatchSize();
+        session.setJdbcBatchSize(ASSIGN_USER_BATCH_SIZE);
+        try {
+            List<EvalAssignUser> batch = new ArrayList<>(ASSIGN_USER_BATCH_SIZE);
+            for (EvalAssignUser assignUser : assignUsers) {
+                if (assignUser == null) {
+                    continue;
+                }
+                session.saveOrUpdate(assignUser);
+                batch.add(assignUser);
+                if (batch.size() == ASSIGN_USER_BATCH_SIZE) {
+                    flushAndEvict(session, batch);
+                }
+            }
+            flushAndEvict(session, batch);
+        } finally {
+            session.setJdbcBatchSize(jdbcBatchSize);
+        }
     }
 
+    private void flushAndEvict(Session session, List<EvalAssignUser> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        session.flush();
+        for (EvalAssignUser assignUser : batch) {
+            session.evict(assignUser);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Deletes the user assignments with bulk deletes (in chunks of ids) so they are never loaded
+     */
     public void deleteAssignUsersByIds(Long[] assignUserIds) {
         if (assignUserIds == null) {
             throw new IllegalArgumentException("assignUserIds cannot be null");
@@ -302,14 +424,30 @@ public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport i
         if (assignUserIds.length == 0) {
             return;
         }
-        List<EvalAssignUser> assignUsers = currentSession().createQuery(
-                "select assignUser from EvalAssignUser assignUser where assignUser.id in (:assignUserIds)",
-                EvalAssignUser.class)
-                .setParameterList("assignUserIds", assignUserIds)
-                .list();
-        for (EvalAssignUser assignUser : assignUsers) {
-            currentSession().delete(assignUser);
+        bulkDeleteAssignUsers(Arrays.asList(assignUserIds));
+    }
+
+    /**
+     * Deletes the user assignments with the given ids using bulk deletes of up to {@link #MAX_UPDATE_SIZE} ids,
+     * any of the assignments which are already in the session are evicted since bulk deletes skip the session
+     * 
+     * @param assignUserIds the ids of the user assignments to delete
+     * @return the number of user assignments deleted
+     */
+    private int bulkDeleteAssignUsers(List<Long> assignUserIds) {
+        Session session = currentSession();
+        for (EvalAssignUser assignUser : getSessionEntities(EvalAssignUser.class, assignUserIds)) {
+            session.evict(assignUser);
+        }
+
+        int deleted = 0;
+        for (int start = 0; start < assignUserIds.size(); start += MAX_UPDATE_SIZE) {
+            List<Long> chunk = assignUserIds.subList(start, Math.min(start + MAX_UPDATE_SIZE, assignUserIds.size()));
+            deleted += session.createQuery("delete from EvalAssignUser assignUser where assignUser.id in (:assignUserIds)")
+                    .setParameterList("assignUserIds", chunk)
+                    .executeUpdate();
         }
+        return deleted;
     }
 
     private int deleteAssignUsersByAssignGroupIdExcludingStatus(Long assignGroupId, String excludedStatus) {
@@ -319,18 +457,19 @@ public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport i
         if (excludedStatus == null) {
             throw new IllegalArgumentException("excludedStatus cannot be null");
         }
-        List<EvalAssignUser> assignUsers = currentSession().createQuery(
-                "select assignUser from EvalAssignUser assignUser "
+        // only the ids are loaded, the assignments are removed with bulk deletes
+        List<Long> assignUserIds = currentSession().createQuery(
+                "select assignUser.id from EvalAssignUser assignUser "
                 + "where assignUser.assignGroupId = :assignGroupId "
                 + "and assignUser.status <> :excludedStatus",
-                EvalAssignUser.class)
+                Long.class)
                 .setParameter("assignGroupId", assignGroupId)
                 .setParameter("excludedStatus", excludedStatus)
                 .list();
-        for (EvalAssignUser assignUser : assignUsers) {
-            currentSession().delete(assignUser);
+        if (assignUserIds.isEmpty()) {
+            return 0;
         }
-        return assignUsers.size();
+        return bulkDeleteAssignUsers(assignUserIds);
     }
 
 
@@ -341,7 +480,47 @@ public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport i
         if (evaluationId == null && (userId == null || "".equals(userId)) ) {
             throw new IllegalArgumentException("At least one of the following must be set: evaluationId, userId");
         }
+        return makeParticipantsQuery(evaluationId, userId, evalGroupIds, assignTypeConstant, assignStatusConstant,
+                includeConstant, evalStateConstant, false).list();
+    }
+
+    /**
+     * Get the participants for an evaluation in a set of groups using a single query,
+     * this is the same as calling {@link #getParticipantsForEval(Long, String, String[], String, String, String, String)}
+     * once for each group (the includeConstant is applied to the responses in the same group as each assignment)
+     * 
+     * @param evaluationId the id of an evaluation
+     * @param evalGroupIds (OPTIONAL) the groups to get participants for, all groups in the evaluation if null or empty
+     * @param assignTypeConstant (OPTIONAL) see getParticipantsForEval
+     * @param assignStatusConstant (OPTIONAL) see getParticipantsForEval
+     * @param includeConstant (OPTIONAL) see getParticipantsForEval
+     * @return a map of evalGroupId -> the list of user assignments in that group (ordered by id),
+     * groups with no matching participants are not included
+     */
+    public Map<String, List<EvalAssignUser>> getParticipantsForEvalByGroups(Long evaluationId, String[] evalGroupIds,
+            String assignTypeConstant, String assignStatusConstant, String includeConstant) {
+        if (evaluationId == null) {
+            throw new IllegalArgumentException("evaluationId must be set");
+        }
+        List<EvalAssignUser> results = makeParticipantsQuery(evaluationId, null, evalGroupIds, assignTypeConstant,
+                assignStatusConstant, includeConstant, null, true).list();
+        Map<String, List<EvalAssignUser>> participants = new LinkedHashMap<>();
+        for (EvalAssignUser eau : results) {
+            participants.computeIfAbsent(eau.getEvalGroupId(), k -> new ArrayList<>()).add(eau);
+        }
+        return participants;
+    }
 
+    /**
+     * Builds the query for the participants methods, the includeConstant is handled
+     * with a correlated exists/not exists subquery against the responses
+     * 
+     * @param responsesInSameGroup if true then only responses in the same group as the assignment are considered
+     * for the includeConstant, otherwise responses in any of the evalGroupIds (or any group if none are set)
+     */
+    private Query<EvalAssignUser> makeParticipantsQuery(Long evaluationId, String userId,
+            String[] evalGroupIds, String assignTypeConstant, String assignStatusConstant, 
+            String includeConstant, String evalStateConstant, boolean responsesInSameGroup) {
         String joinHQL = "";
 
         String evalHQL = "";
@@ -354,8 +533,9 @@ public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport i
             evalStateHQL = " and eval.state = :evalStateConstant";
             joinHQL = " join eau.evaluation eval";
         }
+        boolean limitGroups = evalGroupIds != null && evalGroupIds.length > 0;
         String groupsHQL = "";
-        if (evalGroupIds != null && evalGroupIds.length > 0) {
+        if (limitGroups) {
             groupsHQL = " and eau.evalGroupId in (:evalGroupIds)";
         }
         String assignTypeHQL = "";
@@ -378,29 +558,28 @@ public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport i
         if (userId != null && ! "".equals(userId)) {
             userHQL = " and eau.userId = :userId";
         }
-        boolean includeFilterUsers = false;
-        Set<String> userFilter = null;
+        String includeHQL = "";
         if (includeConstant != null) {
             EvalUtils.validateEmailIncludeConstant(includeConstant);
-            String[] groupIds = new String[] {};
-            if (evalGroupIds != null && evalGroupIds.length > 0) {
-                groupIds = evalGroupIds;
-            }
             // force the results to only include eval takers
             assignTypeHQL = " and eau.type = :assignType";
-            // now set up the filter
+            // now set up the filter on the responses for the same evaluation and user
+            String responseHQL = "select response.id from EvalResponse response"
+                    + " where response.evaluation.id = eau.evaluation.id and response.owner = eau.userId";
+            if (responsesInSameGroup) {
+                responseHQL += " and response.evalGroupId = eau.evalGroupId";
+            } else if (limitGroups) {
+                responseHQL += " and response.evalGroupId in (:evalGroupIds)";
+            }
             if (EvalConstants.EVAL_INCLUDE_NONTAKERS.equals(includeConstant)) {
-                // get all users who have responded either way
-                userFilter = responseDao.getResponseUserIds(evaluationId, groupIds, null); // exclude
-                includeFilterUsers = false; // INVERT the search
+                // exclude all users who have responded either way
+                includeHQL = " and not exists (" + responseHQL + ")";
             } else if (EvalConstants.EVAL_INCLUDE_RESPONDENTS.equals(includeConstant)) {
-                // get all users who have responded
-                userFilter = responseDao.getResponseUserIds(evaluationId, groupIds, true);
-                includeFilterUsers = true;
+                // only users who have responded
+                includeHQL = " and exists (" + responseHQL + " and response.endTime is not null)";
             } else if (EvalConstants.EVAL_INCLUDE_IN_PROGRESS.equals(includeConstant)) {
-                // get all users who have saved
-                userFilter = responseDao.getResponseUserIds(evaluationId, groupIds, false);
-                includeFilterUsers = true;
+                // only users who have saved
+                includeHQL = " and exists (" + responseHQL + " and response.endTime is null)";
             } else if (EvalConstants.EVAL_INCLUDE_ALL.equals(includeConstant)) {
                 // do nothing
             } else {
@@ -410,7 +589,7 @@ public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport i
 
         // get the assignments based on the search/HQL
         String hql = "select eau from EvalAssignUser eau "+joinHQL+" where 1=1 "+evalHQL+userHQL+evalStateHQL+assignStatusHQL+assignTypeHQL+groupsHQL
-        +" order by eau.id";
+        +includeHQL+" order by eau.id";
         Query<EvalAssignUser> query = currentSession().createQuery(hql, EvalAssignUser.class);
         if (evaluationId != null) {
             query.setParameter("evalId", evaluationId);
@@ -418,7 +597,7 @@ public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport i
         if (evalStateConstant != null) {
             query.setParameter("evalStateConstant", evalStateConstant);
         }
-        if (evalGroupIds != null && evalGroupIds.length > 0) {
+        if (limitGroups) {
             query.setParameterList("evalGroupIds", evalGroupIds);
         }
         if (assignTypeConstant != null && includeConstant == null) {
@@ -435,40 +614,7 @@ public class EvaluationAssignmentDaoImpl extends EvaluationDaoHibernateSupport i
         if (userId != null && ! "".equals(userId)) {
             query.setParameter("userId", userId);
         }
-        List<EvalAssignUser> results = query.list();
-        List<EvalAssignUser> assignments = new ArrayList<>( results );
-
-        // This code is potentially expensive but there is not really a better way to handle it -AZ
-        if (userFilter != null) {
-            if (userFilter.isEmpty()) {
-                // employ shortcuts when the filter set is empty
-                if (includeFilterUsers) {
-                    // no one to include so just wipe the set
-                    assignments.clear();
-                } else {
-                    // no one to exclude to just return the complete set
-                }
-            } else {
-                // filter the results based on the userFilter
-                for (Iterator<EvalAssignUser> iterator = assignments.iterator(); iterator.hasNext();) {
-                    EvalAssignUser evalAssignUser = iterator.next();
-                    String uid = evalAssignUser.getUserId();
-                    if (includeFilterUsers) {
-                        // only include users in the filter
-                        if (! userFilter.contains(uid)) {
-                            iterator.remove();
-                        }
-                    } else {
-                        // exclude all users in the filter
-                        if (userFilter.contains(uid)) {
-                            iterator.remove();
-                        }
-                    }
-                }
-            }
-        }
-
-        return assignments;
+        return query;
     }
 
     /*  SELECT * FROM eval_evaluation as EVAL
@@ -21,6 +21,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
 import org.hibernate.query.Query;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
@@ -535,6 +537,34 @@ public class EvaluationAuthoringDaoImpl extends EvaluationDaoHibernateSupport im
         return getTemplateItemsByTemplates(new Long[] {templateId}, nodeIds, instructorIds, groupIds);
     }
 
+    public List<EvalTemplateItem> getDetachedTemplateItemsByTemplate(Long templateId) {
+        List<EvalTemplateItem> templateItems = getTemplateItemsByTemplates(new Long[] {templateId},
+                new String[] {}, new String[] {}, new String[] {});
+        Session session = currentSession();
+        // load everything first since evicting one entity can leave a shared item or scale half loaded
+        for (EvalTemplateItem templateItem : templateItems) {
+            EvalItem item = templateItem.getItem();
+            if (item != null && item.getScale() != null) {
+                Hibernate.initialize(item.getScale().getOptions());
+            }
+        }
+        for (EvalTemplateItem templateItem : templateItems) {
+            EvalItem item = templateItem.getItem();
+            if (item != null) {
+                if (item.getScale() != null && session.contains(item.getScale())) {
+                    session.evict(item.getScale());
+                }
+                if (session.contains(item)) {
+                    session.evict(item);
+                }
+            }
+            if (session.contains(templateItem)) {
+                session.evict(templateItem);
+            }
+        }
+        return templateItems;
+    }
+
 
     /**
      * Get all the templateItems for this evaluation limited by the various hierarchy
@@ -668,6 +698,23 @@ public class EvaluationAuthoringDaoImpl extends EvaluationDaoHibernateSupport im
         return null;
     }
 
+    /**
+     * @param evalId the unique id of an {@link EvalEvaluation} object
+     * @return the template used by this evaluation OR null if the evaluation cannot be found
+     */
+    public EvalTemplate getTemplateForEvaluation(Long evalId) {
+        List<EvalTemplate> results = currentSession().createQuery(
+                "select eval.template from EvalEvaluation eval where eval.id = :evalid",
+                EvalTemplate.class)
+                .setParameter("evalid", evalId)
+                .list();
+
+        if (!results.isEmpty()) {
+            return results.get(0);
+        }
+        return null;
+    }
+
     public EvalScale getScaleById(Long scaleId) {
         return findById(EvalScale.class, scaleId);
     }
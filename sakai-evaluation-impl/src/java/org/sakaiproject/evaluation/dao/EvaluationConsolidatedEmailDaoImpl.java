@@ -29,6 +29,7 @@ import org.hibernate.query.Query;
 import org.hibernate.type.DateType;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.model.EvalAssignUser;
+import org.sakaiproject.evaluation.model.EvalEmailOutbox;
 import org.springframework.dao.DataAccessResourceFailureException;
 
 import lombok.extern.slf4j.Slf4j;
@@ -39,6 +40,18 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class EvaluationConsolidatedEmailDaoImpl extends EvaluationDaoHibernateSupport implements EvaluationConsolidatedEmailDao {
 
+    /**
+     * {@link org.sakaiproject.evaluation.model.EvalEmailProcessingData#getProcessingStatus()} for an entry whose page was taken
+     */
+    protected static final Byte PROCESSING_STATUS_PROCESSED = (byte) 1;
+
+    /**
+     * the queued (user, template) pairs from first to last inclusive, in keyset order
+     */
+    private static final String PAGE_RANGE_WHERE = 
+            "where (userId > :firstUserId or (userId = :firstUserId and emailTemplateId >= :firstTemplateId)) "
+            + "and (userId < :lastUserId or (userId = :lastUserId and emailTemplateId <= :lastTemplateId)) ";
+
     /*
      * (non-Javadoc)
      * @see org.sakaiproject.evaluation.dao.EvaluationDao#countDistinctGroupsInConsolidatedEmailMapping()
@@ -52,113 +65,197 @@ public class EvaluationConsolidatedEmailDaoImpl extends EvaluationDaoHibernateSu
     }
 
 
-	public List<Map<String,Object>>  getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, int page) {
-    	String query1 = "select userId,emailTemplateId,min(evalDueDate) from EvalEmailProcessingData group by emailTemplateId,userId order by emailTemplateId,userId";
-    	
-    	if(log.isDebugEnabled()) {
-    		log.debug("getConsolidatedEmailMapping(" + sendingAvailableEmails + ", " + pageSize + ", " + page + ")");
-    	}
-    	
-    	List<Map<String,Object>> rv = new ArrayList<>();
-    	
-    	Session session = currentSession();
-    	
-        Query<Object[]> query = session.createQuery(query1, Object[].class);
-        query.setFirstResult(pageSize * page);
-        query.setMaxResults(pageSize);
-        
-    	List<String> userIdList = new ArrayList<>();
-    	Long previousTemplateId = null;
-    	Long templateId = null;
-    	
-        List<Object[]> results = query.list();
-
-        if(results != null) {
-        	log.info("found items from email-processing-queue: " + results.size());
-
-            for(int i = 0; i < results.size(); i++) {
-                Object[] row = results.get(i);
-                String userId = (String) row[0];
-                templateId = (Long) row[1];
-                Date earliestDueDate = (Date)row[2];
-                if(userId == null || templateId == null) {
-                    continue;
-                }
-                if(previousTemplateId == null ) {
-                    previousTemplateId = templateId;
-                }
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationConsolidatedEmailDao#getConsolidatedEmailMapping(boolean, int, java.lang.Integer, java.lang.String, java.lang.Long)
+     */
+	public List<Map<String,Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, 
+			Integer shard, String afterUserId, Long afterEmailTemplateId) {
+		if (afterUserId != null && afterEmailTemplateId == null) {
+			throw new IllegalArgumentException("afterEmailTemplateId must be set when afterUserId is set");
+		}
+		if(log.isDebugEnabled()) {
+			log.debug("getConsolidatedEmailMapping(" + sendingAvailableEmails + ", " + pageSize + ", " + shard + ", " + afterUserId + ", " + afterEmailTemplateId + ")");
+		}
 
-                Map<String,Object> map = new HashMap<>();
+		// keyset paging on (userId, emailTemplateId) which matches the eval_user_temp_map index,
+		// so each page starts where the last one stopped instead of skipping over all the earlier rows
+		StringBuilder hql = new StringBuilder("select userId,emailTemplateId,min(evalDueDate) from EvalEmailProcessingData ");
+		hql.append("where userId is not null and emailTemplateId is not null and processingStatus is null ");
+		if (shard != null) {
+			hql.append("and shard = :shard ");
+		}
+		if (afterUserId != null) {
+			hql.append("and (userId > :afterUserId or (userId = :afterUserId and emailTemplateId > :afterEmailTemplateId)) ");
+		}
+		hql.append("group by userId,emailTemplateId order by userId,emailTemplateId");
 
-                map.put(EvalConstants.KEY_USER_ID, userId);
-                map.put(EvalConstants.KEY_EMAIL_TEMPLATE_ID,templateId);
-                map.put(EvalConstants.KEY_EARLIEST_DUE_DATE,earliestDueDate);
-                rv.add(map);
-                log.info("added email-processing entry for user: " + userId + " templateId: " + templateId);
-                if(templateId.longValue() != previousTemplateId.longValue() || userIdList.size() > MAX_UPDATE_SIZE) {
-                    // mark eval_assign_user records as sent 
-                    markRecordsAsSent(session, sendingAvailableEmails, templateId,
-                            userIdList);
-                }
-                userIdList.add(userId);
-                //updates.add((Long) row[0]);
-            }
-        }
+		Session session = currentSession();
+		Query<Object[]> query = session.createQuery(hql.toString(), Object[].class);
+		if (shard != null) {
+			query.setParameter("shard", shard);
+		}
+		if (afterUserId != null) {
+			query.setParameter("afterUserId", afterUserId);
+			query.setParameter("afterEmailTemplateId", afterEmailTemplateId);
+		}
+		query.setMaxResults(pageSize);
+		List<Object[]> results = query.list();
 
-		if(templateId == null || userIdList.isEmpty() ) {
-			log.info("Can't mark EvalAssignUser records due to null values: userId == " + userIdList + "   templateId == " + templateId);
-    	} else {
-			// mark eval_assign_user records as sent 
-	    	markRecordsAsSent(session, sendingAvailableEmails, templateId,
-					userIdList);
+		List<Map<String,Object>> rv = new ArrayList<>(results.size());
+		for (Object[] row : results) {
+			Map<String,Object> map = new HashMap<>();
+			map.put(EvalConstants.KEY_USER_ID, row[0]);
+			map.put(EvalConstants.KEY_EMAIL_TEMPLATE_ID, row[1]);
+			map.put(EvalConstants.KEY_EARLIEST_DUE_DATE, row[2]);
+			rv.add(map);
+		}
+		log.info("found items from email-processing-queue: " + rv.size());
 
-    	}
-        
-    	return rv;
-    }
+		if (! rv.isEmpty()) {
+			// mark eval_assign_user records as sent for the whole page at once
+			Object[] first = results.get(0);
+			Object[] last = results.get(results.size() - 1);
+			markRecordsAsSent(session, sendingAvailableEmails, shard, (String) first[0], (Long) first[1], (String) last[0], (Long) last[1]);
+			// then mark the queue entries as processed so a later run picks up after the last page that was taken
+			markQueueEntriesAsProcessed(session, shard, (String) first[0], (Long) first[1], (String) last[0], (Long) last[1]);
+		}
+		return rv;
+	}
 
 	/**
+	 * Marks the EvalAssignUser records for all the queued (user, template) pairs from first to last 
+	 * (inclusive, in keyset order) as sent with a single update
 	 * 
 	 * @param session
-	 * @param sendingAvailableEmails
-	 * @param templateId
-	 * @param userIdList
+	 * @param sendingAvailableEmails if true then set the availableEmailSent date, else the reminderEmailSent date
+	 * @param shard only mark the queued pairs in this shard, null for all shards
+	 * @param firstUserId the user id of the first pair on the page
+	 * @param firstTemplateId the template id of the first pair on the page
+	 * @param lastUserId the user id of the last pair on the page
+	 * @param lastTemplateId the template id of the last pair on the page
+	 * @return the number of EvalAssignUser records updated
 	 */
-	protected void markRecordsAsSent(Session session,
-			boolean sendingAvailableEmails, Long templateId,
-			List<String> userIdList) {
-		
-		
+	protected int markRecordsAsSent(Session session, boolean sendingAvailableEmails, Integer shard,
+			String firstUserId, Long firstTemplateId, String lastUserId, Long lastTemplateId) {
 		StringBuilder hqlBuffer = new StringBuilder();
-		
 		hqlBuffer.append("update EvalAssignUser ");
 		if(sendingAvailableEmails) {
 			hqlBuffer.append("set availableEmailSent = :dateSent ");
 		} else {
 			hqlBuffer.append("set reminderEmailSent = :dateSent ");
 		}
-		hqlBuffer.append("where id in (select eauId from EvalEmailProcessingData where emailTemplateId = :emailTemplateId and userId = :userId)");
-		
-		Query<?> updateQuery = session.createQuery(hqlBuffer.toString());
-		
-		updateQuery.setParameter("dateSent", new Date());
-		updateQuery.setParameter("emailTemplateId", templateId);
-		
-		for(String userId : userIdList) {
-			try {
-				
-				updateQuery.setParameter("userId", userId);
-				updateQuery.executeUpdate();
-				
-			} catch (HibernateException e) {
-				log.warn("Error trying to update evalAssignUser. " + userId, e);
-			}
+		hqlBuffer.append("where id in (select eauId from EvalEmailProcessingData ");
+		hqlBuffer.append(PAGE_RANGE_WHERE);
+		if (shard != null) {
+			hqlBuffer.append("and shard = :shard ");
+		}
+		hqlBuffer.append(")");
+
+		int updated = 0;
+		try {
+			Query<?> query = session.createQuery(hqlBuffer.toString())
+					.setParameter("dateSent", new Date());
+			updated = setPageRangeParameters(query, shard, firstUserId, firstTemplateId, lastUserId, lastTemplateId)
+					.executeUpdate();
+		} catch (HibernateException e) {
+			log.warn("Error trying to update evalAssignUser records from (" + firstUserId + ", " + firstTemplateId 
+					+ ") to (" + lastUserId + ", " + lastTemplateId + ")", e);
 		}
 		if(log.isDebugEnabled()) {
-			log.debug("         --> marked entries for users: " + userIdList);
+			log.debug("         --> marked " + updated + " entries for users from " + firstUserId + " to " + lastUserId);
+		}
+		return updated;
+	}
+
+	/**
+	 * Marks the queued (user, template) pairs from first to last (inclusive, in keyset order) as processed,
+	 * processed entries are skipped by {@link #getConsolidatedEmailMapping(boolean, int, Integer, String, Long)}
+	 * 
+	 * @param session
+	 * @param shard only mark the queued pairs in this shard, null for all shards
+	 * @param firstUserId the user id of the first pair on the page
+	 * @param firstTemplateId the template id of the first pair on the page
+	 * @param lastUserId the user id of the last pair on the page
+	 * @param lastTemplateId the template id of the last pair on the page
+	 * @return the number of queue entries updated
+	 */
+	protected int markQueueEntriesAsProcessed(Session session, Integer shard,
+			String firstUserId, Long firstTemplateId, String lastUserId, Long lastTemplateId) {
+		StringBuilder hqlBuffer = new StringBuilder();
+		hqlBuffer.append("update EvalEmailProcessingData set processingStatus = :processed ");
+		hqlBuffer.append(PAGE_RANGE_WHERE);
+		if (shard != null) {
+			hqlBuffer.append("and shard = :shard ");
+		}
+
+		int updated = 0;
+		try {
+			Query<?> query = session.createQuery(hqlBuffer.toString())
+					.setParameter("processed", PROCESSING_STATUS_PROCESSED);
+			updated = setPageRangeParameters(query, shard, firstUserId, firstTemplateId, lastUserId, lastTemplateId)
+					.executeUpdate();
+		} catch (HibernateException e) {
+			log.warn("Error trying to update email processing queue from (" + firstUserId + ", " + firstTemplateId 
+					+ ") to (" + lastUserId + ", " + lastTemplateId + ")", e);
+		}
+		return updated;
+	}
+
+	private Query<?> setPageRangeParameters(Query<?> query, Integer shard,
+			String firstUserId, Long firstTemplateId, String lastUserId, Long lastTemplateId) {
+		query.setParameter("firstUserId", firstUserId)
+				.setParameter("firstTemplateId", firstTemplateId)
+				.setParameter("lastUserId", lastUserId)
+				.setParameter("lastTemplateId", lastTemplateId);
+		if (shard != null) {
+			query.setParameter("shard", shard);
 		}
-		session.flush();
-		userIdList.clear();
+		return query;
+	}
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationConsolidatedEmailDao#assignConsolidatedEmailShards(int)
+     */
+	public int assignConsolidatedEmailShards(int shards) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("shards must be at least 1: " + shards);
+		}
+		Session session = currentSession();
+		List<String> userIds = session.createQuery(
+				"select distinct userId from EvalEmailProcessingData where userId is not null and shard is null",
+				String.class)
+				.list();
+
+		// group the users by shard so each shard is assigned with a few bulk updates
+		Map<Integer, List<String>> usersByShard = new HashMap<>();
+		for (String userId : userIds) {
+			usersByShard.computeIfAbsent(getConsolidatedEmailShard(userId, shards), k -> new ArrayList<>()).add(userId);
+		}
+
+		int updated = 0;
+		for (Map.Entry<Integer, List<String>> entry : usersByShard.entrySet()) {
+			List<String> shardUsers = entry.getValue();
+			for (int i = 0; i < shardUsers.size(); i += MAX_UPDATE_SIZE) {
+				updated += session.createQuery(
+						"update EvalEmailProcessingData set shard = :shard where userId in (:userIds)")
+						.setParameter("shard", entry.getKey())
+						.setParameterList("userIds", shardUsers.subList(i, Math.min(i + MAX_UPDATE_SIZE, shardUsers.size())))
+						.executeUpdate();
+			}
+		}
+		log.debug("Assigned " + updated + " email processing queue entries for " + userIds.size() + " users to " + shards + " shards");
+		return updated;
+	}
+
+	/**
+	 * @param userId the user id
+	 * @param shards the total number of shards
+	 * @return the shard (0 to shards - 1) for this user, the same user always lands in the same shard
+	 */
+	public static int getConsolidatedEmailShard(String userId, int shards) {
+		return Math.floorMod(userId.hashCode(), shards);
 	}
 
     /*
@@ -266,4 +363,94 @@ public class EvaluationConsolidatedEmailDaoImpl extends EvaluationDaoHibernateSu
             return new HashSet<>(query.list());
         }
     }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationConsolidatedEmailDao#saveOutboxEmail(org.sakaiproject.evaluation.model.EvalEmailOutbox)
+     */
+    public void saveOutboxEmail(EvalEmailOutbox outboxEmail) {
+        if (outboxEmail == null) {
+            throw new IllegalArgumentException("outboxEmail cannot be null");
+        }
+        outboxEmail.setLastModified(new Date());
+        save(outboxEmail);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationConsolidatedEmailDao#getDueOutboxEmails(java.util.Date, int)
+     */
+    public List<EvalEmailOutbox> getDueOutboxEmails(Date now, int maxResults) {
+        return currentSession().createQuery(
+                "from EvalEmailOutbox eo where eo.status in (:statuses) and eo.nextAttempt <= :now "
+                + "order by eo.emailTemplateType, eo.evalGroupId, eo.id",
+                EvalEmailOutbox.class)
+                .setParameterList("statuses", new String[] {EvalEmailOutbox.STATUS_PENDING, EvalEmailOutbox.STATUS_SENDING})
+                .setParameter("now", now)
+                .setMaxResults(maxResults)
+                .list();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationConsolidatedEmailDao#claimOutboxEmail(java.lang.Long, java.util.Date, java.util.Date)
+     */
+    public boolean claimOutboxEmail(Long outboxId, Date now, Date leaseUntil) {
+        // the conditional update makes the claim atomic, a second server sees the new lease and updates nothing
+        int updated = currentSession().createQuery(
+                "update EvalEmailOutbox set status = :sending, nextAttempt = :leaseUntil, lastModified = :now "
+                + "where id = :id and status in (:statuses) and nextAttempt <= :now")
+                .setParameter("sending", EvalEmailOutbox.STATUS_SENDING)
+                .setParameter("leaseUntil", leaseUntil)
+                .setParameter("now", now)
+                .setParameter("id", outboxId)
+                .setParameterList("statuses", new String[] {EvalEmailOutbox.STATUS_PENDING, EvalEmailOutbox.STATUS_SENDING})
+                .executeUpdate();
+        return updated == 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationConsolidatedEmailDao#getOutboxEmailGroupIds(java.lang.Long, java.lang.String, java.lang.String, java.lang.String)
+     */
+    public Set<String> getOutboxEmailGroupIds(Long evaluationId, String emailTemplateType, String recipientType, String runId) {
+        String hql = "select distinct eo.evalGroupId from EvalEmailOutbox eo where eo.evaluationId = :evaluationId "
+                + "and eo.emailTemplateType = :emailTemplateType and eo.runId = :runId";
+        if (recipientType != null) {
+            hql += " and eo.recipientType = :recipientType";
+        }
+        Query<String> query = currentSession().createQuery(hql, String.class)
+                .setParameter("evaluationId", evaluationId)
+                .setParameter("emailTemplateType", emailTemplateType)
+                .setParameter("runId", runId);
+        if (recipientType != null) {
+            query.setParameter("recipientType", recipientType);
+        }
+        return new HashSet<>(query.list());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationConsolidatedEmailDao#countOutboxEmails(java.lang.String)
+     */
+    public int countOutboxEmails(String status) {
+        Long count = currentSession().createQuery(
+                "select count(eo) from EvalEmailOutbox eo where eo.status = :status",
+                Long.class)
+                .setParameter("status", status)
+                .uniqueResult();
+        return count == null ? 0 : count.intValue();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.dao.EvaluationConsolidatedEmailDao#deleteSentOutboxEmails(java.util.Date)
+     */
+    public int deleteSentOutboxEmails(Date sentBefore) {
+        return currentSession().createQuery(
+                "delete from EvalEmailOutbox where status = :status and lastModified < :sentBefore")
+                .setParameter("status", EvalEmailOutbox.STATUS_SENT)
+                .setParameter("sentBefore", sentBefore)
+                .executeUpdate();
+    }
 }
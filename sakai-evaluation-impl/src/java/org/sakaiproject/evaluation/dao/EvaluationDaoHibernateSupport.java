@@ -30,6 +30,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityKey;
 import org.hibernate.metadata.ClassMetadata;
 import org.hibernate.query.NativeQuery;
 import org.hibernate.query.Query;
@@ -226,6 +227,29 @@ abstract class EvaluationDaoHibernateSupport extends HibernateDaoSupport {
         }
     }
 
+    /**
+     * Find the entities of a type which are already in the current session, this never goes to the database,
+     * used to bring the session up to date after a bulk update or delete (which skip the session)
+     * 
+     * @param type the entity class
+     * @param ids the ids of the entities to look for
+     * @return the entities with those ids which are in the session (may be empty)
+     */
+    protected <T> List<T> getSessionEntities(Class<T> type, Collection<? extends Serializable> ids) {
+        Session session = currentSession();
+        Set<Serializable> idSet = new HashSet<>(ids);
+        List<T> entities = new ArrayList<>();
+        for (Object key : session.getStatistics().getEntityKeys()) {
+            EntityKey entityKey = (EntityKey) key;
+            if (type.getName().equals(entityKey.getEntityName())
+                    && idSet.contains(entityKey.getIdentifier())) {
+                // already in the session so this does not go to the database
+                entities.add(session.get(type, entityKey.getIdentifier()));
+            }
+        }
+        return entities;
+    }
+
     /**
      * This really does not work for most cases so be very careful with it
      * @param object
@@ -161,8 +161,10 @@ public class EvaluationLockDaoImpl extends EvaluationDaoHibernateSupport impleme
                 // already locked, no change
                 return false;
             } else {
-                // lock template and associated items (if set)
+                // lock template and associated items (if set),
+                // the last modified date is the version of this lock (used to key the compiled template)
                 template.setLocked(Boolean.TRUE);
+                template.setLastModified(new Date());
                 if (template.getTemplateItems() != null && template.getTemplateItems().size() > 0) {
                     // loop through and lock all related items
                     for( EvalTemplateItem eti : template.getTemplateItems() )
@@ -259,6 +261,63 @@ public class EvaluationLockDaoImpl extends EvaluationDaoHibernateSupport impleme
         }
     }
 
+    /**
+     * Lock an evaluation and the whole template/item/scale graph under it using bulk updates,
+     * this is the same end state as {@link #lockEvaluation(EvalEvaluation, Boolean)} with a lockState of true
+     * but it does not walk the template items one at a time<br/>
+     * <b>NOTE:</b> the bulk updates bypass the session, the evaluation and template are refreshed
+     * afterwards but any other items or scales already loaded into the session will be stale
+     * 
+     * @param evaluationId the id of a saved evaluation
+     * @return true if the evaluation was locked by this call, false if it was already locked
+     */
+    public boolean lockEvaluationGraph(Long evaluationId) {
+        log.debug("evaluationId:" + evaluationId);
+        if (evaluationId == null) {
+            throw new IllegalStateException("Cannot change lock state on an unsaved evaluation object");
+        }
+
+        EvalEvaluation evaluation = currentSession().get(EvalEvaluation.class, evaluationId);
+        if (evaluation == null) {
+            throw new IllegalArgumentException("Cannot find evaluation with id: " + evaluationId);
+        }
+        if (evaluation.getLocked()) {
+            // already locked, no change
+            return false;
+        }
+        Long templateId = evaluation.getTemplate().getId();
+
+        // flush pending changes so the bulk updates do not get overwritten by them
+        currentSession().flush();
+
+        int scales = currentSession().createQuery(
+                "update EvalScale scale set scale.locked = true where scale.locked = false and scale.id in "
+                + "(select templateItem.item.scale.id from EvalTemplateItem templateItem where templateItem.template.id = :templateId)")
+                .setParameter("templateId", templateId)
+                .executeUpdate();
+        int items = currentSession().createQuery(
+                "update EvalItem item set item.locked = true where item.locked = false and item.id in "
+                + "(select templateItem.item.id from EvalTemplateItem templateItem where templateItem.template.id = :templateId)")
+                .setParameter("templateId", templateId)
+                .executeUpdate();
+        currentSession().createQuery(
+                "update EvalTemplate template set template.locked = true, template.lastModified = :lockDate "
+                + "where template.locked = false and template.id = :templateId")
+                .setParameter("lockDate", new Date())
+                .setParameter("templateId", templateId)
+                .executeUpdate();
+        int evaluations = currentSession().createQuery(
+                "update EvalEvaluation evaluation set evaluation.locked = true where evaluation.locked = false and evaluation.id = :evaluationId")
+                .setParameter("evaluationId", evaluationId)
+                .executeUpdate();
+
+        currentSession().refresh(evaluation);
+        currentSession().refresh(evaluation.getTemplate());
+        log.debug("Locked evaluation (" + evaluationId + "), template (" + templateId + "), "
+                + items + " items and " + scales + " scales");
+        return evaluations > 0;
+    }
+
     // IN_USE checks
 
     /**
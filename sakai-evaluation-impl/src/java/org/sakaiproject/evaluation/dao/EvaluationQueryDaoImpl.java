@@ -22,11 +22,13 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Session;
 import org.hibernate.query.Query;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalAssignUser;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.model.EvalJobSchedule;
 import org.sakaiproject.evaluation.utils.ComparatorsUtils;
 
 import lombok.extern.slf4j.Slf4j;
@@ -167,6 +169,186 @@ public class EvaluationQueryDaoImpl extends EvaluationDaoHibernateSupport implem
         return query.list();
     }
 
+    public List<Long> getEvaluationIdsNeedingState(String state, Date now) {
+        String datesHQL = getStateDatesHQL(state);
+        if (now == null) {
+            throw new IllegalArgumentException("now cannot be null");
+        }
+        return currentSession().createQuery(
+                "select evaluation.id from EvalEvaluation evaluation "
+                + "where evaluation.state not in (:fixedStates) and evaluation.state <> :state and "
+                + datesHQL + " order by evaluation.id",
+                Long.class)
+                .setParameterList("fixedStates", EXCLUDED_PARTIAL_AND_DELETED_STATES)
+                .setParameter("state", state)
+                .setParameter("now", now)
+                .list();
+    }
+
+    public int updateEvaluationStates(List<Long> evaluationIds, String state, Date now) {
+        String datesHQL = getStateDatesHQL(state);
+        if (now == null) {
+            throw new IllegalArgumentException("now cannot be null");
+        }
+        if (evaluationIds == null || evaluationIds.isEmpty()) {
+            return 0;
+        }
+        Session session = currentSession();
+        // flush pending changes so the bulk update does not get overwritten by them
+        session.flush();
+
+        int updated = 0;
+        for (int start = 0; start < evaluationIds.size(); start += MAX_UPDATE_SIZE) {
+            List<Long> chunk = evaluationIds.subList(start, Math.min(start + MAX_UPDATE_SIZE, evaluationIds.size()));
+            // the dates are checked again in case the evaluation was changed since the ids were fetched
+            updated += session.createQuery(
+                    "update EvalEvaluation evaluation set evaluation.state = :state "
+                    + "where evaluation.id in (:evaluationIds) and evaluation.state not in (:fixedStates) and "
+                    + datesHQL)
+                    .setParameter("state", state)
+                    .setParameterList("evaluationIds", chunk)
+                    .setParameterList("fixedStates", EXCLUDED_PARTIAL_AND_DELETED_STATES)
+                    .setParameter("now", now)
+                    .executeUpdate();
+        }
+
+        // bring any evaluations already in the session up to date with the new state
+        for (EvalEvaluation evaluation : getSessionEntities(EvalEvaluation.class, evaluationIds)) {
+            session.refresh(evaluation);
+        }
+        return updated;
+    }
+
+    /**
+     * The HQL condition on the evaluation dates (using the :now param) which matches
+     * the evaluations which should be in the given state, this has to match the rules in
+     * {@link org.sakaiproject.evaluation.utils.EvalUtils#getEvaluationState(EvalEvaluation, boolean)}
+     * 
+     * @param state one of the date based EVALUATION_STATE constants
+     * @return the HQL condition
+     */
+    private static String getStateDatesHQL(String state) {
+        String pastDue = "evaluation.startDate <= :now and evaluation.dueDate <= :now ";
+        String pastStop = pastDue + "and (evaluation.stopDate is null or evaluation.stopDate <= :now) ";
+        if (EvalConstants.EVALUATION_STATE_INQUEUE.equals(state)) {
+            return "evaluation.startDate > :now";
+        } else if (EvalConstants.EVALUATION_STATE_ACTIVE.equals(state)) {
+            return "evaluation.startDate <= :now and (evaluation.dueDate is null or evaluation.dueDate > :now)";
+        } else if (EvalConstants.EVALUATION_STATE_GRACEPERIOD.equals(state)) {
+            return pastDue + "and evaluation.stopDate > :now";
+        } else if (EvalConstants.EVALUATION_STATE_CLOSED.equals(state)) {
+            return pastStop + "and evaluation.viewDate > :now";
+        } else if (EvalConstants.EVALUATION_STATE_VIEWABLE.equals(state)) {
+            return pastStop + "and (evaluation.viewDate is null or evaluation.viewDate <= :now)";
+        }
+        throw new IllegalArgumentException("state must be one of the date based evaluation states: " + state);
+    }
+
+    public List<EvalJobSchedule> getScheduledJobs(Long evaluationId, String jobType) {
+        if (evaluationId == null) {
+            throw new IllegalArgumentException("evaluationId cannot be null");
+        }
+        String hql = "from EvalJobSchedule job where job.evaluationId = :evaluationId";
+        if (jobType != null) {
+            hql += " and job.jobType = :jobType";
+        }
+        Query<EvalJobSchedule> query = currentSession().createQuery(hql + " order by job.fireDate, job.id", EvalJobSchedule.class)
+                .setParameter("evaluationId", evaluationId);
+        if (jobType != null) {
+            query.setParameter("jobType", jobType);
+        }
+        return query.list();
+    }
+
+    public void saveScheduledJob(EvalJobSchedule job) {
+        if (job == null) {
+            throw new IllegalArgumentException("job cannot be null");
+        }
+        job.setLastModified(new Date());
+        save(job);
+    }
+
+    public void deleteScheduledJob(EvalJobSchedule job) {
+        if (job == null) {
+            throw new IllegalArgumentException("job cannot be null");
+        }
+        delete(job);
+    }
+
+    public int deleteScheduledJobs(Long evaluationId, String jobType) {
+        // there are only ever a few jobs per evaluation so these go through the session
+        List<EvalJobSchedule> jobs = getScheduledJobs(evaluationId, jobType);
+        for (EvalJobSchedule job : jobs) {
+            deleteScheduledJob(job);
+        }
+        return jobs.size();
+    }
+
+    public List<EvalJobSchedule> claimDueScheduledJobs(Date now, int maxResults, String holder, long leaseTime) {
+        if (now == null || holder == null) {
+            throw new IllegalArgumentException("now and holder cannot be null");
+        }
+        Date expired = new Date(now.getTime() - leaseTime);
+        Session session = currentSession();
+        List<EvalJobSchedule> jobs = session.createQuery(
+                "from EvalJobSchedule job where job.fireDate <= :now "
+                + "and (job.claimedAt is null or job.claimedAt <= :expired) order by job.fireDate, job.id",
+                EvalJobSchedule.class)
+                .setParameter("now", now)
+                .setParameter("expired", expired)
+                .setMaxResults(Math.min(maxResults, MAX_UPDATE_SIZE))
+                .list();
+        if (jobs.isEmpty()) {
+            return jobs;
+        }
+
+        // the rows are updated below so the loaded jobs must not be written back
+        for (EvalJobSchedule job : jobs) {
+            session.evict(job);
+        }
+        // each row is claimed with its own update, only the claimer whose update changed the row gets the job
+        // (the fire date and claim are checked again in case the job was rescheduled or claimed since it was fetched)
+        Query<?> claimQuery = session.createQuery(
+                "update EvalJobSchedule job set job.claimedBy = :holder, job.claimedAt = :now "
+                + "where job.id = :jobId and job.fireDate <= :now "
+                + "and (job.claimedAt is null or job.claimedAt <= :expired)")
+                .setParameter("holder", holder)
+                .setParameter("now", now)
+                .setParameter("expired", expired);
+        List<EvalJobSchedule> claimed = new ArrayList<>(jobs.size());
+        for (EvalJobSchedule job : jobs) {
+            if (claimQuery.setParameter("jobId", job.getId()).executeUpdate() == 1) {
+                job.setClaimedBy(holder);
+                job.setClaimedAt(now);
+                claimed.add(job);
+            }
+        }
+        return claimed;
+    }
+
+    public boolean completeScheduledJob(Long jobId, String holder) {
+        if (jobId == null || holder == null) {
+            throw new IllegalArgumentException("jobId and holder cannot be null");
+        }
+        return currentSession().createQuery(
+                "delete from EvalJobSchedule job where job.id = :jobId and job.claimedBy = :holder")
+                .setParameter("jobId", jobId)
+                .setParameter("holder", holder)
+                .executeUpdate() == 1;
+    }
+
+    public boolean releaseScheduledJob(Long jobId, String holder) {
+        if (jobId == null || holder == null) {
+            throw new IllegalArgumentException("jobId and holder cannot be null");
+        }
+        return currentSession().createQuery(
+                "update EvalJobSchedule job set job.claimedBy = null, job.claimedAt = null "
+                + "where job.id = :jobId and job.claimedBy = :holder")
+                .setParameter("jobId", jobId)
+                .setParameter("holder", holder)
+                .executeUpdate() == 1;
+    }
+
     public List<EvalEvaluation> getEvaluationsByCategory(String evalCategory) {
         if (evalCategory == null) {
             throw new IllegalArgumentException("evalCategory cannot be null");
@@ -15,17 +15,29 @@
 package org.sakaiproject.evaluation.dao;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.query.Query;
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.model.EvalResponseAnswersHandler;
 import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalAnswerStats;
 import org.sakaiproject.evaluation.model.EvalResponse;
+import org.sakaiproject.evaluation.model.EvalTemplateItem;
 import org.sakaiproject.evaluation.utils.ArrayUtils;
+import org.sakaiproject.evaluation.utils.TemplateItemDataList;
+import org.sakaiproject.evaluation.utils.TemplateItemUtils;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -35,6 +47,18 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class EvaluationResponseDaoImpl extends EvaluationDaoHibernateSupport implements EvaluationResponseDao {
 
+    /**
+     * the number of answer rows fetched from the database at a time when scrolling through answers,
+     * MySQL Connector/J ignores this and reads the whole result into memory unless the connection url
+     * has useCursorFetch=true (its streaming mode is not used because the handlers may run other queries)
+     */
+    private static final int ANSWER_SCROLL_FETCH_SIZE = 500;
+
+    /**
+     * whether the connection is MySQL without cursor fetching (null until checked)
+     */
+    private volatile Boolean answerScrollBuffered;
+
     public List<EvalResponse> getEvaluationResponsesForUserAndGroup(Long evaluationId, String userId, String evalGroupId) {
         if (evaluationId == null) {
             throw new IllegalArgumentException("evaluationId cannot be null");
@@ -98,6 +122,33 @@ public class EvaluationResponseDaoImpl extends EvaluationDaoHibernateSupport imp
         return count == null ? 0 : count.intValue();
     }
 
+    public Map<Long, Map<String, Integer>> countResponsesByGroup(Long[] evaluationIds, String[] evalGroupIds, Boolean completed) {
+        if (evaluationIds == null || evaluationIds.length == 0) {
+            throw new IllegalArgumentException("evaluationIds cannot be empty");
+        }
+        StringBuilder hql = new StringBuilder(
+                "select response.evaluation.id, response.evalGroupId, count(response.id) from EvalResponse response "
+                + "where response.evaluation.id in (:evaluationIds)");
+        boolean restrictGroups = evalGroupIds != null && evalGroupIds.length > 0;
+        if (restrictGroups) {
+            hql.append(" and response.evalGroupId in (:evalGroupIds)");
+        }
+        appendResponseCompletedClause(hql, completed);
+        hql.append(" group by response.evaluation.id, response.evalGroupId");
+
+        Query<Object[]> query = currentSession().createQuery(hql.toString(), Object[].class)
+                .setParameterList("evaluationIds", evaluationIds);
+        if (restrictGroups) {
+            query.setParameterList("evalGroupIds", evalGroupIds);
+        }
+        Map<Long, Map<String, Integer>> counts = new HashMap<>();
+        for (Object[] row : query.list()) {
+            counts.computeIfAbsent((Long) row[0], k -> new HashMap<>())
+                    .put((String) row[1], ((Number) row[2]).intValue());
+        }
+        return counts;
+    }
+
     public List<EvalResponse> getEvaluationResponses(Long evaluationId, String[] evalGroupIds, Boolean completed) {
         if (evaluationId == null) {
             throw new IllegalArgumentException("evaluationId cannot be null");
@@ -217,6 +268,193 @@ public class EvaluationResponseDaoImpl extends EvaluationDaoHibernateSupport imp
         return query.list();
     }
 
+    /**
+     * Gets the answer values for the completed responses to an evaluation with a projection query,
+     * only the ids and the numeric values are read so the text and comment (CLOB) columns are never transferred,
+     * the answers are not persistent and their response and template item only have the id set
+     * 
+     * @param evalId the id of an evaluation
+     * @param evalGroupIds (OPTIONAL) the eval groups to limit the answers to
+     * @param templateItemIds (OPTIONAL) the template items to limit the answers to
+     * @return the answers (without text or comment) ordered by response id
+     */
+    public List<EvalAnswer> getNumericAnswers(Long evalId, String[] evalGroupIds, Long[] templateItemIds) {
+
+        String groupsHQL = "";
+        if (evalGroupIds != null && evalGroupIds.length > 0) {
+            groupsHQL = " and answerresp.evalGroupId in (:evalGroupIds) ";
+        }
+
+        String itemsHQL = "";
+        if (templateItemIds != null && templateItemIds.length > 0) {
+            itemsHQL = " and answer.templateItem.id in (:templateItemIds) ";
+        }
+
+        String hql = "select answer.id, answerresp.id, answer.templateItem.id, answer.associatedType, answer.associatedId, "
+            + "answer.numeric, answer.multiAnswerCode from EvalAnswer as answer join answer.response as answerresp"
+            + " where answerresp.evaluation.id = :evalId and answerresp.endTime is not null " + groupsHQL + itemsHQL
+            + " order by answerresp.id, answer.id";
+
+        Query<Object[]> query = currentSession().createQuery(hql, Object[].class);
+        query.setParameter("evalId", evalId);
+        if (evalGroupIds != null && evalGroupIds.length > 0) {
+            query.setParameterList("evalGroupIds", evalGroupIds);
+        }
+        if (templateItemIds != null && templateItemIds.length > 0) {
+            query.setParameterList("templateItemIds", templateItemIds);
+        }
+
+        // share the id holders so each response and template item is only created once
+        Map<Long, EvalResponse> responses = new HashMap<>();
+        Map<Long, EvalTemplateItem> templateItems = new HashMap<>();
+        List<EvalAnswer> answers = new ArrayList<>();
+        for (Object[] row : query.list()) {
+            EvalResponse response = responses.computeIfAbsent((Long) row[1], id -> {
+                EvalResponse r = new EvalResponse();
+                r.setId(id);
+                return r;
+            });
+            EvalTemplateItem templateItem = templateItems.computeIfAbsent((Long) row[2], id -> {
+                EvalTemplateItem ti = new EvalTemplateItem();
+                ti.setId(id);
+                return ti;
+            });
+            EvalAnswer answer = new EvalAnswer();
+            answer.setId((Long) row[0]);
+            answer.setResponse(response);
+            answer.setTemplateItem(templateItem);
+            answer.setAssociatedType((String) row[3]);
+            answer.setAssociatedId((String) row[4]);
+            answer.setNumeric((Integer) row[5]);
+            answer.setMultiAnswerCode((String) row[6]);
+            answers.add(answer);
+        }
+        return answers;
+    }
+
+    /**
+     * Scrolls through the answers for the completed responses to an evaluation with a forward only cursor,
+     * the answers are ordered by group and response id and are passed to the handler one response at a time,
+     * each response and its answers are evicted from the session once the handler is done with them so
+     * the memory used does not depend on the number of responses
+     * 
+     * @param evalId the id of an evaluation
+     * @param evalGroupIds (OPTIONAL) the eval groups to limit the answers to
+     * @param templateItemIds (OPTIONAL) the template items to limit the answers to
+     * @param handler receives the answers for each response (not decoded)
+     * @return the number of responses passed to the handler
+     */
+    public int scrollAnswers(Long evalId, String[] evalGroupIds, Long[] templateItemIds, EvalResponseAnswersHandler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler cannot be null");
+        }
+
+        String groupsHQL = "";
+        if (evalGroupIds != null && evalGroupIds.length > 0) {
+            groupsHQL = " and answerresp.evalGroupId in (:evalGroupIds) ";
+        }
+
+        String itemsHQL = "";
+        if (templateItemIds != null && templateItemIds.length > 0) {
+            itemsHQL = " and answer.templateItem.id in (:templateItemIds) ";
+        }
+
+        String hql = "select answer from EvalAnswer as answer join fetch answer.response as answerresp"
+            + " where answerresp.evaluation.id = :evalId and answerresp.endTime is not null " + groupsHQL + itemsHQL
+            + " order by answerresp.evalGroupId, answerresp.id, answer.id";
+
+        Query<EvalAnswer> query = currentSession().createQuery(hql, EvalAnswer.class);
+        query.setParameter("evalId", evalId);
+        if (evalGroupIds != null && evalGroupIds.length > 0) {
+            query.setParameterList("evalGroupIds", evalGroupIds);
+        }
+        if (templateItemIds != null && templateItemIds.length > 0) {
+            query.setParameterList("templateItemIds", templateItemIds);
+        }
+        query.setFetchSize(ANSWER_SCROLL_FETCH_SIZE);
+        query.setReadOnly(true);
+        checkAnswerScrollFetch();
+
+        int responseCount = 0;
+        EvalResponse currentResponse = null;
+        List<EvalAnswer> responseAnswers = new ArrayList<>();
+        try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+            while (results.next()) {
+                EvalAnswer answer = (EvalAnswer) results.get(0);
+                if (currentResponse != null
+                        && ! currentResponse.getId().equals(answer.getResponse().getId())) {
+                    handleScrolledResponse(currentResponse, responseAnswers, handler);
+                    responseCount++;
+                    responseAnswers = new ArrayList<>();
+                }
+                currentResponse = answer.getResponse();
+                responseAnswers.add(answer);
+            }
+        }
+        if (currentResponse != null) {
+            handleScrolledResponse(currentResponse, responseAnswers, handler);
+            responseCount++;
+        }
+        return responseCount;
+    }
+
+    /**
+     * Warns (once) when the database is MySQL and the connection does not use cursor fetching,
+     * without it the fetch size is ignored and every scrolled answer is loaded into memory at once
+     */
+    private void checkAnswerScrollFetch() {
+        if (answerScrollBuffered == null) {
+            answerScrollBuffered = currentSession().doReturningWork(connection -> {
+                String url = connection.getMetaData().getURL();
+                return url != null && url.startsWith("jdbc:mysql:") && ! url.contains("useCursorFetch=true");
+            });
+            if (answerScrollBuffered) {
+                log.warn("The MySQL connection url does not set useCursorFetch=true so report answers are "
+                        + "loaded into memory all at once instead of " + ANSWER_SCROLL_FETCH_SIZE + " rows at a time, "
+                        + "add useCursorFetch=true to url@javax.sql.BaseDataSource to limit the memory used by large reports");
+            }
+        }
+    }
+
+    private void handleScrolledResponse(EvalResponse response, List<EvalAnswer> answers, EvalResponseAnswersHandler handler) {
+        handler.handleResponseAnswers(response, answers);
+        for (EvalAnswer answer : answers) {
+            currentSession().evict(answer);
+        }
+        currentSession().evict(response);
+    }
+
+    /**
+     * Gets the instructors and assistants which have answers in the completed responses to an evaluation
+     * without loading the answers
+     * 
+     * @param evalId the id of an evaluation
+     * @param evalGroupIds (OPTIONAL) the eval groups to limit the answers to
+     * @return a map of associated type (e.g. {@link EvalConstants#ITEM_CATEGORY_INSTRUCTOR}) -> the set of associated ids
+     */
+    public Map<String, Set<String>> getAnswerAssociates(Long evalId, String[] evalGroupIds) {
+        String groupsHQL = "";
+        if (evalGroupIds != null && evalGroupIds.length > 0) {
+            groupsHQL = " and answerresp.evalGroupId in (:evalGroupIds) ";
+        }
+        String hql = "select distinct answer.associatedType, answer.associatedId from EvalAnswer as answer join answer.response as answerresp"
+            + " where answerresp.evaluation.id = :evalId and answerresp.endTime is not null"
+            + " and answer.associatedId is not null " + groupsHQL;
+        Query<Object[]> query = currentSession().createQuery(hql, Object[].class);
+        query.setParameter("evalId", evalId);
+        if (evalGroupIds != null && evalGroupIds.length > 0) {
+            query.setParameterList("evalGroupIds", evalGroupIds);
+        }
+        Map<String, Set<String>> associates = new HashMap<>();
+        for (Object[] row : query.list()) {
+            String associatedType = (String) row[0];
+            if (associatedType != null) {
+                associates.computeIfAbsent(associatedType, k -> new HashSet<>()).add((String) row[1]);
+            }
+        }
+        return associates;
+    }
+
     public List<Long> getResponseIds(Long evalId, String[] evalGroupIds, String[] userIds, Boolean completed) {
         String groupsHQL = "";
         if (evalGroupIds != null && evalGroupIds.length > 0) {
@@ -251,7 +489,8 @@ public class EvaluationResponseDaoImpl extends EvaluationDaoHibernateSupport imp
 
     /**
      * Removes an array of responses and all their associated answers at
-     * the same time (in a single transaction)<br/>
+     * the same time (in a single transaction), the answer stats for the affected groups are marked as
+     * stale so the Rebuild Answer Stats job rebuilds them (see {@link #markAnswerStatsStale(Long, String)})<br/>
      * Use {@link #getResponseIds(Long, String[], String[], Boolean)} to get the set of responseIds to remove<br/>
      * <b>WARNING:</b> This does not check permissions for removal of responses so you should
      * be sure to check that responses can be removed (system setting) and that they can be removed for this evaluation and user
@@ -261,6 +500,12 @@ public class EvaluationResponseDaoImpl extends EvaluationDaoHibernateSupport imp
     public void removeResponses(Long[] responseIds) {
         if (responseIds != null && responseIds.length > 0) {
             String rids = "(" + ArrayUtils.arrayToString(responseIds) + ")";
+            // find the evaluation groups which will need their answer stats rebuilt
+            List<Object[]> evalGroups = currentSession().createQuery(
+                    "select distinct response.evaluation.id, response.evalGroupId from EvalResponse response "
+                    + "where response.id in " + rids + " and response.endTime is not null", Object[].class)
+                    .list();
+
             // purge out the answers first
             String hql = "delete EvalAnswer answer where answer.response.id in " + rids;
             log.debug("delete EvalAnswer HQL:" + hql);
@@ -272,6 +517,10 @@ public class EvaluationResponseDaoImpl extends EvaluationDaoHibernateSupport imp
             log.debug("delete EvalResponse HQL:" + hql);
             results = getHibernateTemplate().bulkUpdate(hql);
             log.info("Remove " + results + " responses with the following ids: " + rids);
+
+            for (Object[] evalGroup : evalGroups) {
+                markAnswerStatsStale((Long) evalGroup[0], (String) evalGroup[1]);
+            }
         }
     }
 
@@ -324,4 +573,285 @@ public class EvaluationResponseDaoImpl extends EvaluationDaoHibernateSupport imp
     public EvalResponse getResponseById(Long responseId) {
         return findById(EvalResponse.class, responseId);
     }
+
+    public List<EvalAnswerStats> getAnswerStats(Long evaluationId, String[] evalGroupIds) {
+        if (evaluationId == null) {
+            throw new IllegalArgumentException("evaluationId cannot be null");
+        }
+        StringBuilder hql = new StringBuilder("select stats from EvalAnswerStats stats where stats.evaluationId = :evaluationId");
+        boolean restrictGroups = evalGroupIds != null && evalGroupIds.length > 0;
+        if (restrictGroups) {
+            hql.append(" and stats.evalGroupId in (:evalGroupIds)");
+        }
+        hql.append(" order by stats.id");
+
+        Query<EvalAnswerStats> query = currentSession().createQuery(hql.toString(), EvalAnswerStats.class)
+                .setParameter("evaluationId", evaluationId);
+        if (restrictGroups) {
+            query.setParameterList("evalGroupIds", evalGroupIds);
+        }
+        return query.list();
+    }
+
+    /**
+     * Adds the answers in a just completed response into the answer stats for its evaluation and group,
+     * this must run in the same transaction as the save of the response<br/>
+     * The group summary rows are locked first so concurrent submissions to the same group are serialized,
+     * the completed responses count is then compared with the summary count to decide what to do:
+     * one more completed response than the stats hold means the answers can simply be added,
+     * otherwise (a completed response was modified or the stats drifted) the summary is marked as
+     * {@link EvalAnswerStats#ANSWER_COUNT_STALE} so the submission does not pay for a rebuild,
+     * if the group has no stats yet and this is not its first completed response then a stale summary is stored,
+     * stale stats are rebuilt later by the Rebuild Answer Stats job (see {@link #getStaleAnswerStatsGroups()})
+     * 
+     * @param response a completed response which has just been saved
+     * @return true if the stats are now current for the group, false if the group has no stats or they are stale
+     */
+    public boolean updateAnswerStats(EvalResponse response) {
+        if (response == null || response.getId() == null || response.getEndTime() == null) {
+            throw new IllegalArgumentException("response must be saved and completed");
+        }
+        Long evaluationId = response.getEvaluation().getId();
+        String evalGroupId = response.getEvalGroupId();
+
+        List<EvalAnswerStats> summaries = currentSession().createQuery(
+                "select stats from EvalAnswerStats stats where stats.evaluationId = :evaluationId "
+                + "and stats.evalGroupId = :evalGroupId and stats.templateItemId is null order by stats.id",
+                EvalAnswerStats.class)
+                .setParameter("evaluationId", evaluationId)
+                .setParameter("evalGroupId", evalGroupId)
+                .setLockOptions(new LockOptions(LockMode.PESSIMISTIC_WRITE))
+                .list();
+        int statsResponses = 0;
+        for (EvalAnswerStats summary : summaries) {
+            if (summary.getAnswerCount() < 0) {
+                // already waiting to be rebuilt
+                return false;
+            }
+            statsResponses += summary.getAnswerCount();
+        }
+        int completedResponses = countResponses(evaluationId, evalGroupId, true);
+
+        EvalAnswerStats summary;
+        if (summaries.isEmpty()) {
+            if (completedResponses != 1) {
+                log.debug("No answer stats for evaluation ({}) and group ({}) with {} completed responses, marking them stale",
+                        evaluationId, evalGroupId, completedResponses);
+                saveStaleAnswerStats(summaries, evaluationId, evalGroupId);
+                return false;
+            }
+            summary = new EvalAnswerStats(evaluationId, evalGroupId, null, null, null);
+        } else if (statsResponses + 1 == completedResponses) {
+            summary = summaries.get(0);
+        } else {
+            log.debug("Answer stats for evaluation ({}) and group ({}) hold {} of {} completed responses, marking them stale",
+                    evaluationId, evalGroupId, statsResponses, completedResponses);
+            saveStaleAnswerStats(summaries, evaluationId, evalGroupId);
+            return false;
+        }
+
+        Map<String, EvalAnswerStats> statsMap = new HashMap<>();
+        if (! summaries.isEmpty()) {
+            List<EvalAnswerStats> itemStats = currentSession().createQuery(
+                    "select stats from EvalAnswerStats stats where stats.evaluationId = :evaluationId "
+                    + "and stats.evalGroupId = :evalGroupId and stats.templateItemId is not null order by stats.id",
+                    EvalAnswerStats.class)
+                    .setParameter("evaluationId", evaluationId)
+                    .setParameter("evalGroupId", evalGroupId)
+                    .list();
+            for (EvalAnswerStats stats : itemStats) {
+                statsMap.putIfAbsent(makeAnswerStatsKey(stats.getTemplateItemId(), stats.getAssociatedType(), stats.getAssociatedId()), stats);
+            }
+        }
+
+        Set<EvalAnswerStats> changed = new HashSet<>();
+        if (response.getAnswers() != null) {
+            for (EvalAnswer answer : response.getAnswers()) {
+                EvalTemplateItem templateItem = answer.getTemplateItem();
+                if (! TemplateItemUtils.isRequireable(templateItem)) {
+                    // only the numeric items are aggregated
+                    continue;
+                }
+                EvalAnswerStats stats = getOrCreateAnswerStats(statsMap, evaluationId, evalGroupId,
+                        templateItem.getId(), answer.getAssociatedType(), answer.getAssociatedId());
+                TemplateItemDataList.addAnswerToStats(stats, TemplateItemUtils.getTemplateItemType(templateItem),
+                        answer.getNumeric(), answer.getMultiAnswerCode(), 1);
+                changed.add(stats);
+            }
+        }
+        summary.setAnswerCount(summary.getAnswerCount() + 1);
+        changed.add(summary);
+
+        Date now = new Date();
+        for (EvalAnswerStats stats : changed) {
+            stats.setLastModified(now);
+            currentSession().saveOrUpdate(stats);
+        }
+        return true;
+    }
+
+    /**
+     * Marks the answer stats for a group as {@link EvalAnswerStats#ANSWER_COUNT_STALE} so the
+     * Rebuild Answer Stats job rebuilds them, a stale summary row is stored if the group has no stats yet
+     * so the stale summary rows are the only record of which groups need rebuilding
+     * 
+     * @param evaluationId the id of the evaluation whose responses changed
+     * @param evalGroupId the group whose responses changed
+     */
+    public void markAnswerStatsStale(Long evaluationId, String evalGroupId) {
+        List<EvalAnswerStats> summaries = currentSession().createQuery(
+                "select stats from EvalAnswerStats stats where stats.evaluationId = :evaluationId "
+                + "and stats.evalGroupId = :evalGroupId and stats.templateItemId is null order by stats.id",
+                EvalAnswerStats.class)
+                .setParameter("evaluationId", evaluationId)
+                .setParameter("evalGroupId", evalGroupId)
+                .setLockOptions(new LockOptions(LockMode.PESSIMISTIC_WRITE))
+                .list();
+        saveStaleAnswerStats(summaries, evaluationId, evalGroupId);
+    }
+
+    private void saveStaleAnswerStats(List<EvalAnswerStats> summaries, Long evaluationId, String evalGroupId) {
+        if (summaries.isEmpty()) {
+            summaries = Collections.singletonList(new EvalAnswerStats(evaluationId, evalGroupId, null, null, null));
+        }
+        Date now = new Date();
+        for (EvalAnswerStats stale : summaries) {
+            if (stale.getId() != null && stale.getAnswerCount() < 0) {
+                // already waiting to be rebuilt
+                continue;
+            }
+            stale.setAnswerCount(EvalAnswerStats.ANSWER_COUNT_STALE);
+            stale.setLastModified(now);
+            currentSession().saveOrUpdate(stale);
+        }
+    }
+
+    /**
+     * Rebuilds the answer stats from the answers in the completed responses,
+     * uses grouped queries so the answers themselves (and their text) are never loaded,
+     * the old stats (including any stale summary rows) are replaced so this clears the stale marker
+     * 
+     * @param evaluationId the id of the evaluation to rebuild stats for
+     * @param evalGroupId (OPTIONAL) the group to rebuild stats for, null to rebuild all groups for the evaluation
+     * @return the number of answer stats rows stored
+     */
+    public int rebuildAnswerStats(Long evaluationId, String evalGroupId) {
+        if (evaluationId == null) {
+            throw new IllegalArgumentException("evaluationId cannot be null");
+        }
+        String groupHQL = evalGroupId == null ? "" : " and stats.evalGroupId = :evalGroupId";
+        Query<?> deleteQuery = currentSession().createQuery("delete from EvalAnswerStats stats where stats.evaluationId = :evaluationId" + groupHQL)
+                .setParameter("evaluationId", evaluationId);
+        if (evalGroupId != null) {
+            deleteQuery.setParameter("evalGroupId", evalGroupId);
+        }
+        deleteQuery.executeUpdate();
+
+        String responseGroupHQL = evalGroupId == null ? "" : " and response.evalGroupId = :evalGroupId";
+        Query<Object[]> responsesQuery = currentSession().createQuery(
+                "select response.evalGroupId, count(response.id) from EvalResponse response "
+                + "where response.evaluation.id = :evaluationId and response.endTime is not null" + responseGroupHQL
+                + " group by response.evalGroupId", Object[].class)
+                .setParameter("evaluationId", evaluationId);
+        Query<Object[]> answersQuery = currentSession().createQuery(
+                "select response.evalGroupId, answer.templateItem.id, answer.associatedType, answer.associatedId, "
+                + "answer.numeric, answer.multiAnswerCode, count(answer.id) "
+                + "from EvalAnswer answer join answer.response response "
+                + "where response.evaluation.id = :evaluationId and response.endTime is not null" + responseGroupHQL
+                + " group by response.evalGroupId, answer.templateItem.id, answer.associatedType, answer.associatedId, "
+                + "answer.numeric, answer.multiAnswerCode", Object[].class)
+                .setParameter("evaluationId", evaluationId);
+        if (evalGroupId != null) {
+            responsesQuery.setParameter("evalGroupId", evalGroupId);
+            answersQuery.setParameter("evalGroupId", evalGroupId);
+        }
+        List<Object[]> answerCounts = answersQuery.list();
+
+        // get the types of all the answered template items
+        Set<Long> templateItemIds = new HashSet<>();
+        for (Object[] row : answerCounts) {
+            templateItemIds.add((Long) row[1]);
+        }
+        Map<Long, String> templateItemTypes = new HashMap<>();
+        if (! templateItemIds.isEmpty()) {
+            List<EvalTemplateItem> templateItems = currentSession().createQuery(
+                    "select templateItem from EvalTemplateItem templateItem join fetch templateItem.item "
+                    + "where templateItem.id in (:templateItemIds)", EvalTemplateItem.class)
+                    .setParameterList("templateItemIds", templateItemIds)
+                    .list();
+            for (EvalTemplateItem templateItem : templateItems) {
+                if (TemplateItemUtils.isRequireable(templateItem)) {
+                    templateItemTypes.put(templateItem.getId(), TemplateItemUtils.getTemplateItemType(templateItem));
+                }
+            }
+        }
+
+        List<EvalAnswerStats> allStats = new ArrayList<>();
+        for (Object[] row : responsesQuery.list()) {
+            EvalAnswerStats summary = new EvalAnswerStats(evaluationId, (String) row[0], null, null, null);
+            summary.setAnswerCount(((Long) row[1]).intValue());
+            allStats.add(summary);
+        }
+        Map<String, Map<String, EvalAnswerStats>> groupStatsMaps = new HashMap<>();
+        for (Object[] row : answerCounts) {
+            Long templateItemId = (Long) row[1];
+            String templateItemType = templateItemTypes.get(templateItemId);
+            if (templateItemType == null) {
+                // only the numeric items are aggregated
+                continue;
+            }
+            String groupId = (String) row[0];
+            Map<String, EvalAnswerStats> statsMap = groupStatsMaps.computeIfAbsent(groupId, k -> new HashMap<>());
+            EvalAnswerStats stats = getOrCreateAnswerStats(statsMap, evaluationId, groupId,
+                    templateItemId, (String) row[2], (String) row[3]);
+            TemplateItemDataList.addAnswerToStats(stats, templateItemType,
+                    (Integer) row[4], (String) row[5], ((Long) row[6]).intValue());
+        }
+        for (Map<String, EvalAnswerStats> statsMap : groupStatsMaps.values()) {
+            allStats.addAll(statsMap.values());
+        }
+        saveOrUpdateAll(allStats);
+        log.info("Rebuilt {} answer stats for evaluation ({}) and group ({})", allStats.size(), evaluationId, evalGroupId);
+        return allStats.size();
+    }
+
+    /**
+     * Finds the groups whose answer stats need to be rebuilt, these are the groups whose summary row
+     * is marked as {@link EvalAnswerStats#ANSWER_COUNT_STALE}, the marker is written whenever the completed
+     * responses for a group change in a way the stats could not follow (see {@link #markAnswerStatsStale(Long, String)})
+     * so this only reads the stale summary rows (using the answer count index) and never the responses
+     * 
+     * @return a map of evaluation id to the set of eval group ids which need their stats rebuilt
+     */
+    public Map<Long, Set<String>> getStaleAnswerStatsGroups() {
+        List<Object[]> stale = currentSession().createQuery(
+                "select distinct stats.evaluationId, stats.evalGroupId from EvalAnswerStats stats "
+                + "where stats.answerCount < 0 and stats.templateItemId is null", Object[].class)
+                .list();
+        Map<Long, Set<String>> groups = new LinkedHashMap<>();
+        for (Object[] row : stale) {
+            groups.computeIfAbsent((Long) row[0], k -> new HashSet<>()).add((String) row[1]);
+        }
+        return groups;
+    }
+
+    private EvalAnswerStats getOrCreateAnswerStats(Map<String, EvalAnswerStats> statsMap, Long evaluationId, String evalGroupId,
+            Long templateItemId, String associatedType, String associatedId) {
+        // course answers are stored without an association (same as the answer keys)
+        if (EvalConstants.ITEM_CATEGORY_COURSE.equals(associatedType)) {
+            associatedType = null;
+            associatedId = null;
+        }
+        String key = makeAnswerStatsKey(templateItemId, associatedType, associatedId);
+        EvalAnswerStats stats = statsMap.get(key);
+        if (stats == null) {
+            stats = new EvalAnswerStats(evaluationId, evalGroupId, templateItemId, associatedType, associatedId);
+            statsMap.put(key, stats);
+        }
+        return stats;
+    }
+
+    private String makeAnswerStatsKey(Long templateItemId, String associatedType, String associatedId) {
+        return TemplateItemUtils.makeTemplateItemAnswerKey(templateItemId, associatedType, associatedId);
+    }
 }
@@ -14,13 +14,19 @@
  */
 package org.sakaiproject.evaluation.dao;
 
+import java.util.Date;
 import java.util.List;
 
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
 import org.sakaiproject.evaluation.model.EvalConfig;
 
+import lombok.extern.slf4j.Slf4j;
+
 /**
  * Hibernate-backed implementation methods for the matching evaluation DAO port.
  */
+@Slf4j
 public class EvaluationSettingsDaoImpl extends EvaluationDaoHibernateSupport implements EvaluationSettingsDao {
 
     public int countEvalConfigs() {
@@ -68,4 +74,33 @@ public class EvaluationSettingsDaoImpl extends EvaluationDaoHibernateSupport imp
     public void saveEvalConfig(EvalConfig config) {
         save(config);
     }
+
+    public long incrementEvalConfigCounter(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name cannot be null");
+        }
+        List<EvalConfig> configs = currentSession().createQuery(
+                "select cfg from EvalConfig cfg where cfg.name = :name",
+                EvalConfig.class)
+                .setParameter("name", name)
+                .setLockOptions(new LockOptions(LockMode.PESSIMISTIC_WRITE))
+                .list();
+        long value = 1L;
+        EvalConfig config;
+        if (configs.isEmpty()) {
+            config = new EvalConfig(name, Long.toString(value));
+        } else {
+            config = configs.get(0);
+            try {
+                value = Long.parseLong(config.getValue()) + 1L;
+            } catch (NumberFormatException e) {
+                log.warn("Invalid counter value (" + config.getValue() + ") for config (" + name + "), restarting it at 1");
+            }
+            config.setLastModified(new Date());
+            config.setValue(Long.toString(value));
+        }
+        save(config);
+        currentSession().flush();
+        return value;
+    }
 }
@@ -533,6 +533,13 @@ public class PreloadDataImpl {
         evalConfigMap.put(EvalSettings.EMAIL_WAIT_INTERVAL, 0);
         evalConfigMap.put(EvalSettings.EMAIL_DELIVERY_OPTION, EvalConstants.EMAIL_DELIVERY_DEFAULT);
         evalConfigMap.put(EvalSettings.LOG_EMAIL_RECIPIENTS, false);
+        evalConfigMap.put(EvalSettings.EMAIL_USE_OUTBOX, false);
+        evalConfigMap.put(EvalSettings.EMAIL_OUTBOX_MESSAGES_PER_SECOND, 10);
+        evalConfigMap.put(EvalSettings.EMAIL_OUTBOX_WORKER_THREADS, 2);
+        evalConfigMap.put(EvalSettings.EMAIL_OUTBOX_MAX_ATTEMPTS, 5);
+        evalConfigMap.put(EvalSettings.CONSOLIDATED_EMAIL_SHARDS, 8);
+        evalConfigMap.put(EvalSettings.CONSOLIDATED_EMAIL_WORKER_THREADS, 4);
+        evalConfigMap.put(EvalSettings.CONSOLIDATED_EMAIL_MESSAGES_PER_SECOND, 0);
         evalConfigMap.put(EvalSettings.ENABLE_SINGLE_EMAIL_PER_STUDENT, false);
         evalConfigMap.put(EvalSettings.DEFAULT_EMAIL_REMINDER_FREQUENCY, 0);
         evalConfigMap.put(EvalSettings.EVALUATION_TIME_TO_WAIT_SECS, 300);
@@ -551,6 +558,11 @@ public class PreloadDataImpl {
         evalConfigMap.put(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_GROUP_UPDATE, false);
         evalConfigMap.put(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_STATE_CHANGE, false);
         evalConfigMap.put(EvalSettings.SYNC_UNASSIGNED_GROUPS_ON_STARTUP, false);
+        evalConfigMap.put(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_MEMBERSHIP_CHANGE, true);
+        evalConfigMap.put(EvalSettings.SYNC_WORKER_THREADS, 4);
+
+        // the scheduled job timer moves any old Sakai scheduler jobs into the evaluation job schedule once
+        evalConfigMap.put(EvalSettings.LEGACY_JOBS_MIGRATED, false);
 	
     }
     
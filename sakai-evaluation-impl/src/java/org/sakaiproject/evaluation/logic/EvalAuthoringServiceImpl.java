@@ -18,6 +18,7 @@ import org.sakaiproject.evaluation.dao.EvaluationAuthoringDao;
 import org.sakaiproject.evaluation.dao.EvaluationLockDao;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -33,6 +34,7 @@ import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.exceptions.BlankRequiredFieldException;
 import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
 import org.sakaiproject.evaluation.logic.externals.EvalSecurityChecksImpl;
+import org.sakaiproject.evaluation.logic.model.EvalCompiledTemplate;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 import org.sakaiproject.evaluation.model.EvalItem;
 import org.sakaiproject.evaluation.model.EvalItemGroup;
@@ -82,6 +84,11 @@ public class EvalAuthoringServiceImpl implements EvalAuthoringService {
         this.lockDao = lockDao;
     }
 
+    private EvalCompiledTemplateCache compiledTemplateCache;
+    public void setCompiledTemplateCache(EvalCompiledTemplateCache compiledTemplateCache) {
+        this.compiledTemplateCache = compiledTemplateCache;
+    }
+
     private EvalCommonLogic commonLogic;
     public void setCommonLogic(EvalCommonLogic commonLogic) {
         this.commonLogic = commonLogic;
@@ -837,7 +844,65 @@ public class EvalAuthoringServiceImpl implements EvalAuthoringService {
         if (evalId == null) {
             throw new IllegalArgumentException("evaluation id cannot be null");
         }
-        return authoringDao.getTemplateItemsByEvaluation(evalId, nodeIds, instructorIds, groupIds);
+        EvalTemplate template = authoringDao.getTemplateForEvaluation(evalId);
+        if (template == null) {
+            throw new IllegalArgumentException("Could not retrieve a template for this evaluation: " + evalId);
+        }
+        EvalCompiledTemplate compiled = findCompiledTemplate(template);
+        if (compiled != null) {
+            return compiled.getTemplateItems(nodeIds, instructorIds, groupIds);
+        }
+        return authoringDao.getTemplateItemsByTemplate(template.getId(), nodeIds, instructorIds, groupIds);
+    }
+
+    public Map<Long, EvalTemplateItem> getTemplateItemsForEvaluationByIds(Long evaluationId, Long[] templateItemIds) {
+        if (evaluationId == null || templateItemIds == null) {
+            throw new IllegalArgumentException("evaluationId and templateItemIds cannot be null");
+        }
+        EvalTemplate template = authoringDao.getTemplateForEvaluation(evaluationId);
+        if (template == null) {
+            throw new IllegalArgumentException("Could not retrieve a template for this evaluation: " + evaluationId);
+        }
+        Map<Long, EvalTemplateItem> templateItems = new HashMap<>();
+        if (templateItemIds.length == 0) {
+            return templateItems;
+        }
+        Set<Long> ids = new HashSet<>(Arrays.asList(templateItemIds));
+        EvalCompiledTemplate compiled = findCompiledTemplate(template);
+        List<EvalTemplateItem> candidates = compiled != null ? compiled.getTemplateItems()
+                : authoringDao.getTemplateItemsByIds(ids.toArray(new Long[ids.size()]));
+        for (EvalTemplateItem templateItem : candidates) {
+            if (ids.contains(templateItem.getId())
+                    && templateItem.getTemplate() != null
+                    && template.getId().equals(templateItem.getTemplate().getId())) {
+                templateItems.put(templateItem.getId(), templateItem);
+            }
+        }
+        return templateItems;
+    }
+
+    public EvalCompiledTemplate getCompiledTemplate(Long templateId) {
+        return findCompiledTemplate(getTemplateOrFail(templateId));
+    }
+
+    /**
+     * @param template a template
+     * @return the compiled template from the cache (compiling it if needed) OR null if the template is not locked
+     */
+    private EvalCompiledTemplate findCompiledTemplate(EvalTemplate template) {
+        if (! EvalUtils.safeBool(template.getLocked()) || compiledTemplateCache == null) {
+            return null;
+        }
+        long lockVersion = EvalCompiledTemplate.makeLockVersion(template);
+        EvalCompiledTemplate compiled = compiledTemplateCache.get(template.getId(), lockVersion);
+        if (compiled == null) {
+            // detached so the shared copies can never be flushed or lazily loaded through this session
+            List<EvalTemplateItem> templateItems = authoringDao.getDetachedTemplateItemsByTemplate(template.getId());
+            compiled = new EvalCompiledTemplate(template.getId(), lockVersion, templateItems);
+            compiledTemplateCache.put(compiled);
+            log.debug("Compiled locked template (" + template.getId() + ") with " + templateItems.size() + " template items");
+        }
+        return compiled;
     }
 
 
@@ -1291,6 +1356,9 @@ public class EvalAuthoringServiceImpl implements EvalAuthoringService {
                 log.debug("Unlocking template ("+template.getId()+") and associated items");
                 lockDao.lockTemplate(template, Boolean.FALSE);
             }
+            if (compiledTemplateCache != null) {
+                compiledTemplateCache.remove(template.getId());
+            }
 
             List<EvalTemplateItem> templateItems = getTemplateItemsForTemplate(template.getId(), new String[] {}, new String[] {}, new String[] {});
             // always remove templates with no items
@@ -28,6 +28,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.apache.commons.lang3.BooleanUtils;
 import org.quartz.Job;
@@ -99,6 +101,18 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
         return evalGroupsProvider;
     }
 
+    // caches the group and permission lookups, nothing is cached if this is not set
+    private EvalGroupCache groupCache;
+    public void setGroupCache(EvalGroupCache groupCache) {
+        this.groupCache = groupCache;
+    }
+
+    // caches the resolved users, nothing is cached if this is not set
+    private EvalUserCache userCache;
+    public void setUserCache(EvalUserCache userCache) {
+        this.userCache = userCache;
+    }
+
     public void init() {
         log.debug("init, register security perms");
 
@@ -209,6 +223,12 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
     public EvalUser getEvalUserById(String userId) {
         EvalUser user = null;
         if (userId != null) {
+            if (userCache != null) {
+                user = userCache.get(userId);
+                if (user != null) {
+                    return user;
+                }
+            }
             EvalUser eu = getEvalUserOrNull(userId);
             if (eu != null) {
                 user = eu;
@@ -217,6 +237,9 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
         if (user == null) {
             user = makeInvalidUser(userId, null);
         }
+        if (userId != null && userCache != null) {
+            userCache.put(user);
+        }
         return user;
     }
 
@@ -245,11 +268,33 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
             foundAll = true;
         }
 
+        // only look up the users which are not cached
+        List<String> lookupUserIds = userIds;
+        Map<String, EvalUser> cachedUsers = new HashMap<>();
+        if (! foundAll && userCache != null) {
+            cachedUsers = userCache.getAll(userIds);
+            if (! cachedUsers.isEmpty()) {
+                lookupUserIds = new ArrayList<>(userIds.size() - cachedUsers.size());
+                for (String userId : userIds) {
+                    if (! cachedUsers.containsKey(userId)) {
+                        lookupUserIds.add(userId);
+                    }
+                }
+                if (lookupUserIds.isEmpty()) {
+                    foundAll = true;
+                }
+            }
+        }
+
         Map<String, EvalUser> externalUsers = new HashMap<>();
         if (! foundAll) {
-            // get users from external
-            externalUsers = externalLogic.getEvalUsersByIds(userIds);
-            if (externalUsers.size() == userIds.size()) {
+            // get users from external (in parallel batches when there are a lot of them)
+            if (userCache != null) {
+                externalUsers = userCache.lookupInBatches(lookupUserIds, externalLogic::getEvalUsersByIds);
+            } else {
+                externalUsers = externalLogic.getEvalUsersByIds(lookupUserIds);
+            }
+            if (externalUsers.size() == lookupUserIds.size()) {
                 foundAll = true;
             }
         }
@@ -257,7 +302,7 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
         Map<String, EvalAdhocUser> adhocUsers = new HashMap<>();
         if (! foundAll) {
             // get as many internal users as possible
-            adhocUsers = adhocSupportLogic.getAdhocUsersByUserIds(userIds);
+            adhocUsers = adhocSupportLogic.getAdhocUsersByUserIds(lookupUserIds);
         }
 
         /* now put the users into the list in the original order of the array 
@@ -266,7 +311,9 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
         if (userIds != null && userIds.size() > 0) {
             for( String userId : userIds ) {
                 EvalUser user;
-                if (adhocUsers.containsKey(userId)) {
+                if (cachedUsers.containsKey(userId)) {
+                    user = cachedUsers.get(userId);
+                } else if (adhocUsers.containsKey(userId)) {
                     EvalAdhocUser adhocUser = adhocUsers.get(userId);
                     user = new EvalUser(adhocUser.getUserId(), EvalConstants.USER_TYPE_INTERNAL,
                             adhocUser.getEmail(), adhocUser.getUsername(), 
@@ -276,6 +323,9 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
                 } else {
                     user = makeInvalidUser(userId, null);
                 }
+                if (userCache != null && ! cachedUsers.containsKey(userId)) {
+                    userCache.put(user);
+                }
                 users.add(user);
             }
         }
@@ -364,6 +414,18 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
             throw new IllegalArgumentException("evalGroupId cannot be null");
         }
 
+        if (groupCache == null) {
+            return findEvalGroupObject(evalGroupId);
+        }
+        EvalGroup c = groupCache.getEvalGroup(evalGroupId);
+        if (c == null) {
+            c = findEvalGroupObject(evalGroupId);
+            groupCache.putEvalGroup(c);
+        }
+        return c;
+    }
+
+    private EvalGroup findEvalGroupObject(String evalGroupId) {
         EvalGroup c = null;
         if (!evalGroupId.startsWith(EvalAdhocGroup.ADHOC_ID_PREFIX)) {
             // check external as long as it doesn't start with "adhoc-group:"
@@ -452,12 +514,24 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
         return count;
     }
 
-    @SuppressWarnings("rawtypes")
     public List<EvalGroup> getEvalGroupsForUser(String userId, String permission) {
         if (log.isDebugEnabled()) {
             log.debug("userId: " + userId + ", permission: " + permission);
         }
 
+        if (groupCache == null) {
+            return findEvalGroupsForUser(userId, permission);
+        }
+        List<EvalGroup> l = groupCache.getEvalGroupsForUser(userId, permission);
+        if (l == null) {
+            l = findEvalGroupsForUser(userId, permission);
+            groupCache.putEvalGroupsForUser(userId, permission, l);
+        }
+        return l;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private List<EvalGroup> findEvalGroupsForUser(String userId, String permission) {
         List<EvalGroup> l = new ArrayList<>();
 
         // get the groups from external
@@ -506,18 +580,9 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
      */
     public Map<String, Integer> countUserIdsForEvalGroups( Collection<String> evalGroupIDs, String permission, Boolean sectionAware )
     {
-        // Bulk-resolve the common case (real Sakai groups/sites) in a single call; fall back to the
-        // per-group path (adhoc groups, external providers) only for the ones that came back empty,
-        // same fallback order as getUserIdsForEvalGroup() above.
-        Map<String, Integer> counts = new HashMap<>( externalLogic.countUserIdsForEvalGroups( evalGroupIDs, permission, sectionAware ) );
-        for ( String evalGroupID : evalGroupIDs )
-        {
-            if ( counts.getOrDefault( evalGroupID, 0 ) == 0 )
-            {
-                counts.put( evalGroupID, countUserIdsForEvalGroup( evalGroupID, permission, sectionAware ) );
-            }
-        }
-        return counts;
+        return fillEmptyGroups( externalLogic.countUserIdsForEvalGroups( evalGroupIDs, permission, sectionAware ), evalGroupIDs,
+                count -> count == null || count == 0,
+                evalGroupID -> countUserIdsForEvalGroup( evalGroupID, permission, sectionAware ) );
     }
 
     /* (non-Javadoc)
@@ -526,17 +591,45 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
      */
     public Map<String, Boolean> hasUserIdsForEvalGroups( Collection<String> evalGroupIDs, String permission, Boolean sectionAware )
     {
-        // Same fallback order as countUserIdsForEvalGroups() above: bulk-resolve the common case, fall back
-        // to the per-group path (adhoc groups, external providers) only for the ones that came back false.
-        Map<String, Boolean> result = new HashMap<>( externalLogic.hasUserIdsForEvalGroups( evalGroupIDs, permission, sectionAware ) );
+        return fillEmptyGroups( externalLogic.hasUserIdsForEvalGroups( evalGroupIDs, permission, sectionAware ), evalGroupIDs,
+                hasUsers -> !BooleanUtils.isTrue( hasUsers ),
+                evalGroupID -> countUserIdsForEvalGroup( evalGroupID, permission, sectionAware ) > 0 );
+    }
+
+    /* (non-Javadoc)
+     *
+     * @see org.sakaiproject.evaluation.logic.externals.ExternalEvalGroups#getUserIdsForEvalGroups(java.util.Collection, java.lang.String, java.lang.Boolean)
+     */
+    public Map<String, Set<String>> getUserIdsForEvalGroups( Collection<String> evalGroupIDs, String permission, Boolean sectionAware )
+    {
+        return fillEmptyGroups( externalLogic.getUserIdsForEvalGroups( evalGroupIDs, permission, sectionAware ), evalGroupIDs,
+                userIDs -> userIDs == null || userIDs.isEmpty(),
+                evalGroupID -> getUserIdsForEvalGroup( evalGroupID, permission, sectionAware ) );
+    }
+
+    /**
+     * The bulk external lookup resolves the common case (real Sakai groups/sites) in a single call,
+     * the groups which came back empty fall back to the per-group path (adhoc groups, external providers)
+     * which uses the same lookup order as {@link #getUserIdsForEvalGroup(String, String, Boolean)}
+     * 
+     * @param bulkResults the results of the bulk external lookup
+     * @param evalGroupIDs all the groups which were looked up
+     * @param isEmpty true for a result (possibly null) which should be looked up again per group
+     * @param perGroup the per-group lookup
+     * @return the results for all the groups
+     */
+    private <V> Map<String, V> fillEmptyGroups( Map<String, V> bulkResults, Collection<String> evalGroupIDs,
+            Predicate<V> isEmpty, Function<String, V> perGroup )
+    {
+        Map<String, V> results = new HashMap<>( bulkResults );
         for ( String evalGroupID : evalGroupIDs )
         {
-            if ( !result.getOrDefault( evalGroupID, false ) )
+            if ( isEmpty.test( results.get( evalGroupID ) ) )
             {
-                result.put( evalGroupID, countUserIdsForEvalGroup( evalGroupID, permission, sectionAware ) > 0 );
+                results.put( evalGroupID, perGroup.apply( evalGroupID ) );
             }
         }
-        return result;
+        return results;
     }
 
     /* (non-Javadoc)
@@ -637,14 +730,25 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
     
     public boolean isUserAllowedInEvalGroup(String userId, String permission, String evalGroupId) {
 
-        /* NOTE: false checks end up being really costly and should probably be cached
-         */
-
         if (evalGroupId == null) {
             // special check for the admin user
             return isUserAdmin(userId);
         }
 
+        /* NOTE: false checks end up being really costly so both results are cached
+         */
+        if (groupCache == null) {
+            return checkUserAllowedInEvalGroup(userId, permission, evalGroupId);
+        }
+        Boolean allowed = groupCache.getUserAllowedInEvalGroup(userId, permission, evalGroupId);
+        if (allowed == null) {
+            allowed = checkUserAllowedInEvalGroup(userId, permission, evalGroupId);
+            groupCache.putUserAllowedInEvalGroup(userId, permission, evalGroupId, allowed);
+        }
+        return allowed;
+    }
+
+    private boolean checkUserAllowedInEvalGroup(String userId, String permission, String evalGroupId) {
         // try checking external first
         if ( externalLogic.isUserAllowedInEvalGroup(userId, permission, evalGroupId) ) {
             return true;
@@ -824,6 +928,10 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
         return externalLogic.findScheduledJobs(evaluationId, jobType);
     }
 
+    public EvalScheduledJob[] findAllScheduledJobs() {
+        return externalLogic.findAllScheduledJobs();
+    }
+
     // ADHOC
     public EvalAdhocGroup getAdhocGroupById(Long adhocGroupId) {
         return adhocSupportLogic.getAdhocGroupById(adhocGroupId);
@@ -844,6 +952,9 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
             }
         }
         adhocSupportLogic.saveAdhocGroup(group);
+        if (groupCache != null) {
+            groupCache.invalidateEvalGroup(group.getEvalGroupId());
+        }
     }
 
     public void saveAdhocUser(EvalAdhocUser user) {
@@ -858,6 +969,9 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
             }
         }
         adhocSupportLogic.saveAdhocUser(user);
+        if (userCache != null) {
+            userCache.remove(user.getUserId());
+        }
     }
 
     public void deleteAdhocGroup(Long adhocGroupId) {
@@ -870,6 +984,9 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
                 }
             }
             adhocSupportLogic.deleteAdhocGroup(adhocGroupId);
+            if (groupCache != null) {
+                groupCache.invalidateEvalGroup(eag.getEvalGroupId());
+            }
         }
     }
 
@@ -957,6 +1074,9 @@ public class EvalCommonLogicImpl implements EvalCommonLogic {
             log.info("Unregistered EvalGroupProvider");
             this.evalGroupsProvider = null;
         }
+        if (groupCache != null) {
+            groupCache.clear();
+        }
     }
     
     /*
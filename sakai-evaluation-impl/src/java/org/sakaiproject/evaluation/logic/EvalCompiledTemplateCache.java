@@ -0,0 +1,128 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
+import org.sakaiproject.evaluation.logic.model.EvalCompiledTemplate;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.MemoryService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holds the {@link EvalCompiledTemplate}s for locked templates keyed by template id,
+ * an entry is only used if its lock version matches the current lock version of the template<br/>
+ * The compiled templates are held in a cluster cache when one is available (so removing one on a server
+ * clears it on all of them and the size is limited by the cache config), otherwise a local LRU map
+ * limited to {@link #setMaxLocalTemplates(int)} entries is used
+ */
+@Slf4j
+public class EvalCompiledTemplateCache {
+
+    public static final String COMPILED_TEMPLATES_CACHE_NAME = "org.sakaiproject.evaluation.logic.EvalAuthoringService.compiledTemplates";
+
+    private EvalExternalLogic externalLogic;
+    public void setExternalLogic(EvalExternalLogic externalLogic) {
+        this.externalLogic = externalLogic;
+    }
+
+    private Cache compiledTemplatesCache;
+    public void setCompiledTemplatesCache(Cache compiledTemplatesCache) {
+        this.compiledTemplatesCache = compiledTemplatesCache;
+    }
+
+    private int maxLocalTemplates = 200;
+    public void setMaxLocalTemplates(int maxLocalTemplates) {
+        this.maxLocalTemplates = maxLocalTemplates;
+    }
+
+    /**
+     * used when there is no cluster cache available
+     */
+    private Map<Long, EvalCompiledTemplate> localTemplates;
+
+    public void init() {
+        if (compiledTemplatesCache == null && externalLogic != null) {
+            MemoryService memoryService = externalLogic.getBean(MemoryService.class);
+            if (memoryService != null) {
+                compiledTemplatesCache = memoryService.getCache(COMPILED_TEMPLATES_CACHE_NAME);
+            }
+        }
+        if (compiledTemplatesCache == null) {
+            log.info("No cluster cache available, compiled templates will be held on this server only (max " + maxLocalTemplates + ")");
+        }
+        localTemplates = new LinkedHashMap<Long, EvalCompiledTemplate>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, EvalCompiledTemplate> eldest) {
+                return size() > maxLocalTemplates;
+            }
+        };
+    }
+
+    /**
+     * @param templateId the id of a locked template
+     * @param lockVersion the current lock version of the template, see {@link EvalCompiledTemplate#makeLockVersion(org.sakaiproject.evaluation.model.EvalTemplate)}
+     * @return the compiled template OR null if there is none for this version of the template
+     */
+    public EvalCompiledTemplate get(Long templateId, long lockVersion) {
+        EvalCompiledTemplate compiled;
+        if (compiledTemplatesCache != null) {
+            compiled = (EvalCompiledTemplate) compiledTemplatesCache.get(templateId);
+        } else {
+            synchronized (localTemplates) {
+                compiled = localTemplates.get(templateId);
+            }
+        }
+        if (compiled != null && compiled.getLockVersion() != lockVersion) {
+            // template was unlocked and locked again since this was compiled
+            compiled = null;
+        }
+        return compiled;
+    }
+
+    /**
+     * @param compiled a compiled template, replaces any other version of the same template
+     */
+    public void put(EvalCompiledTemplate compiled) {
+        if (compiledTemplatesCache != null) {
+            compiledTemplatesCache.put(compiled.getTemplateId(), compiled);
+        } else {
+            synchronized (localTemplates) {
+                localTemplates.put(compiled.getTemplateId(), compiled);
+            }
+        }
+    }
+
+    /**
+     * @param templateId the id of a template, the compiled form (if any) will be dropped
+     */
+    public void remove(Long templateId) {
+        if (templateId == null) {
+            return;
+        }
+        if (compiledTemplatesCache != null) {
+            compiledTemplatesCache.remove(templateId);
+        } else {
+            synchronized (localTemplates) {
+                localTemplates.remove(templateId);
+            }
+        }
+    }
+
+}
@@ -14,7 +14,6 @@
  */
 package org.sakaiproject.evaluation.logic;
 
-import org.sakaiproject.evaluation.dao.EvaluationLockDao;
 import org.sakaiproject.evaluation.dao.EvaluationQueryDao;
 import org.sakaiproject.evaluation.dao.EvaluationResponseDao;
 
@@ -31,7 +30,9 @@ import java.util.Set;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.exceptions.ResponseSaveException;
 import org.sakaiproject.evaluation.logic.externals.ExternalHierarchyLogic;
+import org.sakaiproject.evaluation.logic.model.EvalResponseAnswersHandler;
 import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalAnswerStats;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 import org.sakaiproject.evaluation.model.EvalResponse;
@@ -66,9 +67,9 @@ public class EvalDeliveryServiceImpl implements EvalDeliveryService {
         this.responseDao = responseDao;
     }
 
-    private EvaluationLockDao lockDao;
-    public void setLockDao(EvaluationLockDao lockDao) {
-        this.lockDao = lockDao;
+    private EvalLockManager evalLockManager;
+    public void setEvalLockManager(EvalLockManager evalLockManager) {
+        this.evalLockManager = evalLockManager;
     }
 
     private EvalCommonLogic commonLogic;
@@ -214,9 +215,11 @@ public class EvalDeliveryServiceImpl implements EvalDeliveryService {
                 /* the response is complete (submission of an evaluation) 
                  * and not just creating the empty response so lock related evaluation
                  */
-                log.info("Locking evaluation (" + response.getEvaluation().getId() + ") and associated entities");
-                EvalEvaluation evaluation = queryDao.getEvaluationById(response.getEvaluation().getId());
-                lockDao.lockEvaluation(evaluation, true);
+                // keep the pre-aggregated answer stats in step with the submitted answers (same transaction)
+                responseDao.updateAnswerStats(response);
+
+                // only the first completed response actually locks, after that the evaluation is known to be locked
+                evalLockManager.lockEvaluation(response.getEvaluation().getId());
                 completeMessage = ", response is complete";
             }
 
@@ -370,6 +373,139 @@ public class EvalDeliveryServiceImpl implements EvalDeliveryService {
         return answers;
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#getNumericAnswersForEval(java.lang.Long, java.lang.String[], java.lang.Long[])
+     */
+    public List<EvalAnswer> getNumericAnswersForEval(Long evaluationId, String[] evalGroupIds, Long[] templateItemIds) {
+        log.debug("evaluationId: " + evaluationId);
+
+        if (queryDao.countEvaluationById(evaluationId) <= 0) {
+            throw new IllegalArgumentException("Could not find evaluation with id: " + evaluationId);
+        }
+
+        List<EvalAnswer> answers = responseDao.getNumericAnswers(evaluationId, evalGroupIds, templateItemIds);
+
+        for (EvalAnswer answer : answers) {
+            // decode the stored answers into the int array
+            answer.multipleAnswers = EvalUtils.decodeMultipleAnswers(answer.getMultiAnswerCode());
+            // decode NA value
+            EvalUtils.decodeAnswerNA(answer);
+        }
+        return answers;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#getAnswersForEval(java.lang.Long, java.lang.String[], java.lang.Long[], org.sakaiproject.evaluation.logic.model.EvalResponseAnswersHandler)
+     */
+    public int getAnswersForEval(Long evaluationId, String[] evalGroupIds, Long[] templateItemIds, EvalResponseAnswersHandler handler) {
+        log.debug("evaluationId: " + evaluationId);
+
+        if (handler == null) {
+            throw new IllegalArgumentException("handler cannot be null");
+        }
+        if (queryDao.countEvaluationById(evaluationId) <= 0) {
+            throw new IllegalArgumentException("Could not find evaluation with id: " + evaluationId);
+        }
+
+        return responseDao.scrollAnswers(evaluationId, evalGroupIds, templateItemIds, (response, answers) -> {
+            for (EvalAnswer answer : answers) {
+                // decode the stored answers into the int array
+                answer.multipleAnswers = EvalUtils.decodeMultipleAnswers(answer.getMultiAnswerCode());
+                // decode NA value
+                EvalUtils.decodeAnswerNA(answer);
+            }
+            handler.handleResponseAnswers(response, answers);
+        });
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#getAnswerAssociatesForEval(java.lang.Long, java.lang.String[])
+     */
+    public Map<String, Set<String>> getAnswerAssociatesForEval(Long evaluationId, String[] evalGroupIds) {
+        log.debug("evaluationId: " + evaluationId);
+        return responseDao.getAnswerAssociates(evaluationId, evalGroupIds);
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#getAnswerStatsForEval(java.lang.Long, java.lang.String[])
+     */
+    public Map<String, EvalAnswerStats> getAnswerStatsForEval(Long evaluationId, String[] evalGroupIds) {
+        log.debug("evaluationId: " + evaluationId);
+
+        if (evalGroupIds == null || evalGroupIds.length == 0) {
+            throw new IllegalArgumentException("evalGroupIds cannot be empty");
+        }
+
+        Map<String, Integer> groupResponses = new HashMap<>();
+        Map<String, EvalAnswerStats> statsMap = new HashMap<>();
+        for (EvalAnswerStats stats : responseDao.getAnswerStats(evaluationId, evalGroupIds)) {
+            if (stats.getTemplateItemId() == null) {
+                if (stats.getAnswerCount() < 0) {
+                    log.debug("Answer stats are stale for evaluation (" + evaluationId + ") and group (" + stats.getEvalGroupId() + ")");
+                    return null;
+                }
+                groupResponses.merge(stats.getEvalGroupId(), stats.getAnswerCount(), Integer::sum);
+                continue;
+            }
+            String key = TemplateItemUtils.makeTemplateItemAnswerKey(stats.getTemplateItemId(),
+                    stats.getAssociatedType(), stats.getAssociatedId());
+            EvalAnswerStats combined = statsMap.get(key);
+            if (combined == null) {
+                combined = new EvalAnswerStats(evaluationId, null, stats.getTemplateItemId(),
+                        stats.getAssociatedType(), stats.getAssociatedId());
+                statsMap.put(key, combined);
+            }
+            TemplateItemDataList.addAnswerStats(combined, stats);
+        }
+
+        // the stats can only be used if they include every completed response in every group
+        Map<String, Integer> groupCompleted = responseDao.countResponsesByGroup(new Long[] {evaluationId}, evalGroupIds, true)
+                .getOrDefault(evaluationId, new HashMap<>());
+        for (String evalGroupId : new HashSet<>(Arrays.asList(evalGroupIds))) {
+            int completed = groupCompleted.getOrDefault(evalGroupId, 0);
+            Integer aggregated = groupResponses.get(evalGroupId);
+            if (completed > 0 && (aggregated == null || aggregated != completed)) {
+                log.debug("Answer stats not current for evaluation (" + evaluationId + ") and group (" + evalGroupId
+                        + "): " + aggregated + " of " + completed + " responses");
+                return null;
+            }
+        }
+        return statsMap;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#rebuildAnswerStats(java.lang.Long)
+     */
+    public int rebuildAnswerStats(Long evaluationId) {
+        log.debug("evaluationId: " + evaluationId);
+
+        if (queryDao.countEvaluationById(evaluationId) <= 0) {
+            throw new IllegalArgumentException("Could not find evaluation with id: " + evaluationId);
+        }
+
+        return rebuildAnswerStats(evaluationId, null);
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#rebuildAnswerStats(java.lang.Long, java.lang.String)
+     */
+    public int rebuildAnswerStats(Long evaluationId, String evalGroupId) {
+        log.debug("evaluationId: " + evaluationId + ", evalGroupId: " + evalGroupId);
+
+        if (queryDao.countEvaluationById(evaluationId) <= 0) {
+            throw new IllegalArgumentException("Could not find evaluation with id: " + evaluationId);
+        }
+
+        return responseDao.rebuildAnswerStats(evaluationId, evalGroupId);
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalDeliveryService#getStaleAnswerStatsGroups()
+     */
+    public Map<Long, Set<String>> getStaleAnswerStatsGroups() {
+        return responseDao.getStaleAnswerStatsGroups();
+    }
+
 
 
     // PERMISSIONS
@@ -17,6 +17,7 @@ package org.sakaiproject.evaluation.logic;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -24,9 +25,17 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.dao.EvaluationConsolidatedEmailDao;
 import org.sakaiproject.evaluation.jobmonitor.JobStatusReporter;
 import org.sakaiproject.evaluation.logic.entity.EvalReportsEntityProvider;
 import org.sakaiproject.evaluation.logic.model.EvalEmailMessage;
@@ -35,6 +44,7 @@ import org.sakaiproject.evaluation.logic.model.EvalReminderStatus;
 import org.sakaiproject.evaluation.logic.model.EvalUser;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalAssignUser;
+import org.sakaiproject.evaluation.model.EvalEmailOutbox;
 import org.sakaiproject.evaluation.model.EvalEmailTemplate;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 import org.sakaiproject.evaluation.utils.ArrayUtils;
@@ -81,6 +91,11 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
         this.evaluationService = evaluationService;
     }
 
+    private EvaluationConsolidatedEmailDao consolidatedEmailDao;
+    public void setConsolidatedEmailDao(EvaluationConsolidatedEmailDao consolidatedEmailDao) {
+        this.consolidatedEmailDao = consolidatedEmailDao;
+    }
+
     // INIT method
     public void init() {
         log.debug("Init");
@@ -172,7 +187,14 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
      * @see org.sakaiproject.evaluation.logic.EvalEmailsLogic#sendEvalAvailableNotifications(java.lang.Long, boolean)
      */
     public String[] sendEvalAvailableNotifications(Long evaluationId, boolean includeEvaluatees) {
-        log.debug("evaluationId: " + evaluationId + ", includeEvaluatees: " + includeEvaluatees);
+        return sendEvalAvailableNotifications(evaluationId, includeEvaluatees, null);
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalEmailsLogic#sendEvalAvailableNotifications(java.lang.Long, boolean, java.lang.String)
+     */
+    public String[] sendEvalAvailableNotifications(Long evaluationId, boolean includeEvaluatees, String runId) {
+        log.debug("evaluationId: " + evaluationId + ", includeEvaluatees: " + includeEvaluatees + ", runId: " + runId);
 
         Set<String> userIdsSet;
         boolean studentNotification = true;
@@ -191,11 +213,28 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
             evaluationService.getAssignGroupsForEvals(new Long[] { evaluationId }, true, null);
         List<EvalAssignGroup> assignGroups = evalAssignGroups.get(evaluationId);
 
+        // when queuing, skip the messages which were queued by an interrupted earlier attempt at this run
+        boolean useOutbox = (Boolean) settings.get(EvalSettings.EMAIL_USE_OUTBOX);
+        Set<String> queuedGroupIds = new HashSet<>();
+        Set<String> queuedEvaluateeGroupIds = new HashSet<>();
+        if (useOutbox && runId != null) {
+            queuedGroupIds.addAll(consolidatedEmailDao.getOutboxEmailGroupIds(evaluationId, EvalConstants.EMAIL_TEMPLATE_AVAILABLE, null, runId));
+            queuedGroupIds.addAll(consolidatedEmailDao.getOutboxEmailGroupIds(evaluationId, EvalConstants.EMAIL_TEMPLATE_AVAILABLE_OPT_IN, null, runId));
+            queuedEvaluateeGroupIds.addAll(consolidatedEmailDao.getOutboxEmailGroupIds(evaluationId, EvalConstants.EMAIL_TEMPLATE_AVAILABLE_EVALUATEE, null, runId));
+        }
+
         String sampleEmail = null;
         List<String> sentEmails = new ArrayList<>();
         // loop through groups and send emails to correct users group
         for (int i = 0; i < assignGroups.size(); i++) {
             EvalAssignGroup assignGroup = assignGroups.get(i);
+
+            boolean groupQueued = queuedGroupIds.contains(assignGroup.getEvalGroupId());
+            boolean evaluateeQueued = queuedEvaluateeGroupIds.contains(assignGroup.getEvalGroupId());
+            if (groupQueued && (evaluateeQueued || ! evaluateeNotification)) {
+                log.info("Skipping available email for evaluationId ("+evaluationId+") and group ("+assignGroup.getEvalGroupId()+") because it is already in the email outbox for run "+runId);
+                continue;
+            }
             
             if(! commonLogic.isEvalGroupPublished(assignGroup.getEvalGroupId())) {
                 log.info("Skipping available email for evaluationId ("+evaluationId+") and group ("+assignGroup.getEvalGroupId()+") because the group is not published");
@@ -247,21 +286,29 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
 
             // choose from 2 templates
             EvalEmailTemplate currentTemplate = emailTemplate;
+            String currentTemplateType = EvalConstants.EMAIL_TEMPLATE_AVAILABLE;
             if (! studentNotification) {
                 currentTemplate = emailOptInTemplate;
+                currentTemplateType = EvalConstants.EMAIL_TEMPLATE_AVAILABLE_OPT_IN;
             }
             EvalEmailMessage em = makeEmailMessage(currentTemplate.getMessage(), currentTemplate.getSubject(), eval, group);
             if (sampleEmail == null && em.message != null) {
                 sampleEmail = em.message;
             }
 
-            // send the actual emails for this evalGroupId
-            String[] emailAddresses = sendUsersEmails(from, toUserIds, em.subject, em.message);
-            log.info("Sent evaluation available message to " + emailAddresses.length + " users (attempted to send to "+toUserIds.length+")");
-            // store sent emails to return
-            sentEmails.addAll( Arrays.asList( emailAddresses ) );
+            String[] emailAddresses;
+            if (groupQueued) {
+                log.info("Skipping available email for evaluationId ("+evaluationId+") and group ("+group.evalGroupId+") because it is already in the email outbox for run "+runId);
+            } else {
+                // send (or queue) the actual emails for this evalGroupId
+                emailAddresses = sendOrQueueUsersEmails(useOutbox, eval, group.evalGroupId, currentTemplateType, null, runId,
+                        from, toUserIds, em.subject, em.message);
+                log.info("Sent evaluation available message to " + emailAddresses.length + " users (attempted to send to "+toUserIds.length+")");
+                // store sent emails to return
+                sentEmails.addAll( Arrays.asList( emailAddresses ) );
+            }
 
-            if (evaluateeNotification) {
+            if (evaluateeNotification && ! evaluateeQueued) {
             	em = makeEmailMessage(emailTemplateEvaluatee.getMessage(), emailTemplateEvaluatee.getSubject(), eval, group);
             	List<EvalAssignUser> userAssignments = evaluationService.getParticipantsForEval(evaluationId, null, 
             			new String[] {group.evalGroupId}, EvalAssignUser.TYPE_EVALUATEE, null, null, null);
@@ -273,7 +320,8 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
                 			+ EvalConstants.EMAIL_TEMPLATE_CREATED + " notification to for available evaluation ("
                 			+ evaluationId + ") and group (" + group.evalGroupId + ")");
                 }
-            	emailAddresses = sendUsersEmails(from, toUserIds, em.subject, em.message);
+            	emailAddresses = sendOrQueueUsersEmails(useOutbox, eval, group.evalGroupId, EvalConstants.EMAIL_TEMPLATE_AVAILABLE_EVALUATEE, null, runId,
+            	        from, toUserIds, em.subject, em.message);
                 sentEmails.addAll( Arrays.asList( emailAddresses ) );
             	log.info("Sent evaluation available evaluatee message to " + emailAddresses.length + " users (attempted to send to "+toUserIds.length+")");
             }
@@ -348,8 +396,15 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
      * @see org.sakaiproject.evaluation.logic.EvalEmailsLogic#sendEvalReminderNotifications(java.lang.Long, java.lang.String)
      */
     public String[] sendEvalReminderNotifications(Long evaluationId, String includeConstant) {
+        return sendEvalReminderNotifications(evaluationId, includeConstant, null);
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalEmailsLogic#sendEvalReminderNotifications(java.lang.Long, java.lang.String, java.lang.String)
+     */
+    public String[] sendEvalReminderNotifications(Long evaluationId, String includeConstant, String runId) {
         if (log.isDebugEnabled()) {
-            log.debug("sendEvalReminderNotifications(evaluationId: " + evaluationId + ", includeConstant: " + includeConstant+")");
+            log.debug("sendEvalReminderNotifications(evaluationId: " + evaluationId + ", includeConstant: " + includeConstant+", runId: " + runId + ")");
         }
 
         EvalUtils.validateEmailIncludeConstant(includeConstant);
@@ -363,8 +418,17 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
         // to see if the instructor has opted in in this case -AZ
         Map<Long, List<EvalGroup>> evalGroupIds = evaluationService.getEvalGroupsForEval(new Long[] { evaluationId }, false, null);
 
-        // handle recovery of interrupted email sending
-        boolean updateReminderStatus = (Boolean) settings.get(EvalSettings.ENABLE_REMINDER_STATUS);
+        // handle recovery of interrupted email sending,
+        // the email outbox keeps its own per group delivery state so the reminder status is not needed when queuing
+        boolean useOutbox = (Boolean) settings.get(EvalSettings.EMAIL_USE_OUTBOX);
+        boolean updateReminderStatus = ! useOutbox && (Boolean) settings.get(EvalSettings.ENABLE_REMINDER_STATUS);
+        Set<String> queuedGroupIds = new HashSet<>();
+        if (useOutbox && runId != null) {
+            queuedGroupIds = consolidatedEmailDao.getOutboxEmailGroupIds(evaluationId, EvalConstants.EMAIL_TEMPLATE_REMINDER, includeConstant, runId);
+            if (! queuedGroupIds.isEmpty()) {
+                log.info("Reminder recovery processing for eval ("+evaluationId+") will skip "+queuedGroupIds.size()+" groups already in the email outbox for run "+runId);
+            }
+        }
         EvalReminderStatus reminderStatus = eval.getCurrentReminderStatus();
         if (updateReminderStatus && reminderStatus != null) {
             log.info("Reminder recovery processing for eval ("+evaluationId+") will attempt to continue from: "+reminderStatus);
@@ -376,6 +440,9 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
             log.debug("Found " + groups.size() + " groups for available evaluation: " + evaluationId);
         }
 
+        // get the participants for all the groups at once
+        Map<String, List<EvalAssignUser>> participantsByGroup = evaluationService.getParticipantsForEvalByGroups(evaluationId, null, null, null, includeConstant);
+
         String sampleEmail = null;
         List<String> sentEmails = new ArrayList<>();
         // loop through groups and send emails to correct users in each
@@ -402,16 +469,15 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
             	}
             }
 
-            if (! commonLogic.isEvalGroupPublished(evalGroupId)) {
-                continue; // skip processing for groups that are not published?
+            if (queuedGroupIds.contains(evalGroupId)) {
+                continue; // skip groups which were queued by an interrupted run
             }
 
-            String[] limitGroupIds = null;
-            if (evalGroupId != null) {
-                limitGroupIds = new String[] {evalGroupId};
+            if (! commonLogic.isEvalGroupPublished(evalGroupId)) {
+                continue; // skip processing for groups that are not published?
             }
 
-            List<EvalAssignUser> participants = evaluationService.getParticipantsForEval(evaluationId, null, limitGroupIds, null, null, includeConstant, null);
+            List<EvalAssignUser> participants = participantsByGroup.getOrDefault(evalGroupId, new ArrayList<>(0));
             Set<String> userIdsSet = EvalUtils.getUserIdsFromUserAssignments(participants);
 
             if (userIdsSet.size() > 0) {
@@ -428,8 +494,9 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
                     sampleEmail = em.message;
                 }
 
-                // send the actual emails for this evalGroupId
-                String[] emailAddresses = sendUsersEmails(from, toUserIds, em.subject, em.message);
+                // send (or queue) the actual emails for this evalGroupId
+                String[] emailAddresses = sendOrQueueUsersEmails(useOutbox, eval, evalGroupId, EvalConstants.EMAIL_TEMPLATE_REMINDER, includeConstant, runId,
+                        from, toUserIds, em.subject, em.message);
                 log.info("Sent evaluation reminder message for eval ("+evaluationId+") and group ("+group.evalGroupId+") to " + emailAddresses.length + " users (attempted to send to "+toUserIds.length+")");
                 // store sent emails to return
                 sentEmails.addAll( Arrays.asList( emailAddresses ) );
@@ -653,9 +720,9 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
                 if (replacementValues.get("HelpdeskEmail") != null) {
                     String[] to = {replacementValues.get("HelpdeskEmail")};
                     //String subject = "Email Job for evaluation " + evalTitle + " has completed";
-                    String subject = TextTemplateLogicUtils.processTextTemplate(emailTemplate.getSubject(), replacementValues);
+                    String subject = TextTemplateLogicUtils.processTextTemplate(emailTemplate.getId(), emailTemplate.getSubject(), replacementValues);
                     //String message = "The " + jobType.substring(9) + " email job has completed. " + numEmailsSent + " emails were sent.";
-                    String message = TextTemplateLogicUtils.processTextTemplate(emailTemplate.getMessage(), replacementValues);
+                    String message = TextTemplateLogicUtils.processTextTemplate(emailTemplate.getId(), emailTemplate.getMessage(), replacementValues);
                     String deliveryOption = (String) settings.get(EvalSettings.EMAIL_DELIVERY_OPTION);
                     String[] emails = commonLogic.sendEmailsToAddresses(replacementValues.get("HelpdeskEmail"), to, subject, message, true, deliveryOption);
                     if (log.isDebugEnabled()) {
@@ -923,6 +990,8 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
 		
 		Date startTime = new Date();
 
+		// anything left in the queue is from a run which did not finish, those users are selected again if they still need the email
+		this.evaluationService.resetConsolidatedEmailRecipients();
 		int count = this.evaluationService.selectConsoliatedEmailRecipients(true, null, true, null, EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_AVAILABLE);
 		if(log.isDebugEnabled()) {
 			log.debug("Number of evalAssignUser entities selected for available emails: " + count);
@@ -935,18 +1004,9 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
         		jobStatusReporter.reportProgress(jobId, "announcementGroups", Integer.toString(this.evaluationService.countDistinctGroupsInConsolidatedEmailMapping()));
         	}
 
-	    	int page = 0;
-	    	List<String> userIds;
-	    	do {
-		    	List<Map<String,Object>> userMap = this.evaluationService.getConsolidatedEmailMapping(true, batchSize, page++);
-		    	userIds = processConsolidatedEmails(jobId, userMap, jobStatusReporter);
-		    	if(userIds != null) {
-		    		recipients.addAll(userIds);
-		    	}
-	    		takeShortBreak(waitInterval);
-	    	} while(userIds != null && !userIds.isEmpty());
-	    	
-	    	this.evaluationService.resetConsolidatedEmailRecipients();
+	    	if (processConsolidatedEmailPages(true, batchSize, waitInterval, jobId, jobStatusReporter, recipients)) {
+	    		this.evaluationService.resetConsolidatedEmailRecipients();
+	    	}
 		}
     	
 		if(jobId != null && jobStatusReporter != null) {
@@ -1008,6 +1068,8 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
     	}
 		Date reminderEmailSent = new Date();
 		
+		// anything left in the queue is from a run which did not finish, those users are selected again if they still need the email
+		this.evaluationService.resetConsolidatedEmailRecipients();
 		int count = this.evaluationService.selectConsoliatedEmailRecipients(availableEmailEnabled, availableEmailSent , true, reminderEmailSent , EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_REMINDER);
     	log.debug("Number of evalAssignUser entities selected for reminder emails: " + count);
     	if(count > 0) {
@@ -1015,17 +1077,10 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
         		jobStatusReporter.reportProgress(jobId, "sendingReminders", Integer.toString(count));
         		jobStatusReporter.reportProgress(jobId, "reminderGroups", Integer.toString(this.evaluationService.countDistinctGroupsInConsolidatedEmailMapping()));
         	}
-        	int page = 0;
-        	List<String> userIds;
-	    	do {
-	    		List<Map<String,Object>> userMap = this.evaluationService.getConsolidatedEmailMapping(false, batchSize, page++);
-	    		userIds = processConsolidatedEmails(jobId, userMap, jobStatusReporter);
-	    		if(userIds != null)
-	    		recipients.addAll(userIds);
-	    		takeShortBreak(waitInterval);
-	    	} while(userIds != null && !userIds.isEmpty());
+        	if (processConsolidatedEmailPages(false, batchSize, waitInterval, jobId, jobStatusReporter, recipients)) {
+        		this.evaluationService.resetConsolidatedEmailRecipients();
+        	}
     	}
-    	this.evaluationService.resetConsolidatedEmailRecipients();
     	
 		if(jobId != null && jobStatusReporter != null) {
 			jobStatusReporter.reportProgress(jobId, "reminders", calculateElapsedTimeMessage(new Date(), reminderEmailSent));
@@ -1066,79 +1121,294 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
 		return msg;
 	}
 
-	/**
+    /**
+     * INTERNAL METHOD<br/>
+     * Splits the email processing queue into shards by user and sends the shards in parallel on a pool of worker
+     * threads on this server, this is parallelism within the one server running the consolidated email job
+     * (the job holds the LOCK_CONSOLIDATED_EMAIL_JOB lock), the shards are not shared with other servers.
+     * A shard is worked through one page at a time (each page starts after the last user and template of the
+     * previous page) and the rate is split between the shards which are sent at the same time so the job
+     * stays under {@link EvalSettings#CONSOLIDATED_EMAIL_MESSAGES_PER_SECOND}.
+     * If the server dies part way through then the users which were not sent are selected again by the next run.
+     * 
+     * @param sendingAvailableEmails true if the available emails are being sent, false for reminders
+     * @param batchSize the number of users (and templates) to handle in each page
+     * @param waitInterval the number of seconds it should take to send batchSize emails,
+     * only used when CONSOLIDATED_EMAIL_MESSAGES_PER_SECOND is not set
+     * @param jobId
+     * @param jobStatusReporter
+     * @param recipients the display ids of the users the emails were sent to are added to this
+     * @return true if every shard was sent, false if some failed
+     */
+	protected boolean processConsolidatedEmailPages(boolean sendingAvailableEmails, int batchSize, Integer waitInterval, 
+			String jobId, JobStatusReporter jobStatusReporter, List<String> recipients) {
+		Integer shards = (Integer) this.settings.get(EvalSettings.CONSOLIDATED_EMAIL_SHARDS);
+		if (shards == null || shards < 1) {
+			shards = 1;
+		}
+		Integer threads = (Integer) this.settings.get(EvalSettings.CONSOLIDATED_EMAIL_WORKER_THREADS);
+		if (threads == null || threads < 1) {
+			threads = 1;
+		}
+		Integer messagesPerSecond = (Integer) this.settings.get(EvalSettings.CONSOLIDATED_EMAIL_MESSAGES_PER_SECOND);
+		double runRate = messagesPerSecond == null ? 0 : messagesPerSecond;
+		if (runRate <= 0 && waitInterval != null && waitInterval > 0) {
+			// the same rate as the old send a batch then wait for the interval
+			runRate = (double) batchSize / waitInterval;
+		}
+		// only one shard is sent per worker thread at a time so each one gets its share of the rate among those
+		int concurrentShards = Math.min(threads, shards);
+		double shardRate = runRate / concurrentShards;
+
+		int assigned = this.evaluationService.assignConsolidatedEmailShards(shards);
+		if (log.isDebugEnabled()) {
+			log.debug("Sending " + assigned + " queued consolidated emails in " + shards + " shards on " + threads 
+					+ " threads at " + runRate + " messages per second");
+		}
+
+		List<String> shardRecipients = Collections.synchronizedList(new ArrayList<>());
+		ConsolidatedEmailRun run = new ConsolidatedEmailRun();
+		Set<Integer> failed = new TreeSet<>();
+		ExecutorService workers = Executors.newFixedThreadPool(concurrentShards);
+		try {
+			Map<Integer, Future<?>> futures = new HashMap<>();
+			for (int shard = 0; shard < shards; shard++) {
+				int sendShard = shard;
+				TokenBucket bucket = new TokenBucket(shardRate);
+				futures.put(shard, workers.submit(() -> {
+					processConsolidatedEmailShard(sendingAvailableEmails, sendShard, batchSize, 
+							bucket, jobId, jobStatusReporter, new ConsolidatedEmailRun(run), shardRecipients);
+					return null;
+				}));
+			}
+			for (Map.Entry<Integer, Future<?>> entry : futures.entrySet()) {
+				try {
+					entry.getValue().get();
+				} catch (ExecutionException e) {
+					failed.add(entry.getKey());
+					if(jobStatusReporter != null) {
+						jobStatusReporter.reportError(jobId, false, "error", "Error sending consolidated email shard " + entry.getKey() + ": " + e.getCause());
+					}
+					log.warn("Error sending consolidated email shard " + entry.getKey(), e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.warn("InterruptedException while sending consolidated emails: " + e);
+			return false;
+		} finally {
+			workers.shutdownNow();
+		}
+
+		recipients.addAll(shardRecipients);
+		if (! failed.isEmpty()) {
+			if(jobStatusReporter != null) {
+				jobStatusReporter.reportProgress(jobId, "unfinishedShards", failed.toString());
+			}
+			log.warn("Consolidated email shards " + failed + " were not finished, "
+					+ "the users in them are selected again in the next run if they still need the email");
+		}
+		return failed.isEmpty();
+	}
+
+    /**
      * INTERNAL METHOD<br/>
-	 * @param waitInterval
+     * Sends one shard of the email processing queue a page at a time, runs on a worker thread
+     * 
+     * @param sendingAvailableEmails true if the available emails are being sent, false for reminders
+     * @param shard the shard to send
+     * @param batchSize the number of users (and templates) to handle in each page
+     * @param bucket limits the sending rate for this shard
+     * @param jobId
+     * @param jobStatusReporter
+     * @param run the templates and settings for this run of the consolidated emails
+     * @param recipients the display ids of the users the emails were sent to are added to this
+     * @throws InterruptedException if the worker is stopped while it waits for the rate limit
+     */
+	protected void processConsolidatedEmailShard(boolean sendingAvailableEmails, int shard, int batchSize,
+			TokenBucket bucket, String jobId, JobStatusReporter jobStatusReporter, ConsolidatedEmailRun run, List<String> recipients)
+			throws InterruptedException {
+		String lastUserId = null;
+		Long lastTemplateId = null;
+		List<Map<String,Object>> userMap;
+		do {
+			userMap = this.evaluationService.getConsolidatedEmailMapping(sendingAvailableEmails, batchSize, shard, lastUserId, lastTemplateId);
+			if (userMap.isEmpty()) {
+				break;
+			}
+			Map<String,Object> last = userMap.get(userMap.size() - 1);
+			lastUserId = (String) last.get(EvalConstants.KEY_USER_ID);
+			lastTemplateId = (Long) last.get(EvalConstants.KEY_EMAIL_TEMPLATE_ID);
+			bucket.acquire(userMap.size());
+			recipients.addAll(processConsolidatedEmails(jobId, userMap, jobStatusReporter, run));
+		} while (userMap.size() >= batchSize);
+	}
+
+	/**
+	 * Token bucket rate limiter, permits are added at a steady rate up to one second's worth
+	 * and taking more permits than are available waits until the bucket has caught up
 	 */
-	protected void takeShortBreak(Integer waitInterval) {
-		if(waitInterval.longValue() > 0L) {
-			if(log.isDebugEnabled()) {
-				log.debug("Starting wait interval during email processing (in seconds): " + waitInterval);
+	protected static class TokenBucket {
+		private final double permitsPerSecond;
+		private final double capacity;
+		private double permits;
+		private long lastRefillNanos;
+
+		/**
+		 * @param permitsPerSecond the rate, 0 or less for no limit
+		 */
+		TokenBucket(double permitsPerSecond) {
+			this.permitsPerSecond = permitsPerSecond;
+			this.capacity = Math.max(1d, permitsPerSecond);
+			this.permits = capacity;
+			this.lastRefillNanos = System.nanoTime();
+		}
+
+		/**
+		 * Take some permits from the bucket
+		 * @param count the number of permits
+		 * @return the number of nanoseconds to wait before using the permits
+		 */
+		synchronized long reserve(int count) {
+			if (permitsPerSecond <= 0) {
+				return 0L;
 			}
-			try {
-				Thread.sleep(waitInterval.longValue() * 1000L);
-			} catch (InterruptedException e) {
-				log.warn("InterruptedException while waiting during email processing: " + e);
+			long now = System.nanoTime();
+			permits = Math.min(capacity, permits + ((now - lastRefillNanos) * permitsPerSecond / 1e9d));
+			lastRefillNanos = now;
+			permits -= count;
+			return permits >= 0 ? 0L : (long) (-permits * 1e9d / permitsPerSecond);
+		}
+
+		/**
+		 * Take some permits from the bucket and wait until they can be used
+		 * @param count the number of permits
+		 * @throws InterruptedException
+		 */
+		void acquire(int count) throws InterruptedException {
+			long waitNanos = reserve(count);
+			if (waitNanos > 0L) {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
 			}
 		}
 	}
-     
+
+	/**
+	 * The templates and settings used while sending one batch of consolidated emails,
+	 * these are looked up the first time they are needed and then reused for every user.
+	 * Each worker thread uses its own copy which shares the templates and settings with the original
+	 */
+	protected class ConsolidatedEmailRun {
+		final Map<Long, EvalEmailTemplate> templates;
+		final Map<Locale, DateFormat> dateFormats = new HashMap<>();
+		final int reportingInterval;
+		final boolean useDateTime;
+		final String from;
+		final String evalCLE;
+		final String serverUrl;
+		final Set<String> inProgressEvaluationOwners;
+
+		ConsolidatedEmailRun() {
+			templates = new ConcurrentHashMap<>();
+			Integer interval = (Integer) settings.get(EvalSettings.LOG_PROGRESS_EVERY);
+			// setting reportingInterval to zero results in no incremental reports.
+			reportingInterval = interval == null ? 0 : interval;
+			useDateTime = Boolean.TRUE.equals(settings.get(EvalSettings.EVAL_USE_DATE_TIME));
+			// we can get it from the eval if needed, but it should come from settings
+			from = (String) settings.get(EvalSettings.FROM_EMAIL_ADDRESS);
+			evalCLE = commonLogic.getConfigurationSetting("ui.service", "Sakai");
+			serverUrl = commonLogic.getServerUrl();
+			if (Boolean.TRUE.equals(settings.get(EvalSettings.ENABLE_JOB_COMPLETION_EMAIL))) {
+				inProgressEvaluationOwners = evaluationService.getInProgressEvaluationOwners();
+			} else {
+				inProgressEvaluationOwners = new HashSet<>();
+			}
+		}
+
+		ConsolidatedEmailRun(ConsolidatedEmailRun shared) {
+			// date formats are not thread safe so only those are not shared
+			templates = shared.templates;
+			reportingInterval = shared.reportingInterval;
+			useDateTime = shared.useDateTime;
+			from = shared.from;
+			evalCLE = shared.evalCLE;
+			serverUrl = shared.serverUrl;
+			inProgressEvaluationOwners = shared.inProgressEvaluationOwners;
+		}
+
+		EvalEmailTemplate getTemplate(Long emailTemplateId) {
+			return templates.computeIfAbsent(emailTemplateId, id -> evaluationService.getEmailTemplate(id));
+		}
+
+		DateFormat getDateFormat(Locale locale) {
+			// use a date which is related to the current users locale
+			return dateFormats.computeIfAbsent(locale, l -> useDateTime
+					// show date and time if date/time enabled
+					? DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM, l)
+					: DateFormat.getDateInstance(DateFormat.MEDIUM, l));
+		}
+	}
+
     /**
      * INTERNAL METHOD<br/>
 	 * @param jobId 
      * @param userMap
      * @param jobStatusReporter 
+     * @param run the templates and settings for this run of the consolidated emails
 	 * @return
 	 */
-	protected List<String> processConsolidatedEmails(String jobId, List<Map<String,Object>> userMap, JobStatusReporter jobStatusReporter) {
-		Integer reportingInterval = (Integer) this.settings.get(EvalSettings.LOG_PROGRESS_EVERY);
-		if(reportingInterval == null) {
-			// setting reportingInterval to zero results in no incremental reports.
-			reportingInterval = 0;
-		}
+	protected List<String> processConsolidatedEmails(String jobId, List<Map<String,Object>> userMap, JobStatusReporter jobStatusReporter, 
+			ConsolidatedEmailRun run) {
+		int reportingInterval = run.reportingInterval;
 		int userCounter = 0;
 		int emailCounter = 0;
 		List<String> recipients = new ArrayList<>();
-		Set<String> inProgressEvaluationOwners = new HashSet<>();
-		boolean saveWithoutSubmit = (Boolean) settings.get(EvalSettings.ENABLE_JOB_COMPLETION_EMAIL);
-		if (saveWithoutSubmit) {
-		    inProgressEvaluationOwners = evaluationService.getInProgressEvaluationOwners();
+
+		// resolve all the users and locales for this page up front
+		List<String> pageUserIds = new ArrayList<>();
+		for(Map<String,Object> entry : userMap) {
+			String userId = (String) entry.get(EvalConstants.KEY_USER_ID);
+			if (pageUserIds.isEmpty() || ! userId.equals(pageUserIds.get(pageUserIds.size() - 1))) {
+				// the page is ordered by user so repeats are always next to each other
+				pageUserIds.add(userId);
+			}
+		}
+		Map<String, EvalUser> users = new HashMap<>();
+		for (EvalUser user : commonLogic.getEvalUsersByIds(pageUserIds)) {
+			users.put(user.userId, user);
+		}
+		Map<String, Locale> locales = new HashMap<>();
+		for (String userId : pageUserIds) {
+			locales.put(userId, commonLogic.getUserLocale(userId));
 		}
+
     	for(Map<String,Object> entry : userMap) {
     		String userId = (String) entry.get(EvalConstants.KEY_USER_ID);
     		Date earliestDueDate = (Date) entry.get(EvalConstants.KEY_EARLIEST_DUE_DATE);
     		Long emailTemplateId = (Long) entry.get(EvalConstants.KEY_EMAIL_TEMPLATE_ID);
     		
-    		EvalEmailTemplate template = evaluationService.getEmailTemplate(emailTemplateId);
+    		EvalEmailTemplate template = run.getTemplate(emailTemplateId);
     			
     		Map<String, String> replacementValues = new HashMap<>();
-    		EvalUser user = commonLogic.getEvalUserById(userId);
-    		// get user's locale
-    		Locale locale = commonLogic.getUserLocale(userId);
-    	    // use a date which is related to the current users locale
-    	    DateFormat df;
-    	    boolean useDateTime = (Boolean) settings.get(EvalSettings.EVAL_USE_DATE_TIME);
-    	    if (useDateTime) {
-	            // show date and time if date/time enabled
-	            df = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM, locale);
-    	    } else {
-	            df = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
-	        }
+    		EvalUser user = users.get(userId);
+    		if (user == null) {
+    			user = commonLogic.getEvalUserById(userId);
+    		}
+    	    DateFormat df = run.getDateFormat(locales.get(userId));
 			// add date to replacementValues
 			replacementValues.put("EarliestEvalDueDate",df.format(earliestDueDate));
-			replacementValues.put("EvalCLE", commonLogic.getConfigurationSetting("ui.service", "Sakai"));
+			replacementValues.put("EvalCLE", run.evalCLE);
 			// get eval tool title from settings? from message bundle?
 			replacementValues.put("EvalToolTitle", "Teaching Evaluations");
 			replacementValues.put("EvalSite", "MyWorkspace");
-			String from = (String) settings.get(EvalSettings.FROM_EMAIL_ADDRESS);
-			// we can get it from the eval if needed, but it should come from settings
+			String from = run.from;
 			replacementValues.put("HelpdeskEmail",from);
 			replacementValues.put("MyWorkspaceDashboard", commonLogic.getMyWorkspaceDashboard(userId));
-			replacementValues.put("InProgress", (inProgressEvaluationOwners.contains(userId) ? "true" : "false"));
-			replacementValues.put("URLtoSystem", commonLogic.getServerUrl());
+			replacementValues.put("InProgress", (run.inProgressEvaluationOwners.contains(userId) ? "true" : "false"));
+			replacementValues.put("URLtoSystem", run.serverUrl);
 			try {
-				String message = TextTemplateLogicUtils.processTextTemplate(template.getMessage(), replacementValues);
-				String subject = TextTemplateLogicUtils.processTextTemplate(template.getSubject(), replacementValues);
+				String message = TextTemplateLogicUtils.processTextTemplate(template.getId(), template.getMessage(), replacementValues);
+				String subject = TextTemplateLogicUtils.processTextTemplate(template.getId(), template.getSubject(), replacementValues);
 				if(message == null || subject == null) {
 					if(jobStatusReporter != null) {
 						jobStatusReporter.reportError(jobId, false, "error", "Error attempting to send email to user (" + user.displayId + "). ");
@@ -1189,6 +1459,39 @@ public class EvalEmailsLogicImpl implements EvalEmailsLogic {
         String[] emails = commonLogic.sendEmailsToUsers(from, toUserIds, subject, message, true, deliveryOption);
         return emails;
     }
+
+    /**
+     * INTERNAL METHOD<br/>
+     * Send the emails for one group now or put them in the email outbox,
+     * queued messages are delivered later by the email outbox sender job
+     * 
+     * @param useOutbox if true then queue the message, otherwise send it now
+     * @param eval the evaluation the message is for
+     * @param evalGroupId the group the message is for
+     * @param emailTemplateType the type of the template used for the message (EMAIL_TEMPLATE_* constant)
+     * @param recipientType [OPTIONAL] which recipients the message is for if not implied by the template type
+     * @param runId [OPTIONAL] the job run which is queuing the message
+     * @param from the email address this email appears to come from
+     * @param toUserIds the userIds this message should be sent to
+     * @param subject the message subject
+     * @param message the message to send
+     * @return an array of email addresses that this message was sent to,
+     * or the userIds the message was queued for when using the outbox
+     */
+    protected String[] sendOrQueueUsersEmails(boolean useOutbox, EvalEvaluation eval, String evalGroupId, String emailTemplateType,
+            String recipientType, String runId, String from, String[] toUserIds, String subject, String message) {
+        if (! useOutbox) {
+            return sendUsersEmails(from, toUserIds, subject, message);
+        }
+        EvalEmailOutbox outboxEmail = new EvalEmailOutbox(eval.getId(), evalGroupId, emailTemplateType, recipientType,
+                from, toUserIds, subject, message);
+        outboxEmail.setRunId(runId);
+        consolidatedEmailDao.saveOutboxEmail(outboxEmail);
+        if (log.isDebugEnabled()) {
+            log.debug("Queued "+emailTemplateType+" message ("+outboxEmail.getId()+") for eval ("+eval.getId()+") and group ("+evalGroupId+") to "+toUserIds.length+" users");
+        }
+        return toUserIds;
+    }
     /**
      * INTERNAL METHOD<br/>
      * Get an email template by type and evaluationId or fail
@@ -23,9 +23,13 @@ import org.sakaiproject.evaluation.dao.EvaluationResponseDao;
 
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -37,6 +41,7 @@ import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.externals.EvalSecurityChecksImpl;
 import org.sakaiproject.evaluation.logic.model.EvalGroup;
 import org.sakaiproject.evaluation.logic.model.EvalReminderStatus;
+import org.sakaiproject.evaluation.logic.model.EvalResponseRate;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalAssignHierarchy;
 import org.sakaiproject.evaluation.model.EvalAssignUser;
@@ -132,6 +137,10 @@ public class EvalEvaluationServiceImpl implements EvalEvaluationService, Evaluat
         toolApi.exportReport(evaluation, groupIds, evaluateeId, outputStream, exportType);
     }
 
+    public void exportReports(EvalEvaluation evaluation, String[] groupIds, Map<String, OutputStream> outputStreams) {
+        toolApi.exportReports(evaluation, groupIds, outputStreams);
+    }
+
 
     private SiteService siteService;
     public void setSiteService(SiteService siteService) {
@@ -262,36 +271,90 @@ public class EvalEvaluationServiceImpl implements EvalEvaluationService, Evaluat
      * @see org.sakaiproject.evaluation.logic.EvalEvaluationService#returnAndFixEvalState(org.sakaiproject.evaluation.model.EvalEvaluation, boolean)
      */
     public String returnAndFixEvalState(EvalEvaluation evaluation, boolean saveState) {
+        String trueState = getEffectiveEvalState(evaluation);
+        // compare state and set if not equal (special states are never changed here)
+        if (! EvalConstants.EVALUATION_STATE_UNKNOWN.equals(trueState)
+                && ! trueState.equals(evaluation.getState()) ) {
+            evaluation.setState(trueState);
+            // will only save the state if this eval is already saved
+            if ( (evaluation.getId() != null) && saveState) {
+                registerStateChangeEvent(evaluation.getId(), trueState);
+                queryDao.saveEvaluation(evaluation);
+            }
+        }
+        return trueState;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalEvaluationService#getEffectiveEvalState(org.sakaiproject.evaluation.model.EvalEvaluation)
+     */
+    public String getEffectiveEvalState(EvalEvaluation evaluation) {
         String trueState = EvalUtils.getEvaluationState(evaluation, true);
-        // check state against stored state
         if (EvalConstants.EVALUATION_STATE_UNKNOWN.equals(trueState)) {
             log.warn("Evaluation ("+evaluation.getTitle()+") in UNKNOWN state");
         } else if ( EvalConstants.EVALUATION_STATE_PARTIAL.equals(evaluation.getState()) 
                 || EvalConstants.EVALUATION_STATE_DELETED.equals(evaluation.getState()) ) {
-            // never fix the state if it is currently in a special state
+            // never change the state if it is currently in a special state
             trueState = evaluation.getState();
-        } else {
-            // compare state and set if not equal
-            if (! trueState.equals(evaluation.getState()) ) {
-                evaluation.setState(trueState);
-                // will only save the state if this eval is already saved
-                if ( (evaluation.getId() != null) && saveState) {
-                    if ( EvalConstants.EVALUATION_STATE_ACTIVE.equals(trueState) ) {
-                        commonLogic.registerEntityEvent(EVENT_EVAL_STATE_START, evaluation);
-                    } else if ( EvalConstants.EVALUATION_STATE_GRACEPERIOD.equals(trueState) ) {
-                        commonLogic.registerEntityEvent(EVENT_EVAL_STATE_DUE, evaluation);
-                    } else if ( EvalConstants.EVALUATION_STATE_CLOSED.equals(trueState) ) {
-                        commonLogic.registerEntityEvent(EVENT_EVAL_STATE_STOP, evaluation);
-                    } else if ( EvalConstants.EVALUATION_STATE_VIEWABLE.equals(trueState) ) {
-                        commonLogic.registerEntityEvent(EVENT_EVAL_STATE_VIEWABLE, evaluation);
-                    }
-                    queryDao.saveEvaluation(evaluation);
-                }
-            }
         }
         return trueState;
     }
 
+    /**
+     * The date based states in the order an evaluation moves through them
+     */
+    private static final String[] ADVANCEABLE_STATES = {
+        EvalConstants.EVALUATION_STATE_INQUEUE,
+        EvalConstants.EVALUATION_STATE_ACTIVE,
+        EvalConstants.EVALUATION_STATE_GRACEPERIOD,
+        EvalConstants.EVALUATION_STATE_CLOSED,
+        EvalConstants.EVALUATION_STATE_VIEWABLE
+    };
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalEvaluationService#advanceEvaluationStates()
+     */
+    public Map<Long, String> advanceEvaluationStates() {
+        // the same time is used for every state so an evaluation can only match one of them
+        Date now = new Date();
+        Map<Long, String> changed = new LinkedHashMap<>();
+        for (String state : ADVANCEABLE_STATES) {
+            List<Long> evaluationIds = queryDao.getEvaluationIdsNeedingState(state, now);
+            if (evaluationIds.isEmpty()) {
+                continue;
+            }
+            int updated = queryDao.updateEvaluationStates(evaluationIds, state, now);
+            log.debug("Moved " + updated + " of " + evaluationIds.size() + " evaluations to state: " + state);
+            for (Long evaluationId : evaluationIds) {
+                changed.put(evaluationId, state);
+                registerStateChangeEvent(evaluationId, state);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Fires the event for an evaluation moving into a new state (if there is one for that state)
+     * 
+     * @param evaluationId the id of the evaluation which changed state
+     * @param state the new state constant
+     */
+    private void registerStateChangeEvent(Long evaluationId, String state) {
+        String eventName = null;
+        if ( EvalConstants.EVALUATION_STATE_ACTIVE.equals(state) ) {
+            eventName = EVENT_EVAL_STATE_START;
+        } else if ( EvalConstants.EVALUATION_STATE_GRACEPERIOD.equals(state) ) {
+            eventName = EVENT_EVAL_STATE_DUE;
+        } else if ( EvalConstants.EVALUATION_STATE_CLOSED.equals(state) ) {
+            eventName = EVENT_EVAL_STATE_STOP;
+        } else if ( EvalConstants.EVALUATION_STATE_VIEWABLE.equals(state) ) {
+            eventName = EVENT_EVAL_STATE_VIEWABLE;
+        }
+        if (eventName != null) {
+            commonLogic.registerEntityEvent(eventName, EvalEvaluation.class, evaluationId.toString());
+        }
+    }
+
     // USER ASSIGNMENTS
 
     /**
@@ -330,6 +393,14 @@ public class EvalEvaluationServiceImpl implements EvalEvaluationService, Evaluat
         return assignmentDao.getParticipantsForEval(evaluationId, userId, evalGroupIds, assignTypeConstant, assignStatusConstant, includeConstant, evalStateConstant);
     }
 
+    public Map<String, List<EvalAssignUser>> getParticipantsForEvalByGroups(Long evaluationId, String[] evalGroupIds,
+            String assignTypeConstant, String assignStatusConstant, String includeConstant) {
+        if (evaluationId == null) {
+            throw new IllegalArgumentException("evaluationId must be set");
+        }
+        return assignmentDao.getParticipantsForEvalByGroups(evaluationId, evalGroupIds, assignTypeConstant, assignStatusConstant, includeConstant);
+    }
+
     public int countParticipantsForEval(Long evaluationId, String[] evalGroupIds) {
         int totalEnrollments = 0;
         EvalEvaluation eval = getEvaluationOrFail(evaluationId);
@@ -340,6 +411,100 @@ public class EvalEvaluationServiceImpl implements EvalEvaluationService, Evaluat
         return totalEnrollments;
     }
 
+    /**
+     * Per user cache for {@link #getResponseRates(String, Map)}, evaluationId -> evalGroupId -> rate,
+     * only shared between requests (there is no request memo) and the least recently used users are dropped
+     */
+    private final EvalLookupCache<Map<Long, Map<String, EvalResponseRate>>> responseRatesCache = new EvalLookupCache<>(EvalEvaluationServiceImpl.class);
+    /**
+     * @param maxUsers the most users whose response rates are cached, the least recently used are dropped past this
+     */
+    public void setResponseRatesCacheSize(int maxUsers) {
+        responseRatesCache.setMaxEntries(maxUsers);
+    }
+
+    public Map<Long, Map<String, EvalResponseRate>> getResponseRates(String userId, Map<Long, String[]> evalGroupIds) {
+        if (userId == null) {
+            throw new IllegalArgumentException("userId must be set");
+        }
+        Map<Long, Map<String, EvalResponseRate>> rates = new LinkedHashMap<>();
+        if (evalGroupIds == null || evalGroupIds.isEmpty()) {
+            return rates;
+        }
+        Map<Long, Map<String, EvalResponseRate>> cached = responseRatesCache.get(userId);
+        if (cached != null && copyResponseRates(cached, evalGroupIds, rates)) {
+            return rates;
+        }
+        rates.clear();
+
+        Set<String> allGroupIds = new HashSet<>();
+        Set<Long> anonymousEvalIds = new HashSet<>();
+        for (Entry<Long, String[]> entry : evalGroupIds.entrySet()) {
+            EvalEvaluation eval = getEvaluationOrFail(entry.getKey());
+            if (EvalConstants.EVALUATION_AUTHCONTROL_NONE.equals(eval.getAuthControl())) {
+                anonymousEvalIds.add(eval.getId());
+            }
+            if (entry.getValue() != null) {
+                allGroupIds.addAll(Arrays.asList(entry.getValue()));
+            }
+        }
+        if (allGroupIds.isEmpty()) {
+            return rates;
+        }
+        Long[] evaluationIds = evalGroupIds.keySet().toArray(new Long[0]);
+        String[] groupIds = allGroupIds.toArray(new String[0]);
+        // the grouped counts cover every requested eval and group so a few extra pairs may come back, they are ignored
+        Map<Long, Map<String, Integer>> responseCounts = responseDao.countResponsesByGroup(evaluationIds, groupIds, true);
+        Map<Long, Map<String, Integer>> participantCounts = assignmentDao.countParticipantsByGroup(evaluationIds, groupIds);
+        for (Entry<Long, String[]> entry : evalGroupIds.entrySet()) {
+            Long evaluationId = entry.getKey();
+            Map<String, Integer> evalResponses = responseCounts.getOrDefault(evaluationId, Collections.emptyMap());
+            Map<String, Integer> evalParticipants = anonymousEvalIds.contains(evaluationId)
+                    ? Collections.emptyMap() : participantCounts.getOrDefault(evaluationId, Collections.emptyMap());
+            Map<String, EvalResponseRate> groupRates = new LinkedHashMap<>();
+            if (entry.getValue() != null) {
+                for (String evalGroupId : entry.getValue()) {
+                    groupRates.put(evalGroupId, new EvalResponseRate(evaluationId, evalGroupId,
+                            evalResponses.getOrDefault(evalGroupId, 0), evalParticipants.getOrDefault(evalGroupId, 0)));
+                }
+            }
+            rates.put(evaluationId, groupRates);
+        }
+
+        Map<Long, Map<String, EvalResponseRate>> toCache = new HashMap<>();
+        for (Entry<Long, Map<String, EvalResponseRate>> entry : rates.entrySet()) {
+            toCache.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+        responseRatesCache.put(userId, null, toCache, (int) (RESPONSE_RATES_CACHE_TTL_MS / 1000));
+        return rates;
+    }
+
+    /**
+     * Copies the requested rates out of the cached ones
+     * @return true if every requested pair was found, false otherwise (the copy is then incomplete)
+     */
+    private boolean copyResponseRates(Map<Long, Map<String, EvalResponseRate>> cachedRates,
+            Map<Long, String[]> evalGroupIds, Map<Long, Map<String, EvalResponseRate>> rates) {
+        for (Entry<Long, String[]> entry : evalGroupIds.entrySet()) {
+            Map<String, EvalResponseRate> cachedGroupRates = cachedRates.get(entry.getKey());
+            if (cachedGroupRates == null) {
+                return false;
+            }
+            Map<String, EvalResponseRate> groupRates = new LinkedHashMap<>();
+            if (entry.getValue() != null) {
+                for (String evalGroupId : entry.getValue()) {
+                    EvalResponseRate rate = cachedGroupRates.get(evalGroupId);
+                    if (rate == null) {
+                        return false;
+                    }
+                    groupRates.put(evalGroupId, rate);
+                }
+            }
+            rates.put(entry.getKey(), groupRates);
+        }
+        return true;
+    }
+
     /**
      * JIRA EvalSys-588
      */
@@ -984,11 +1149,20 @@ public class EvalEvaluationServiceImpl implements EvalEvaluationService, Evaluat
     
     /*
      * (non-Javadoc)
-     * @see org.sakaiproject.evaluation.logic.EvalEvaluationService#getConsolidatedEmailMapping(java.lang.Boolean, java.lang.String, int, int)
+     * @see org.sakaiproject.evaluation.logic.EvalEvaluationService#getConsolidatedEmailMapping(boolean, int, java.lang.Integer, java.lang.String, java.lang.Long)
      */
-	public List<Map<String,Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, int page) {
+	public List<Map<String,Object>> getConsolidatedEmailMapping(boolean sendingAvailableEmails, int pageSize, 
+			Integer shard, String afterUserId, Long afterEmailTemplateId) {
 		
-		return this.consolidatedEmailDao.getConsolidatedEmailMapping(sendingAvailableEmails, pageSize, page);
+		return this.consolidatedEmailDao.getConsolidatedEmailMapping(sendingAvailableEmails, pageSize, shard, afterUserId, afterEmailTemplateId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.sakaiproject.evaluation.logic.EvalEvaluationService#assignConsolidatedEmailShards(int)
+	 */
+	public int assignConsolidatedEmailShards(int shards) {
+		return this.consolidatedEmailDao.assignConsolidatedEmailShards(shards);
 	}
     
 	/*
@@ -47,6 +47,7 @@ import org.sakaiproject.evaluation.logic.externals.EvalSecurityChecksImpl;
 import org.sakaiproject.evaluation.logic.externals.ExternalHierarchyLogic;
 import org.sakaiproject.evaluation.logic.model.EvalGroup;
 import org.sakaiproject.evaluation.logic.model.EvalHierarchyNode;
+import org.sakaiproject.evaluation.logic.model.EvalScheduledJob;
 import org.sakaiproject.evaluation.logic.model.EvalUser;
 import org.sakaiproject.evaluation.model.EvalAdhocGroup;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
@@ -108,6 +109,11 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
         this.lockDao = lockDao;
     }
 
+    private EvalLockManager evalLockManager;
+    public void setEvalLockManager(EvalLockManager evalLockManager) {
+        this.evalLockManager = evalLockManager;
+    }
+
     private EvalCommonLogic commonLogic;
     public void setCommonLogic(EvalCommonLogic common) {
         this.commonLogic = common;
@@ -184,21 +190,146 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
         }
 
         // run a timer which ensures that evaluation states are kept up to date
+        initiateStateAdvanceTimer();
+        // run a timer which runs the scheduled evaluation jobs as they fall due
+        initiateScheduledJobTimer();
+        // run a timer which cleans up old partial evals and resets the settings cache
         initiateUpdateStateTimer();
     }
 
     /**
-     * This will start up a timer which will keep the evaluations up to date, the disadvantage here is that
-     * it will run every hour and on every server and therefore could increase the load substantially,
-     * the other disadvantage is that if an evaluation goes from say active all the way to closed or viewable
-     * then this would require a lot of extra logic to handle those cases,
-     * holding off on the extra logic -AZ
+     * This will start up a timer which moves evaluations into their new state as their dates pass,
+     * this uses one query and one bulk update per state (see {@link EvalEvaluationService#advanceEvaluationStates()})
+     * so it is cheap enough to run every few minutes, the read paths only compute the state in memory
+     * and rely on this to keep the stored state (and the jobs which depend on it) up to date
+     * NOTE: uses a DB server lock to ensure that only one server is running this stuff
+     */
+    public static String EVAL_STATE_ADVANCE_TIMER = "eval_state_advance_timer";
+    protected void initiateStateAdvanceTimer() {
+        // timer repeats every 5 minutes
+        final long repeatInterval = 1000 * 60 * 5;
+        // start up a timer after 1 min + random(2 mins)
+        long startDelay =  (1000 * 60) + (1000 * new Random().nextInt(120));
+
+        TimerTask runStateAdvanceTask = new TimerTask() {
+            @Override
+            public void run() {
+                String serverId = commonLogic.getConfigurationSetting(EvalExternalLogic.SETTING_SERVER_ID, "UNKNOWN_SERVER_ID");
+                Boolean lockObtained = lockDao.obtainLock(EVAL_STATE_ADVANCE_TIMER, serverId, repeatInterval);
+                // only execute the code if we have an exclusive lock
+                if (lockObtained != null && lockObtained) {
+                    try {
+                        Map<Long, String> changed = evaluationService.advanceEvaluationStates();
+                        for (Long evaluationId : changed.keySet()) {
+                            // trigger the jobs logic to look at this since the state changed
+                            evalJobLogic.processEvaluationStateChange(evaluationId, EvalJobLogic.ACTION_UPDATE);
+                        }
+                        if (changed.size() > 0) {
+                            log.info("Updated the state of "+changed.size()+" evaluations...");
+                        }
+                    } catch (RuntimeException e) {
+                        // do not let the failure kill the timer
+                        log.error("Failure while updating the evaluation states: " + e.getMessage(), e);
+                    }
+                }
+            }
+        };
+
+        Timer timer = new Timer(true);
+        log.info("Initializing the repeating timer task for evaluation states, first run in " + (startDelay/1000) + " seconds " +
+                "and subsequent runs will happen every " + (repeatInterval/1000) + " seconds after that");
+        timer.schedule(runStateAdvanceTask, startDelay, repeatInterval);
+    }
+
+    /**
+     * This will start up a timer which runs the scheduled evaluation jobs (active, due, closed, reminders, etc.)
+     * as they fall due, the jobs are claimed from the job schedule in fire date order in batches
+     * (see {@link EvalJobLogic#claimDueJobs(int, String)}) and each one is run in its own transaction
+     * so a failing job does not hold up the rest, a job is only removed from the schedule once it has run
+     * (a failed job is run again when its claim runs out), the first run also moves any jobs left in the Sakai scheduler
+     * from before the upgrade into the job schedule (see {@link EvalJobLogic#migrateLegacyJobs()})
+     * NOTE: uses a DB server lock to ensure that only one server is running this stuff
+     */
+    public static String EVAL_SCHEDULED_JOB_TIMER = "eval_scheduled_job_timer";
+    protected static final int SCHEDULED_JOB_BATCH_SIZE = 200;
+    protected void initiateScheduledJobTimer() {
+        // timer repeats every minute
+        final long repeatInterval = 1000 * 60;
+        // start up a timer after 30 secs + random(30 secs)
+        long startDelay =  (1000 * 30) + (1000 * new Random().nextInt(30));
+
+        TimerTask runScheduledJobTask = new TimerTask() {
+            @Override
+            public void run() {
+                String serverId = commonLogic.getConfigurationSetting(EvalExternalLogic.SETTING_SERVER_ID, "UNKNOWN_SERVER_ID");
+                Boolean lockObtained = lockDao.obtainLock(EVAL_SCHEDULED_JOB_TIMER, serverId, repeatInterval);
+                // only execute the code if we have an exclusive lock
+                if (lockObtained != null && lockObtained) {
+                    long start = System.currentTimeMillis();
+                    // the holder is unique to this run so a claim left by an earlier run is never completed by this one
+                    String holder = serverId + ":" + start;
+                    long lockRenewed = start;
+                    boolean lockHeld = true;
+                    int count = 0;
+                    try {
+                        if (! Boolean.TRUE.equals(settings.get(EvalSettings.LEGACY_JOBS_MIGRATED))) {
+                            // one time move of the jobs created in the Sakai scheduler before the upgrade
+                            evalJobLogic.migrateLegacyJobs();
+                            settings.set(EvalSettings.LEGACY_JOBS_MIGRATED, true);
+                        }
+                        EvalScheduledJob[] jobs;
+                        do {
+                            jobs = evalJobLogic.claimDueJobs(SCHEDULED_JOB_BATCH_SIZE, holder);
+                            long claimed = System.currentTimeMillis();
+                            for (EvalScheduledJob job : jobs) {
+                                if (! lockHeld || System.currentTimeMillis() - claimed > EvalJobLogic.JOB_CLAIM_LEASE_TIME / 2) {
+                                    // hand the rest back so the server holding the lock picks them up straight away
+                                    evalJobLogic.releaseJob(job, holder);
+                                    continue;
+                                }
+                                try {
+                                    evalJobLogic.jobAction(job);
+                                    evalJobLogic.completeJob(job, holder);
+                                    count++;
+                                } catch (RuntimeException e) {
+                                    // the job stays claimed so it is run again once the claim runs out
+                                    log.error("Failure while running the "+job.jobType+" job for evaluation ("+job.evaluationId+"), "
+                                            + "it will be retried in "+(EvalJobLogic.JOB_CLAIM_LEASE_TIME/60000)+" minutes: " + e.getMessage(), e);
+                                }
+                                // renew the lock well before it expires so no other server starts claiming jobs
+                                if (lockHeld && System.currentTimeMillis() - lockRenewed > repeatInterval / 2) {
+                                    Boolean renewed = lockDao.obtainLock(EVAL_SCHEDULED_JOB_TIMER, serverId, repeatInterval);
+                                    lockHeld = renewed != null && renewed;
+                                    lockRenewed = System.currentTimeMillis();
+                                }
+                            }
+                            // keep going while there are more due jobs and the lock is still ours
+                        } while (jobs.length == SCHEDULED_JOB_BATCH_SIZE && lockHeld);
+                    } catch (RuntimeException e) {
+                        // do not let the failure kill the timer
+                        log.error("Failure while claiming the scheduled evaluation jobs: " + e.getMessage(), e);
+                    }
+                    if (count > 0) {
+                        log.info("Ran "+count+" scheduled evaluation jobs in "+(System.currentTimeMillis() - start)+" ms");
+                    }
+                }
+            }
+        };
+
+        Timer timer = new Timer(true);
+        log.info("Initializing the repeating timer task for scheduled evaluation jobs, first run in " + (startDelay/1000) + " seconds " +
+                "and subsequent runs will happen every " + (repeatInterval/1000) + " seconds after that");
+        timer.schedule(runScheduledJobTask, startDelay, repeatInterval);
+    }
+
+    /**
+     * This will start up a timer which does the hourly cleanup for evaluations,
+     * the evaluation states themselves are kept up to date by {@link #initiateStateAdvanceTimer()}
      * NOTE: uses a DB server lock to ensure that only one server is running this stuff
      * 
      * Does the following:
-     * 1) Ensures all evals have the correct state by checking and updating the state as needed
-     * 2) Removes any partially created evals that are older than the constant (15 days)
-     * 3) Resets the eval settings cache
+     * 1) Removes any partially created evals that are older than the constant (15 days)
+     * 2) Resets the eval settings cache
      */
     public static String EVAL_UPDATE_TIMER = "eval_update_timer";
     protected void initiateUpdateStateTimer() {
@@ -214,43 +345,19 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
                 Boolean lockObtained = lockDao.obtainLock(EVAL_UPDATE_TIMER, serverId, repeatInterval);
                 // only execute the code if we have an exclusive lock
                 if (lockObtained != null && lockObtained) {
-                    // get all evals that are not viewable (i.e. completely done with) or deleted 
-                    List<EvalEvaluation> evals = queryDao.getEvaluationsNotViewableOrDeleted();
-                    if (evals.size() > 0) {
-                        log.info("Checking the state of " + evals.size() + " evaluations to ensure they are all up to date...");
-                        // only do partial purge if constant > 0
-                        long partialPurgeTime = -1;
-                        if (EvalConstants.EVALUATION_PARTIAL_CLEANUP_DAYS > 0) {
-                            // set the partial purge number of days to the constant (15)
-                            partialPurgeTime = System.currentTimeMillis() - 
-                                (EvalConstants.EVALUATION_PARTIAL_CLEANUP_DAYS * 24l * 60l * 60l * 1000l);
-                        }
-
-                        // loop through and update the state of the evals if needed
-                        int count = 0;
-                        for (EvalEvaluation evaluation : evals) {
-                            String evalState = evaluationService.returnAndFixEvalState(evaluation, false);
-                            if (EvalConstants.EVALUATION_STATE_PARTIAL.equals(evalState)
-                                    && partialPurgeTime > -1) {
-                                // purge out partial evaluations older than the partial purge time
-                                if (evaluation.getLastModified().getTime() < partialPurgeTime) {
-                                    log.info("Purging partial evaluation ("+evaluation.getId()+") from " + evaluation.getLastModified());
-                                    deleteEvaluation(evaluation.getId(), commonLogic.getAdminUserId());
-                                    continue;
-                                }
-                            }
-                            // fix up the state if needed
-                            String currentEvalState = evaluation.getState();
-                            if (! currentEvalState.equals(evalState) ) {
-                                evaluationService.returnAndFixEvalState(evaluation, true); // update the state
-                                count++;
-                                // trigger the jobs logic to look at this since the state changed
-                                evalJobLogic.processEvaluationStateChange(evaluation.getId(), EvalJobLogic.ACTION_UPDATE);
+                    // only do partial purge if constant > 0
+                    if (EvalConstants.EVALUATION_PARTIAL_CLEANUP_DAYS > 0) {
+                        // set the partial purge number of days to the constant (15)
+                        long partialPurgeTime = System.currentTimeMillis() - 
+                            (EvalConstants.EVALUATION_PARTIAL_CLEANUP_DAYS * 24l * 60l * 60l * 1000l);
+                        List<EvalEvaluation> partialEvals = queryDao.getEvaluationsByState(EvalConstants.EVALUATION_STATE_PARTIAL);
+                        for (EvalEvaluation evaluation : partialEvals) {
+                            // purge out partial evaluations older than the partial purge time
+                            if (evaluation.getLastModified().getTime() < partialPurgeTime) {
+                                log.info("Purging partial evaluation ("+evaluation.getId()+") from " + evaluation.getLastModified());
+                                deleteEvaluation(evaluation.getId(), commonLogic.getAdminUserId());
                             }
                         }
-                        if (count > 0) {
-                            log.info("Updated the state of "+count+" evaluations...");
-                        }
                     }
 
                     // finally we will reset the system config cache
@@ -549,6 +656,7 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
 
             // unlock the evaluation (this will clear the other locks)
             lockDao.lockEvaluation(evaluation, false);
+            evalLockManager.clearEvaluationLock(evaluation.getId());
 
             boolean removeTemplate = false;
             // check for related responses and answers
@@ -1081,14 +1189,19 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
         }
         // iterate through all assigned groups (may have been limited to one only)
         Set<String> evalGroupIdsFromEvals = new HashSet<>(assignedGroups.size());
+        for (EvalAssignGroup evalAssignGroup : assignedGroups) {
+            evalGroupIdsFromEvals.add(evalAssignGroup.getEvalGroupId());
+        }
+        // get all the users who currently have permission for the assigned groups (one bulk lookup per permission)
+        Map<String, Set<String>> evaluatedByGroup = commonLogic.getUserIdsForEvalGroups(evalGroupIdsFromEvals, EvalConstants.PERM_BE_EVALUATED, evaluation.getSectionAwareness());
+        Map<String, Set<String>> assistantsByGroup = commonLogic.getUserIdsForEvalGroups(evalGroupIdsFromEvals, EvalConstants.PERM_ASSISTANT_ROLE, evaluation.getSectionAwareness());
+        Map<String, Set<String>> takersByGroup = commonLogic.getUserIdsForEvalGroups(evalGroupIdsFromEvals, EvalConstants.PERM_TAKE_EVALUATION, evaluation.getSectionAwareness());
         for (EvalAssignGroup evalAssignGroup : assignedGroups) {
             Long assignGroupId = evalAssignGroup.getId();
             String egid = evalAssignGroup.getEvalGroupId();
-            evalGroupIdsFromEvals.add(egid);
-            // get all the users who currently have permission for this group
-            Set<String> currentEvaluated = commonLogic.getUserIdsForEvalGroup(egid, EvalConstants.PERM_BE_EVALUATED, evaluation.getSectionAwareness());
-            Set<String> currentAssistants = commonLogic.getUserIdsForEvalGroup(egid, EvalConstants.PERM_ASSISTANT_ROLE, evaluation.getSectionAwareness());
-            Set<String> currentTakers = commonLogic.getUserIdsForEvalGroup(egid, EvalConstants.PERM_TAKE_EVALUATION, evaluation.getSectionAwareness());
+            Set<String> currentEvaluated = copyUserIdSet(evaluatedByGroup.get(egid));
+            Set<String> currentAssistants = copyUserIdSet(assistantsByGroup.get(egid));
+            Set<String> currentTakers = copyUserIdSet(takersByGroup.get(egid));
                         
             if(evaluation.getAllRolesParticipate()) {
             	currentTakers.addAll(currentAssistants);
@@ -1221,6 +1334,16 @@ public class EvalEvaluationSetupServiceImpl implements EvalEvaluationSetupServic
         return eaus;
     }
 
+    /**
+     * @return a mutable copy of the set of user ids from a bulk membership lookup (empty if none found)
+     */
+    private Set<String> copyUserIdSet(Set<String> userIds) {
+        if (userIds == null) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(userIds);
+    }
+
     /**
      * Makes a mapping key which will allow EvalAssignUser to be placed into a map
      * @param evalAssignUser the EAU to make the key from, should not be null
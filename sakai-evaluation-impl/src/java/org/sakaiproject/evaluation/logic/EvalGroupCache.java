@@ -0,0 +1,202 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
+import org.sakaiproject.evaluation.logic.model.EvalGroup;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+
+/**
+ * Caches the group and permission lookups made by {@link EvalCommonLogicImpl}
+ * (permission checks including the false ones, eval group objects, and the groups for a user) in two layers:
+ * a memo which lasts for the current request only (only on threads handling a request)
+ * and a bounded LRU map shared by all requests in which entries expire after {@link #setTimeToLiveSeconds(int)},
+ * see {@link EvalLookupCache}<br/>
+ * The entries for a site (and its groups) or for a single group are dropped when the Sakai realm or membership
+ * for that site or group changes on any server, the groups for all users are dropped on any such change<br/>
+ * Groups from the {@link org.sakaiproject.evaluation.providers.EvalGroupsProvider} have no change events
+ * so changes to those are only seen once the entries expire
+ */
+public class EvalGroupCache {
+
+    private static final String REALM_PREFIX = "/realm/";
+
+    /**
+     * the Sakai events which indicate that the permissions or members of a site or group changed
+     */
+    private static final Set<String> MEMBERSHIP_EVENTS = new HashSet<>(Arrays.asList(
+            AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP,
+            AuthzGroupService.SECURE_UPDATE_OWN_AUTHZ_GROUP,
+            AuthzGroupService.SECURE_REMOVE_AUTHZ_GROUP,
+            AuthzGroupService.SECURE_JOIN_AUTHZ_GROUP,
+            AuthzGroupService.SECURE_UNJOIN_AUTHZ_GROUP,
+            SiteService.SECURE_UPDATE_SITE,
+            SiteService.SECURE_REMOVE_SITE,
+            SiteService.SECURE_UPDATE_SITE_MEMBERSHIP,
+            SiteService.SECURE_UPDATE_GROUP_MEMBERSHIP));
+
+    private final EvalLookupCache<Object> cache = new EvalLookupCache<>(EvalGroupCache.class);
+
+    private EvalExternalLogic externalLogic;
+    public void setExternalLogic(EvalExternalLogic externalLogic) {
+        this.externalLogic = externalLogic;
+    }
+
+    public void setThreadLocalManager(ThreadLocalManager threadLocalManager) {
+        cache.setThreadLocalManager(threadLocalManager);
+    }
+
+    public void setEventTrackingService(EventTrackingService eventTrackingService) {
+        cache.setEventTrackingService(eventTrackingService);
+    }
+
+    private int timeToLiveSeconds = 60;
+    /**
+     * @param timeToLiveSeconds how long an entry is shared between requests, 0 disables the shared layer
+     */
+    public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    /**
+     * @param maxEntries the most entries shared between requests, the least recently used are dropped past this
+     */
+    public void setMaxEntries(int maxEntries) {
+        cache.setMaxEntries(maxEntries);
+    }
+
+    public void init() {
+        // all servers events so a change made on another server clears the entries here as well
+        cache.init(externalLogic, event -> {
+            if (MEMBERSHIP_EVENTS.contains(event.getEvent())) {
+                invalidateResource(event.getResource());
+            }
+        });
+    }
+
+    public void destroy() {
+        cache.destroy();
+    }
+
+    /**
+     * @return the cached result of the permission check OR null if it is not cached
+     */
+    public Boolean getUserAllowedInEvalGroup(String userId, String permission, String evalGroupId) {
+        return (Boolean) cache.get(makeKey("allowed", evalGroupId, userId, permission));
+    }
+
+    public void putUserAllowedInEvalGroup(String userId, String permission, String evalGroupId, boolean allowed) {
+        cache.put(makeKey("allowed", evalGroupId, userId, permission), evalGroupId, allowed, timeToLiveSeconds);
+    }
+
+    /**
+     * @return a copy of the cached group OR null if it is not cached
+     */
+    public EvalGroup getEvalGroup(String evalGroupId) {
+        EvalGroup group = (EvalGroup) cache.get(makeKey("group", evalGroupId));
+        return group == null ? null : copy(group);
+    }
+
+    public void putEvalGroup(EvalGroup group) {
+        cache.put(makeKey("group", group.evalGroupId), group.evalGroupId, copy(group), timeToLiveSeconds);
+    }
+
+    /**
+     * @return a copy of the cached groups for the user OR null if they are not cached
+     */
+    @SuppressWarnings("unchecked")
+    public List<EvalGroup> getEvalGroupsForUser(String userId, String permission) {
+        List<EvalGroup> groups = (List<EvalGroup>) cache.get(makeKey("userGroups", null, userId, permission));
+        return groups == null ? null : copy(groups);
+    }
+
+    public void putEvalGroupsForUser(String userId, String permission, List<EvalGroup> groups) {
+        cache.put(makeKey("userGroups", null, userId, permission), null, copy(groups), timeToLiveSeconds);
+    }
+
+    /**
+     * Drops all cached lookups for this eval group (and for any groups inside it when it is a site)
+     * and the cached groups for all users
+     * @param evalGroupId the unique id of an eval group
+     */
+    public void invalidateEvalGroup(String evalGroupId) {
+        cache.removeIf(groupId -> groupId == null
+                || groupId.equals(evalGroupId)
+                || groupId.startsWith(evalGroupId + "/"));
+    }
+
+    /**
+     * Drops all cached lookups
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return a map of statistic name -> value (requestHits, hits, misses, invalidations, evictions, size)
+     */
+    public Map<String, Long> getStatistics() {
+        return cache.getStatistics();
+    }
+
+    /**
+     * Turns the resource of a realm or site event into the eval group to invalidate,
+     * e.g. /realm//site/abc and /site/abc invalidate /site/abc (and its groups)
+     * while /realm//site/abc/group/def only invalidates that group,
+     * any other realm (e.g. a role template) only invalidates entries for that same reference,
+     * groups relying on a changed template are only seen again once the entries expire
+     * @param resource the event resource reference
+     */
+    protected void invalidateResource(String resource) {
+        if (resource == null) {
+            return;
+        }
+        String reference = resource.startsWith(REALM_PREFIX) ? resource.substring(REALM_PREFIX.length()) : resource;
+        if (! reference.isEmpty()) {
+            invalidateEvalGroup(reference);
+        }
+    }
+
+    private static String makeKey(String type, String evalGroupId, String... parts) {
+        StringBuilder key = new StringBuilder(type).append('|').append(evalGroupId);
+        for (String part : parts) {
+            key.append('|').append(part);
+        }
+        return key.toString();
+    }
+
+    private static EvalGroup copy(EvalGroup group) {
+        return new EvalGroup(group.evalGroupId, group.title, group.type);
+    }
+
+    private static List<EvalGroup> copy(List<EvalGroup> groups) {
+        List<EvalGroup> copies = new ArrayList<>(groups.size());
+        for (EvalGroup group : groups) {
+            copies.add(copy(group));
+        }
+        return copies;
+    }
+
+}
@@ -14,20 +14,61 @@
  */
 package org.sakaiproject.evaluation.logic;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.sakaiproject.evaluation.dao.EvaluationLockDao;
+import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.MemoryService;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.extern.slf4j.Slf4j;
 
 
 /**
- * 
- *
+ * Handles the system wide locks and keeps track of the evaluations which are known to be locked,
+ * the known locked evaluations are held in a cluster cache when one is available so that unlocking
+ * an evaluation on one server clears it on all of them (otherwise a local set is used)
  */
+@Slf4j
 public class EvalLockManagerImpl implements EvalLockManager {
 
+    public static final String LOCKED_EVALUATIONS_CACHE_NAME = "org.sakaiproject.evaluation.logic.EvalLockManager.lockedEvaluations";
+
     private EvaluationLockDao lockDao;
     public void setLockDao(EvaluationLockDao lockDao) {
         this.lockDao = lockDao;
     }
 
+    private EvalExternalLogic externalLogic;
+    public void setExternalLogic(EvalExternalLogic externalLogic) {
+        this.externalLogic = externalLogic;
+    }
+
+    private Cache lockedEvaluationsCache;
+    public void setLockedEvaluationsCache(Cache lockedEvaluationsCache) {
+        this.lockedEvaluationsCache = lockedEvaluationsCache;
+    }
+
+    /**
+     * used when there is no cluster cache available
+     */
+    private final Set<Long> lockedEvaluationIds = ConcurrentHashMap.newKeySet();
+
+    public void init() {
+        if (lockedEvaluationsCache == null && externalLogic != null) {
+            MemoryService memoryService = externalLogic.getBean(MemoryService.class);
+            if (memoryService != null) {
+                lockedEvaluationsCache = memoryService.getCache(LOCKED_EVALUATIONS_CACHE_NAME);
+            }
+        }
+        if (lockedEvaluationsCache == null) {
+            log.info("No cluster cache available, locked evaluations will only be tracked on this server");
+        }
+    }
+
 	
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.evaluation.logic.EvalLockManager#obtainLock(java.lang.String, java.lang.String, long)
@@ -43,4 +84,58 @@ public class EvalLockManagerImpl implements EvalLockManager {
 		return lockDao.releaseLock(lockId, executerId);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.evaluation.logic.EvalLockManager#lockEvaluation(java.lang.Long)
+	 */
+	public void lockEvaluation(Long evaluationId) {
+		if (evaluationId == null) {
+			throw new IllegalArgumentException("evaluationId cannot be null");
+		}
+		if (isKnownLocked(evaluationId)) {
+			return;
+		}
+		if (lockDao.lockEvaluationGraph(evaluationId)) {
+			log.info("Locked evaluation (" + evaluationId + ") and associated template, items and scales");
+		}
+		// only remember the lock once it is committed, a rollback would leave the evaluation unlocked
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					markLocked(evaluationId);
+				}
+			});
+		} else {
+			markLocked(evaluationId);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.evaluation.logic.EvalLockManager#clearEvaluationLock(java.lang.Long)
+	 */
+	public void clearEvaluationLock(Long evaluationId) {
+		if (evaluationId == null) {
+			return;
+		}
+		lockedEvaluationIds.remove(evaluationId);
+		if (lockedEvaluationsCache != null) {
+			lockedEvaluationsCache.remove(evaluationId);
+		}
+	}
+
+	private boolean isKnownLocked(Long evaluationId) {
+		if (lockedEvaluationsCache != null) {
+			return lockedEvaluationsCache.get(evaluationId) != null;
+		}
+		return lockedEvaluationIds.contains(evaluationId);
+	}
+
+	private void markLocked(Long evaluationId) {
+		if (lockedEvaluationsCache != null) {
+			lockedEvaluationsCache.put(evaluationId, Boolean.TRUE);
+		} else {
+			lockedEvaluationIds.add(evaluationId);
+		}
+	}
+
 }
@@ -0,0 +1,333 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.util.RequestFilter;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The two cache layers shared by {@link EvalGroupCache} and {@link EvalUserCache}
+ * (the response rates cache in {@link EvalEvaluationServiceImpl} only uses the shared map):
+ * a memo which lasts for the current request only and a bounded LRU map shared by all requests
+ * in which each entry expires after the time to live it was put with<br/>
+ * The memo is only used on threads which are handling a request (the Sakai request filter clears
+ * those thread locals when the request ends), job, timer and executor threads never clear their
+ * thread locals so they only use the shared map<br/>
+ * A {@link #removeIf(Predicate)} or {@link #clear()} discards the memos on every thread (they are dropped
+ * the next time they are used) while a {@link #remove(String)} only drops that key from them,
+ * so a change seen by one thread is never hidden by a memo on another
+ * 
+ * @param <V> the type of the cached values, these are shared so they must not be changed once cached
+ */
+@Slf4j
+public class EvalLookupCache<V> {
+
+    private final String name;
+    private final String requestCacheKey;
+
+    private ThreadLocalManager threadLocalManager;
+    public void setThreadLocalManager(ThreadLocalManager threadLocalManager) {
+        this.threadLocalManager = threadLocalManager;
+    }
+
+    private EventTrackingService eventTrackingService;
+    public void setEventTrackingService(EventTrackingService eventTrackingService) {
+        this.eventTrackingService = eventTrackingService;
+    }
+
+    private volatile int maxEntries = 20000;
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    private final Map<String, CachedValue<V>> entries = new LinkedHashMap<String, CachedValue<V>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedValue<V>> eldest) {
+            if (size() > maxEntries) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * changed by every removeIf or clear, a memo made before the last change is discarded
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * counts the single key removals, a memo value put before the last removal of its key is discarded
+     */
+    private final AtomicLong removals = new AtomicLong();
+    /**
+     * key -> the removal count when the key was last removed, cleared along with all memos once it holds
+     * as many keys as the shared map
+     */
+    private final Map<String, Long> removedKeys = new ConcurrentHashMap<>();
+
+    private final LongAdder requestHits = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private Observer observer;
+
+    /**
+     * @param owner the class using this cache, used to name the memo and in the logs
+     */
+    public EvalLookupCache(Class<?> owner) {
+        this.name = owner.getSimpleName();
+        this.requestCacheKey = owner.getName() + ".requestCache";
+    }
+
+    /**
+     * Finds the services which were not set and starts observing the Sakai events (from all servers)
+     * 
+     * @param externalLogic used to find the thread local and event services, may be null
+     * @param eventHandler called with each Sakai event to clear the entries it changes,
+     * null if this cache does not observe events
+     */
+    public void init(EvalExternalLogic externalLogic, Consumer<Event> eventHandler) {
+        if (externalLogic != null) {
+            if (threadLocalManager == null) {
+                threadLocalManager = externalLogic.getBean(ThreadLocalManager.class);
+            }
+            if (eventTrackingService == null) {
+                eventTrackingService = externalLogic.getBean(EventTrackingService.class);
+            }
+        }
+        if (threadLocalManager == null) {
+            log.info("No request scope available, " + name + " lookups will only be cached between requests");
+        }
+        if (eventHandler == null) {
+            return;
+        }
+        if (eventTrackingService != null) {
+            observer = new Observer() {
+                @Override
+                public void update(Observable o, Object arg) {
+                    if (arg instanceof Event) {
+                        eventHandler.accept((Event) arg);
+                    }
+                }
+            };
+            eventTrackingService.addObserver(observer);
+        } else {
+            log.info("No event tracking available, " + name + " entries will only be cleared when they expire");
+        }
+    }
+
+    public void destroy() {
+        if (eventTrackingService != null && observer != null) {
+            eventTrackingService.deleteObserver(observer);
+        }
+    }
+
+    /**
+     * @param key the cache key
+     * @return the cached value OR null if it is not cached (or expired)
+     */
+    public V get(String key) {
+        RequestMemo<V> requestCache = getRequestCache(false);
+        long removal = removals.get();
+        if (requestCache != null) {
+            V value = requestCache.get(key, removedKeys.get(key));
+            if (value != null) {
+                requestHits.increment();
+                return value;
+            }
+        }
+        CachedValue<V> cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+            if (cached != null && cached.expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (requestCache != null) {
+            requestCache.put(key, cached.value, removal);
+        }
+        return cached.value;
+    }
+
+    /**
+     * @param key the cache key
+     * @param tag identifies a set of entries which {@link #removeIf(Predicate)} can drop together, may be null
+     * @param value the value to cache, must not be changed after this
+     * @param timeToLiveSeconds how long the value is shared between requests, 0 only keeps it for the request
+     */
+    public void put(String key, String tag, V value, int timeToLiveSeconds) {
+        RequestMemo<V> requestCache = getRequestCache(true);
+        if (requestCache != null) {
+            requestCache.put(key, value, removals.get());
+        }
+        if (timeToLiveSeconds <= 0) {
+            return;
+        }
+        CachedValue<V> cached = new CachedValue<>(tag, value, System.currentTimeMillis() + (timeToLiveSeconds * 1000L));
+        synchronized (entries) {
+            entries.put(key, cached);
+        }
+    }
+
+    /**
+     * @param key the cache key to drop
+     */
+    public void remove(String key) {
+        if (removedKeys.size() >= maxEntries) {
+            // too many removals to track, start all the memos again instead
+            invalidate();
+            removedKeys.clear();
+        } else {
+            invalidations.increment();
+        }
+        removedKeys.put(key, removals.incrementAndGet());
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * @param tagMatches true for the tags of the entries to drop (the tag may be null)
+     */
+    public void removeIf(Predicate<String> tagMatches) {
+        invalidate();
+        synchronized (entries) {
+            entries.values().removeIf(cached -> tagMatches.test(cached.tag));
+        }
+    }
+
+    /**
+     * Drops all cached values
+     */
+    public void clear() {
+        invalidate();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return a map of statistic name -> value (requestHits, hits, misses, invalidations, evictions, size)
+     */
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> stats = new HashMap<>();
+        stats.put("requestHits", requestHits.sum());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("invalidations", invalidations.sum());
+        stats.put("evictions", evictions.sum());
+        synchronized (entries) {
+            stats.put("size", (long) entries.size());
+        }
+        return stats;
+    }
+
+    private void invalidate() {
+        invalidations.increment();
+        generation.incrementAndGet();
+        if (threadLocalManager != null) {
+            threadLocalManager.set(requestCacheKey, null);
+        }
+    }
+
+    /**
+     * @param create true to start a memo for this request if there is none
+     * @return the memo for the current request OR null if there is none or the thread is not handling a request
+     */
+    @SuppressWarnings("unchecked")
+    private RequestMemo<V> getRequestCache(boolean create) {
+        if (threadLocalManager == null || threadLocalManager.get(RequestFilter.CURRENT_HTTP_REQUEST) == null) {
+            return null;
+        }
+        long current = generation.get();
+        RequestMemo<V> memo = (RequestMemo<V>) threadLocalManager.get(requestCacheKey);
+        if (memo != null && memo.generation != current) {
+            memo = null;
+            threadLocalManager.set(requestCacheKey, null);
+        }
+        if (memo == null && create) {
+            memo = new RequestMemo<>(current);
+            threadLocalManager.set(requestCacheKey, memo);
+        }
+        return memo;
+    }
+
+    private static class RequestMemo<V> {
+        final long generation;
+        final Map<String, V> values = new HashMap<>();
+        // key -> the removal count when the value was put
+        final Map<String, Long> removals = new HashMap<>();
+        RequestMemo(long generation) {
+            this.generation = generation;
+        }
+
+        /**
+         * @param removedAt the removal count when the key was last removed, null if it never was
+         * @return the value OR null if there is none or it was put before the key was last removed
+         */
+        V get(String key, Long removedAt) {
+            V value = values.get(key);
+            if (value != null && removedAt != null && removedAt > removals.get(key)) {
+                values.remove(key);
+                removals.remove(key);
+                return null;
+            }
+            return value;
+        }
+
+        void put(String key, V value, long removal) {
+            values.put(key, value);
+            removals.put(key, removal);
+        }
+    }
+
+    private static class CachedValue<V> {
+        final String tag;
+        final V value;
+        final long expires;
+        CachedValue(String tag, V value, long expires) {
+            this.tag = tag;
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+}
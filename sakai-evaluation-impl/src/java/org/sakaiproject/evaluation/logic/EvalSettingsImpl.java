@@ -17,25 +17,51 @@ package org.sakaiproject.evaluation.logic;
 import org.sakaiproject.evaluation.dao.EvaluationSettingsDao;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
+import org.sakaiproject.evaluation.logic.externals.ExternalHierarchyLogicImpl;
 import org.sakaiproject.evaluation.model.EvalConfig;
 import org.sakaiproject.evaluation.utils.SettingsLogicUtils;
 
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * Implementation for the settings control
+ * Implementation for the settings control<br/>
+ * The settings are held in an immutable snapshot which is swapped atomically whenever it changes,
+ * a version counter stored in the settings table (as {@link #SETTINGS_VERSION_NAME}) is bumped on every save
+ * so that the other servers in the cluster can tell when their snapshot is out of date
  * 
  * @author Aaron Zeckoski (aaronz@vt.edu)
  */
 @Slf4j
 public class EvalSettingsImpl implements EvalSettings {
 
+    /**
+     * the name of the config row which holds the settings version counter
+     */
+    public static final String SETTINGS_VERSION_NAME = "SETTINGS_VERSION";
+    /**
+     * the config rows which are internal counters (kept with {@link EvaluationSettingsDao#incrementEvalConfigCounter(String)})
+     * rather than settings, these are never loaded into the snapshot
+     */
+    private static final Set<String> INTERNAL_CONFIG_NAMES = new HashSet<>(Arrays.asList(
+            SETTINGS_VERSION_NAME, ExternalHierarchyLogicImpl.RULES_VERSION_NAME));
+    /**
+     * the minimum time between checks of the settings version (in ms)
+     */
+    private static final long VERSION_CHECK_INTERVAL = 10L * 1000L;
+
     private EvaluationSettingsDao settingsDao;
     public void setSettingsDao(EvaluationSettingsDao settingsDao) {
         this.settingsDao = settingsDao;
@@ -47,9 +73,14 @@ public class EvalSettingsImpl implements EvalSettings {
     }
 
 
-    private ConcurrentHashMap<String, EvalConfig> configCache = new ConcurrentHashMap<>();
+    private final AtomicReference<SettingsSnapshot> snapshot = new AtomicReference<>(new SettingsSnapshot(-1L, Collections.emptyMap()));
+    private volatile long lastVersionCheck = 0L;
     private HashSet<String> booleanSettings = new HashSet<>();
 
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder cacheReloads = new LongAdder();
+
     private static final String NULL_VALUE = "NULL";
 
     /**
@@ -85,26 +116,47 @@ public class EvalSettingsImpl implements EvalSettings {
     public Object get(String settingConstant) {
         log.debug("Getting admin setting for: " + settingConstant);
         String name = SettingsLogicUtils.getName(settingConstant);
-        String type = SettingsLogicUtils.getType(settingConstant);
 
-        Object setting = null;
-        EvalConfig c = getConfigByName(name, true);
-        if (c == null) {
+        SettingsSnapshot current = getCurrentSnapshot();
+        Object setting = current.getTyped(settingConstant);
+        if (setting != null) {
+            cacheHits.increment();
+            return setting == NULL_SETTING ? null : setting;
+        }
+
+        if (current.values.containsKey(name)) {
+            cacheHits.increment();
+        } else {
+            // not seen yet so fetch it and add it to a new snapshot
+            cacheMisses.increment();
+            EvalConfig c = settingsDao.getEvalConfigByName(name);
+            if (c != null) {
+                log.debug("Found admin setting for this constant:" + name);
+            } else {
+                log.debug("No admin setting for this constant:" + name);
+            }
+            current = swapValue(current, name, c == null ? null : c.getValue());
+        }
+
+        String value = current.values.get(name);
+        if (value == null) {
             if (booleanSettings.contains(settingConstant)) {
                 // if this boolean is null then make it false instead
                 setting = Boolean.FALSE;
             }
-        } else if (! NULL_VALUE.equals(c.getValue())){
+        } else if (! NULL_VALUE.equals(value)) {
+            String type = SettingsLogicUtils.getType(settingConstant);
             if (type.equals("java.lang.Boolean")) {
-            	setting = Boolean.valueOf( c.getValue() );
+                setting = Boolean.valueOf( value );
             } else if (type.equals("java.lang.Integer")) {
-                setting = new Integer( c.getValue() );
+                setting = Integer.valueOf( value );
             } else if (type.equals("java.lang.Float")) {
-                setting = new Float( c.getValue() );
+                setting = Float.valueOf( value );
             } else {
-                setting = c.getValue();
+                setting = value;
             }
         }
+        current.putTyped(settingConstant, setting == null ? NULL_SETTING : setting);
         return setting;
     }
 
@@ -117,7 +169,7 @@ public class EvalSettingsImpl implements EvalSettings {
         String type = SettingsLogicUtils.getType(settingConstant);
 
         // retrieve the current setting if it exists
-        EvalConfig c = getConfigByName(name, false);
+        EvalConfig c = settingsDao.getEvalConfigByName(name);
 
         // make sure the type is the one set
         Class<?> typeClass;
@@ -149,8 +201,16 @@ public class EvalSettingsImpl implements EvalSettings {
 
         try {
             settingsDao.saveEvalConfig(c); // now save in the database
+            long version = incrementVersion(); // tell the other servers their snapshot is out of date
             externalLogic.registerEntityEvent(EVENT_SET_ONE_CONFIG, EvalConfig.class, settingConstant); // register event
-            configCache.put(name, c); // update the cache
+            // update the cache so this server sees its own write straight away (retrying if another thread
+            // swapped the snapshot first), the version only moves forward if nothing else changed in between
+            SettingsSnapshot current;
+            SettingsSnapshot updated;
+            do {
+                current = snapshot.get();
+                updated = current.with(name, value, current.version == version - 1 ? version : current.version);
+            } while (! snapshot.compareAndSet(current, updated));
         } catch (Exception e) {
             log.error("Could not save system setting:" + name + ":" + value, e);
             return false;
@@ -159,76 +219,135 @@ public class EvalSettingsImpl implements EvalSettings {
     }
 
     /**
-     * @param name the name value of the Config item
-     * @param useCache if true then use cached values and return no persistent objects,
-     * else always get the persistent object if exists
-     * @return a Config object or null if none found
+     * clear out the cache and reload all config settings if the settingConstant is null,
+     * if not null then the settings version is checked and all settings are reloaded
+     * only if another server has changed them since the current snapshot was loaded
+     * @param settingConstant (OPTIONAL) a setting constant from {@link EvalSettings}
      */
-    protected EvalConfig getConfigByName(String name, boolean useCache) {
-        EvalConfig config = null;
-        boolean found = false;
-        if (useCache) {
-            // get the cached version if it exists
-            if (configCache.containsKey(name)) {
-                found = true;
-                config = configCache.get(name);
-                if (config instanceof Null) {
-                    config = null;
-                }
+    public void resetCache(String settingConstant) {
+        if (settingConstant == null) {
+            reloadSnapshot();
+        } else {
+            String name = SettingsLogicUtils.getName(settingConstant);
+            SettingsSnapshot current = snapshot.get();
+            if (readVersion() != current.version) {
+                log.info("Resetting config settings cache: version changed when updating value: " + name);
+                reloadSnapshot();
             }
+            lastVersionCheck = System.currentTimeMillis();
         }
-        if (! found) {
-            config = settingsDao.getEvalConfigByName(name);
-            if (config != null) {
-                log.debug("Found admin setting for this constant:" + name);
-            } else {
-                log.debug("No admin setting for this constant:" + name);
-            }
-            if (useCache) {
-                if (config == null) {
-                    // we want to store the fact that this is actually a null
-                    configCache.put(name, new Null());
-                } else {
-                    // make the object non-persistent by copying it
-                    config = new EvalConfig(name, config.getValue());
-                    configCache.put(name, config); // update the cache
-                }
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.EvalSettings#getCacheStatistics()
+     */
+    public Map<String, Long> getCacheStatistics() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", cacheHits.sum());
+        stats.put("misses", cacheMisses.sum());
+        stats.put("reloads", cacheReloads.sum());
+        stats.put("version", snapshot.get().version);
+        return stats;
+    }
+
+    /**
+     * @return the current snapshot, reloaded first if the version in the database has moved on
+     * (this is only checked every {@link #VERSION_CHECK_INTERVAL} ms)
+     */
+    private SettingsSnapshot getCurrentSnapshot() {
+        SettingsSnapshot current = snapshot.get();
+        long now = System.currentTimeMillis();
+        if (current.version < 0L || now - lastVersionCheck > VERSION_CHECK_INTERVAL) {
+            lastVersionCheck = now;
+            if (readVersion() != current.version) {
+                current = reloadSnapshot();
             }
         }
-        return config;
+        return current;
     }
 
     /**
-     * clear out the cache and reload all config settings if the settingConstant is null,
-     * if not null then clean out a single item from the cache,
-     * it will be reloaded from the DB the next time someone attempts to fetch it
-     * @param settingConstant (OPTIONAL) a setting constant from {@link EvalSettings}
+     * Load all the config settings into a new snapshot and swap it in
+     * @return the new snapshot
      */
-    public void resetCache(String settingConstant) {
-        if (settingConstant == null) {
-            // clear out cache
-            configCache.clear();
-            // reload all cache items
-            List<EvalConfig> l = settingsDao.getAllEvalConfigs();
-            for (EvalConfig config : l) {
-                // copy the values to avoid putting persistent objects in the cache
-                config = new EvalConfig(config.getName(), config.getValue());
-                configCache.put(config.getName(), config);
-            }
-            log.info("Resetting config settings cache: cleared and reloaded all "+l.size()+" values");
-        } else {
-            String name = SettingsLogicUtils.getName(settingConstant);
-            if (configCache.containsKey(name)) {
-                log.info("Resetting config settings cache: cleared single value: " + name);
-                configCache.remove(name);
+    private SettingsSnapshot reloadSnapshot() {
+        long version = readVersion();
+        List<EvalConfig> l = settingsDao.getAllEvalConfigs();
+        Map<String, String> values = new HashMap<>(l.size());
+        for (EvalConfig config : l) {
+            if (! INTERNAL_CONFIG_NAMES.contains(config.getName())) {
+                values.put(config.getName(), config.getValue());
             }
         }
+        SettingsSnapshot loaded = new SettingsSnapshot(version, values);
+        snapshot.set(loaded);
+        lastVersionCheck = System.currentTimeMillis();
+        cacheReloads.increment();
+        log.info("Resetting config settings cache: reloaded all "+values.size()+" values (version "+version+")");
+        return loaded;
+    }
+
+    /**
+     * Add a single value into a new snapshot based on the current one
+     * (null values are stored so we know they are not in the database)
+     */
+    private SettingsSnapshot swapValue(SettingsSnapshot current, String name, String value) {
+        SettingsSnapshot updated = current.with(name, value, current.version);
+        // if someone else swapped the snapshot first then this value is simply fetched again later
+        snapshot.compareAndSet(current, updated);
+        return updated;
+    }
+
+    private long readVersion() {
+        EvalConfig c = settingsDao.getEvalConfigByName(SETTINGS_VERSION_NAME);
+        if (c == null || c.getValue() == null) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(c.getValue());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid settings version (" + c.getValue() + "), treating it as 0");
+            return 0L;
+        }
+    }
+
+    private long incrementVersion() {
+        // locked read and update so two servers saving at the same time never write the same version
+        return settingsDao.incrementEvalConfigCounter(SETTINGS_VERSION_NAME);
     }
 
     /**
-     * Marker class to indicate a null since CHM cannot store null
-     * @author Aaron Zeckoski (aaron@caret.cam.ac.uk)
+     * Marker to indicate a null setting since CHM cannot store null
      */
-    private class Null extends EvalConfig { }
+    private static final Object NULL_SETTING = new Object();
+
+    /**
+     * An immutable set of the raw config values (name -> value, null if not in the database),
+     * the typed values are parsed once per snapshot when they are first requested
+     */
+    private static final class SettingsSnapshot {
+        private final long version;
+        private final Map<String, String> values;
+        private final ConcurrentHashMap<String, Object> typed = new ConcurrentHashMap<>();
+
+        private SettingsSnapshot(long version, Map<String, String> values) {
+            this.version = version;
+            this.values = Collections.unmodifiableMap(values);
+        }
+
+        private SettingsSnapshot with(String name, String value, long newVersion) {
+            Map<String, String> copy = new HashMap<>(values);
+            copy.put(name, value);
+            return new SettingsSnapshot(newVersion, copy);
+        }
+
+        private Object getTyped(String settingConstant) {
+            return typed.get(settingConstant);
+        }
+
+        private void putTyped(String settingConstant, Object setting) {
+            typed.put(settingConstant, setting);
+        }
+    }
 
 }
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
+import org.sakaiproject.evaluation.logic.model.EvalUser;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+
+/**
+ * Caches the {@link EvalUser}s resolved by {@link EvalCommonLogicImpl} in two layers:
+ * a memo which lasts for the current request only (so a page which asks for the same user
+ * many times only looks them up once) and a bounded LRU map shared by all requests
+ * in which entries expire after {@link #setTimeToLiveSeconds(int)}, see {@link EvalLookupCache}<br/>
+ * Users which could not be found (invalid or anonymous) are cached as well but expire
+ * after the shorter {@link #setInvalidTimeToLiveSeconds(int)}, a user is dropped when their
+ * Sakai account is changed or removed on any server<br/>
+ * Also splits large lookups into batches of {@link #setBatchSize(int)} users which are looked up
+ * in parallel on up to {@link #setLookupThreads(int)} threads
+ */
+public class EvalUserCache {
+
+    private static final String USER_REFERENCE_PREFIX = "/user/";
+    // user.upd.any, user.upd.own (and the user.upd.own.* variants) and user.del
+    private static final String USER_UPDATE_EVENT_PREFIX = "user.upd";
+    private static final String USER_REMOVE_EVENT = "user.del";
+
+    private EvalExternalLogic externalLogic;
+    public void setExternalLogic(EvalExternalLogic externalLogic) {
+        this.externalLogic = externalLogic;
+    }
+
+    private final EvalLookupCache<EvalUser> cache = new EvalLookupCache<>(EvalUserCache.class);
+
+    private ThreadLocalManager threadLocalManager;
+    public void setThreadLocalManager(ThreadLocalManager threadLocalManager) {
+        this.threadLocalManager = threadLocalManager;
+        cache.setThreadLocalManager(threadLocalManager);
+    }
+
+    public void setEventTrackingService(EventTrackingService eventTrackingService) {
+        cache.setEventTrackingService(eventTrackingService);
+    }
+
+    private int timeToLiveSeconds = 600;
+    /**
+     * @param timeToLiveSeconds how long a found user is shared between requests, 0 disables the shared layer
+     */
+    public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    private int invalidTimeToLiveSeconds = 60;
+    /**
+     * @param invalidTimeToLiveSeconds how long a user which could not be found is shared between requests
+     */
+    public void setInvalidTimeToLiveSeconds(int invalidTimeToLiveSeconds) {
+        this.invalidTimeToLiveSeconds = invalidTimeToLiveSeconds;
+    }
+
+    /**
+     * @param maxUsers the most users shared between requests, the least recently used are dropped past this
+     */
+    public void setMaxUsers(int maxUsers) {
+        cache.setMaxEntries(maxUsers);
+    }
+
+    private int batchSize = 200;
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    private int lookupThreads = 4;
+    /**
+     * @param lookupThreads the number of batches which can be looked up at once, 1 looks them up one after the other
+     */
+    public void setLookupThreads(int lookupThreads) {
+        this.lookupThreads = lookupThreads;
+    }
+
+    private ExecutorService lookupExecutor;
+
+    private final LongAdder batches = new LongAdder();
+
+    public void init() {
+        // all servers events so a change made on another server clears the user here as well
+        cache.init(externalLogic, event -> {
+            String eventName = event.getEvent();
+            String resource = event.getResource();
+            if (eventName != null && resource != null && resource.startsWith(USER_REFERENCE_PREFIX)
+                    && (eventName.startsWith(USER_UPDATE_EVENT_PREFIX) || USER_REMOVE_EVENT.equals(eventName))) {
+                remove(resource.substring(USER_REFERENCE_PREFIX.length()));
+            }
+        });
+        if (threadLocalManager == null && externalLogic != null) {
+            threadLocalManager = externalLogic.getBean(ThreadLocalManager.class);
+        }
+        if (lookupThreads > 1) {
+            lookupExecutor = Executors.newFixedThreadPool(lookupThreads, runnable -> {
+                Thread thread = new Thread(runnable, "EvalUserCache-lookup");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void destroy() {
+        cache.destroy();
+        if (lookupExecutor != null) {
+            lookupExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param userId an internal user id
+     * @return a copy of the cached user (which may be an invalid user) OR null if the user is not cached
+     */
+    public EvalUser get(String userId) {
+        EvalUser user = cache.get(userId);
+        return user == null ? null : copy(user);
+    }
+
+    /**
+     * @param userIds internal user ids
+     * @return a map of userId -> copy of the cached user for the users which are cached
+     */
+    public Map<String, EvalUser> getAll(Collection<String> userIds) {
+        Map<String, EvalUser> found = new HashMap<>();
+        for (String userId : userIds) {
+            EvalUser user = get(userId);
+            if (user != null) {
+                found.put(userId, user);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param user a resolved user, users of the invalid or anonymous type are cached for the shorter time
+     */
+    public void put(EvalUser user) {
+        boolean found = ! EvalConstants.USER_TYPE_INVALID.equals(user.type)
+                && ! EvalConstants.USER_TYPE_ANONYMOUS.equals(user.type);
+        cache.put(user.userId, null, copy(user), found ? timeToLiveSeconds : invalidTimeToLiveSeconds);
+    }
+
+    /**
+     * @param userId an internal user id, the cached user (if any) is dropped
+     */
+    public void remove(String userId) {
+        cache.remove(userId);
+    }
+
+    /**
+     * Drops all cached users
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Looks up the users in batches of {@link #setBatchSize(int)}, the batches are looked up in parallel
+     * when there is more than one of them, nothing is cached by this
+     * 
+     * @param userIds the internal user ids to look up
+     * @param lookup the lookup for a batch of user ids, returns a map of userId -> user for the users it found,
+     * must not depend on the current request or session since it may run on another thread
+     * @return a map of userId -> user for all the users which were found
+     */
+    public Map<String, EvalUser> lookupInBatches(List<String> userIds, Function<List<String>, Map<String, EvalUser>> lookup) {
+        Map<String, EvalUser> found = new HashMap<>();
+        if (userIds.size() <= batchSize || lookupExecutor == null) {
+            for (int i = 0; i < userIds.size(); i += batchSize) {
+                batches.increment();
+                found.putAll(lookup.apply(userIds.subList(i, Math.min(i + batchSize, userIds.size()))));
+            }
+            return found;
+        }
+        List<Future<Map<String, EvalUser>>> futures = new ArrayList<>();
+        for (int i = 0; i < userIds.size(); i += batchSize) {
+            List<String> batch = new ArrayList<>(userIds.subList(i, Math.min(i + batchSize, userIds.size())));
+            futures.add(lookupExecutor.submit(() -> {
+                try {
+                    batches.increment();
+                    return lookup.apply(batch);
+                } finally {
+                    if (threadLocalManager != null) {
+                        // the lookup threads are reused so do not keep anything the lookup put in the thread
+                        threadLocalManager.clear();
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<Map<String, EvalUser>> future : futures) {
+                found.putAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new IllegalStateException("Interrupted while looking up " + userIds.size() + " users", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failure looking up " + userIds.size() + " users", e.getCause());
+        }
+        return found;
+    }
+
+    /**
+     * @return a map of statistic name -> value (requestHits, hits, misses, invalidations, evictions, batches, size)
+     */
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> stats = cache.getStatistics();
+        stats.put("batches", batches.sum());
+        return stats;
+    }
+
+    private static EvalUser copy(EvalUser user) {
+        EvalUser copy = new EvalUser();
+        copy.userId = user.userId;
+        copy.username = user.username;
+        copy.email = user.email;
+        copy.displayName = user.displayName;
+        copy.displayId = user.displayId;
+        copy.sortName = user.sortName;
+        copy.type = user.type;
+        return copy;
+    }
+
+}
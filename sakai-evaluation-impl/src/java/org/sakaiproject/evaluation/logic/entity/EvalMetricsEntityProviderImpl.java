@@ -0,0 +1,133 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.entity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sakaiproject.entitybroker.EntityView;
+import org.sakaiproject.entitybroker.entityprovider.CoreEntityProvider;
+import org.sakaiproject.entitybroker.entityprovider.annotations.EntityCustomAction;
+import org.sakaiproject.entitybroker.entityprovider.capabilities.ActionsExecutable;
+import org.sakaiproject.entitybroker.entityprovider.capabilities.AutoRegisterEntityProvider;
+import org.sakaiproject.entitybroker.entityprovider.capabilities.Outputable;
+import org.sakaiproject.entitybroker.entityprovider.extension.Formats;
+import org.sakaiproject.evaluation.logic.EvalCommonLogic;
+import org.sakaiproject.evaluation.logic.EvalGroupCache;
+import org.sakaiproject.evaluation.logic.EvalUserCache;
+import org.sakaiproject.evaluation.logic.EvalSettings;
+import org.sakaiproject.evaluation.metrics.EvalMetrics;
+
+/**
+ * Admin only access to the service and DAO call statistics and the settings, group and user cache statistics,
+ * e.g. /direct/eval-metrics/stats.json
+ */
+public class EvalMetricsEntityProviderImpl implements EvalMetricsEntityProvider, CoreEntityProvider, AutoRegisterEntityProvider, ActionsExecutable, Outputable {
+
+    private EvalMetrics evalMetrics;
+    public void setEvalMetrics(EvalMetrics evalMetrics) {
+        this.evalMetrics = evalMetrics;
+    }
+
+    private EvalCommonLogic commonLogic;
+    public void setCommonLogic(EvalCommonLogic commonLogic) {
+        this.commonLogic = commonLogic;
+    }
+
+    private EvalSettings settings;
+    public void setSettings(EvalSettings settings) {
+        this.settings = settings;
+    }
+
+    private EvalGroupCache groupCache;
+    public void setGroupCache(EvalGroupCache groupCache) {
+        this.groupCache = groupCache;
+    }
+
+    private EvalUserCache userCache;
+    public void setUserCache(EvalUserCache userCache) {
+        this.userCache = userCache;
+    }
+
+    public String getEntityPrefix() {
+        return ENTITY_PREFIX;
+    }
+
+    public boolean entityExists(String id) {
+        // there are no individual entities, only the custom actions
+        return false;
+    }
+
+    @EntityCustomAction(action = "stats", viewKey = EntityView.VIEW_LIST)
+    public Map<String, Object> getStats(EntityView view, Map<String, Object> params) {
+        checkAdmin();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("mode", evalMetrics.getMode());
+        stats.put("sampleRate", evalMetrics.getSampleRate());
+        stats.put("methods", evalMetrics.getMethodStats());
+        stats.put("settingsCache", settings.getCacheStatistics());
+        if (groupCache != null) {
+            stats.put("groupCache", groupCache.getStatistics());
+        }
+        if (userCache != null) {
+            stats.put("userCache", userCache.getStatistics());
+        }
+        return stats;
+    }
+
+    @EntityCustomAction(action = "reset", viewKey = EntityView.VIEW_NEW)
+    public void reset(EntityView view, Map<String, Object> params) {
+        checkAdmin();
+        evalMetrics.reset();
+    }
+
+    /**
+     * Changes the mode (off, sampled, all) and/or the sample rate,
+     * e.g. POST /direct/eval-metrics/mode?mode=all or ?sampleRate=100
+     */
+    @EntityCustomAction(action = "mode", viewKey = EntityView.VIEW_NEW)
+    public void setMode(EntityView view, Map<String, Object> params) {
+        checkAdmin();
+        Object mode = params.get("mode");
+        Object sampleRate = params.get("sampleRate");
+        if (mode == null && sampleRate == null) {
+            throw new IllegalArgumentException("Must include the mode ("
+                    + EvalMetrics.MODE_OFF + ", " + EvalMetrics.MODE_SAMPLED + ", " + EvalMetrics.MODE_ALL
+                    + ") and/or the sampleRate param: e.g. /direct/" + ENTITY_PREFIX + "/mode?mode=" + EvalMetrics.MODE_SAMPLED);
+        }
+        if (sampleRate != null) {
+            try {
+                evalMetrics.setSampleRate(Integer.parseInt(sampleRate.toString()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid sampleRate (" + sampleRate + "), must be a number");
+            }
+        }
+        if (mode != null) {
+            evalMetrics.setMode(mode.toString());
+        }
+    }
+
+    private void checkAdmin() {
+        String currentUserId = commonLogic.getCurrentUserId();
+        if (! commonLogic.isUserAdmin(currentUserId)) {
+            throw new SecurityException("Only admins can access the evaluation metrics, user (" + currentUserId + ") is not an admin");
+        }
+    }
+
+    public String[] getHandledOutputFormats() {
+        return new String[] {Formats.JSON};
+    }
+
+}
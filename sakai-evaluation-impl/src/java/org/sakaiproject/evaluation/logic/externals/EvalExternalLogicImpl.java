@@ -901,10 +901,72 @@ public class EvalExternalLogicImpl implements EvalExternalLogic {
         return result;
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.externals.ExternalEvalGroups#getUserIdsForEvalGroups(java.util.Collection, java.lang.String, java.lang.Boolean)
+     */
+    public Map<String, Set<String>> getUserIdsForEvalGroups( Collection<String> evalGroupIDs, String permission, Boolean sectionAware )
+    {
+        Map<String, Set<String>> result = new HashMap<>();
+        if ( evalGroupIDs.isEmpty() )
+        {
+            return result;
+        }
+
+        // Several eval group ids can share one azGroup (e.g. sections of the same site when not section aware)
+        Map<String, List<String>> azGroupToEvalGroupIds = new HashMap<>();
+        for ( String evalGroupID : evalGroupIDs )
+        {
+            if ( BooleanUtils.isFalse( sectionAware ) )
+            {
+                ParsedEvalGroupID groupID = new ParsedEvalGroupID( evalGroupID );
+                String azGroup = EvalConstants.GROUP_ID_SITE_PREFIX + groupID.getSiteID();
+                if ( groupID.hasGroup() )
+                {
+                    azGroup += EvalConstants.GROUP_ID_GROUP_PREFIX + groupID.getGroupID();
+                }
+                azGroupToEvalGroupIds.computeIfAbsent( azGroup, k -> new ArrayList<>() ).add( evalGroupID );
+                result.put( evalGroupID, new HashSet<>() );
+            }
+            else
+            {
+                result.put( evalGroupID, getUserIdsForEvalGroup( evalGroupID, permission, sectionAware ) );
+            }
+        }
+
+        if ( !azGroupToEvalGroupIds.isEmpty() )
+        {
+            Map<String, Set<String>> userIdsByAzGroup = fetchUserIdsByAzGroupBatched( azGroupToEvalGroupIds.keySet(), permission );
+
+            // Same cleanup the per-group path applies: drop the admin user and role-view ("View Site As") fake users
+            Set<String> allUserIds = new HashSet<>();
+            userIdsByAzGroup.values().forEach( allUserIds::addAll );
+            Set<String> roleViewTypeUserIds = getRoleViewTypeUserIds( allUserIds );
+
+            for ( Entry<String, List<String>> entry : azGroupToEvalGroupIds.entrySet() )
+            {
+                Set<String> userIds = userIdsByAzGroup.getOrDefault( entry.getKey(), Collections.emptySet() );
+                for ( String evalGroupID : entry.getValue() )
+                {
+                    Set<String> groupUserIds = result.get( evalGroupID );
+                    for ( String userId : userIds )
+                    {
+                        if ( !ADMIN_USER_ID.equals( userId ) && !roleViewTypeUserIds.contains( userId ) )
+                        {
+                            groupUserIds.add( userId );
+                        }
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Resolves, in batches, which users are allowed to perform the given permission in each of the given
-     * azGroups. Shared by {@link #countUserIdsForEvalGroups(Collection, String, Boolean)} and
-     * {@link #hasUserIdsForEvalGroups(Collection, String, Boolean)}.
+     * azGroups. Shared by {@link #countUserIdsForEvalGroups(Collection, String, Boolean)},
+     * {@link #hasUserIdsForEvalGroups(Collection, String, Boolean)} and
+     * {@link #getUserIdsForEvalGroups(Collection, String, Boolean)}.
      */
     private Map<String, Set<String>> fetchUserIdsByAzGroupBatched( Collection<String> azGroups, String permission )
     {
@@ -1509,7 +1571,18 @@ public class EvalExternalLogicImpl implements EvalExternalLogic {
      */
     public EvalScheduledJob[] findScheduledJobs(Long evaluationId, String jobType) {
         String jobKey = EvalScheduledJob.encodeContextId(evaluationId, jobType);
-        DelayedInvocation[] invocations = scheduledInvocationManager.findDelayedInvocations(SCHEDULER_SPRING_BEAN_ID, jobKey);
+        return makeScheduledJobs(scheduledInvocationManager.findDelayedInvocations(SCHEDULER_SPRING_BEAN_ID, jobKey));
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.externals.ExternalScheduler#findAllScheduledJobs()
+     */
+    public EvalScheduledJob[] findAllScheduledJobs() {
+        // a null context matches every invocation for the component
+        return makeScheduledJobs(scheduledInvocationManager.findDelayedInvocations(SCHEDULER_SPRING_BEAN_ID, null));
+    }
+
+    private EvalScheduledJob[] makeScheduledJobs(DelayedInvocation[] invocations) {
         EvalScheduledJob[] jobs = new EvalScheduledJob[0];
         if (invocations != null) {
             jobs = new EvalScheduledJob[invocations.length];
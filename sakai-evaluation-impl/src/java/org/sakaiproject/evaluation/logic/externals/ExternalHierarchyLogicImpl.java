@@ -19,6 +19,7 @@ import org.sakaiproject.evaluation.dao.EvaluationAuthoringDao;
 import org.sakaiproject.evaluation.dao.EvaluationConsolidatedEmailDao;
 import org.sakaiproject.evaluation.dao.EvaluationGroupNodeDao;
 import org.sakaiproject.evaluation.dao.EvaluationQueryDao;
+import org.sakaiproject.evaluation.dao.EvaluationSettingsDao;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,7 +30,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.lang3.StringUtils;
 import org.sakaiproject.authz.api.AuthzGroupService;
 import org.sakaiproject.coursemanagement.api.CourseManagementService;
 import org.sakaiproject.coursemanagement.api.Section;
@@ -37,6 +37,7 @@ import org.sakaiproject.coursemanagement.api.exception.IdNotFoundException;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.model.EvalHierarchyNode;
 import org.sakaiproject.evaluation.logic.model.HierarchyNodeRule;
+import org.sakaiproject.evaluation.model.EvalConfig;
 import org.sakaiproject.evaluation.model.EvalGroupNodes;
 import org.sakaiproject.evaluation.model.EvalTemplateItem;
 import org.sakaiproject.evaluation.providers.EvalHierarchyProvider;
@@ -91,6 +92,11 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
         this.assignmentDao = assignmentDao;
     }
 
+    private EvaluationSettingsDao settingsDao;
+    public void setSettingsDao(EvaluationSettingsDao settingsDao) {
+        this.settingsDao = settingsDao;
+    }
+
     private HierarchyService hierarchyService;
     public void setHierarchyService(HierarchyService hierarchyService) {
         this.hierarchyService = hierarchyService;
@@ -140,6 +146,22 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
 	}
     private final String CACHE_NAME = "org.sakaiproject.hierarchy.nodes";
 
+    // holds the compiled hierarchy rules by rules version, a rule change on any server moves every server to a new version
+    private static final String RULE_INDEX_CACHE_NAME = "org.sakaiproject.evaluation.logic.externals.ExternalHierarchyLogic.ruleIndex";
+    private static final String RULE_INDEX_KEY = "allRules:";
+    private Cache ruleIndexCache;
+
+    /**
+     * the name of the config row which holds the hierarchy rules version counter, bumped on every rule change
+     */
+    public static final String RULES_VERSION_NAME = "HIERARCHY_RULES_VERSION";
+    /**
+     * the minimum time between checks of the hierarchy rules version (in ms)
+     */
+    private static final long RULES_VERSION_CHECK_INTERVAL = 10L * 1000L;
+    private volatile long rulesVersion = -1L;
+    private volatile long lastRulesVersionCheck = 0L;
+
 
     /**
      * Place any code that should run when this class is initialized by spring here
@@ -159,6 +181,7 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
         }
         
         cache = memoryService.getCache(CACHE_NAME);
+        ruleIndexCache = memoryService.getCache(RULE_INDEX_CACHE_NAME);
     }
 
     private void ensureHierarchyExists() {
@@ -249,22 +272,7 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
      */
     public String determineQualifierFromRuleText( String ruleText )
     {
-        if( ruleText.startsWith( "%" ) && ruleText.endsWith( "%" ) )
-        {
-            return EvalConstants.HIERARCHY_QUALIFIER_CONTAINS;
-        }
-        else if( ruleText.startsWith( "%" ) )
-        {
-            return EvalConstants.HIERARCHY_QUALIFIER_ENDS_WITH;
-        }
-        else if( ruleText.endsWith( "%" ) )
-        {
-            return EvalConstants.HIERARCHY_QUALIFIER_STARTS_WITH;
-        }
-        else
-        {
-            return EvalConstants.HIERARCHY_QUALIFIER_IS;
-        }
+        return HierarchyRuleIndex.determineQualifier( ruleText );
     }
 
     /*
@@ -273,17 +281,7 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
      */
     public String removeQualifierFromRuleText( String ruleText )
     {
-        String rule = ruleText;
-        if( rule.startsWith( "%" ) )
-        {
-            rule = rule.substring( 1 );
-        }
-        if( rule.endsWith( "%" ) )
-        {
-            rule = rule.substring( 0, rule.length() - 1 );
-        }
-
-        return rule;
+        return HierarchyRuleIndex.removeQualifier( ruleText );
     }
 
     /*
@@ -308,6 +306,7 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
         checkNodeExists( nodeID );
 
         externalLogic.assignNodeRule( ruleText, qualifier, option, nodeID );
+        rulesChanged();
     }
 
     /*
@@ -317,6 +316,7 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
     public void removeNodeRule( Long ruleID )
     {
         externalLogic.removeNodeRule( ruleID );
+        rulesChanged();
     }
 
     /*
@@ -329,6 +329,7 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
         checkNodeExists( nodeID );
 
         externalLogic.removeAllRulesForNode( nodeID );
+        rulesChanged();
     }
 
     /*
@@ -341,6 +342,7 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
         checkNodeExists( nodeID );
 
         externalLogic.updateNodeRule( ruleID, ruleText, qualifier, option, nodeID );
+        rulesChanged();
     }
 
     /*
@@ -457,6 +459,7 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
 
         // Remove all hierarchy rules associated with this node
         externalLogic.removeAllRulesForNode( Long.parseLong( nodeId ) );
+        rulesChanged();
 
         // cleanup related data
         List<EvalTemplateItem> l = authoringDao.getTemplateItemsByHierarchyNodeId(nodeId);
@@ -643,18 +646,154 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
     }
 
     public List<EvalHierarchyNode> getNodesAboveEvalGroup(String evalGroupId) {
-        List<EvalHierarchyNode> hierarchyNodes;
-        if (evalHierarchyProvider != null) {
-            hierarchyNodes = evalHierarchyProvider.getNodesAboveEvalGroup(evalGroupId);
+        return getNodesAboveEvalGroups( Collections.singleton( evalGroupId ) ).get( evalGroupId );
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.externals.ExternalHierarchyLogic#getNodesAboveEvalGroups(java.util.Collection)
+     */
+    public Map<String, List<EvalHierarchyNode>> getNodesAboveEvalGroups(Collection<String> evalGroupIds) {
+        Map<String, List<EvalHierarchyNode>> groupNodes = new HashMap<>();
+
+        // Support for resolving eval groups based on hierarchy node rules
+        // Hierarchy rules should be obeyed regardless of if an external provider is present or not (supplemental)
+        HierarchyRuleIndex ruleIndex = getRuleIndex();
+        // the sites, section titles and node paths are shared by many groups so only look each one up once
+        Map<String, Site> sites = new HashMap<>();
+        Map<String, List<String>> realmSectionTitles = new HashMap<>();
+        Map<String, List<EvalHierarchyNode>> nodePaths = new HashMap<>();
+        for( String evalGroupId : evalGroupIds )
+        {
+            List<EvalHierarchyNode> hierarchyNodes;
+            if (evalHierarchyProvider != null) {
+                hierarchyNodes = evalHierarchyProvider.getNodesAboveEvalGroup(evalGroupId);
+            }
+            else
+            {
+                hierarchyNodes = new ArrayList<>();
+            }
+
+            String nodeID = null;
+            if( ruleIndex.size() > 0 )
+            {
+                nodeID = findRuleNodeForEvalGroup( evalGroupId, ruleIndex, sites, realmSectionTitles );
+            }
+
+            if (nodeID != null) {
+                List<EvalHierarchyNode> nodePath = nodePaths.get( nodeID );
+                if( nodePath == null )
+                {
+                    nodePath = new ArrayList<>();
+                    HierarchyNode currentNode = hierarchyService.getNodeById(nodeID);
+                    Set<HierarchyNode> parents = hierarchyService.getParentNodes(nodeID, false);
+                    parents.add(currentNode);
+                    List<HierarchyNode> sorted = HierarchyUtils.getSortedNodes(parents);
+                    // now convert the nodes to eval nodes
+                    for (HierarchyNode node : sorted) {
+                        nodePath.add( makeEvalNode(node) );
+                    }
+                    nodePaths.put( nodeID, nodePath );
+                }
+                hierarchyNodes.addAll( nodePath );
+            }
+            groupNodes.put( evalGroupId, hierarchyNodes );
+        }
+
+        return groupNodes;
+    }
+
+    /**
+     * @return the compiled form of all the hierarchy rules, compiled from the current rules if it is not cached
+     */
+    private HierarchyRuleIndex getRuleIndex()
+    {
+        String key = RULE_INDEX_KEY + getRulesVersion();
+        HierarchyRuleIndex ruleIndex = (HierarchyRuleIndex) ruleIndexCache.get( key );
+        if( ruleIndex == null )
+        {
+            ruleIndex = new HierarchyRuleIndex( externalLogic.getAllRules() );
+            ruleIndexCache.put( key, ruleIndex );
+            log.debug( "Compiled " + ruleIndex.size() + " hierarchy rules (" + key + ")" );
+        }
+        return ruleIndex;
+    }
+
+    /**
+     * @return the current hierarchy rules version, only read from the database every
+     * {@link #RULES_VERSION_CHECK_INTERVAL} so a rule change on another server is seen within that time
+     */
+    private long getRulesVersion()
+    {
+        long now = System.currentTimeMillis();
+        if( rulesVersion < 0 || now - lastRulesVersionCheck > RULES_VERSION_CHECK_INTERVAL )
+        {
+            rulesVersion = readRulesVersion();
+            lastRulesVersionCheck = now;
+        }
+        return rulesVersion;
+    }
+
+    private long readRulesVersion()
+    {
+        if( settingsDao == null )
+        {
+            return 0L;
+        }
+        EvalConfig c = settingsDao.getEvalConfigByName( RULES_VERSION_NAME );
+        if( c == null || c.getValue() == null )
+        {
+            return 0L;
+        }
+        try
+        {
+            return Long.parseLong( c.getValue() );
+        }
+        catch( NumberFormatException e )
+        {
+            log.warn( "Invalid hierarchy rules version (" + c.getValue() + "), treating it as 0" );
+            return 0L;
+        }
+    }
+
+    /**
+     * Moves to a new hierarchy rules version so every server compiles the changed rules,
+     * the local cache is cleared right away and the other servers see the new version on their next check
+     */
+    private void rulesChanged()
+    {
+        ruleIndexCache.clear();
+        if( settingsDao == null )
+        {
+            return;
+        }
+        if( transactionManager == null )
+        {
+            rulesVersion = settingsDao.incrementEvalConfigCounter( RULES_VERSION_NAME );
         }
         else
         {
-            hierarchyNodes = new ArrayList<>();
+            // locked increment so rule changes on two servers at once never produce the same version
+            TransactionTemplate transactionTemplate = new TransactionTemplate( transactionManager );
+            transactionTemplate.setPropagationBehavior( TransactionDefinition.PROPAGATION_REQUIRED );
+            rulesVersion = transactionTemplate.execute( status -> settingsDao.incrementEvalConfigCounter( RULES_VERSION_NAME ) );
         }
+        lastRulesVersionCheck = System.currentTimeMillis();
+    }
 
-        // Support for resolving eval groups based on hierarchy node rules
-        // Hierarchy rules should be obeyed regardless of if an external provider is present or not (supplemental)
-        String nodeID = "";
+    /**
+     * Find the node of the last hierarchy rule which the site title (or one of the section titles
+     * of the site when the group is a section) satisfies
+     * 
+     * @param evalGroupId the eval group to find the node for
+     * @param ruleIndex the compiled hierarchy rules
+     * @param sites the sites already looked up (by site id), updated by this method
+     * @param realmSectionTitles the section titles already looked up (by site realm id), updated by this method
+     * @return the node id OR null if no rule applies to the group
+     */
+    private String findRuleNodeForEvalGroup( String evalGroupId, HierarchyRuleIndex ruleIndex, Map<String, Site> sites,
+            Map<String, List<String>> realmSectionTitles )
+    {
         String siteID = evalGroupId.replace( EvalConstants.GROUP_ID_SITE_PREFIX, "" );
         boolean isGroupIDSectionBased = false;
         if( evalGroupId.contains( EvalConstants.GROUP_ID_SECTION_PREFIX ) )
@@ -663,82 +802,56 @@ public class ExternalHierarchyLogicImpl implements ExternalHierarchyLogic {
             isGroupIDSectionBased = true;
         }
 
-        try
+        Site site;
+        if( sites.containsKey( siteID ) )
         {
-            Site site = siteService.getSite( siteID );
-            List<HierarchyNodeRule> rules = externalLogic.getAllRules();
-            Map<String, Set<String>> realmSectionIDs = new HashMap<>();
-            for( HierarchyNodeRule rule : rules )
+            site = sites.get( siteID );
+        }
+        else
+        {
+            try
             {
-                String rawRuleText = removeQualifierFromRuleText( rule.getRule() );
-                String qualifier = determineQualifierFromRuleText( rule.getRule() );
-
-                // If the rule is section based and so is the group ID...
-                if( EvalConstants.HIERARCHY_RULE_SECTION.equals( rule.getOption() ) && isGroupIDSectionBased )
-                {
-                    // Get the sections of the site, if necessary
-                    String realmID = siteService.siteReference( site.getId() );
-                    if( !realmSectionIDs.containsKey( realmID ) )
-                    {
-                        realmSectionIDs.put( realmID, authzGroupService.getProviderIds( realmID ) );
-                    }
-
-                    for( String sectionID : realmSectionIDs.get( realmID ) )
-                    {
-                        Section section = courseManagementService.getSection( sectionID );
-                        if( siteOrSectionTitleSatisfiesRule( section.getTitle(), qualifier, rawRuleText ) )
-                        {
-                            nodeID = rule.getNodeID().toString();
-                        }
-                    }
-                }
+                site = siteService.getSite( siteID );
+            }
+            catch ( IdUnusedException ex )
+            {
+                log.debug("IdUnusedException looking up site ID", ex);
+                site = null;
+            }
+            sites.put( siteID, site );
+        }
+        if( site == null )
+        {
+            return null;
+        }
 
-                // Otherwise it's a site based rule...
-                else
+        // section rules are matched against the site title unless the group is section based
+        int match = ruleIndex.matchSiteTitle( site.getTitle(), !isGroupIDSectionBased );
+        if( isGroupIDSectionBased && ruleIndex.hasSectionRules() )
+        {
+            // Get the section titles of the site, if necessary
+            String realmID = siteService.siteReference( site.getId() );
+            List<String> sectionTitles = realmSectionTitles.get( realmID );
+            if( sectionTitles == null )
+            {
+                sectionTitles = new ArrayList<>();
+                for( String sectionID : authzGroupService.getProviderIds( realmID ) )
                 {
-                    if( siteOrSectionTitleSatisfiesRule( site.getTitle(), qualifier, rawRuleText ) )
+                    try
                     {
-                        nodeID = rule.getNodeID().toString();
+                        sectionTitles.add( courseManagementService.getSection( sectionID ).getTitle() );
                     }
+                    catch ( IdNotFoundException ex ) { log.warn( "Could not find section by ID: " + sectionID, ex ); }
                 }
+                realmSectionTitles.put( realmID, sectionTitles );
             }
-        }
-        catch ( IdUnusedException ex ) { log.debug("IdUnusedException looking up site ID", ex); }
-        catch ( IdNotFoundException ex ) { log.warn( "Could not find site or section by ID", ex ); }
-
-        if (StringUtils.isNotBlank(nodeID)) {
-            HierarchyNode currentNode = hierarchyService.getNodeById(nodeID);
-            Set<HierarchyNode> parents = hierarchyService.getParentNodes(nodeID, false);
-            parents.add(currentNode);
-            List<HierarchyNode> sorted = HierarchyUtils.getSortedNodes(parents);
-            // now convert the nodes to eval nodes
-            for (HierarchyNode node : sorted) {
-                hierarchyNodes.add( makeEvalNode(node) );
+            for( String sectionTitle : sectionTitles )
+            {
+                match = Math.max( match, ruleIndex.matchSectionTitle( sectionTitle ) );
             }
         }
 
-        return hierarchyNodes;
-    }
-
-    /**
-     * Utility method to determine if a site or section title satisfies a given rule's
-     * qualifier and rule text.
-     * 
-     * @param siteOrSectionTitle the site or section title to compare
-     * @param ruleQualifier the qualifier of the rule (is, starts with, ends with or contains)
-     * @param ruleText the actual text of the rule to be obeyed
-     * @return true if the site or section title satisfies the rule; false otherwise
-     */
-    private boolean siteOrSectionTitleSatisfiesRule( String siteOrSectionTitle, String ruleQualifier, String ruleText )
-    {
-        // If the qualifier is 'contains' and the title contains the raw rule text, OR
-        // the qualifier is 'ends with' and the title ends with the raw rule text, OR
-        // the qualifier is 'starts with' and the title starts with the raw rule text, OR
-        // the qualifier is 'is' and the title equals the raw rule text, grab the node ID of the rule
-        return (EvalConstants.HIERARCHY_QUALIFIER_CONTAINS.equals( ruleQualifier ) && siteOrSectionTitle.contains( ruleText ))
-                            || (EvalConstants.HIERARCHY_QUALIFIER_ENDS_WITH.equals( ruleQualifier ) && siteOrSectionTitle.endsWith( ruleText ))
-                            || (EvalConstants.HIERARCHY_QUALIFIER_STARTS_WITH.equals( ruleQualifier) && siteOrSectionTitle.startsWith( ruleText ))
-                            || (EvalConstants.HIERARCHY_QUALIFIER_IS.equals( ruleQualifier ) && siteOrSectionTitle.equals( ruleText ));
+        return match == HierarchyRuleIndex.NO_MATCH ? null : ruleIndex.getNodeId( match ).toString();
     }
 
     /* (non-Javadoc)
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.externals;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.model.HierarchyNodeRule;
+
+/**
+ * A compiled form of all the hierarchy node rules which matches a site or section title against
+ * all of the rules in one pass over the title (instead of checking every rule one at a time):
+ * the "is" rules are in a map, the "starts with" rules in a prefix trie, the "ends with" rules
+ * in a trie of the reversed rule texts and the "contains" rules in an Aho-Corasick automaton<br/>
+ * When several rules match a title the one which is last in the rules list wins
+ * (the same as checking the rules one after the other and keeping the last match)
+ */
+public class HierarchyRuleIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int NO_MATCH = -1;
+
+    private final Long[] nodeIds;
+    private final RuleSet siteRules = new RuleSet();
+    private final RuleSet sectionRules = new RuleSet();
+
+    /**
+     * @param rules all the hierarchy rules, in the order they should be checked in
+     */
+    public HierarchyRuleIndex(List<HierarchyNodeRule> rules) {
+        nodeIds = new Long[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            HierarchyNodeRule rule = rules.get(i);
+            nodeIds[i] = rule.getNodeID();
+            RuleSet ruleSet = EvalConstants.HIERARCHY_RULE_SECTION.equals(rule.getOption()) ? sectionRules : siteRules;
+            ruleSet.add(i, determineQualifier(rule.getRule()), removeQualifier(rule.getRule()));
+        }
+        siteRules.compile();
+        sectionRules.compile();
+    }
+
+    /**
+     * @return the number of rules in this index
+     */
+    public int size() {
+        return nodeIds.length;
+    }
+
+    /**
+     * @return true if there are any section rules (which means section titles are needed to match section groups)
+     */
+    public boolean hasSectionRules() {
+        return ! sectionRules.isEmpty();
+    }
+
+    /**
+     * @param title a site title
+     * @param includeSectionRules true if the section rules also apply to the site title
+     * (they do when the eval group is not a section)
+     * @return the position of the last rule which matches OR {@link #NO_MATCH}
+     */
+    public int matchSiteTitle(String title, boolean includeSectionRules) {
+        int match = siteRules.match(title);
+        if (includeSectionRules) {
+            match = Math.max(match, sectionRules.match(title));
+        }
+        return match;
+    }
+
+    /**
+     * @param title a section title
+     * @return the position of the last section rule which matches OR {@link #NO_MATCH}
+     */
+    public int matchSectionTitle(String title) {
+        return sectionRules.match(title);
+    }
+
+    /**
+     * @param rulePosition the position of a rule (from one of the match methods)
+     * @return the id of the node for that rule
+     */
+    public Long getNodeId(int rulePosition) {
+        return nodeIds[rulePosition];
+    }
+
+    /**
+     * @param ruleText the final rule text from the DB
+     * @return the qualifier used for the final rule text
+     */
+    public static String determineQualifier(String ruleText) {
+        if (ruleText.startsWith("%") && ruleText.endsWith("%")) {
+            return EvalConstants.HIERARCHY_QUALIFIER_CONTAINS;
+        } else if (ruleText.startsWith("%")) {
+            return EvalConstants.HIERARCHY_QUALIFIER_ENDS_WITH;
+        } else if (ruleText.endsWith("%")) {
+            return EvalConstants.HIERARCHY_QUALIFIER_STARTS_WITH;
+        } else {
+            return EvalConstants.HIERARCHY_QUALIFIER_IS;
+        }
+    }
+
+    /**
+     * @param ruleText the final rule text from the DB
+     * @return the raw rule text with the qualifier removed
+     */
+    public static String removeQualifier(String ruleText) {
+        String rule = ruleText;
+        if (rule.startsWith("%")) {
+            rule = rule.substring(1);
+        }
+        if (rule.endsWith("%")) {
+            rule = rule.substring(0, rule.length() - 1);
+        }
+        return rule;
+    }
+
+    /**
+     * The rules for one option (site or section)
+     */
+    private static class RuleSet implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, Integer> exact = new HashMap<>();
+        private final TrieNode prefixes = new TrieNode();
+        private final TrieNode suffixes = new TrieNode();
+        private final TrieNode contains = new TrieNode();
+        private int count = 0;
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        void add(int position, String qualifier, String text) {
+            count++;
+            if (EvalConstants.HIERARCHY_QUALIFIER_CONTAINS.equals(qualifier)) {
+                contains.insert(text, false, position);
+            } else if (EvalConstants.HIERARCHY_QUALIFIER_ENDS_WITH.equals(qualifier)) {
+                suffixes.insert(text, true, position);
+            } else if (EvalConstants.HIERARCHY_QUALIFIER_STARTS_WITH.equals(qualifier)) {
+                prefixes.insert(text, false, position);
+            } else {
+                exact.put(text, position); // later rules have higher positions
+            }
+        }
+
+        /**
+         * Builds the failure links and outputs of the "contains" automaton
+         */
+        void compile() {
+            contains.fail = contains;
+            contains.output = contains.rule;
+            Queue<TrieNode> queue = new ArrayDeque<>();
+            for (TrieNode child : contains.children.values()) {
+                child.fail = contains;
+                child.output = Math.max(child.rule, contains.output);
+                queue.add(child);
+            }
+            while (! queue.isEmpty()) {
+                TrieNode node = queue.remove();
+                for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
+                    char c = entry.getKey();
+                    TrieNode child = entry.getValue();
+                    TrieNode fail = node.fail;
+                    while (fail != contains && ! fail.children.containsKey(c)) {
+                        fail = fail.fail;
+                    }
+                    TrieNode next = fail.children.get(c);
+                    child.fail = next != null ? next : contains;
+                    // the output includes every shorter rule text which ends here as well
+                    child.output = Math.max(child.rule, child.fail.output);
+                    queue.add(child);
+                }
+            }
+        }
+
+        int match(String title) {
+            if (count == 0 || title == null) {
+                return NO_MATCH;
+            }
+            int match = NO_MATCH;
+            Integer exactMatch = exact.get(title);
+            if (exactMatch != null) {
+                match = exactMatch;
+            }
+            // starts with
+            TrieNode node = prefixes;
+            match = Math.max(match, node.rule);
+            for (int i = 0; i < title.length() && node != null; i++) {
+                node = node.children.get(title.charAt(i));
+                if (node != null) {
+                    match = Math.max(match, node.rule);
+                }
+            }
+            // ends with
+            node = suffixes;
+            match = Math.max(match, node.rule);
+            for (int i = title.length() - 1; i >= 0 && node != null; i--) {
+                node = node.children.get(title.charAt(i));
+                if (node != null) {
+                    match = Math.max(match, node.rule);
+                }
+            }
+            // contains
+            node = contains;
+            match = Math.max(match, node.output);
+            for (int i = 0; i < title.length(); i++) {
+                char c = title.charAt(i);
+                while (node != contains && ! node.children.containsKey(c)) {
+                    node = node.fail;
+                }
+                TrieNode next = node.children.get(c);
+                node = next != null ? next : contains;
+                match = Math.max(match, node.output);
+            }
+            return match;
+        }
+    }
+
+    private static class TrieNode implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Map<Character, TrieNode> children = new HashMap<>(4);
+        /**
+         * the highest position of the rules whose text ends at this node
+         */
+        int rule = NO_MATCH;
+        /**
+         * contains automaton only: the longest proper suffix of this node which is also in the trie
+         */
+        TrieNode fail;
+        /**
+         * contains automaton only: the highest position of the rules which match when this node is reached
+         */
+        int output = NO_MATCH;
+
+        void insert(String text, boolean reversed, int position) {
+            TrieNode node = this;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(reversed ? text.length() - 1 - i : i);
+                node = node.children.computeIfAbsent(c, k -> new TrieNode());
+            }
+            node.rule = Math.max(node.rule, position);
+        }
+    }
+
+}
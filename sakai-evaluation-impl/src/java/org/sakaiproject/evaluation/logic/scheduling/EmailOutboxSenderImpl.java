@@ -0,0 +1,289 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.scheduling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.sakaiproject.evaluation.dao.EvaluationConsolidatedEmailDao;
+import org.sakaiproject.evaluation.jobmonitor.JobStatusReporter;
+import org.sakaiproject.evaluation.jobmonitor.LoggingJobStatusReporter;
+import org.sakaiproject.evaluation.logic.EvalCommonLogic;
+import org.sakaiproject.evaluation.logic.EvalSettings;
+import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
+import org.sakaiproject.evaluation.model.EvalEmailOutbox;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * EmailOutboxSenderImpl delivers the messages which were queued in the email outbox
+ * (see {@link EvalSettings#EMAIL_USE_OUTBOX}).
+ * <br/>
+ * Each outbox message holds the rendered email for one template and group, the messages are claimed
+ * with a lease so servers which run the job at the same time do not send the same message,
+ * and are sent on a bounded pool of worker threads which share a messages per second limit.
+ * The number of recipients sent to is saved after every chunk so a failed message is retried
+ * (with backoff) from where it stopped.
+ */
+@Slf4j
+public class EmailOutboxSenderImpl implements EmailOutboxSender {
+
+    private static final int FETCH_SIZE = 100;
+    private static final int DEFAULT_WORKER_THREADS = 2;
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long LEASE_TIME = 10L * 60L * 1000L;
+    private static final long RETRY_BASE_DELAY = 60L * 1000L;
+    private static final long RETRY_MAX_DELAY = 60L * 60L * 1000L;
+    private static final long KEEP_SENT_TIME = 7L * 24L * 60L * 60L * 1000L;
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    private EvaluationConsolidatedEmailDao consolidatedEmailDao;
+    public void setConsolidatedEmailDao(EvaluationConsolidatedEmailDao consolidatedEmailDao) {
+        this.consolidatedEmailDao = consolidatedEmailDao;
+    }
+
+    private EvalCommonLogic commonLogic;
+    public void setCommonLogic(EvalCommonLogic commonLogic) {
+        this.commonLogic = commonLogic;
+    }
+
+    private EvalExternalLogic externalLogic;
+    public void setExternalLogic(EvalExternalLogic externalLogic) {
+        this.externalLogic = externalLogic;
+    }
+
+    private EvalSettings evalSettings;
+    public void setEvalSettings(EvalSettings settings) {
+        this.evalSettings = settings;
+    }
+
+    private JobStatusReporter jobStatusReporter;
+    public void setJobStatusReporter(JobStatusReporter jobStatusReporter) {
+        this.jobStatusReporter = jobStatusReporter;
+    }
+
+    /**
+     * the time (System.nanoTime) at which the next message may be sent by this server
+     */
+    private long nextPermitNanos = System.nanoTime();
+
+    /*
+     * (non-Javadoc)
+     * @see org.quartz.Job#execute(org.quartz.JobExecutionContext)
+     */
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        log.debug("EmailOutboxSender.execute()");
+        String thisServerId = this.externalLogic.getServerId();
+        if (thisServerId == null) {
+            return;
+        }
+        int threads = getIntSetting(EvalSettings.EMAIL_OUTBOX_WORKER_THREADS, DEFAULT_WORKER_THREADS, 1);
+        int messagesPerSecond = getIntSetting(EvalSettings.EMAIL_OUTBOX_MESSAGES_PER_SECOND, 0, 0);
+        int maxAttempts = getIntSetting(EvalSettings.EMAIL_OUTBOX_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS, 1);
+        String deliveryOption = (String) this.evalSettings.get(EvalSettings.EMAIL_DELIVERY_OPTION);
+
+        String jobId = this.jobStatusReporter.reportStarted("EmailOutboxSender");
+        this.jobStatusReporter.reportProgress(jobId, "starting", "server " + thisServerId + ", " + threads
+                + " worker threads, " + messagesPerSecond + " messages per second");
+
+        int sent = 0;
+        int retried = 0;
+        int skipped = 0;
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            while (true) {
+                List<EvalEmailOutbox> due = consolidatedEmailDao.getDueOutboxEmails(new Date(), FETCH_SIZE);
+                if (due.isEmpty()) {
+                    break;
+                }
+                List<Future<Boolean>> futures = new ArrayList<>(due.size());
+                for (EvalEmailOutbox outboxEmail : due) {
+                    futures.add(workers.submit(() -> deliver(outboxEmail, deliveryOption, messagesPerSecond, maxAttempts)));
+                }
+                int claimed = 0;
+                for (Future<Boolean> future : futures) {
+                    try {
+                        Boolean delivered = future.get();
+                        if (delivered == null) {
+                            skipped++;
+                        } else {
+                            claimed++;
+                            if (delivered) {
+                                sent++;
+                            } else {
+                                retried++;
+                            }
+                        }
+                    } catch (ExecutionException e) {
+                        this.jobStatusReporter.reportError(jobId, false, "send-error", String.valueOf(e.getCause()));
+                    }
+                }
+                this.jobStatusReporter.reportProgress(jobId, "sent", sent + " messages sent, " + retried + " failed");
+                if (claimed == 0) {
+                    // everything that is due is being sent by another server
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.jobStatusReporter.reportError(jobId, true, "interrupted", "sending interrupted after " + sent + " messages");
+        } finally {
+            workers.shutdownNow();
+        }
+
+        int purged = consolidatedEmailDao.deleteSentOutboxEmails(new Date(System.currentTimeMillis() - KEEP_SENT_TIME));
+
+        StringBuilder buf = new StringBuilder();
+        buf.append("Sent ");
+        buf.append(sent);
+        buf.append(" outbox messages (");
+        buf.append(retried);
+        buf.append(" failed, ");
+        buf.append(skipped);
+        buf.append(" claimed by other servers), removed ");
+        buf.append(purged);
+        buf.append(" old sent messages, ");
+        buf.append(consolidatedEmailDao.countOutboxEmails(EvalEmailOutbox.STATUS_PENDING));
+        buf.append(" messages pending, ");
+        buf.append(consolidatedEmailDao.countOutboxEmails(EvalEmailOutbox.STATUS_FAILED));
+        buf.append(" messages failed permanently");
+        this.jobStatusReporter.reportFinished(jobId, false, "finished", buf.toString());
+        log.info("EmailOutboxSender.execute() done: " + buf);
+    }
+
+    /**
+     * Claim and send a single outbox message, runs on a worker thread
+     * 
+     * @return true if the message was sent, false if it failed (and was rescheduled or marked as failed),
+     * null if it could not be claimed
+     */
+    protected Boolean deliver(EvalEmailOutbox outboxEmail, String deliveryOption, int messagesPerSecond, int maxAttempts) {
+        Date now = new Date();
+        if (! consolidatedEmailDao.claimOutboxEmail(outboxEmail.getId(), now, new Date(now.getTime() + LEASE_TIME))) {
+            return null;
+        }
+        outboxEmail.setStatus(EvalEmailOutbox.STATUS_SENDING);
+        String[] toUserIds = outboxEmail.getToUserIdsArray();
+        int sentCount = outboxEmail.getSentCount() == null ? 0 : outboxEmail.getSentCount();
+        try {
+            while (sentCount < toUserIds.length) {
+                int chunk = toUserIds.length - sentCount;
+                if (messagesPerSecond > 0 && chunk > messagesPerSecond) {
+                    chunk = messagesPerSecond;
+                }
+                acquirePermits(chunk, messagesPerSecond);
+                String[] chunkUserIds = Arrays.copyOfRange(toUserIds, sentCount, sentCount + chunk);
+                commonLogic.sendEmailsToUsers(outboxEmail.getFromAddress(), chunkUserIds,
+                        outboxEmail.getSubject(), outboxEmail.getMessage(), true, deliveryOption);
+                sentCount += chunk;
+                // checkpoint the progress and renew the lease
+                outboxEmail.setSentCount(sentCount);
+                outboxEmail.setNextAttempt(new Date(System.currentTimeMillis() + LEASE_TIME));
+                consolidatedEmailDao.saveOutboxEmail(outboxEmail);
+            }
+            outboxEmail.setStatus(EvalEmailOutbox.STATUS_SENT);
+            outboxEmail.setLastError(null);
+            consolidatedEmailDao.saveOutboxEmail(outboxEmail);
+            if (log.isDebugEnabled()) {
+                log.debug("Sent outbox message (" + outboxEmail.getId() + ") " + outboxEmail.getEmailTemplateType() + " for eval ("
+                        + outboxEmail.getEvaluationId() + ") and group (" + outboxEmail.getEvalGroupId() + ") to " + toUserIds.length + " users");
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // not a delivery failure, make it available again right away
+            outboxEmail.setStatus(EvalEmailOutbox.STATUS_PENDING);
+            outboxEmail.setNextAttempt(new Date());
+            consolidatedEmailDao.saveOutboxEmail(outboxEmail);
+            return false;
+        } catch (RuntimeException e) {
+            int attempts = (outboxEmail.getAttempts() == null ? 0 : outboxEmail.getAttempts()) + 1;
+            outboxEmail.setAttempts(attempts);
+            outboxEmail.setLastError(StringUtils.abbreviate(String.valueOf(e), MAX_ERROR_LENGTH));
+            if (attempts >= maxAttempts) {
+                outboxEmail.setStatus(EvalEmailOutbox.STATUS_FAILED);
+                log.error("Giving up on outbox message (" + outboxEmail.getId() + ") for eval (" + outboxEmail.getEvaluationId()
+                        + ") and group (" + outboxEmail.getEvalGroupId() + ") after " + attempts + " attempts: " + e);
+            } else {
+                outboxEmail.setStatus(EvalEmailOutbox.STATUS_PENDING);
+                outboxEmail.setNextAttempt(new Date(System.currentTimeMillis() + getRetryDelay(attempts)));
+                log.warn("Failed to send outbox message (" + outboxEmail.getId() + ") for eval (" + outboxEmail.getEvaluationId()
+                        + ") and group (" + outboxEmail.getEvalGroupId() + "), attempt " + attempts + " of " + maxAttempts
+                        + ", will retry at " + outboxEmail.getNextAttempt() + ": " + e);
+            }
+            consolidatedEmailDao.saveOutboxEmail(outboxEmail);
+            return false;
+        }
+    }
+
+    /**
+     * Wait until the given number of messages can be sent without going over the messages per second limit,
+     * the permits are handed out in order so the worker threads share the limit
+     * 
+     * @param permits the number of messages about to be sent
+     * @param messagesPerSecond the limit, 0 or less means no limit
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected void acquirePermits(int permits, int messagesPerSecond) throws InterruptedException {
+        if (messagesPerSecond <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextPermitNanos);
+            nextPermitNanos = start + (permits * TimeUnit.SECONDS.toNanos(1)) / messagesPerSecond;
+            waitNanos = start - now;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * @param attempts the number of failed attempts so far
+     * @return the delay before the next attempt, doubles after every failure up to a maximum
+     */
+    protected long getRetryDelay(int attempts) {
+        int doublings = Math.min(Math.max(attempts - 1, 0), 10);
+        return Math.min(RETRY_BASE_DELAY << doublings, RETRY_MAX_DELAY);
+    }
+
+    private int getIntSetting(String setting, int defaultValue, int minValue) {
+        Integer value = (Integer) this.evalSettings.get(setting);
+        if (value == null || value < minValue) {
+            value = defaultValue;
+        }
+        return value;
+    }
+
+    public void init() {
+        log.debug("init()");
+        if (jobStatusReporter == null) {
+            jobStatusReporter = new LoggingJobStatusReporter();
+        }
+    }
+
+}
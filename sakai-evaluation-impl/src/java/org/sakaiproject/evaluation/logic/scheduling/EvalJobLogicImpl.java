@@ -14,9 +14,12 @@
  */
 package org.sakaiproject.evaluation.logic.scheduling;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.dao.EvaluationQueryDao;
 import org.sakaiproject.evaluation.logic.EvalCommonLogic;
 import org.sakaiproject.evaluation.logic.EvalEmailsLogic;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
@@ -25,6 +28,7 @@ import org.sakaiproject.evaluation.logic.EvalSettings;
 import org.sakaiproject.evaluation.logic.externals.EvalJobLogic;
 import org.sakaiproject.evaluation.logic.model.EvalScheduledJob;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.model.EvalJobSchedule;
 import org.sakaiproject.evaluation.utils.ArrayUtils;
 
 import lombok.extern.slf4j.Slf4j;
@@ -32,7 +36,9 @@ import lombok.extern.slf4j.Slf4j;
 /**
  * Handle job scheduling related to EvalEvaluation state transitions.</br> Dates that have not
  * passed may be changed, which might then require rescheduling a job to keep jobs and
- * EvalEvaluation dates in sync.
+ * EvalEvaluation dates in sync.</br>
+ * The jobs are kept in the evaluation job schedule table (one per evaluation and job type)
+ * and the due ones are claimed in batches by the scheduled job timer in the setup service.
  * <b>NOTE:</b> this is a BACKUP service and should only depend on LOWER and BOTTOM services
  * (and maybe other BACKUP services if necessary)
  * 
@@ -73,6 +79,11 @@ public class EvalJobLogicImpl implements EvalJobLogic {
         this.emails = emails;
     }
 
+    protected EvaluationQueryDao queryDao;
+    public void setQueryDao(EvaluationQueryDao queryDao) {
+        this.queryDao = queryDao;
+    }
+
     /**
      * Check whether the job type is valid
      * 
@@ -125,6 +136,18 @@ public class EvalJobLogicImpl implements EvalJobLogic {
      * to run on it, however, it will die in all sorts of odd ways if the state is not as expected
      */
     public void jobAction(Long evaluationId, String jobType) {
+        jobAction(evaluationId, jobType, null);
+    }
+
+    public void jobAction(EvalScheduledJob job) {
+        // a rerun of an interrupted job has the same id and fire date, a rescheduled job has a new fire date
+        jobAction(job.evaluationId, job.jobType, job.uuid + ":" + job.date.getTime());
+    }
+
+    /**
+     * @param runId [OPTIONAL] identifies this run of the job for the emails put in the outbox
+     */
+    private void jobAction(Long evaluationId, String jobType, String runId) {
         if (evaluationId == null || jobType == null) {
             throw new NullPointerException("jobAction: both evaluationId ("+evaluationId+") and jobType ("+jobType+") must be set");
         }
@@ -163,7 +186,7 @@ public class EvalJobLogicImpl implements EvalJobLogic {
             boolean sendMail = ( eval.getSendAvailableNotifications() == null ? true : eval.getSendAvailableNotifications() ) 
             				&& (! useConsolidatedNotifications || forceSendAvailableNotification);
             if (sendMail){
-                sendAvailableEmail(evaluationId);
+                sendAvailableEmail(evaluationId, runId);
             }
             if (eval.getDueDate() != null) {
                 // might not have a due date set
@@ -182,7 +205,7 @@ public class EvalJobLogicImpl implements EvalJobLogic {
                     && EvalConstants.EVALUATION_AUTHCONTROL_AUTH_REQ.equals(eval.getAuthControl())) {
                 if (eval.getDueDate() == null 
                         || eval.getDueDate().after(now)) {
-                    sendReminderEmail(evaluationId);
+                    sendReminderEmail(evaluationId, runId);
                     scheduleReminder(evaluationId);
                 }
             }
@@ -242,6 +265,68 @@ public class EvalJobLogicImpl implements EvalJobLogic {
 
     }
 
+    public EvalScheduledJob[] claimDueJobs(int maxJobs, String holder) {
+        if (maxJobs <= 0) {
+            throw new IllegalArgumentException("maxJobs must be greater than 0: " + maxJobs);
+        }
+        List<EvalJobSchedule> claimed = queryDao.claimDueScheduledJobs(new Date(), maxJobs, holder, JOB_CLAIM_LEASE_TIME);
+        List<EvalScheduledJob> jobs = new ArrayList<>(claimed.size());
+        for (EvalJobSchedule job : claimed) {
+            jobs.add( new EvalScheduledJob(job.getId().toString(), job.getFireDate(), null,
+                    job.getEvaluationId(), job.getJobType()) );
+        }
+        return jobs.toArray(new EvalScheduledJob[jobs.size()]);
+    }
+
+    public void completeJob(EvalScheduledJob job, String holder) {
+        if (! queryDao.completeScheduledJob(Long.valueOf(job.uuid), holder) && log.isDebugEnabled()) {
+            log.debug("Scheduled job (" + job + ") was rescheduled or claimed by someone else while it ran, it is left in the schedule");
+        }
+    }
+
+    public void releaseJob(EvalScheduledJob job, String holder) {
+        queryDao.releaseScheduledJob(Long.valueOf(job.uuid), holder);
+    }
+
+    public void legacyJobAction(Long evaluationId, String jobType) {
+        if (evaluationId == null || jobType == null) {
+            throw new NullPointerException("legacyJobAction: both evaluationId ("+evaluationId+") and jobType ("+jobType+") must be set");
+        }
+        if (! queryDao.getScheduledJobs(evaluationId, jobType).isEmpty()) {
+            // the job was rescheduled into the schedule table after the upgrade so that one is run instead
+            log.info("Skipping the scheduler invocation for evaluation ("+evaluationId+") and jobType ("+jobType+"), "
+                    + "it is replaced by the job in the evaluation job schedule");
+            return;
+        }
+        jobAction(evaluationId, jobType);
+    }
+
+    public int migrateLegacyJobs() {
+        EvalScheduledJob[] legacyJobs = commonLogic.findAllScheduledJobs();
+        int migrated = 0;
+        for (EvalScheduledJob legacyJob : legacyJobs) {
+            if (legacyJob.evaluationId == null || legacyJob.jobType == null || legacyJob.date == null
+                    || ! evaluationService.checkEvaluationExists(legacyJob.evaluationId)) {
+                continue;
+            }
+            if (queryDao.getScheduledJobs(legacyJob.evaluationId, legacyJob.jobType).isEmpty()) {
+                // jobs which were due while the server was down are claimed in the next timer run
+                scheduleJob(legacyJob.evaluationId, legacyJob.date, legacyJob.jobType);
+                migrated++;
+            }
+        }
+        // the jobs are in the schedule before the invocations go so an invocation which still fires is skipped by legacyJobAction
+        for (EvalScheduledJob legacyJob : legacyJobs) {
+            try {
+                commonLogic.deleteScheduledJob(legacyJob.uuid);
+            } catch (RuntimeException e) {
+                log.warn("Could not remove the old scheduler invocation (" + legacyJob + "), it will be skipped when it runs: " + e);
+            }
+        }
+        log.info("Moved " + migrated + " of the " + legacyJobs.length + " jobs in the Sakai scheduler into the evaluation job schedule");
+        return migrated;
+    }
+
     // PRIVATE METHODS
 
 	/**
@@ -382,10 +467,7 @@ public class EvalJobLogicImpl implements EvalJobLogic {
                 checkInvocationDate(eval, EvalConstants.JOB_TYPE_VIEWABLE_INSTRUCTORS, eval.getInstructorsDate());
             } else {
                 // not allowed so remove the job
-                EvalScheduledJob[] jobs = commonLogic.findScheduledJobs(eval.getId(), EvalConstants.JOB_TYPE_VIEWABLE_INSTRUCTORS);
-                for (EvalScheduledJob evalScheduledJob : jobs) {
-                    commonLogic.deleteScheduledJob(evalScheduledJob.uuid);               
-                }
+                deleteInvocation(eval.getId(), EvalConstants.JOB_TYPE_VIEWABLE_INSTRUCTORS);
             }
 
             // make sure scheduleView By Students job invocation start date matches EvalEvaluation student's date
@@ -393,10 +475,7 @@ public class EvalJobLogicImpl implements EvalJobLogic {
                 checkInvocationDate(eval, EvalConstants.JOB_TYPE_VIEWABLE_STUDENTS, eval.getStudentsDate());
             } else {
                 // not allowed so remove the job
-                EvalScheduledJob[] jobs = commonLogic.findScheduledJobs(eval.getId(), EvalConstants.JOB_TYPE_VIEWABLE_STUDENTS);
-                for (EvalScheduledJob evalScheduledJob : jobs) {
-                    commonLogic.deleteScheduledJob(evalScheduledJob.uuid);               
-                }            
+                deleteInvocation(eval.getId(), EvalConstants.JOB_TYPE_VIEWABLE_STUDENTS);
             }
             // do not sync assignments if new state is closed
             syncGroupAssignments = false;
@@ -412,7 +491,7 @@ public class EvalJobLogicImpl implements EvalJobLogic {
     }
 
     /**
-     * Delete the EvalScheduledInvocation identified by EvalEvaluation id and jobType, if found
+     * Delete the scheduled job identified by EvalEvaluation id and jobType, if found
      * 
      * @param evaluationId
      * @param jobType the job type from constants
@@ -421,11 +500,7 @@ public class EvalJobLogicImpl implements EvalJobLogic {
         if (evaluationId == null || jobType == null) {
             throw new IllegalArgumentException("Invalid call to deleteInvocation, cannot have null evalId or jobType");
         }
-        EvalScheduledJob[] jobs = commonLogic.findScheduledJobs(evaluationId, jobType);
-        for( EvalScheduledJob job : jobs )
-        {
-            commonLogic.deleteScheduledJob( job.uuid );
-        }
+        queryDao.deleteScheduledJobs(evaluationId, jobType);
     }
 
     /**
@@ -463,35 +538,25 @@ public class EvalJobLogicImpl implements EvalJobLogic {
             return;
 
         // get the jobs for this eval
-        EvalScheduledJob[] jobs = commonLogic.findScheduledJobs(eval.getId(), jobType);
+        List<EvalJobSchedule> jobs = queryDao.getScheduledJobs(eval.getId(), jobType);
 
-        if (jobs.length == 0) {
+        if (jobs.isEmpty()) {
             // no invocation exists yet for this jobType (e.g. the normal state cascade was
             // skipped by an early manual close) -- create one so the eval and its schedule
             // stay in sync instead of silently never notifying anyone
-            String newJobId = commonLogic.createScheduledJob(correctDate, eval.getId(), jobType);
-            log.debug("New invocation: jobId={}, date={}, evalId={}, type={}", newJobId, correctDate, eval.getId(), jobType);
+            scheduleJob(eval.getId(), correctDate, jobType);
         } else {
-            // we expect one delayed invocation matching componentId and opaqueContext so remove any extras
-            cleanupExtraJobs(jobs);
-
-            EvalScheduledJob job = jobs[0];
+            EvalJobSchedule job = jobs.get(0);
 
             // if the dates differ
-            if (job.date.compareTo(correctDate) != 0) {
-                // remove the old invocation
-                commonLogic.deleteScheduledJob(job.uuid);
-                if (log.isDebugEnabled()) {
-                    log.debug("EvalJobLogicImpl.checkInvocationDate remove the old invocation "
-                            + job.uuid + "," + job.contextId + "," + job.date);
-                }
-
-                // and schedule a new invocation
-                String newJobId = commonLogic.createScheduledJob(correctDate, eval.getId(), jobType);
+            if (job.getFireDate().compareTo(correctDate) != 0) {
                 if (log.isDebugEnabled()) {
-                    log.debug("EvalJobLogicImpl.checkInvocationDate and schedule a new invocation: "
-                            + newJobId + ", date=" + correctDate + "," + eval.getId() + "," + jobType + ")");
+                    log.debug("EvalJobLogicImpl.checkInvocationDate move the job "
+                            + job.getId() + " from " + job.getFireDate() + " to " + correctDate
+                            + "," + eval.getId() + "," + jobType + ")");
                 }
+                // move the job to the new date
+                scheduleJob(eval.getId(), correctDate, jobType);
 
                 // the due date was changed, so reminder might need to be removed
                 if (EvalConstants.JOB_TYPE_DUE.equals(jobType)) {
@@ -507,13 +572,9 @@ public class EvalJobLogicImpl implements EvalJobLogic {
      * 
      * @param jobs
      */
-    private void cleanupExtraJobs(EvalScheduledJob[] jobs) {
-        if (jobs.length > 1) {
-            for (int i = 0; i < jobs.length; i++) {
-                if (i > 0) {
-                    commonLogic.deleteScheduledJob(jobs[i].uuid);
-                }
-            }
+    private void cleanupExtraJobs(List<EvalJobSchedule> jobs) {
+        for (int i = 1; i < jobs.size(); i++) {
+            queryDao.deleteScheduledJob(jobs.get(i));
         }
     }
 
@@ -527,26 +588,26 @@ public class EvalJobLogicImpl implements EvalJobLogic {
     protected void fixReminder(Long evaluationId) {
         EvalEvaluation eval = evaluationService.getEvaluationById(evaluationId);
 
-        EvalScheduledJob[] jobs = commonLogic.findScheduledJobs(evaluationId, EvalConstants.JOB_TYPE_REMINDER);
-        if (jobs.length > 0) {
+        List<EvalJobSchedule> jobs = queryDao.getScheduledJobs(evaluationId, EvalConstants.JOB_TYPE_REMINDER);
+        if (! jobs.isEmpty()) {
             cleanupExtraJobs(jobs);
-            EvalScheduledJob job = jobs[0];
+            EvalJobSchedule job = jobs.get(0);
 
-            Date reminderAt = job.date;
+            Date reminderAt = job.getFireDate();
             int reminderDays = eval.getReminderDaysInt();
             if (reminderDays == 0 
                     || reminderAt.after(eval.getSafeDueDate())) {
                 // remove reminder
-                commonLogic.deleteScheduledJob(job.uuid);
+                queryDao.deleteScheduledJob(job);
                 if (log.isDebugEnabled()) {
                     log.debug("EvalJobLogicImpl.fixReminders remove reminder after the due date "
-                            + job.uuid + "," + job.contextId + "," + job.date);
+                            + job.getId() + "," + job.getEvaluationId() + "," + job.getFireDate());
                 }
             } else {
                 // 24 hour special case and normal case (we just trash the existing job and remake it to be safe)
                 if (eval.getDueDate() != null) {
                     // delete the existing job
-                    commonLogic.deleteScheduledJob(job.uuid);
+                    queryDao.deleteScheduledJob(job);
                     // schedule a new one
                     scheduleReminder(evaluationId);
                 }
@@ -559,7 +620,7 @@ public class EvalJobLogicImpl implements EvalJobLogic {
     }
 
     /**
-     * Remove the EvalScheduledInvocation for an eval reminder,
+     * Remove the scheduled job for an eval reminder,
      * this will remove any scheduled reminder jobs for the given evaluation id
      * 
      * @param evaluationId the EvalEvaluation id
@@ -577,10 +638,10 @@ public class EvalJobLogicImpl implements EvalJobLogic {
     }
 
     /**
-     * Schedule a job using the ScheduledInvocationManager.</br> "When" is specified by runDate,
-     * "what" by componentId, and "what to do" by opaqueContext. OpaqueContext contains an
-     * EvalEvaluationId and a jobType from EvalConstants, which is used to keep track of pending jobs
-     * and reschedule or remove jobs when necessary.
+     * Schedule a job in the evaluation job schedule.</br> "When" is specified by runDate and
+     * "what to do" by the EvalEvaluationId and a jobType from EvalConstants, which is used to keep track
+     * of pending jobs and reschedule or remove jobs when necessary. There is only one job of each type
+     * for an evaluation so an existing job of this type is moved to the new date.
      * 
      * @param evaluationId
      *           the id of an EvalEvaluation
@@ -599,16 +660,28 @@ public class EvalJobLogicImpl implements EvalJobLogic {
             log.debug("EvalJobLogicImpl.scheduleJob(" + evaluationId + "," + runDate + "," + jobType + ")");
         }
 
-        String newJobId = commonLogic.createScheduledJob(runDate, evaluationId, jobType);
+        List<EvalJobSchedule> jobs = queryDao.getScheduledJobs(evaluationId, jobType);
+        EvalJobSchedule job;
+        if (jobs.isEmpty()) {
+            job = new EvalJobSchedule(evaluationId, jobType, runDate);
+        } else {
+            cleanupExtraJobs(jobs);
+            job = jobs.get(0);
+            job.setFireDate(runDate);
+            // a job moved while it is running (e.g. the next reminder) is a new job and must not be completed with the old one
+            job.setClaimedBy(null);
+            job.setClaimedAt(null);
+        }
+        queryDao.saveScheduledJob(job);
 
         if (log.isDebugEnabled()) {
-            log.debug("EvalJobLogicImpl.scheduleJob scheduledInvocationManager.createDelayedInvocation("
-                    + runDate + "," + evaluationId + "," + jobType + "), new jobid = " + newJobId);
+            log.debug("EvalJobLogicImpl.scheduleJob saved job ("
+                    + runDate + "," + evaluationId + "," + jobType + "), jobid = " + job.getId());
         }
     }
 
     /**
-     * Schedule reminders to be run under the ScheduledInvocationManager.</br> If under these
+     * Schedule reminders to be run from the evaluation job schedule.</br> If under these
      * conditions there is time to send a reminder before the due date, schedule one.
      * <ul>
      * <li>Schedule a reminder, if necessary (i.e., one is not already scheduled for another group,
@@ -641,12 +714,12 @@ public class EvalJobLogicImpl implements EvalJobLogic {
 
         if ( scheduleAt != 0 
                 && EvalConstants.EVALUATION_STATE_ACTIVE.equals(state) ) {
-            commonLogic.createScheduledJob(new Date(scheduleAt), evaluationId, EvalConstants.JOB_TYPE_REMINDER);
+            scheduleJob(evaluationId, new Date(scheduleAt), EvalConstants.JOB_TYPE_REMINDER);
             log.info("Scheduling a reminder ("+new Date(scheduleAt)+") for the evaluation ("+eval.getTitle()+") ["+evaluationId+"]");
 
             if (log.isDebugEnabled()) {
                 log.debug("EvalJobLogicImpl.scheduleReminders(" + evaluationId
-                        + ") - scheduledInvocationManager.createDelayedInvocation( "
+                        + ") - scheduleJob( "
                         + new Date(scheduleAt) + "," + evaluationId + "," + EvalConstants.JOB_TYPE_REMINDER);
             }
         }
@@ -713,11 +786,13 @@ public class EvalJobLogicImpl implements EvalJobLogic {
      * 
      * @param evalId
      *           the EvalEvaluation id
+     * @param runId
+     *           [OPTIONAL] the run of the job which is sending the email
      */
-    protected void sendAvailableEmail(Long evalId) {
+    protected void sendAvailableEmail(Long evalId, String runId) {
         // For now, we always want to include the evaluatees in the evaluationSetupService
         boolean includeEvaluatees = true;
-        String[] sentMessages = emails.sendEvalAvailableNotifications(evalId, includeEvaluatees);
+        String[] sentMessages = emails.sendEvalAvailableNotifications(evalId, includeEvaluatees, runId);
         if (log.isDebugEnabled())
         {
             log.debug("EvalJobLogicImpl.sendAvailableEmail(" + evalId + ")" + " sentMessages: " + ArrayUtils.arrayToString(sentMessages));
@@ -742,18 +817,19 @@ public class EvalJobLogicImpl implements EvalJobLogic {
      * Send a reminder that an evaluation is available to those who have not responded
      * 
      * @param evaluationId the EvalEvaluation id
+     * @param runId [OPTIONAL] the run of the job which is sending the email
      */
-    protected void sendReminderEmail(Long evaluationId) {
+    protected void sendReminderEmail(Long evaluationId, String runId) {
         EvalEvaluation eval = getEvaluationOrFail(evaluationId);
         if (eval.getState().equals(EvalConstants.EVALUATION_STATE_ACTIVE)
                 && eval.getReminderDaysInt() != 0) {
-            String[] sentMessages = emails.sendEvalReminderNotifications(evaluationId, EvalConstants.EVAL_INCLUDE_NONTAKERS);
+            String[] sentMessages = emails.sendEvalReminderNotifications(evaluationId, EvalConstants.EVAL_INCLUDE_NONTAKERS, runId);
             if (log.isDebugEnabled()) {
                 log.debug("sendReminderEmail(" + evaluationId + ")" + " sentMessages: " + ArrayUtils.arrayToString(sentMessages));
             }
             boolean saveWithoutSubmit = (Boolean) settings.get(EvalSettings.STUDENT_SAVE_WITHOUT_SUBMIT);
             if (saveWithoutSubmit) {
-                String[] sentMessagesInProgress = emails.sendEvalReminderNotifications(evaluationId, EvalConstants.EVAL_INCLUDE_IN_PROGRESS);
+                String[] sentMessagesInProgress = emails.sendEvalReminderNotifications(evaluationId, EvalConstants.EVAL_INCLUDE_IN_PROGRESS, runId);
                 if (log.isDebugEnabled()) {
                     log.debug("sendReminderEmail(" + evaluationId + ")" + " sentMessagesInProgress: " + ArrayUtils.arrayToString(sentMessagesInProgress));
                 }
@@ -23,7 +23,8 @@ import lombok.extern.slf4j.Slf4j;
 
 /**
  * This class simply calls a method in EvalJobLogic 
- * when it is run by the ScheduledInvocationManager.
+ * when it is run by the ScheduledInvocationManager,
+ * new jobs are kept in the evaluation job schedule so this only runs the ones created before that
  * 
  * @author rwellis
  * @author Aaron Zeckoski (aaron@caret.cam.ac.uk) - fixed and simplified
@@ -60,8 +61,8 @@ public class EvalScheduledInvocationImpl implements EvalScheduledInvocation {
             throw new NullPointerException("EvalScheduledInvocationImpl.execute: both evaluationId ("+evalId+") and jobType ("+jobType+") must be set, opaqueContext=" + opaqueContext);
         }
 
-        // call method to fix state, send email and/or schedule a job
-        evalJobLogic.jobAction(evalId, jobType);
+        // call method to fix state, send email and/or schedule a job (unless it was moved to the job schedule)
+        evalJobLogic.legacyJobAction(evalId, jobType);
     }
 }
 
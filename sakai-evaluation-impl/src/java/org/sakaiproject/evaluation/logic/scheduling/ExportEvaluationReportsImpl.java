@@ -17,18 +17,37 @@
  */
 package org.sakaiproject.evaluation.logic.scheduling;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.evaluation.dao.EvalDaoInvoker;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.logic.EvalLockManager;
 import org.sakaiproject.evaluation.logic.ReportingPermissions;
@@ -41,12 +60,30 @@ import org.sakaiproject.tool.api.SessionManager;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * Job to export evaluation reports for a term 
+ * Job to export evaluation reports for a term<br/>
+ * The evaluations are exported in parallel (each in its own transaction and Sakai session), all the formats
+ * for an evaluation are built together so the structures and counts are only loaded once,
+ * each report is written to a temp file and moved into place when complete and a manifest
+ * listing every report (and any failures) is written for each run
  *
  */
 @Slf4j
 public class ExportEvaluationReportsImpl implements ExportEvaluationReports {
 
+    /**
+     * The number of evaluations to export at the same time (default {@link #DEFAULT_EXPORT_THREADS})
+     */
+    public static final String EXPORT_THREADS_PROPERTY = "evaluation.exportjob.threads";
+    public static final int DEFAULT_EXPORT_THREADS = 4;
+    /**
+     * The comma separated report formats to export (csv, xls, pdf), the job property overrides this
+     */
+    public static final String EXPORT_FORMATS_PROPERTY = "evaluation.exportjob.formats";
+    public static final String DEFAULT_EXPORT_FORMATS = "csv,pdf";
+
+    private static final String STATUS_OK = "OK";
+    private static final String STATUS_FAILED = "FAILED";
+    private static final String STATUS_SKIPPED = "SKIPPED";
 
     private EvalEvaluationService evaluationService;
     public void setEvaluationService(EvalEvaluationService evaluationService) {
@@ -78,6 +115,11 @@ public class ExportEvaluationReportsImpl implements ExportEvaluationReports {
     public void setReportingPermissions(ReportingPermissions perms) {
         this.reportingPermissions = perms;
     }
+
+    private EvalDaoInvoker daoInvoker;
+    public void setDaoInvoker(EvalDaoInvoker daoInvoker) {
+        this.daoInvoker = daoInvoker;
+    }
     
 
 	/*
@@ -91,8 +133,18 @@ public class ExportEvaluationReportsImpl implements ExportEvaluationReports {
 			session.setUserEid("admin");
 			session.setUserId("admin");
 			log.debug("ExportEvaluationReports.execute()");
-			String termId = context.getMergedJobDataMap().getString("term.id");
-			Boolean mergeGroups = context.getMergedJobDataMap().getBoolean("merge.groups");
+			JobDataMap jobData = context.getMergedJobDataMap();
+			String termId = jobData.getString("term.id");
+			boolean mergeGroups = jobData.getBoolean("merge.groups");
+			String formats = jobData.getString("report.formats");
+			if (formats == null || formats.trim().isEmpty()) {
+				formats = serverConfigurationService.getString(EXPORT_FORMATS_PROPERTY, DEFAULT_EXPORT_FORMATS);
+			}
+			Map<String, String> exportTypes = getExportTypes(formats);
+			if (exportTypes.isEmpty()) {
+				log.warn("No known report formats in (" + formats + "), use csv, xls or pdf. Job aborting");
+				return;
+			}
 			List<EvalEvaluation> evaluations = evaluationService.getEvaluationsByTermId(termId);
 			String reportPath = serverConfigurationService.getString("evaluation.exportjob.outputlocation");
 			if (reportPath == null) {
@@ -106,77 +158,211 @@ public class ExportEvaluationReportsImpl implements ExportEvaluationReports {
 			}
 			
 			log.info("Evaluation query returned" + evaluations.size() + " results to export for " + termId);
-			
+			if (evaluations.isEmpty()) {
+				return;
+			}
 
-			//Maybe make a termId folder for these to go in?
-			for (EvalEvaluation evaluation: evaluations) {
-				OutputStream outputStream = null;
-				try {
-					String [] evalGroupIds;
-					evalGroupIds = reportingPermissions.getResultsViewableEvalGroupIdsForCurrentUser(evaluation).toArray(new String[] {});
-					
-					//Make the term directories structure
-					String dirName = reportPath + "/" + evaluation.getTermId();
-					new File(dirName).mkdirs();
-					String addDate = new SimpleDateFormat("yyyy-MM-dd_hh-mm-ss").format(new Date());
-					//Clean up non-alpha characters from title
-					String evaluationTitle = evaluation.getTitle();
-					evaluationTitle = evaluationTitle.replaceAll("\\W+","_");
-
-					/* This is where merged and non-merged groups will differ */
-					if (mergeGroups == true) {
-						String outputName = dirName + "/" + evaluationTitle + "_" + addDate;
-						log.info("Writing reports to a basename of "+ outputName);
-						outputStream = new FileOutputStream(outputName+".csv", false);
-						evaluationService.exportReport(evaluation, evalGroupIds, null, outputStream, EvalEvaluationService.CSV_RESULTS_REPORT);
-						outputStream.close();
-						outputStream = new FileOutputStream(outputName+".pdf",false);
-						evaluationService.exportReport(evaluation, evalGroupIds, null, outputStream, EvalEvaluationService.PDF_RESULTS_REPORT);
-					}
-					else {
-						//Export each group in it's own file
-						for (String groupId: evalGroupIds) {
-							Group group = siteService.findGroup(groupId);		
-							String groupTitle = groupId;
-							//If it's not null the group exists in the system, so look up the title
-							if (group != null) {
-								groupTitle = group.getTitle();
-							}
-							groupTitle = groupTitle.replaceAll("\\W+","_");
-							String outputName = dirName + "/" + evaluationTitle + "_" + groupTitle + "_" + addDate;
-							log.info("Writing reports to a basename of "+ outputName);
-							outputStream = new FileOutputStream(outputName+".csv", false);
-							evaluationService.exportReport(evaluation, new String[] {groupId}, null, outputStream, EvalEvaluationService.CSV_RESULTS_REPORT);
-							outputStream.close();
-							outputStream = new FileOutputStream(outputName+".pdf",false);
-							evaluationService.exportReport(evaluation, new String[] {groupId}, null, outputStream, EvalEvaluationService.PDF_RESULTS_REPORT);
+			//Make the term directories structure
+			File dir = new File(reportPath, String.valueOf(termId));
+			dir.mkdirs();
+			String addDate = new SimpleDateFormat("yyyy-MM-dd_hh-mm-ss").format(new Date());
+
+			int threads = Math.max(1, Math.min(evaluations.size(),
+					serverConfigurationService.getInt(EXPORT_THREADS_PROPERTY, DEFAULT_EXPORT_THREADS)));
+			AtomicInteger threadCount = new AtomicInteger();
+			ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+				Thread thread = new Thread(r, "eval-export-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			List<String[]> manifest = Collections.synchronizedList(new ArrayList<>());
+			try {
+				List<Future<?>> exports = new ArrayList<>();
+				for (EvalEvaluation evaluation : evaluations) {
+					Long evaluationId = evaluation.getId();
+					exports.add(executor.submit(() -> exportEvaluation(evaluationId, exportTypes, mergeGroups, dir, addDate, manifest)));
+				}
+				for (Future<?> export : exports) {
+					export.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.warn("Export interrupted, only some of the reports for " + termId + " were written");
+			} catch (ExecutionException e) {
+				log.warn("Unknown exception " + e.getCause() + " found exporting reports for " + termId, e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+			writeManifest(dir, addDate, manifest);
+			log.info("Exported " + manifest.size() + " reports for " + evaluations.size() + " evaluations in " + termId
+					+ " to " + dir);
+		} 
+		finally {
+			session.clear();
+		}
+	}
+
+	/**
+	 * Exports all the reports for one evaluation in its own admin session and transaction,
+	 * a failure only stops the reports for this evaluation
+	 */
+	private void exportEvaluation(Long evaluationId, Map<String, String> exportTypes, boolean mergeGroups,
+			File dir, String addDate, List<String[]> manifest) {
+		Session session = sessionManager.startSession();
+		sessionManager.setCurrentSession(session);
+		session.setUserEid("admin");
+		session.setUserId("admin");
+		// the evaluation and group titles for the manifest if the export fails
+		String[] titles = new String[] {String.valueOf(evaluationId), ""};
+		try {
+			daoInvoker.invokeTransactionalAccess(() -> {
+				EvalEvaluation evaluation = evaluationService.getEvaluationById(evaluationId);
+				if (evaluation == null) {
+					throw new IllegalArgumentException("Could not find evaluation with id: " + evaluationId);
+				}
+				titles[0] = evaluation.getTitle();
+				//Clean up non-alpha characters from title
+				String evaluationTitle = evaluation.getTitle().replaceAll("\\W+","_");
+				String[] evalGroupIds = reportingPermissions.getResultsViewableEvalGroupIdsForCurrentUser(evaluation).toArray(new String[] {});
+
+				/* This is where merged and non-merged groups will differ */
+				if (mergeGroups) {
+					writeReports(evaluation, evalGroupIds, exportTypes, dir, evaluationTitle + "_" + addDate, "", manifest);
+				}
+				else {
+					//Export each group in it's own file
+					for (String groupId: evalGroupIds) {
+						titles[1] = groupId;
+						Group group = siteService.findGroup(groupId);
+						String groupTitle = groupId;
+						//If it's not null the group exists in the system, so look up the title
+						if (group != null) {
+							groupTitle = group.getTitle();
 						}
+						groupTitle = groupTitle.replaceAll("\\W+","_");
+						String outputName = evaluationTitle + "_" + groupTitle + "_" + addDate;
+						writeReports(evaluation, new String[] {groupId}, exportTypes, dir, outputName, groupId, manifest);
 					}
 				}
-				catch (FileNotFoundException e) {
-					log.warn("Error writing to file " + outputStream + ". Job aborting");
-					return;
+			});
+		}
+		catch (SecurityException e) {
+			log.info("Security exception thrown for evaluation (" + evaluationId + ") skipping");
+			manifest.add(new String[] {String.valueOf(evaluationId), titles[0], titles[1], "", "", "", STATUS_SKIPPED, e.getMessage()});
+		}
+		catch (Exception e) {
+			log.warn("Exception exporting the reports for evaluation (" + evaluationId + "): " + e, e);
+			manifest.add(new String[] {String.valueOf(evaluationId), titles[0], titles[1], "", "", "", STATUS_FAILED, e.toString()});
+		}
+		finally {
+			session.invalidate();
+			sessionManager.setCurrentSession(null);
+		}
+	}
+
+	/**
+	 * Builds all the report formats for the groups together and then moves each complete report
+	 * from its temp file to the final name, nothing is left under the final name if the export fails
+	 */
+	private void writeReports(EvalEvaluation evaluation, String[] groupIds, Map<String, String> exportTypes,
+			File dir, String outputName, String groupId, List<String[]> manifest) {
+		log.info("Writing reports to a basename of "+ new File(dir, outputName));
+		Map<String, File> tempFiles = new LinkedHashMap<>();
+		Map<String, OutputStream> outputStreams = new LinkedHashMap<>();
+		try {
+			for (String exportType : exportTypes.keySet()) {
+				File tempFile = File.createTempFile(outputName + "_", ".tmp", dir);
+				tempFiles.put(exportType, tempFile);
+				outputStreams.put(exportType, new BufferedOutputStream(new FileOutputStream(tempFile)));
+			}
+			evaluationService.exportReports(evaluation, groupIds, outputStreams);
+			for (OutputStream outputStream : outputStreams.values()) {
+				outputStream.close();
+			}
+			for (Entry<String, File> entry : tempFiles.entrySet()) {
+				File target = new File(dir, outputName + "." + exportTypes.get(entry.getKey()));
+				moveIntoPlace(entry.getValue(), target);
+				manifest.add(new String[] {String.valueOf(evaluation.getId()), evaluation.getTitle(), groupId,
+						entry.getKey(), target.getName(), String.valueOf(target.length()), STATUS_OK, ""});
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error writing the reports to " + new File(dir, outputName), e);
+		} finally {
+			for (OutputStream outputStream : outputStreams.values()) {
+				try {
+					outputStream.close();
 				} catch (IOException e) {
-					log.warn("Error writing to file " + outputStream + ". Job aborting");
-					return;
-				} 
-				catch (SecurityException e) {
-					log.info("Security exception thrown for evaluation (" + evaluation.getId() + ") skipping");
+					// already closed or failed, the temp file is removed below
 				}
-				catch (Exception e) {
-					log.warn("Unknown exception " + e.getMessage() + " found. Job aborting");
-					return;
+			}
+			for (File tempFile : tempFiles.values()) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes the manifest of all the reports produced (and the failures) in this run
+	 */
+	private void writeManifest(File dir, String addDate, List<String[]> manifest) {
+		File tempFile = null;
+		try {
+			tempFile = File.createTempFile("manifest_" + addDate + "_", ".tmp", dir);
+			try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+				writer.write("evaluationId\tevaluationTitle\tgroupId\treportType\tfile\tbytes\tstatus\tmessage\n");
+				synchronized (manifest) {
+					for (String[] row : manifest) {
+						for (int i = 0; i < row.length; i++) {
+							if (i > 0) {
+								writer.write('\t');
+							}
+							writer.write(row[i] == null ? "" : row[i].replaceAll("[\\t\\r\\n]+", " "));
+						}
+						writer.write('\n');
+					}
 				}
+			}
+			moveIntoPlace(tempFile, new File(dir, "manifest_" + addDate + ".txt"));
+		} catch (IOException e) {
+			log.warn("Error writing the export manifest to " + dir + ": " + e);
+		} finally {
+			if (tempFile != null) {
+				tempFile.delete();
+			}
+		}
+	}
 
+	private static void moveIntoPlace(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @param formats comma separated formats (csv, xls, pdf)
+	 * @return the map of export type -> file extension in the order given
+	 */
+	private static Map<String, String> getExportTypes(String formats) {
+		Map<String, String> exportTypes = new LinkedHashMap<>();
+		for (String format : formats.split(",")) {
+			format = format.trim().toLowerCase();
+			if ("csv".equals(format)) {
+				exportTypes.put(EvalEvaluationService.CSV_RESULTS_REPORT, format);
+			} else if ("xls".equals(format)) {
+				exportTypes.put(EvalEvaluationService.XLS_RESULTS_REPORT, "xlsx");
+			} else if ("pdf".equals(format)) {
+				exportTypes.put(EvalEvaluationService.PDF_RESULTS_REPORT, format);
+			} else if (! format.isEmpty()) {
+				log.warn("Unknown report format (" + format + ") ignored");
 			}
-		} 
-		finally {
-			session.clear();
 		}
+		return exportTypes;
 	}
 	
 	public void init() {
 		log.debug("init()");
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.scheduling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.dao.EvaluationAssignmentDao;
+import org.sakaiproject.evaluation.logic.EvalEvaluationSetupService;
+import org.sakaiproject.evaluation.logic.EvalLockManager;
+import org.sakaiproject.evaluation.logic.EvalSettings;
+import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
+import org.sakaiproject.evaluation.model.EvalAssignGroup;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.site.api.SiteService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Synchronizes the user assignments when the Sakai membership of a site (or a group in it) changes,
+ * the membership events are queued per site and coalesced so a site which changes many times
+ * is only synchronized once per run, and only the (evaluation, group) pairs assigned to the
+ * changed sites are synchronized<br/>
+ * The events from all servers are seen on every server, so the queue is only processed by the server
+ * which is set in {@link EvalSettings#SYNC_SERVER} (or the one holding the lock when that is not set)
+ * and the other servers just drop their copy of the queue<br/>
+ * Groups which are not in a Sakai site (e.g. from an {@link org.sakaiproject.evaluation.providers.EvalGroupsProvider})
+ * have no change events, those are still handled by the scheduled {@link GroupMembershipSync} job
+ */
+@Slf4j
+public class GroupMembershipChangeSync {
+
+    public static final String LOCK_GROUP_MEMBERSHIP_CHANGE_SYNC = "LOCK_GROUP_MEMBERSHIP_CHANGE_SYNC";
+
+    private static final String REALM_PREFIX = "/realm/";
+
+    /**
+     * the Sakai events which indicate that the members of a site or group changed
+     */
+    private static final Set<String> MEMBERSHIP_EVENTS = new HashSet<>(Arrays.asList(
+            AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP,
+            AuthzGroupService.SECURE_UPDATE_OWN_AUTHZ_GROUP,
+            AuthzGroupService.SECURE_JOIN_AUTHZ_GROUP,
+            AuthzGroupService.SECURE_UNJOIN_AUTHZ_GROUP,
+            SiteService.SECURE_UPDATE_SITE,
+            SiteService.SECURE_UPDATE_SITE_MEMBERSHIP,
+            SiteService.SECURE_UPDATE_GROUP_MEMBERSHIP));
+
+    /**
+     * the evaluations in these states have their user assignments kept up to date
+     */
+    private static final String[] SYNC_STATES = {
+            EvalConstants.EVALUATION_STATE_INQUEUE,
+            EvalConstants.EVALUATION_STATE_ACTIVE,
+            EvalConstants.EVALUATION_STATE_GRACEPERIOD};
+
+    private EvaluationAssignmentDao assignmentDao;
+    public void setAssignmentDao(EvaluationAssignmentDao assignmentDao) {
+        this.assignmentDao = assignmentDao;
+    }
+
+    private EvalEvaluationSetupService evaluationSetupService;
+    public void setEvaluationSetupService(EvalEvaluationSetupService evaluationSetupService) {
+        this.evaluationSetupService = evaluationSetupService;
+    }
+
+    private EvalExternalLogic externalLogic;
+    public void setExternalLogic(EvalExternalLogic externalLogic) {
+        this.externalLogic = externalLogic;
+    }
+
+    private EvalSettings evalSettings;
+    public void setEvalSettings(EvalSettings settings) {
+        this.evalSettings = settings;
+    }
+
+    private EvalLockManager lockManager;
+    public void setEvalLockManager(EvalLockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    private EventTrackingService eventTrackingService;
+    public void setEventTrackingService(EventTrackingService eventTrackingService) {
+        this.eventTrackingService = eventTrackingService;
+    }
+
+    private int intervalSeconds = 60;
+    /**
+     * @param intervalSeconds how often the queued changes are synchronized, changes within this time are coalesced
+     */
+    public void setIntervalSeconds(int intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    private int batchSize = 100;
+    /**
+     * @param batchSize the number of changed sites to look up assigned groups for in one query
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * the site eval group ids (/site/siteId) which changed since the last run
+     */
+    private final Set<String> changedEvalGroupIds = ConcurrentHashMap.newKeySet();
+
+    private Observer membershipObserver;
+    private Timer timer;
+
+    public void init() {
+        log.debug("init()");
+        if (eventTrackingService == null && externalLogic != null) {
+            eventTrackingService = externalLogic.getBean(EventTrackingService.class);
+        }
+        if (eventTrackingService == null) {
+            log.info("No event tracking available, user assignments will only be synchronized by the group membership sync job");
+            return;
+        }
+        membershipObserver = new Observer() {
+            @Override
+            public void update(Observable o, Object arg) {
+                if (arg instanceof Event) {
+                    Event event = (Event) arg;
+                    if (MEMBERSHIP_EVENTS.contains(event.getEvent())) {
+                        queueResource(event.getResource());
+                    }
+                }
+            }
+        };
+        eventTrackingService.addObserver(membershipObserver);
+
+        long interval = intervalSeconds * 1000L;
+        TimerTask syncTask = new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    processChanges();
+                } catch (RuntimeException e) {
+                    log.error("Failure while synchronizing the user assignments for changed memberships: " + e.getMessage(), e);
+                }
+            }
+        };
+        timer = new Timer("GroupMembershipChangeSync", true);
+        timer.schedule(syncTask, interval, interval);
+        log.info("Synchronizing user assignments for changed site memberships every " + intervalSeconds + " seconds");
+    }
+
+    public void destroy() {
+        if (eventTrackingService != null && membershipObserver != null) {
+            eventTrackingService.deleteObserver(membershipObserver);
+        }
+        if (timer != null) {
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Queue the site of an event resource (a site, group or realm reference) to be synchronized,
+     * resources which are not in a site are ignored
+     * 
+     * @param resource the event resource
+     */
+    protected void queueResource(String resource) {
+        if (resource == null) {
+            return;
+        }
+        String reference = resource.startsWith(REALM_PREFIX) ? resource.substring(REALM_PREFIX.length()) : resource;
+        if (reference.startsWith(EvalConstants.GROUP_ID_SITE_PREFIX)
+                && reference.length() > EvalConstants.GROUP_ID_SITE_PREFIX.length()) {
+            int end = reference.indexOf('/', EvalConstants.GROUP_ID_SITE_PREFIX.length());
+            // the whole site is synced since a change to the site members also changes the group members
+            changedEvalGroupIds.add(end > 0 ? reference.substring(0, end) : reference);
+        }
+    }
+
+    /**
+     * @return the number of sites waiting to be synchronized
+     */
+    public int getQueueSize() {
+        return changedEvalGroupIds.size();
+    }
+
+    /**
+     * Synchronize the user assignments of the evaluations assigned to the sites (and their groups)
+     * which changed since the last run, this is run by the timer
+     * 
+     * @return the number of (evaluation, group) pairs which were synchronized
+     */
+    public int processChanges() {
+        if (changedEvalGroupIds.isEmpty()) {
+            return 0;
+        }
+        Boolean enabled = (Boolean) evalSettings.get(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_MEMBERSHIP_CHANGE);
+        if (Boolean.FALSE.equals(enabled)) {
+            changedEvalGroupIds.clear();
+            return 0;
+        }
+        String thisServerId = externalLogic.getServerId();
+        if (thisServerId == null) {
+            return 0;
+        }
+        String syncServerId = (String) evalSettings.get(EvalSettings.SYNC_SERVER);
+        if (syncServerId != null && ! syncServerId.trim().equals("") && ! thisServerId.equals(syncServerId)) {
+            // the sync server sees the same events
+            changedEvalGroupIds.clear();
+            return 0;
+        }
+        // the lock is renewed on each run so the same server keeps processing the changes
+        Boolean gotLock = lockManager.obtainLock(LOCK_GROUP_MEMBERSHIP_CHANGE_SYNC, thisServerId, intervalSeconds * 3000L);
+        if (gotLock == null || ! gotLock) {
+            changedEvalGroupIds.clear();
+            return 0;
+        }
+
+        List<String> evalGroupIds = new ArrayList<>(changedEvalGroupIds.size());
+        for (Iterator<String> iterator = changedEvalGroupIds.iterator(); iterator.hasNext();) {
+            evalGroupIds.add(iterator.next());
+            iterator.remove();
+        }
+
+        int synced = 0;
+        int failed = 0;
+        for (int start = 0; start < evalGroupIds.size(); start += batchSize) {
+            List<String> batch = evalGroupIds.subList(start, Math.min(start + batchSize, evalGroupIds.size()));
+            List<EvalAssignGroup> assignGroups = assignmentDao.getAssignGroupsForEvalGroupsInStates(batch, true, SYNC_STATES);
+            for (EvalAssignGroup assignGroup : assignGroups) {
+                try {
+                    evaluationSetupService.synchronizeUserAssignmentsForced(assignGroup.getEvaluation(), assignGroup.getEvalGroupId(), true);
+                    synced++;
+                } catch (RuntimeException e) {
+                    failed++;
+                    log.warn("Unable to sync user assignments for eval (" + assignGroup.getEvaluation().getId()
+                            + ") and group (" + assignGroup.getEvalGroupId() + "): " + e.getMessage());
+                }
+            }
+        }
+        log.info("Synchronized user assignments for " + synced + " assigned groups (" + failed + " failed) in "
+                + evalGroupIds.size() + " changed sites");
+        return synced;
+    }
+
+}
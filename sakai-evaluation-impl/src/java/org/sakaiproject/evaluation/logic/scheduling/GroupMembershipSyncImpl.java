@@ -14,23 +14,52 @@
  */
 package org.sakaiproject.evaluation.logic.scheduling;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.sakaiproject.evaluation.jobmonitor.JobStatusReporter;
+import org.sakaiproject.evaluation.jobmonitor.LoggingJobStatusReporter;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.logic.EvalEvaluationSetupService;
+import org.sakaiproject.evaluation.logic.EvalLockManager;
 import org.sakaiproject.evaluation.logic.EvalSettings;
 import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * GroupMembershipSyncImpl synchronizes the user assignments of all evaluations in the selected states
+ * with the current group memberships.
+ * <br/>
+ * The evaluations are split into one shard per server in the cluster, each shard is leased with an
+ * {@link EvalLockManager} lock so servers which run the job at the same time share the work instead
+ * of repeating it, and the evaluations in a shard are synchronized on a bounded pool of worker threads.
+ * The lock on a shard is released as soon as the shard is finished (so the job can be run again by hand)
+ * and the finished shards are recorded with the {@link JobStatusReporter} and in the job result.
+ * <br/>
+ * Changes to Sakai site memberships are already synchronized as they happen by {@link GroupMembershipChangeSync}
+ * (unless {@link EvalSettings#SYNC_USER_ASSIGNMENTS_ON_MEMBERSHIP_CHANGE} is off), so this job is mostly a
+ * reconciliation of everything else (provided groups, missed events) and can be scheduled to run rarely.
+ */
 @Slf4j
 public class GroupMembershipSyncImpl implements GroupMembershipSync {
-	
+
+    public static final String LOCK_GROUP_MEMBERSHIP_SYNC_SHARD = "LOCK_GROUP_MEMBERSHIP_SYNC_SHARD_";
+    private static final long TWO_HOURS = 2L * 60L * 60L * 1000L;
+    private static final int DEFAULT_WORKER_THREADS = 4;
+
     private EvalEvaluationService evaluationService;
     public void setEvaluationService(EvalEvaluationService evaluationService) {
         this.evaluationService = evaluationService;
@@ -40,7 +69,7 @@ public class GroupMembershipSyncImpl implements GroupMembershipSync {
     public void setEvaluationSetupService(EvalEvaluationSetupService evaluationSetupService) {
         this.evaluationSetupService = evaluationSetupService;
     }
-    
+
     private EvalExternalLogic externalLogic;
     public void setExternalLogic(EvalExternalLogic externalLogic) {
         this.externalLogic = externalLogic;
@@ -51,6 +80,16 @@ public class GroupMembershipSyncImpl implements GroupMembershipSync {
         this.evalSettings = settings;
     }
 
+    private EvalLockManager lockManager;
+    public void setEvalLockManager(EvalLockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    private JobStatusReporter jobStatusReporter;
+    public void setJobStatusReporter(JobStatusReporter jobStatusReporter) {
+        this.jobStatusReporter = jobStatusReporter;
+    }
+
     /*
      * (non-Javadoc)
      * @see org.quartz.Job#execute(org.quartz.JobExecutionContext)
@@ -59,59 +98,181 @@ public class GroupMembershipSyncImpl implements GroupMembershipSync {
 		log.debug("GroupMembershipSync.execute()");
 		String syncServerId = (String) this.evalSettings.get(EvalSettings.SYNC_SERVER);
 		String thisServerId = this.externalLogic.getServerId();
-		if(thisServerId != null && thisServerId.equals(syncServerId)) {
-			JobDetail jobDetail = context.getJobDetail();
-			JobDataMap data = jobDetail.getJobDataMap();
-			String statusStr = (String) data.get(GroupMembershipSync.GROUP_MEMBERSHIP_SYNC_PROPNAME_STATE_LIST);
-			log.info("GroupMembershipSync.execute() starting sync of evals by state: " + statusStr);
-			if(statusStr == null || statusStr.trim().equals("")) {
-				// better throw something?
-			} else {
-				String[] stateList = statusStr.trim().split(" ");
-				
-				log.info("GroupMembershipSync.execute() syncing " + statusStr);
-	
-				for(String state : stateList) {
-					List<EvalEvaluation> evals = evaluationService.getEvaluationsByState(state);
-					int count = evals.size();
-					if(log.isInfoEnabled()) {
-						StringBuilder buf1 = new StringBuilder();
-						buf1.append("GroupMembershipSync.execute() syncing ");
-						buf1.append(count);
-						buf1.append("groups for evals in state: ");
-						buf1.append(state);
-						log.info(buf1.toString());
+		if (thisServerId == null) {
+			return;
+		}
+		if (syncServerId != null && ! syncServerId.trim().equals("") && ! thisServerId.equals(syncServerId)) {
+			log.debug("GroupMembershipSync.execute() skipped, sync is handled by server: " + syncServerId);
+			return;
+		}
+		JobDetail jobDetail = context.getJobDetail();
+		JobDataMap data = jobDetail.getJobDataMap();
+		String statusStr = (String) data.get(GroupMembershipSync.GROUP_MEMBERSHIP_SYNC_PROPNAME_STATE_LIST);
+		log.info("GroupMembershipSync.execute() starting sync of evals by state: " + statusStr);
+		if(statusStr == null || statusStr.trim().equals("")) {
+			log.warn("GroupMembershipSync.execute() no evaluation states to sync, nothing to do");
+			return;
+		}
+		String[] stateList = statusStr.trim().split(" ");
+
+		String jobId = this.jobStatusReporter.reportStarted("GroupMembershipSync");
+		this.jobStatusReporter.reportProgress(jobId, "server-id", thisServerId);
+
+		// an evaluation is only synced once even if it is listed under more than one state
+		Map<Long, EvalEvaluation> evals = new LinkedHashMap<>();
+		for(String state : stateList) {
+			List<EvalEvaluation> stateEvals = evaluationService.getEvaluationsByState(state);
+			if(log.isInfoEnabled()) {
+				StringBuilder buf1 = new StringBuilder();
+				buf1.append("GroupMembershipSync.execute() syncing ");
+				buf1.append(stateEvals.size());
+				buf1.append(" evals in state: ");
+				buf1.append(state);
+				log.info(buf1.toString());
+			}
+			for (EvalEvaluation eval : stateEvals) {
+				evals.put(eval.getId(), eval);
+			}
+		}
+
+		List<List<EvalEvaluation>> shards = makeShards(evals);
+		int threads = getWorkerThreads();
+		Integer reportingInterval = (Integer) this.evalSettings.get(EvalSettings.LOG_PROGRESS_EVERY);
+		if (reportingInterval == null) {
+			reportingInterval = 0;
+		}
+		this.jobStatusReporter.reportProgress(jobId, "starting", evals.size() + " evals in " + shards.size() + " shards, " + threads + " worker threads");
+
+		AtomicInteger synced = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		int shardsProcessed = 0;
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			for (int shard = 0; shard < shards.size(); shard++) {
+				List<EvalEvaluation> shardEvals = shards.get(shard);
+				if (shardEvals.isEmpty()) {
+					continue;
+				}
+				String lockId = LOCK_GROUP_MEMBERSHIP_SYNC_SHARD + shard;
+				Boolean gotLock = lockManager.obtainLock(lockId, thisServerId, TWO_HOURS);
+				if (gotLock == null || ! gotLock) {
+					this.jobStatusReporter.reportProgress(jobId, "shard-skipped", "shard " + shard + " is being synced by another server");
+					continue;
+				}
+				try {
+					List<Future<Boolean>> futures = new ArrayList<>(shardEvals.size());
+					for (EvalEvaluation eval : shardEvals) {
+						futures.add(workers.submit(() -> syncEvaluation(eval)));
 					}
-					for(EvalEvaluation eval : evals) {
-						if(log.isDebugEnabled()) {
-							StringBuilder buf = new StringBuilder();
-							buf.append("====> ");
-							buf.append(state);
-							buf.append("          ==> ");
-							buf.append(eval.getEid());
-							log.debug(buf.toString());
-						}
+					for (Future<Boolean> future : futures) {
 						try {
-							evaluationSetupService.synchronizeUserAssignmentsForced(eval, null, true);
-						} catch(IllegalStateException e) {
-							StringBuilder buf = new StringBuilder();
-							buf.append("Unable to user assignments for eval (");
-							buf.append(eval.getId());
-							buf.append(") due to IllegalStateException: ");
-							buf.append(e.getMessage());
-							log.warn(buf.toString());
-
-							// TODO: should update the state so it is not selected next time ??
+							if (future.get()) {
+								int count = synced.incrementAndGet();
+								if (reportingInterval > 0 && count % reportingInterval == 0) {
+									this.jobStatusReporter.reportProgress(jobId, "synced", count + " of " + evals.size() + " evals");
+								}
+							} else {
+								failed.incrementAndGet();
+							}
+						} catch (ExecutionException e) {
+							failed.incrementAndGet();
+							this.jobStatusReporter.reportError(jobId, false, "sync-error", String.valueOf(e.getCause()));
 						}
 					}
+					shardsProcessed++;
+					this.jobStatusReporter.reportProgress(jobId, "shard-done", "shard " + shard + " synced " + shardEvals.size() + " evals");
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					this.jobStatusReporter.reportError(jobId, true, "interrupted", "sync interrupted in shard " + shard);
+					break;
+				} finally {
+					lockManager.releaseLock(lockId, thisServerId);
 				}
 			}
-			log.info("GroupMembershipSync.execute() done with sync of evals by state: " + statusStr);
+		} finally {
+			workers.shutdownNow();
+		}
+
+		StringBuilder buf = new StringBuilder();
+		buf.append("Synced ");
+		buf.append(synced.get());
+		buf.append(" evals (");
+		buf.append(failed.get());
+		buf.append(" failed) in ");
+		buf.append(shardsProcessed);
+		buf.append(" of ");
+		buf.append(shards.size());
+		buf.append(" shards");
+		context.setResult(buf.toString());
+		this.jobStatusReporter.reportFinished(jobId, false, "finished", buf.toString());
+		log.info("GroupMembershipSync.execute() done with sync of evals by state: " + statusStr + ": " + buf);
+	}
+
+	/**
+	 * Synchronize the user assignments for a single evaluation, runs on a worker thread
+	 *
+	 * @return true if the evaluation was synchronized, false if it could not be
+	 */
+	private boolean syncEvaluation(EvalEvaluation eval) {
+		if(log.isDebugEnabled()) {
+			StringBuilder buf = new StringBuilder();
+			buf.append("====> ");
+			buf.append(eval.getState());
+			buf.append("          ==> ");
+			buf.append(eval.getEid());
+			log.debug(buf.toString());
+		}
+		try {
+			evaluationSetupService.synchronizeUserAssignmentsForced(eval, null, true);
+			return true;
+		} catch(IllegalStateException e) {
+			StringBuilder buf = new StringBuilder();
+			buf.append("Unable to user assignments for eval (");
+			buf.append(eval.getId());
+			buf.append(") due to IllegalStateException: ");
+			buf.append(e.getMessage());
+			log.warn(buf.toString());
+			return false;
 		}
 	}
-	
+
+	/**
+	 * Split the evaluations into one shard per server in the cluster (by evaluation id),
+	 * the shard for a given evaluation is stable between runs as long as the cluster size does not change
+	 *
+	 * @param evals the evaluations to sync keyed by id
+	 * @return the list of shards (some may be empty)
+	 */
+	protected List<List<EvalEvaluation>> makeShards(Map<Long, EvalEvaluation> evals) {
+		int shardCount = 1;
+		List<String> servers = this.externalLogic.getServers();
+		if (servers != null && servers.size() > 1) {
+			shardCount = servers.size();
+		}
+		List<List<EvalEvaluation>> shards = new ArrayList<>(shardCount);
+		for (int i = 0; i < shardCount; i++) {
+			shards.add(new ArrayList<>());
+		}
+		for (Map.Entry<Long, EvalEvaluation> entry : evals.entrySet()) {
+			int shard = (int) Math.floorMod(entry.getKey(), (long) shardCount);
+			shards.get(shard).add(entry.getValue());
+		}
+		return shards;
+	}
+
+	private int getWorkerThreads() {
+		Integer threads = (Integer) this.evalSettings.get(EvalSettings.SYNC_WORKER_THREADS);
+		if (threads == null || threads < 1) {
+			threads = DEFAULT_WORKER_THREADS;
+		}
+		return threads;
+	}
+
 	public void init() {
 		log.debug("init()");
+		if (jobStatusReporter == null) {
+			jobStatusReporter = new LoggingJobStatusReporter();
+		}
 	}
 
 }
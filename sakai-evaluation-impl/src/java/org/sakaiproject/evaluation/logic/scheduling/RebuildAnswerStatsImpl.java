@@ -0,0 +1,94 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.scheduling;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.sakaiproject.evaluation.logic.EvalDeliveryService;
+import org.sakaiproject.evaluation.logic.EvalLockManager;
+import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Job to rebuild the pre-aggregated answer stats which are stale, submissions which find
+ * the stats for their group out of step with the answers and removals of completed responses only mark
+ * the stats for the group as stale (so they stay cheap) and this job rebuilds them, the upgrade script
+ * marks the groups with responses which were saved before the stats existed<br/>
+ * Only the marked groups are read and rebuilt so the job can be scheduled to run often (e.g. every few minutes),
+ * until a group is rebuilt its reports fall back to reading the answers
+ */
+@Slf4j
+public class RebuildAnswerStatsImpl implements RebuildAnswerStats {
+
+    public static final String LOCK_REBUILD_ANSWER_STATS = "LOCK_REBUILD_ANSWER_STATS";
+    private static final long TWO_HOURS = 2L * 60L * 60L * 1000L;
+
+    private EvalDeliveryService deliveryService;
+    public void setDeliveryService(EvalDeliveryService deliveryService) {
+        this.deliveryService = deliveryService;
+    }
+
+    private EvalExternalLogic externalLogic;
+    public void setExternalLogic(EvalExternalLogic externalLogic) {
+        this.externalLogic = externalLogic;
+    }
+
+    private EvalLockManager lockManager;
+    public void setEvalLockManager(EvalLockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.quartz.Job#execute(org.quartz.JobExecutionContext)
+     */
+	public void execute(JobExecutionContext context) throws JobExecutionException {
+		log.debug("RebuildAnswerStats.execute()");
+		String thisServerId = this.externalLogic.getServerId();
+		Boolean gotLock = lockManager.obtainLock(LOCK_REBUILD_ANSWER_STATS, thisServerId, TWO_HOURS);
+		if (gotLock == null || ! gotLock) {
+			log.info("RebuildAnswerStats.execute() skipped, the answer stats are being rebuilt by another server");
+			return;
+		}
+		try {
+			Map<Long, Set<String>> staleGroups = deliveryService.getStaleAnswerStatsGroups();
+			int groups = 0;
+			int rows = 0;
+			for (Map.Entry<Long, Set<String>> entry : staleGroups.entrySet()) {
+				for (String evalGroupId : entry.getValue()) {
+					// each group is rebuilt in its own transaction
+					try {
+						rows += deliveryService.rebuildAnswerStats(entry.getKey(), evalGroupId);
+						groups++;
+					} catch (RuntimeException e) {
+						log.warn("Unable to rebuild answer stats for eval (" + entry.getKey() + ") and group (" + evalGroupId + "): " + e.getMessage());
+					}
+				}
+			}
+			log.info("RebuildAnswerStats.execute() rebuilt " + rows + " answer stats for " + groups + " groups in " + staleGroups.size() + " evals");
+		} finally {
+			lockManager.releaseLock(LOCK_REBUILD_ANSWER_STATS, thisServerId);
+		}
+	}
+
+	public void init() {
+		log.debug("init()");
+	}
+
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.sakaiproject.evaluation.logic.externals.EvalExternalLogic;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * EvalMetrics implementation, the statistics are recorded by the {@link EvalMetricsInterceptor}
+ * which wraps the service and DAO beans, and are exposed through JMX and the eval-metrics entity
+ * <br/>
+ * The mode and sample rate start from the sakai.properties settings
+ * {@value #CONFIG_MODE} (off, sampled or all, default sampled) and
+ * {@value #CONFIG_SAMPLE_RATE} (default {@value #DEFAULT_SAMPLE_RATE}) and can be changed at runtime
+ */
+@Slf4j
+public class EvalMetricsImpl implements EvalMetrics, EvalMetricsMBean {
+
+    public static final String MBEAN_NAME = "org.sakaiproject.evaluation:type=EvalMetrics";
+    public static final String CONFIG_MODE = "evaluation.metrics.mode";
+    public static final String CONFIG_SAMPLE_RATE = "evaluation.metrics.sampleRate";
+    public static final int DEFAULT_SAMPLE_RATE = 16;
+
+    private EvalExternalLogic externalLogic;
+    public void setExternalLogic(EvalExternalLogic externalLogic) {
+        this.externalLogic = externalLogic;
+    }
+
+    private volatile String mode = MODE_SAMPLED;
+    private volatile int sampleRate = DEFAULT_SAMPLE_RATE;
+
+    private final ConcurrentHashMap<String, MethodMetrics> metricsByName = new ConcurrentHashMap<>();
+    /**
+     * avoids building the method name on every call (keyed by target class then method because inherited
+     * methods are separate for each bean), overloaded methods share the metrics for the name
+     */
+    private final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Method, MethodMetrics>> metricsByMethod = new ConcurrentHashMap<>();
+
+    private ObjectName registeredName;
+
+    public void init() {
+        log.debug("init");
+        if (externalLogic != null) {
+            try {
+                setMode(externalLogic.getConfigurationSetting(CONFIG_MODE, MODE_SAMPLED));
+                setSampleRate(externalLogic.getConfigurationSetting(CONFIG_SAMPLE_RATE, DEFAULT_SAMPLE_RATE));
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid metrics configuration, using mode (" + mode + ") and sample rate (" + sampleRate + "): " + e.getMessage());
+            }
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                log.info("Evaluation metrics MBean is already registered as " + MBEAN_NAME + ", this instance will not be exposed over JMX");
+            } else {
+                server.registerMBean(new StandardMBean(this, EvalMetricsMBean.class), name);
+                registeredName = name;
+            }
+        } catch (JMException e) {
+            log.warn("Could not register the evaluation metrics MBean (" + MBEAN_NAME + "): " + e);
+        }
+        log.info("Evaluation metrics mode=" + mode + ", sampleRate=" + sampleRate);
+    }
+
+    public void destroy() {
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                log.warn("Could not unregister the evaluation metrics MBean (" + MBEAN_NAME + "): " + e);
+            }
+            registeredName = null;
+        }
+    }
+
+    /**
+     * @param targetClass the class of the bean being called (not the proxy), null to use the class declaring the method
+     * @param method the method being called
+     * @return the metrics for the method or null if nothing should be recorded
+     */
+    MethodMetrics getMethodMetrics(Class<?> targetClass, Method method) {
+        if (MODE_OFF.equals(mode)) {
+            return null;
+        }
+        Class<?> beanClass = targetClass == null ? method.getDeclaringClass() : targetClass;
+        ConcurrentHashMap<Method, MethodMetrics> classMetrics = metricsByMethod.computeIfAbsent(beanClass, k -> new ConcurrentHashMap<>());
+        MethodMetrics metrics = classMetrics.get(method);
+        if (metrics == null) {
+            String name = beanClass.getSimpleName() + "." + method.getName();
+            metrics = metricsByName.computeIfAbsent(name, MethodMetrics::new);
+            classMetrics.putIfAbsent(method, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return true if the current call should be timed
+     */
+    boolean shouldTime() {
+        if (MODE_ALL.equals(mode)) {
+            return true;
+        }
+        int rate = sampleRate;
+        return rate <= 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.metrics.EvalMetrics#getMode()
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.metrics.EvalMetrics#setMode(java.lang.String)
+     */
+    public void setMode(String mode) {
+        if (! MODE_OFF.equals(mode) && ! MODE_SAMPLED.equals(mode) && ! MODE_ALL.equals(mode)) {
+            throw new IllegalArgumentException("Invalid metrics mode (" + mode + "), must be one of: "
+                    + MODE_OFF + ", " + MODE_SAMPLED + ", " + MODE_ALL);
+        }
+        this.mode = mode;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.metrics.EvalMetrics#getSampleRate()
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.metrics.EvalMetrics#setSampleRate(int)
+     */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Invalid metrics sample rate (" + sampleRate + "), must be 1 or more");
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.metrics.EvalMetrics#getMethodStats()
+     */
+    public List<EvalMethodStats> getMethodStats() {
+        List<EvalMethodStats> stats = new ArrayList<>(metricsByName.size());
+        for (MethodMetrics metrics : metricsByName.values()) {
+            stats.add(metrics.snapshot());
+        }
+        stats.sort(Comparator.comparingLong(EvalMethodStats::getEstimatedTotalMicros).reversed()
+                .thenComparing(EvalMethodStats::getName));
+        return stats;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.metrics.EvalMetricsMBean#getStatistics()
+     */
+    public String[] getStatistics() {
+        List<EvalMethodStats> stats = getMethodStats();
+        String[] lines = new String[stats.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = stats.get(i).toString();
+        }
+        return lines;
+    }
+
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.metrics.EvalMetrics#reset()
+     */
+    public void reset() {
+        metricsByMethod.clear();
+        metricsByName.clear();
+        log.info("Cleared the evaluation metrics");
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+
+/**
+ * Records the calls to the proxied service and DAO beans in {@link EvalMetricsImpl},
+ * untimed calls only cost a counter increment
+ */
+public class EvalMetricsInterceptor implements MethodInterceptor {
+
+    private EvalMetricsImpl evalMetrics;
+    public void setEvalMetrics(EvalMetricsImpl evalMetrics) {
+        this.evalMetrics = evalMetrics;
+    }
+
+    /* (non-Javadoc)
+     * @see org.aopalliance.intercept.MethodInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)
+     */
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        // the target class keeps the methods inherited from the generic DAO apart for each DAO
+        Object target = invocation.getThis();
+        MethodMetrics metrics = evalMetrics.getMethodMetrics(target == null ? null : AopUtils.getTargetClass(target), invocation.getMethod());
+        if (metrics == null) {
+            return invocation.proceed();
+        }
+        if (! evalMetrics.shouldTime()) {
+            metrics.countCall();
+            try {
+                return invocation.proceed();
+            } catch (Throwable t) {
+                metrics.countError();
+                throw t;
+            }
+        }
+        long startTime = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } catch (Throwable t) {
+            metrics.countError();
+            throw t;
+        } finally {
+            metrics.record(System.nanoTime() - startTime);
+        }
+    }
+
+}
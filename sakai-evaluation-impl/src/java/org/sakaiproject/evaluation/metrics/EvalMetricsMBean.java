@@ -12,28 +12,27 @@
  * or implied. See the License for the specific language governing
  * permissions and limitations under the License.
  */
-package org.sakaiproject.evaluation.aspectj;
+package org.sakaiproject.evaluation.metrics;
 
 /**
- * This is just a nice easy way to force a profile summary output
- * 
- * @author Aaron Zeckoski (azeckoski @ gmail.com)
+ * The JMX management interface for {@link EvalMetrics},
+ * registered as {@value EvalMetricsImpl#MBEAN_NAME}
  */
-public class ProfilerControl {
+public interface EvalMetricsMBean {
 
-   /**
-    * Get the profiling summary and log it
-    * @return the summary from the profiling aspect
-    */
-   public static String generateSummary() {
-      // does nothing really
-      return "Aspect should have populated this";
-   }
+    public String getMode();
 
-   public static void enableProfiler() {}
+    public void setMode(String mode);
 
-   public static void resetProfiler() {}
+    public int getSampleRate();
 
-   public static void enableMethodLogging() {}
+    public void setSampleRate(int sampleRate);
+
+    /**
+     * @return one line of statistics per method, ordered by estimated total time (highest first)
+     */
+    public String[] getStatistics();
+
+    public void reset();
 
 }
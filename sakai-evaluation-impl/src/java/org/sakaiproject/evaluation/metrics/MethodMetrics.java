@@ -0,0 +1,138 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and latency histogram for a single method, all updates are lock-free
+ * <br/>
+ * The histogram uses log-linear buckets (8 buckets for each power of 2 from about 1 microsecond
+ * to about 68 seconds) so the percentiles are accurate to within about 6%
+ * while the whole histogram is a fixed array of a couple of hundred counters
+ */
+class MethodMetrics {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MIN_EXPONENT = 10;
+    private static final int MAX_EXPONENT = 36;
+    static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final String name;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timedCalls = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    MethodMetrics(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void countCall() {
+        calls.increment();
+    }
+
+    void countError() {
+        errors.increment();
+    }
+
+    /**
+     * Record a timed call (this also counts the call)
+     * @param nanos the time the call took
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        calls.increment();
+        timedCalls.increment();
+        totalNanos.add(nanos);
+        buckets.incrementAndGet(bucketIndex(nanos));
+        long max = maxNanos.get();
+        while (nanos > max && ! maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return a copy of the current statistics
+     */
+    EvalMethodStats snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long timed = timedCalls.sum();
+        long max = maxNanos.get();
+        long mean = timed == 0 ? 0 : totalNanos.sum() / timed;
+        return new EvalMethodStats(name, calls.sum(), errors.sum(), timed, toMicros(mean),
+                toMicros(percentile(counts, total, 0.50, max)), toMicros(percentile(counts, total, 0.95, max)),
+                toMicros(percentile(counts, total, 0.99, max)), toMicros(max));
+    }
+
+    static int bucketIndex(long nanos) {
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent < MIN_EXPONENT) {
+            return 0;
+        }
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) ((nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the value in the middle of the bucket
+     */
+    static long bucketValue(int index) {
+        int exponent = MIN_EXPONENT + index / SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (SUB_BUCKETS + (index % SUB_BUCKETS)) * width;
+        return lower + width / 2;
+    }
+
+    static long percentile(long[] counts, long total, double fraction, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+}
@@ -16,11 +16,13 @@ package org.sakaiproject.evaluation.utils;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 import freemarker.template.Configuration;
@@ -38,13 +40,15 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class TextTemplateLogicUtils {
 
-    public static final Object LOCK = new Object();
-
-    public final static int TOTAL_RESET_COUNT = 500;
     /**
-     * Used to track and reset the processor every totalResetCount runs
+     * The maximum number of compiled templates which are kept,
+     * the least recently used ones are dropped when there are more than this
+     */
+    public final static int MAX_CACHED_TEMPLATES = 200;
+    /**
+     * Writers which have grown larger than this are not kept for reuse
      */
-    public static AtomicInteger resetCounter = new AtomicInteger(0);
+    private final static int MAX_REUSED_WRITER_SIZE = 64 * 1024;
 
     /**
      * Handles the replacement of the variable strings within textual templates and
@@ -62,6 +66,21 @@ public class TextTemplateLogicUtils {
      * @return the processed template
      */
     public static String processTextTemplate(String textTemplate, Map<String, String> replacementValues) {
+        return processTextTemplate(null, textTemplate, replacementValues);
+    }
+
+    /**
+     * Same as {@link #processTextTemplate(String, Map)} but the compiled template is cached
+     * against the id of the email template it came from (and the text itself), 
+     * use this when processing the subject or message of an {@link org.sakaiproject.evaluation.model.EvalEmailTemplate}
+     * 
+     * @param templateId the id of the email template the text comes from, null if it has none
+     * @param textTemplate a freemarker style text template,
+     * cannot be null or empty string
+     * @param replacementValues a set of replacement values (see {@link #processTextTemplate(String, Map)})
+     * @return the processed template
+     */
+    public static String processTextTemplate(Long templateId, String textTemplate, Map<String, String> replacementValues) {
         if (replacementValues == null || replacementValues.isEmpty()) {
             return textTemplate;
         }
@@ -71,32 +90,96 @@ public class TextTemplateLogicUtils {
             "please pass in at least something in the template or do not call this method");
         }
 
-        return processFreemarkerTextTemplate(textTemplate, replacementValues);
+        return processFreemarkerTextTemplate(getCompiledTemplate(templateId, textTemplate), replacementValues);
+    }
+
+    /**
+     * The freemarker configuration is thread safe once it is set up so a single one is shared
+     */
+    private static final Configuration freemarkerConfig = makeFreemarkerConfig();
+    private static Configuration makeFreemarkerConfig() {
+        Configuration config = new Configuration();
+        // Specify how templates will see the data-model
+        config.setObjectWrapper(new DefaultObjectWrapper());
+        return config;
+    }
+
+    /**
+     * Compiled templates keyed by the template id and the hash of the text,
+     * lookups do not lock, the text is compared on a hit in case of a hash collision
+     */
+    private static final ConcurrentHashMap<String, CachedTemplate> templateCache = new ConcurrentHashMap<>();
+    /**
+     * Used to order the cached templates by when they were last used
+     */
+    private static final AtomicLong useCounter = new AtomicLong();
+
+    private static class CachedTemplate {
+        final String text;
+        final Template template;
+        volatile long lastUsed;
+        CachedTemplate(String text, Template template) {
+            this.text = text;
+            this.template = template;
+        }
     }
 
-    private static Configuration freemarkerConfig = null;
-    private static String processFreemarkerTextTemplate(String textTemplate, Map<String, String> replacementValues) {
-        // setup freemarker if it is not already done
-        synchronized (LOCK) {
-            if (freemarkerConfig == null || resetCounter.getAndAdd(1) > TOTAL_RESET_COUNT) {
-                freemarkerConfig = new Configuration();
-                // Specify how templates will see the data-model
-                freemarkerConfig.setObjectWrapper(new DefaultObjectWrapper());
-                resetCounter.getAndSet(0);
-                log.info("Constructed new freemarker template for template processing");
+    private static Template getCompiledTemplate(Long templateId, String textTemplate) {
+        String key = (templateId == null ? "" : templateId.toString()) + ":" + textTemplate.hashCode();
+        CachedTemplate cached = templateCache.get(key);
+        if (cached == null || ! cached.text.equals(textTemplate)) {
+            // compiling twice when two threads miss together is harmless
+            cached = new CachedTemplate(textTemplate, compileTemplate(textTemplate));
+            templateCache.put(key, cached);
+            if (templateCache.size() > MAX_CACHED_TEMPLATES) {
+                evictLeastRecentlyUsed();
             }
         }
+        cached.lastUsed = useCounter.incrementAndGet();
+        return cached.template;
+    }
 
-        // get the template
-        Template template;
+    /**
+     * Removes the least recently used templates until the cache is back down to 3/4 of the maximum size
+     */
+    private static synchronized void evictLeastRecentlyUsed() {
+        int excess = templateCache.size() - (MAX_CACHED_TEMPLATES * 3 / 4);
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<String, CachedTemplate>> entries = new ArrayList<>(templateCache.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+        for (int i = 0; i < excess && i < entries.size(); i++) {
+            Map.Entry<String, CachedTemplate> entry = entries.get(i);
+            templateCache.remove(entry.getKey(), entry.getValue());
+        }
+        log.debug("Evicted " + excess + " compiled text templates from the cache");
+    }
+
+    /**
+     * Clears out all the compiled templates
+     */
+    public static void clearTemplateCache() {
+        templateCache.clear();
+    }
+
+    private static Template compileTemplate(String textTemplate) {
         try {
-            template = new Template("textProcess", new StringReader(textTemplate), freemarkerConfig);
-            if (replacementValues == null) return textTemplate;
+            return new Template("textProcess", new StringReader(textTemplate), freemarkerConfig);
         } catch (IOException e) {
             throw new RuntimeException("Failure while creating freemarker template", e);
         }
+    }
 
-        Writer output = new StringWriter();
+    /**
+     * Each thread reuses the same writer for the processed output,
+     * templates are never processed recursively so there is no chance of sharing one
+     */
+    private static final ThreadLocal<StringBuilderWriter> outputWriter = ThreadLocal.withInitial(StringBuilderWriter::new);
+
+    private static String processFreemarkerTextTemplate(Template template, Map<String, String> replacementValues) {
+        StringBuilderWriter output = outputWriter.get();
+        output.builder.setLength(0);
         try {
             template.process(replacementValues, output);
         } catch (TemplateException e) {
@@ -104,8 +187,41 @@ public class TextTemplateLogicUtils {
         } catch (IOException e) {
             throw new RuntimeException("Failure while sending freemarker output to stream", e);
         }
+        String result = output.builder.toString();
+        if (output.builder.capacity() > MAX_REUSED_WRITER_SIZE) {
+            // do not hold on to the memory from an unusually large message
+            outputWriter.remove();
+        }
+        return result;
+    }
 
-        return output.toString();
+    /**
+     * A writer which appends to a StringBuilder (no synchronization unlike StringWriter)
+     */
+    private static class StringBuilderWriter extends Writer {
+        final StringBuilder builder = new StringBuilder(1024);
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            builder.append(cbuf, off, len);
+        }
+        @Override
+        public void write(String str) {
+            builder.append(str);
+        }
+        @Override
+        public void write(String str, int off, int len) {
+            builder.append(str, off, off + len);
+        }
+        @Override
+        public void write(int c) {
+            builder.append((char) c);
+        }
+        @Override
+        public void flush() {
+        }
+        @Override
+        public void close() {
+        }
     }
     
     public static boolean checkTextTemplate(String textTemplate) {
@@ -116,7 +232,8 @@ public class TextTemplateLogicUtils {
         
         try
         {
-        	String validTemplate = processFreemarkerTextTemplate(textTemplate, null);
+        	// only compiled, this is for checking templates which are being edited so it is not cached
+        	compileTemplate(textTemplate);
         }
         catch (RuntimeException e)
         {
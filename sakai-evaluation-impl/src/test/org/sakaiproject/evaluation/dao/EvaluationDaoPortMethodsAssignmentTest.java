@@ -148,6 +148,11 @@ public class EvaluationDaoPortMethodsAssignmentTest extends AbstractEvaluationDa
                 etdl.evaluationActive.getId(), new String[] {EvalTestDataLoad.SITE1_REF}));
         Assert.assertEquals(0, assignmentDao.countParticipantsForEval(
                 etdl.evaluationActive.getId(), new String[] {EvalTestDataLoad.SITE2_REF}));
+        Map<Long, Map<String, Integer>> participantCounts = assignmentDao.countParticipantsByGroup(
+                new Long[] {etdl.evaluationActive.getId()}, new String[] {EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.SITE2_REF});
+        Assert.assertEquals(1, participantCounts.size());
+        Assert.assertEquals(Integer.valueOf(1), participantCounts.get(etdl.evaluationActive.getId()).get(EvalTestDataLoad.SITE1_REF));
+        Assert.assertNull(participantCounts.get(etdl.evaluationActive.getId()).get(EvalTestDataLoad.SITE2_REF));
 
         List<EvalAssignGroup> assignGroups = assignmentDao.getApprovedAssignGroupsForEvaluation(
                 etdl.evaluationClosed.getId(), null);
@@ -346,6 +351,90 @@ public class EvaluationDaoPortMethodsAssignmentTest extends AbstractEvaluationDa
         Assert.assertTrue(assignmentDao.getAssignHierarchyByEval(evalUnLocked.getId()).isEmpty());
     }
 
+    @Test
+    public void testAssignUsersBatchSaveAndBulkDelete() {
+        EvalAssignGroup batchAssignGroup = new EvalAssignGroup(
+                EvalTestDataLoad.MAINT_USER_ID, "dao-batch-group", EvalConstants.GROUP_TYPE_SITE,
+                evalUnLocked, Boolean.TRUE, Boolean.TRUE, Boolean.FALSE);
+        persistence.save(batchAssignGroup);
+
+        // more than one batch so the flushing and evicting is used
+        int total = EvaluationAssignmentDaoImpl.ASSIGN_USER_BATCH_SIZE * 2 + 10;
+        List<EvalAssignUser> assignUsers = new ArrayList<>();
+        for (int i = 0; i < total; i++) {
+            assignUsers.add(new EvalAssignUser("dao-batch-user-" + i, "dao-batch-group",
+                    EvalTestDataLoad.MAINT_USER_ID, EvalAssignUser.TYPE_EVALUATOR,
+                    i % 2 == 0 ? EvalAssignUser.STATUS_LINKED : EvalAssignUser.STATUS_UNLINKED,
+                    evalUnLocked, batchAssignGroup.getId()));
+        }
+        assignmentDao.saveAssignUsers(assignUsers);
+        for (EvalAssignUser assignUser : assignUsers) {
+            Assert.assertNotNull(assignUser.getId());
+        }
+        Assert.assertEquals(total, assignmentDao.getParticipantsForEval(evalUnLocked.getId(), null,
+                new String[] {"dao-batch-group"}, null, EvalEvaluationService.STATUS_ANY, null, null).size());
+
+        // bulk delete by ids, including one which is still in the session
+        EvalAssignUser loaded = persistence.findById(EvalAssignUser.class, assignUsers.get(1).getId());
+        Assert.assertNotNull(loaded);
+        assignmentDao.deleteAssignUsersByIds(new Long[] {assignUsers.get(0).getId(), assignUsers.get(1).getId()});
+        Assert.assertNull(persistence.findById(EvalAssignUser.class, assignUsers.get(0).getId()));
+        Assert.assertNull(persistence.findById(EvalAssignUser.class, assignUsers.get(1).getId()));
+
+        // the unlinked users are kept, the first linked one is already gone
+        int removed = assignmentDao.deleteAssignGroupAndLinkedUsers(batchAssignGroup, EvalAssignUser.STATUS_UNLINKED);
+        Assert.assertEquals(total / 2 - 1, removed);
+        Assert.assertNull(persistence.findById(EvalAssignUser.class, assignUsers.get(2).getId()));
+        Assert.assertNotNull(persistence.findById(EvalAssignUser.class, assignUsers.get(3).getId()));
+    }
+
+    @Test
+    public void testAssignGroupsForEvalGroupsInStates() {
+        EvalAssignGroup siteAssignGroup = new EvalAssignGroup(
+                EvalTestDataLoad.MAINT_USER_ID, "/site/dao_sync", EvalConstants.GROUP_TYPE_SITE,
+                evalUnLocked, Boolean.TRUE, Boolean.TRUE, Boolean.FALSE);
+        EvalAssignGroup subgroupAssignGroup = new EvalAssignGroup(
+                EvalTestDataLoad.MAINT_USER_ID, "/site/dao_sync/group/g1", EvalConstants.GROUP_TYPE_GROUP,
+                evalUnLocked, Boolean.TRUE, Boolean.TRUE, Boolean.FALSE);
+        EvalAssignGroup otherAssignGroup = new EvalAssignGroup(
+                EvalTestDataLoad.MAINT_USER_ID, "/site/daoXsync/group/g1", EvalConstants.GROUP_TYPE_GROUP,
+                evalUnLocked, Boolean.TRUE, Boolean.TRUE, Boolean.FALSE);
+        persistence.save(siteAssignGroup);
+        persistence.save(subgroupAssignGroup);
+        persistence.save(otherAssignGroup);
+
+        String[] activeStates = new String[] {EvalConstants.EVALUATION_STATE_ACTIVE};
+        List<EvalAssignGroup> assignGroups = assignmentDao.getAssignGroupsForEvalGroupsInStates(
+                Arrays.asList("/site/dao_sync"), false, activeStates);
+        Assert.assertNotNull(assignGroups);
+        Assert.assertEquals(1, assignGroups.size());
+        Assert.assertEquals(siteAssignGroup.getId(), assignGroups.get(0).getId());
+        Assert.assertEquals(evalUnLocked.getId(), assignGroups.get(0).getEvaluation().getId());
+
+        // the groups in the site are included but not the ones matched by the like wildcard
+        assignGroups = assignmentDao.getAssignGroupsForEvalGroupsInStates(
+                Arrays.asList("/site/dao_sync"), true, activeStates);
+        Assert.assertEquals(2, assignGroups.size());
+        List<Long> ids = EvalTestDataLoad.makeIdList(assignGroups);
+        Assert.assertTrue(ids.contains(siteAssignGroup.getId()));
+        Assert.assertTrue(ids.contains(subgroupAssignGroup.getId()));
+
+        // evaluations in other states are not included
+        assignGroups = assignmentDao.getAssignGroupsForEvalGroupsInStates(
+                Arrays.asList("/site/dao_sync"), true, new String[] {EvalConstants.EVALUATION_STATE_CLOSED});
+        Assert.assertEquals(0, assignGroups.size());
+
+        assignGroups = assignmentDao.getAssignGroupsForEvalGroupsInStates(new ArrayList<>(), true, activeStates);
+        Assert.assertEquals(0, assignGroups.size());
+
+        try {
+            assignmentDao.getAssignGroupsForEvalGroupsInStates(null, true, activeStates);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
     @Test
     public void testSaveResponseAndAnswers() {
         EvalResponse response = new EvalResponse(
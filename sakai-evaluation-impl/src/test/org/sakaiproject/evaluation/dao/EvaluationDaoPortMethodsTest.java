@@ -48,6 +48,7 @@ import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalAssignHierarchy;
 import org.sakaiproject.evaluation.model.EvalAssignUser;
 import org.sakaiproject.evaluation.model.EvalConfig;
+import org.sakaiproject.evaluation.model.EvalEmailOutbox;
 import org.sakaiproject.evaluation.model.EvalEmailProcessingData;
 import org.sakaiproject.evaluation.model.EvalEmailTemplate;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
@@ -153,6 +154,56 @@ public class EvaluationDaoPortMethodsTest extends AbstractEvaluationDaoTest {
         return data;
     }
 
+    @Test
+    public void testEmailOutbox() {
+        Long evaluationId = etdl.evaluationActive.getId();
+        Date now = new Date();
+        EvalEmailOutbox reminder = new EvalEmailOutbox(evaluationId, EvalTestDataLoad.SITE1_REF, EvalConstants.EMAIL_TEMPLATE_REMINDER,
+                EvalConstants.EVAL_INCLUDE_NONTAKERS, "helpdesk@institution.edu",
+                new String[] {EvalTestDataLoad.USER_ID, EvalTestDataLoad.STUDENT_USER_ID}, "subject", "message");
+        reminder.setRunId("run1");
+        consolidatedEmailDao.saveOutboxEmail(reminder);
+        EvalEmailOutbox later = new EvalEmailOutbox(evaluationId, EvalTestDataLoad.SITE2_REF, EvalConstants.EMAIL_TEMPLATE_REMINDER,
+                EvalConstants.EVAL_INCLUDE_NONTAKERS, "helpdesk@institution.edu",
+                new String[] {EvalTestDataLoad.USER_ID}, "subject", "message");
+        later.setNextAttempt(new Date(now.getTime() + MILLISECONDS_PER_DAY));
+        later.setRunId("run1");
+        consolidatedEmailDao.saveOutboxEmail(later);
+        Assert.assertNotNull(reminder.getId());
+        Assert.assertArrayEquals(new String[] {EvalTestDataLoad.USER_ID, EvalTestDataLoad.STUDENT_USER_ID}, reminder.getToUserIdsArray());
+
+        // only the message whose next attempt has passed is due
+        List<EvalEmailOutbox> due = consolidatedEmailDao.getDueOutboxEmails(new Date(now.getTime() + 1000), 10);
+        Assert.assertEquals(1, due.size());
+        Assert.assertEquals(reminder.getId(), due.get(0).getId());
+
+        // both groups are queued by this run for this reminder type but not for the in progress reminders or another run
+        Set<String> groupIds = consolidatedEmailDao.getOutboxEmailGroupIds(evaluationId, EvalConstants.EMAIL_TEMPLATE_REMINDER,
+                EvalConstants.EVAL_INCLUDE_NONTAKERS, "run1");
+        Assert.assertEquals(2, groupIds.size());
+        Assert.assertTrue(groupIds.contains(EvalTestDataLoad.SITE1_REF));
+        Assert.assertTrue(consolidatedEmailDao.getOutboxEmailGroupIds(evaluationId, EvalConstants.EMAIL_TEMPLATE_REMINDER,
+                EvalConstants.EVAL_INCLUDE_IN_PROGRESS, "run1").isEmpty());
+        Assert.assertTrue(consolidatedEmailDao.getOutboxEmailGroupIds(evaluationId, EvalConstants.EMAIL_TEMPLATE_REMINDER,
+                EvalConstants.EVAL_INCLUDE_NONTAKERS, "run2").isEmpty());
+
+        // a message can only be claimed once until its lease runs out
+        Date claimTime = new Date(now.getTime() + 1000);
+        Date leaseUntil = new Date(now.getTime() + MILLISECONDS_PER_DAY);
+        Assert.assertTrue(consolidatedEmailDao.claimOutboxEmail(reminder.getId(), claimTime, leaseUntil));
+        Assert.assertFalse(consolidatedEmailDao.claimOutboxEmail(reminder.getId(), claimTime, leaseUntil));
+        Assert.assertTrue(consolidatedEmailDao.claimOutboxEmail(reminder.getId(), new Date(leaseUntil.getTime() + 1000), leaseUntil));
+        Assert.assertEquals(2, consolidatedEmailDao.countOutboxEmails(EvalEmailOutbox.STATUS_SENDING)
+                + consolidatedEmailDao.countOutboxEmails(EvalEmailOutbox.STATUS_PENDING));
+
+        // sent messages are purged
+        reminder.setStatus(EvalEmailOutbox.STATUS_SENT);
+        consolidatedEmailDao.saveOutboxEmail(reminder);
+        Assert.assertEquals(1, consolidatedEmailDao.countOutboxEmails(EvalEmailOutbox.STATUS_SENT));
+        Assert.assertEquals(1, consolidatedEmailDao.deleteSentOutboxEmails(new Date(System.currentTimeMillis() + 1000)));
+        Assert.assertEquals(0, consolidatedEmailDao.countOutboxEmails(EvalEmailOutbox.STATUS_SENT));
+    }
+
     @Test
     public void testEvalConfigLookups() {
         String configName = "dao.config.lookup.test";
@@ -175,6 +226,11 @@ public class EvaluationDaoPortMethodsTest extends AbstractEvaluationDaoTest {
 
         Assert.assertEquals(1, settingsDao.countEvalConfigsByNames(new String[] {configName, "dao.config.lookup.missing"}));
         Assert.assertEquals(0, settingsDao.countEvalConfigsByNames(new String[] {}));
+
+        // counters start at 1 and then go up by one
+        Assert.assertEquals(1L, settingsDao.incrementEvalConfigCounter("dao.config.counter"));
+        Assert.assertEquals(2L, settingsDao.incrementEvalConfigCounter("dao.config.counter"));
+        Assert.assertEquals("2", settingsDao.getEvalConfigByName("dao.config.counter").getValue());
     }
 
     @Test
@@ -429,6 +485,15 @@ public class EvaluationDaoPortMethodsTest extends AbstractEvaluationDaoTest {
         Assert.assertEquals(3, responseDao.countResponses(etdl.evaluationClosed.getId(), null, true));
         Assert.assertEquals(0, responseDao.countResponses(etdl.evaluationClosed.getId(), null, false));
 
+        Map<Long, Map<String, Integer>> responseCounts = responseDao.countResponsesByGroup(
+                new Long[] {etdl.evaluationClosed.getId()}, null, true);
+        Assert.assertEquals(1, responseCounts.size());
+        Assert.assertEquals(Integer.valueOf(1), responseCounts.get(etdl.evaluationClosed.getId()).get(EvalTestDataLoad.SITE1_REF));
+        Assert.assertEquals(Integer.valueOf(2), responseCounts.get(etdl.evaluationClosed.getId()).get(EvalTestDataLoad.SITE2_REF));
+        responseCounts = responseDao.countResponsesByGroup(
+                new Long[] {etdl.evaluationClosed.getId()}, new String[] {EvalTestDataLoad.SITE2_REF}, false);
+        Assert.assertTrue(responseCounts.isEmpty());
+
         responses = responseDao.getEvaluationResponses(etdl.evaluationClosed.getId(), null, true);
         Assert.assertNotNull(responses);
         Assert.assertEquals(3, responses.size());
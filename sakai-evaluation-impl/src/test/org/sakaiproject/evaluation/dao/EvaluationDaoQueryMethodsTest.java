@@ -33,6 +33,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
+import org.sakaiproject.evaluation.logic.model.EvalResponseAnswersHandler;
 import org.sakaiproject.evaluation.model.EvalAdhocGroup;
 import org.sakaiproject.evaluation.model.EvalAdhocUser;
 import org.sakaiproject.evaluation.model.EvalAdmin;
@@ -48,6 +49,7 @@ import org.sakaiproject.evaluation.model.EvalGroupNodes;
 import org.sakaiproject.evaluation.model.EvalHierarchyRule;
 import org.sakaiproject.evaluation.model.EvalItem;
 import org.sakaiproject.evaluation.model.EvalItemGroup;
+import org.sakaiproject.evaluation.model.EvalJobSchedule;
 import org.sakaiproject.evaluation.model.EvalResponse;
 import org.sakaiproject.evaluation.model.EvalScale;
 import org.sakaiproject.evaluation.model.EvalTemplate;
@@ -216,6 +218,65 @@ public class EvaluationDaoQueryMethodsTest extends AbstractEvaluationDaoTest {
 
     }
 
+    @Test
+    public void testGetParticipantsByGroups() {
+        Map<String, List<EvalAssignUser>> m;
+
+        // all participants for an evaluation in one lookup
+        m = assignmentDao.getParticipantsForEvalByGroups(etdl.evaluationActive.getId(), null, null, null, null);
+        Assert.assertNotNull(m);
+        Assert.assertEquals(1, m.size());
+        Assert.assertEquals(2, m.get(EvalTestDataLoad.SITE1_REF).size());
+
+        m = assignmentDao.getParticipantsForEvalByGroups(etdl.evaluationActive.getId(), new String[] {EvalTestDataLoad.SITE2_REF}, null, null, null);
+        Assert.assertNotNull(m);
+        Assert.assertEquals(0, m.size());
+
+        persistence.save( new EvalAssignUser(EvalTestDataLoad.USER_ID_4, etdl.evaluationActiveUntaken, EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.MAINT_USER_ID) );
+        persistence.save( new EvalAssignUser(EvalTestDataLoad.USER_ID_5, etdl.evaluationActiveUntaken, EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.MAINT_USER_ID) );
+
+        m = assignmentDao.getParticipantsForEvalByGroups(etdl.evaluationActiveUntaken.getId(), null, 
+                null, null, EvalConstants.EVAL_INCLUDE_NONTAKERS);
+        Assert.assertEquals(3, m.get(EvalTestDataLoad.SITE1_REF).size());
+
+        // a response in another group does not count for the group of the assignment
+        EvalResponse r1 = new EvalResponse(EvalTestDataLoad.USER_ID, EvalTestDataLoad.SITE2_REF, etdl.evaluationActiveUntaken, new Date(), null, null);
+        r1.setAnswers( new HashSet<>() );
+        persistence.save(r1);
+
+        m = assignmentDao.getParticipantsForEvalByGroups(etdl.evaluationActiveUntaken.getId(), null, 
+                null, null, EvalConstants.EVAL_INCLUDE_NONTAKERS);
+        Assert.assertEquals(3, m.get(EvalTestDataLoad.SITE1_REF).size());
+        Assert.assertEquals(2, assignmentDao.getParticipantsForEval(etdl.evaluationActiveUntaken.getId(), null, null, 
+                null, null, EvalConstants.EVAL_INCLUDE_NONTAKERS, null).size());
+
+        // completed response in the same group
+        EvalResponse r2 = new EvalResponse(EvalTestDataLoad.USER_ID_4, EvalTestDataLoad.SITE1_REF, etdl.evaluationActiveUntaken, etdl.yesterday, new Date(), null);
+        r2.setAnswers( new HashSet<>() );
+        persistence.save(r2);
+
+        m = assignmentDao.getParticipantsForEvalByGroups(etdl.evaluationActiveUntaken.getId(), null, 
+                null, null, EvalConstants.EVAL_INCLUDE_NONTAKERS);
+        Assert.assertEquals(2, m.get(EvalTestDataLoad.SITE1_REF).size());
+
+        m = assignmentDao.getParticipantsForEvalByGroups(etdl.evaluationActiveUntaken.getId(), null, 
+                null, null, EvalConstants.EVAL_INCLUDE_RESPONDENTS);
+        Assert.assertEquals(1, m.get(EvalTestDataLoad.SITE1_REF).size());
+        Assert.assertEquals(EvalTestDataLoad.USER_ID_4, m.get(EvalTestDataLoad.SITE1_REF).get(0).getUserId());
+
+        m = assignmentDao.getParticipantsForEvalByGroups(etdl.evaluationActiveUntaken.getId(), null, 
+                null, null, EvalConstants.EVAL_INCLUDE_IN_PROGRESS);
+        Assert.assertEquals(0, m.size());
+
+        // evaluation is required
+        try {
+            assignmentDao.getParticipantsForEvalByGroups(null, null, null, null, null);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
     @Test
     public void testGetEvalsUserCanTake() {
         // get ones we can take
@@ -719,6 +780,109 @@ public class EvaluationDaoQueryMethodsTest extends AbstractEvaluationDaoTest {
     }
 
 
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationQueryDaoImpl#getEvaluationIdsNeedingState(String, Date)}
+     * and {@link org.sakaiproject.evaluation.dao.EvaluationQueryDaoImpl#updateEvaluationStates(List, String, Date)}.
+     */
+    @Test
+    public void testGetAndUpdateEvaluationIdsNeedingState() {
+        Date now = new Date();
+        EvalEvaluation eval = queryDao.getEvaluationById( etdl.evaluationActive.getId() );
+        eval.setState(EvalConstants.EVALUATION_STATE_INQUEUE);
+        queryDao.saveEvaluation(eval);
+
+        List<Long> ids = queryDao.getEvaluationIdsNeedingState(EvalConstants.EVALUATION_STATE_ACTIVE, now);
+        Assert.assertTrue(ids.contains( etdl.evaluationActive.getId() ));
+        Assert.assertFalse(ids.contains( etdl.evaluationClosed.getId() ));
+        Assert.assertFalse(ids.contains( etdl.evaluationPartial.getId() ));
+        ids = queryDao.getEvaluationIdsNeedingState(EvalConstants.EVALUATION_STATE_INQUEUE, now);
+        Assert.assertFalse(ids.contains( etdl.evaluationActive.getId() ));
+
+        // only evals whose dates match are updated
+        int updated = queryDao.updateEvaluationStates(
+                Arrays.asList( etdl.evaluationActive.getId(), etdl.evaluationClosed.getId() ), 
+                EvalConstants.EVALUATION_STATE_ACTIVE, now);
+        Assert.assertEquals(1, updated);
+        Assert.assertEquals(EvalConstants.EVALUATION_STATE_ACTIVE, queryDao.getEvaluationById( etdl.evaluationActive.getId() ).getState());
+        Assert.assertEquals(EvalConstants.EVALUATION_STATE_CLOSED, queryDao.getEvaluationById( etdl.evaluationClosed.getId() ).getState());
+        ids = queryDao.getEvaluationIdsNeedingState(EvalConstants.EVALUATION_STATE_ACTIVE, now);
+        Assert.assertFalse(ids.contains( etdl.evaluationActive.getId() ));
+
+        Assert.assertEquals(0, queryDao.updateEvaluationStates(new ArrayList<>(), EvalConstants.EVALUATION_STATE_ACTIVE, now));
+        try {
+            queryDao.getEvaluationIdsNeedingState(EvalConstants.EVALUATION_STATE_PARTIAL, now);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationQueryDaoImpl#getScheduledJobs(Long, String)}
+     * and {@link org.sakaiproject.evaluation.dao.EvaluationQueryDaoImpl#claimDueScheduledJobs(Date, int, String, long)}.
+     */
+    @Test
+    public void testScheduledJobs() {
+        Date now = new Date();
+        Long evalId = etdl.evaluationActive.getId();
+        EvalJobSchedule due = new EvalJobSchedule(evalId, EvalConstants.JOB_TYPE_DUE, new Date(now.getTime() - 60000));
+        EvalJobSchedule reminder = new EvalJobSchedule(evalId, EvalConstants.JOB_TYPE_REMINDER, new Date(now.getTime() - 120000));
+        EvalJobSchedule closed = new EvalJobSchedule(etdl.evaluationClosed.getId(), EvalConstants.JOB_TYPE_VIEWABLE, new Date(now.getTime() - 1000));
+        EvalJobSchedule future = new EvalJobSchedule(evalId, EvalConstants.JOB_TYPE_CLOSED, new Date(now.getTime() + 60000));
+        queryDao.saveScheduledJob(due);
+        queryDao.saveScheduledJob(reminder);
+        queryDao.saveScheduledJob(closed);
+        queryDao.saveScheduledJob(future);
+
+        List<EvalJobSchedule> jobs = queryDao.getScheduledJobs(evalId, null);
+        Assert.assertEquals(3, jobs.size());
+        Assert.assertEquals(reminder.getId(), jobs.get(0).getId());
+        jobs = queryDao.getScheduledJobs(evalId, EvalConstants.JOB_TYPE_DUE);
+        Assert.assertEquals(1, jobs.size());
+        Assert.assertEquals(due.getId(), jobs.get(0).getId());
+        Assert.assertEquals(0, queryDao.getScheduledJobs(EvalTestDataLoad.INVALID_LONG_ID, null).size());
+
+        // due jobs are claimed in fire date order and only once
+        long lease = 30000;
+        jobs = queryDao.claimDueScheduledJobs(now, 2, "holder1", lease);
+        Assert.assertEquals(2, jobs.size());
+        Assert.assertEquals(reminder.getId(), jobs.get(0).getId());
+        Assert.assertEquals(due.getId(), jobs.get(1).getId());
+        jobs = queryDao.claimDueScheduledJobs(now, 10, "holder2", lease);
+        Assert.assertEquals(1, jobs.size());
+        Assert.assertEquals(closed.getId(), jobs.get(0).getId());
+        Assert.assertEquals(0, queryDao.claimDueScheduledJobs(now, 10, "holder2", lease).size());
+        // claimed jobs stay in the schedule until they are completed by the holder
+        Assert.assertEquals(3, queryDao.getScheduledJobs(evalId, null).size());
+        Assert.assertFalse(queryDao.completeScheduledJob(due.getId(), "holder2"));
+        Assert.assertTrue(queryDao.completeScheduledJob(due.getId(), "holder1"));
+        Assert.assertEquals(2, queryDao.getScheduledJobs(evalId, null).size());
+
+        // a released job can be claimed again straight away
+        Assert.assertFalse(queryDao.releaseScheduledJob(reminder.getId(), "holder2"));
+        Assert.assertTrue(queryDao.releaseScheduledJob(reminder.getId(), "holder1"));
+        jobs = queryDao.claimDueScheduledJobs(now, 10, "holder2", lease);
+        Assert.assertEquals(1, jobs.size());
+        Assert.assertEquals(reminder.getId(), jobs.get(0).getId());
+
+        // jobs whose lease has run out can be claimed again
+        jobs = queryDao.claimDueScheduledJobs(new Date(now.getTime() + lease), 10, "holder3", lease);
+        Assert.assertEquals(2, jobs.size());
+        Assert.assertEquals(reminder.getId(), jobs.get(0).getId());
+        Assert.assertEquals(closed.getId(), jobs.get(1).getId());
+
+        Assert.assertEquals(2, queryDao.deleteScheduledJobs(evalId, null));
+        Assert.assertEquals(0, queryDao.getScheduledJobs(evalId, null).size());
+        Assert.assertEquals(0, queryDao.deleteScheduledJobs(evalId, EvalConstants.JOB_TYPE_CLOSED));
+
+        try {
+            queryDao.claimDueScheduledJobs(null, 10, "holder1", lease);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
     /**
      * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationDaoImpl#getAnswers(java.lang.Long, java.lang.Long)}.
      */
@@ -804,6 +968,123 @@ public class EvaluationDaoQueryMethodsTest extends AbstractEvaluationDaoTest {
         Assert.assertEquals(0, l.size());
     }
 
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationResponseDaoImpl#getNumericAnswers(java.lang.Long, java.lang.String[], java.lang.Long[])}.
+     */
+    @Test
+    public void testGetNumericAnswers() {
+        List<EvalAnswer> l;
+
+        // all answers in order by response and answer, only the values are set
+        l = responseDao.getNumericAnswers(etdl.evaluationClosed.getId(), null, null);
+        Assert.assertNotNull(l);
+        Assert.assertEquals(3, l.size());
+        for (EvalAnswer answer : l) {
+            Assert.assertNull(answer.getText());
+            Assert.assertNull(answer.getComment());
+            Assert.assertNotNull(answer.getResponse().getId());
+            Assert.assertNotNull(answer.getTemplateItem().getId());
+        }
+        Assert.assertEquals(etdl.response2.getId(), l.get(0).getResponse().getId());
+        Assert.assertEquals(etdl.response3.getId(), l.get(2).getResponse().getId());
+        Assert.assertEquals(etdl.answer3_2A.getId(), l.get(2).getId());
+        Assert.assertEquals(EvalTestDataLoad.ANSWER_SCALED_TWO, l.get(2).getNumeric());
+        Assert.assertEquals(etdl.templateItem2A.getId(), l.get(2).getTemplateItem().getId());
+
+        // answers for the same response share the response
+        Assert.assertSame(l.get(0).getResponse(), l.get(1).getResponse());
+
+        // the associations are included
+        l = responseDao.getNumericAnswers(etdl.evaluationClosed.getId(), new String[] {EvalTestDataLoad.SITE1_REF}, new Long[] {etdl.templateItem5A.getId()});
+        Assert.assertEquals(1, l.size());
+        Assert.assertEquals(etdl.answer2_5A.getId(), l.get(0).getId());
+        Assert.assertEquals(EvalTestDataLoad.MAINT_USER_ID, l.get(0).getAssociatedId());
+        Assert.assertEquals(EvalConstants.ITEM_CATEGORY_INSTRUCTOR, l.get(0).getAssociatedType());
+        Assert.assertNull(l.get(0).getText());
+
+        l = responseDao.getNumericAnswers(etdl.evaluationClosed.getId(), new String[] {EvalTestDataLoad.SITE2_REF}, new Long[] {etdl.templateItem5A.getId()});
+        Assert.assertEquals(0, l.size());
+
+        // test invalid eval id returns nothing
+        l = responseDao.getNumericAnswers(EvalTestDataLoad.INVALID_LONG_ID, null, null);
+        Assert.assertNotNull(l);
+        Assert.assertEquals(0, l.size());
+    }
+
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationResponseDaoImpl#scrollAnswers(java.lang.Long, java.lang.String[], java.lang.Long[], org.sakaiproject.evaluation.logic.model.EvalResponseAnswersHandler)}.
+     */
+    @Test
+    public void testScrollAnswers() {
+        List<Long> responseIds = new ArrayList<>();
+        List<Long> answerIds = new ArrayList<>();
+        EvalResponseAnswersHandler handler = (response, answers) -> {
+            responseIds.add(response.getId());
+            for (EvalAnswer answer : answers) {
+                Assert.assertEquals(response.getId(), answer.getResponse().getId());
+                answerIds.add(answer.getId());
+            }
+        };
+
+        // all answers, one response at a time in order by group and response
+        int count = responseDao.scrollAnswers(etdl.evaluationClosed.getId(), null, null, handler);
+        Assert.assertEquals(2, count);
+        Assert.assertEquals(2, responseIds.size());
+        Assert.assertEquals(etdl.response2.getId(), responseIds.get(0));
+        Assert.assertEquals(etdl.response3.getId(), responseIds.get(1));
+        Assert.assertEquals(3, answerIds.size());
+        Assert.assertTrue(answerIds.contains( etdl.answer2_2A.getId() ));
+        Assert.assertTrue(answerIds.contains( etdl.answer2_5A.getId() ));
+        Assert.assertTrue(answerIds.contains( etdl.answer3_2A.getId() ));
+
+        // restrict to groups and template items
+        responseIds.clear();
+        answerIds.clear();
+        count = responseDao.scrollAnswers(etdl.evaluationClosed.getId(), new String[] {EvalTestDataLoad.SITE1_REF}, new Long[] {etdl.templateItem5A.getId()}, handler);
+        Assert.assertEquals(1, count);
+        Assert.assertEquals(etdl.response2.getId(), responseIds.get(0));
+        Assert.assertEquals(1, answerIds.size());
+        Assert.assertEquals(etdl.answer2_5A.getId(), answerIds.get(0));
+
+        // responses without matching answers are not included
+        responseIds.clear();
+        count = responseDao.scrollAnswers(etdl.evaluationClosed.getId(), new String[] {EvalTestDataLoad.SITE2_REF}, new Long[] {etdl.templateItem5A.getId()}, handler);
+        Assert.assertEquals(0, count);
+        Assert.assertEquals(0, responseIds.size());
+
+        // test invalid eval id returns nothing
+        count = responseDao.scrollAnswers(EvalTestDataLoad.INVALID_LONG_ID, null, null, handler);
+        Assert.assertEquals(0, count);
+
+        try {
+            responseDao.scrollAnswers(etdl.evaluationClosed.getId(), null, null, null);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationResponseDaoImpl#getAnswerAssociates(java.lang.Long, java.lang.String[])}.
+     */
+    @Test
+    public void testGetAnswerAssociates() {
+        Map<String, Set<String>> associates = responseDao.getAnswerAssociates(etdl.evaluationClosed.getId(), null);
+        Assert.assertNotNull(associates);
+        Assert.assertEquals(1, associates.size());
+        Assert.assertEquals(1, associates.get(EvalConstants.ITEM_CATEGORY_INSTRUCTOR).size());
+        Assert.assertTrue(associates.get(EvalConstants.ITEM_CATEGORY_INSTRUCTOR).contains(EvalTestDataLoad.MAINT_USER_ID));
+
+        // the instructor answer is only in site1
+        associates = responseDao.getAnswerAssociates(etdl.evaluationClosed.getId(), new String[] {EvalTestDataLoad.SITE2_REF});
+        Assert.assertNotNull(associates);
+        Assert.assertEquals(0, associates.size());
+
+        associates = responseDao.getAnswerAssociates(EvalTestDataLoad.INVALID_LONG_ID, null);
+        Assert.assertNotNull(associates);
+        Assert.assertEquals(0, associates.size());
+    }
+
     /**
      * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationDaoImpl#removeTemplateItems(org.sakaiproject.evaluation.model.EvalTemplateItem[])}.
      */
@@ -221,6 +221,27 @@ public class EvaluationDaoResponsePermissionTest extends AbstractEvaluationDaoTe
 
     }
 
+    @Test
+    public void testGetDetachedTemplateItemsByTemplate() {
+        List<EvalTemplateItem> l = authoringDao.getDetachedTemplateItemsByTemplate(etdl.templateAdminComplex.getId());
+        Assert.assertNotNull(l);
+        Assert.assertEquals(3, l.size());
+        for (EvalTemplateItem templateItem : l) {
+            // scale options are loaded before the entities are detached
+            if (templateItem.getItem().getScale() != null) {
+                Assert.assertFalse(templateItem.getItem().getScale().getOptions().isEmpty());
+            }
+        }
+
+        // the session no longer holds them so a fresh lookup gets new instances
+        List<EvalTemplateItem> attached = authoringDao.getTemplateItemsByTemplate(etdl.templateAdminComplex.getId(),
+                new String[] {}, new String[] {}, new String[] {});
+        Assert.assertEquals(3, attached.size());
+        for (EvalTemplateItem templateItem : attached) {
+            Assert.assertFalse(l.contains(templateItem));
+        }
+    }
+
     @Test
     public void testGetResponseIds() {
         List<Long> l;
@@ -261,6 +282,12 @@ public class EvaluationDaoResponsePermissionTest extends AbstractEvaluationDaoTe
         int remainA = persistence.countAll(EvalResponse.class);
         Assert.assertTrue(remainR < curR);
         Assert.assertTrue(remainA < curA);
+        // the stats for the group are marked for rebuilding rather than rebuilt now
+        Map<Long, Set<String>> staleGroups = responseDao.getStaleAnswerStatsGroups();
+        Assert.assertTrue(staleGroups.containsKey(etdl.evaluationActive.getId()));
+        Assert.assertTrue(staleGroups.get(etdl.evaluationActive.getId()).contains(EvalTestDataLoad.SITE1_REF));
+        responseDao.rebuildAnswerStats(etdl.evaluationActive.getId(), EvalTestDataLoad.SITE1_REF);
+        Assert.assertFalse(responseDao.getStaleAnswerStatsGroups().containsKey(etdl.evaluationActive.getId()));
         // stupid hibernate is making this test a pain -AZ
         //      Assert.assertNull( persistence.findById(EvalResponse.class, etdl.response1.getId()) );
         //      Assert.assertNull( persistence.findById(EvalAnswer.class, etdl.answer1_1.getId()) );
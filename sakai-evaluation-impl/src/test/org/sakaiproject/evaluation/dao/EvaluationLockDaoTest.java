@@ -295,6 +295,31 @@ public class EvaluationLockDaoTest extends AbstractEvaluationDaoTest {
     }
 
 
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationLockDao#lockEvaluationGraph(java.lang.Long)}.
+     */
+    @Test
+    public void testLockEvaluationGraph() {
+
+        // check that unlocked evaluation gets locked along with the template
+        Assert.assertFalse( etdl.templatePublicUnused.getLocked() );
+        Assert.assertFalse( evalUnLocked.getLocked() );
+        Assert.assertTrue( lockDao.lockEvaluationGraph( evalUnLocked.getId() ) );
+        Assert.assertTrue( evalUnLocked.getLocked() );
+        Assert.assertTrue( etdl.templatePublicUnused.getLocked() );
+
+        // check that locking a locked evaluation is not a problem
+        Assert.assertFalse( lockDao.lockEvaluationGraph( evalUnLocked.getId() ) );
+
+        // check that unsaved evaluation cannot be locked
+        try {
+            lockDao.lockEvaluationGraph(null);
+            Assert.fail("Should have thrown an exception");
+        } catch (IllegalStateException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
     /**
      * Test method for {@link org.sakaiproject.evaluation.dao.EvaluationLockDao#isUsedScale(java.lang.Long)}.
      */
@@ -428,7 +453,7 @@ public class EvaluationLockDaoTest extends AbstractEvaluationDaoTest {
         // there should be two new evals ready to send announcements to, selected because the value of availableEmailSent is null
         int count1 = this.consolidatedEmailDao.selectConsolidatedEmailRecipients(true, (Date) null, false, (Date) null, EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_AVAILABLE);
         Assert.assertEquals(1,count1);
-        List<Map<String,Object>> mapping1 = this.consolidatedEmailDao.getConsolidatedEmailMapping(true, 100, 0);
+        List<Map<String,Object>> mapping1 = this.consolidatedEmailDao.getConsolidatedEmailMapping(true, 100, null, null, null);
         Assert.assertNotNull(mapping1);
         Assert.assertEquals(1, mapping1.size());
         int deletions1 = this.consolidatedEmailDao.resetConsolidatedEmailRecipients();
@@ -437,7 +462,7 @@ public class EvaluationLockDaoTest extends AbstractEvaluationDaoTest {
         // Since those announcements have been sent, there should be none yet to be sent
         int count2 = this.consolidatedEmailDao.selectConsolidatedEmailRecipients(true, (Date) null, false, (Date) null, EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_AVAILABLE);
         Assert.assertEquals(0,count2);
-        List<Map<String,Object>> mapping2 = this.consolidatedEmailDao.getConsolidatedEmailMapping(true, 100, 0);
+        List<Map<String,Object>> mapping2 = this.consolidatedEmailDao.getConsolidatedEmailMapping(true, 100, null, null, null);
         Assert.assertNotNull(mapping2);
         Assert.assertEquals(0, mapping2.size());
         int deletions2 = this.consolidatedEmailDao.resetConsolidatedEmailRecipients();
@@ -446,7 +471,7 @@ public class EvaluationLockDaoTest extends AbstractEvaluationDaoTest {
         // if we search for notices to be sent and ignore the date, we should find them again
         int count3 = this.consolidatedEmailDao.selectConsolidatedEmailRecipients(false, (Date) null, false, (Date) null, EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_AVAILABLE);
         Assert.assertEquals(1,count3);
-        List<Map<String,Object>> mapping3 = this.consolidatedEmailDao.getConsolidatedEmailMapping(true, 100, 0);
+        List<Map<String,Object>> mapping3 = this.consolidatedEmailDao.getConsolidatedEmailMapping(true, 100, null, null, null);
         Assert.assertNotNull(mapping3);
         Assert.assertEquals(1, mapping3.size());
         int deletions3 = this.consolidatedEmailDao.resetConsolidatedEmailRecipients();
@@ -455,7 +480,7 @@ public class EvaluationLockDaoTest extends AbstractEvaluationDaoTest {
         // if we search for evals needing reminders based on whether an announcement or reminder has been sent in the past day, we should find none 
         int count4 = this.consolidatedEmailDao.selectConsolidatedEmailRecipients(true, new Date(), true, new Date(), EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_REMINDER);
         Assert.assertEquals(0,count4);
-        List<Map<String,Object>> mapping4 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, 0);
+        List<Map<String,Object>> mapping4 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, null, null, null);
         Assert.assertNotNull(mapping4);
         Assert.assertEquals(0, mapping4.size());
         int deletions4 = this.consolidatedEmailDao.resetConsolidatedEmailRecipients();
@@ -464,7 +489,7 @@ public class EvaluationLockDaoTest extends AbstractEvaluationDaoTest {
         // if we search for evals needing reminders based on whether a reminder has been sent in the past day (ignoring when announcements were sent) we find 2
         int count5 = this.consolidatedEmailDao.selectConsolidatedEmailRecipients(false, (Date) null, true, new Date(), EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_REMINDER);
         Assert.assertEquals(1,count5);
-        List<Map<String,Object>> mapping5 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, 0);
+        List<Map<String,Object>> mapping5 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, null, null, null);
         Assert.assertNotNull(mapping5);
         Assert.assertEquals(1, mapping5.size());
         int deletions5 = this.consolidatedEmailDao.resetConsolidatedEmailRecipients();
@@ -473,7 +498,7 @@ public class EvaluationLockDaoTest extends AbstractEvaluationDaoTest {
         // if we do the same search again, we find 0 because they have just been sent 
         int count6 = this.consolidatedEmailDao.selectConsolidatedEmailRecipients(false, (Date) null, true, new Date(), EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_REMINDER);
         Assert.assertEquals(0,count6);
-        List<Map<String,Object>> mapping6 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, 0);
+        List<Map<String,Object>> mapping6 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, null, null, null);
         Assert.assertNotNull(mapping6);
         Assert.assertEquals(0, mapping6.size());
         int deletions6 = this.consolidatedEmailDao.resetConsolidatedEmailRecipients();
@@ -482,7 +507,7 @@ public class EvaluationLockDaoTest extends AbstractEvaluationDaoTest {
         // if we search for evals needing reminders as if it were tomorrow, we should find 1
         int count7 = this.consolidatedEmailDao.selectConsolidatedEmailRecipients(false, (Date) null, true, new Date(System.currentTimeMillis() + MILLISECONDS_PER_DAY), EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_REMINDER);
         Assert.assertEquals(1,count7);
-        List<Map<String,Object>> mapping7 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, 0);
+        List<Map<String,Object>> mapping7 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, null, null, null);
         Assert.assertNotNull(mapping7);
         Assert.assertEquals(1, mapping7.size());
         int deletions7 = this.consolidatedEmailDao.resetConsolidatedEmailRecipients();
@@ -516,11 +541,95 @@ public class EvaluationLockDaoTest extends AbstractEvaluationDaoTest {
         Assert.assertNotNull(eau0.getCompletedDate());
         int count9 = this.consolidatedEmailDao.selectConsolidatedEmailRecipients(false, (Date) null, true, new Date(System.currentTimeMillis() + MILLISECONDS_PER_DAY), EvalConstants.EMAIL_TEMPLATE_CONSOLIDATED_REMINDER);
         Assert.assertEquals(0,count9);
-        List<Map<String,Object>> mapping9 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, 0);
+        List<Map<String,Object>> mapping9 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, null, null, null);
         Assert.assertNotNull(mapping9);
         Assert.assertEquals(0, mapping9.size());
     }
 
+    @Test
+    public void testGetConsolidatedEmailMappingPages() {
+        // (user-a,1) (user-a,2) (user-b,1) (user-c,1) with user-b queued twice
+        String[] userIds = {"user-c", "user-a", "user-b", "user-a", "user-b"};
+        Long[] templateIds = {1L, 2L, 1L, 1L, 1L};
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < userIds.length; i++) {
+            EvalEmailProcessingData data = new EvalEmailProcessingData();
+            data.setUserId(userIds[i]);
+            data.setEmailTemplateId(templateIds[i]);
+            data.setGroupId(EvalTestDataLoad.SITE1_REF);
+            data.setEvalId(etdl.evaluationActive.getId());
+            data.setEvalDueDate(new Date(now + (i * MILLISECONDS_PER_DAY)));
+            persistence.save(data);
+        }
+
+        List<Map<String,Object>> page1 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 2, null, null, null);
+        Assert.assertEquals(2, page1.size());
+        Assert.assertEquals("user-a", page1.get(0).get(EvalConstants.KEY_USER_ID));
+        Assert.assertEquals(1L, page1.get(0).get(EvalConstants.KEY_EMAIL_TEMPLATE_ID));
+        Assert.assertEquals("user-a", page1.get(1).get(EvalConstants.KEY_USER_ID));
+        Assert.assertEquals(2L, page1.get(1).get(EvalConstants.KEY_EMAIL_TEMPLATE_ID));
+
+        List<Map<String,Object>> page2 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 2, null, "user-a", 2L);
+        Assert.assertEquals(2, page2.size());
+        Assert.assertEquals("user-b", page2.get(0).get(EvalConstants.KEY_USER_ID));
+        // the earliest due date of the two queued for user-b
+        Assert.assertTrue(((Date) page2.get(0).get(EvalConstants.KEY_EARLIEST_DUE_DATE)).getTime() < now + (3 * MILLISECONDS_PER_DAY));
+        Assert.assertEquals("user-c", page2.get(1).get(EvalConstants.KEY_USER_ID));
+
+        List<Map<String,Object>> page3 = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 2, null, "user-c", 1L);
+        Assert.assertEquals(0, page3.size());
+
+        try {
+            this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 2, null, "user-a", null);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+        this.consolidatedEmailDao.resetConsolidatedEmailRecipients();
+    }
+
+    @Test
+    public void testConsolidatedEmailShards() {
+        String[] userIds = {"user-a", "user-b", "user-c", "user-d", "user-e", "user-a"};
+        Long[] templateIds = {1L, 1L, 1L, 1L, 1L, 2L};
+        for (int i = 0; i < userIds.length; i++) {
+            EvalEmailProcessingData data = new EvalEmailProcessingData();
+            data.setUserId(userIds[i]);
+            data.setEmailTemplateId(templateIds[i]);
+            data.setGroupId(EvalTestDataLoad.SITE1_REF);
+            data.setEvalId(etdl.evaluationActive.getId());
+            data.setEvalDueDate(new Date());
+            persistence.save(data);
+        }
+
+        int shards = 3;
+        Assert.assertEquals(userIds.length, this.consolidatedEmailDao.assignConsolidatedEmailShards(shards));
+        // already assigned entries are left alone
+        Assert.assertEquals(0, this.consolidatedEmailDao.assignConsolidatedEmailShards(shards));
+
+        // every pair comes back from exactly one shard, the shard which matches its user
+        int total = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            List<Map<String,Object>> mapping = this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, shard, null, null);
+            for (Map<String,Object> map : mapping) {
+                Assert.assertEquals(shard, EvaluationConsolidatedEmailDaoImpl.getConsolidatedEmailShard((String) map.get(EvalConstants.KEY_USER_ID), shards));
+            }
+            total += mapping.size();
+        }
+        Assert.assertEquals(userIds.length, total);
+
+        // processed pages are not returned again so a later run only sees what was left
+        Assert.assertEquals(0, this.consolidatedEmailDao.getConsolidatedEmailMapping(false, 100, null, null, null).size());
+
+        try {
+            this.consolidatedEmailDao.assignConsolidatedEmailShards(0);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+        this.consolidatedEmailDao.resetConsolidatedEmailRecipients();
+    }
+
     /**
      * testResponsesSavedInProgress checks to see how many responses have been saved but not submitted
      * for both active and inactive evaluations.  This depends on evaluations being open or closed and 
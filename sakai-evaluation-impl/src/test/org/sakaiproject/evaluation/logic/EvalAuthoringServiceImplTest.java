@@ -17,12 +17,14 @@ package org.sakaiproject.evaluation.logic;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.model.EvalCompiledTemplate;
 import org.sakaiproject.evaluation.model.EvalItem;
 import org.sakaiproject.evaluation.model.EvalItemGroup;
 import org.sakaiproject.evaluation.model.EvalScale;
@@ -1577,6 +1579,77 @@ public class EvalAuthoringServiceImplTest extends BaseTestEvalLogic {
 
    }
 
+   /**
+    * Test method for {@link org.sakaiproject.evaluation.logic.EvalAuthoringServiceImpl#getTemplateItemsForEvaluationByIds(Long, Long[])}.
+    */
+   @Test
+   public void testGetTemplateItemsForEvaluationByIds() {
+      Map<Long, EvalTemplateItem> m;
+
+      // locked template (from the compiled template), items from other templates are not included
+      m = authoringService.getTemplateItemsForEvaluationByIds( etdl.evaluationActive.getId(), 
+            new Long[] { etdl.templateItem1User.getId(), etdl.templateItem5User.getId(), 
+            etdl.templateItem2A.getId(), EvalTestDataLoad.INVALID_LONG_ID } );
+      Assert.assertNotNull( m );
+      Assert.assertEquals(2, m.size());
+      Assert.assertEquals( etdl.templateItem1User.getId(), m.get(etdl.templateItem1User.getId()).getId() );
+      Assert.assertEquals( etdl.templateItem5User.getId(), m.get(etdl.templateItem5User.getId()).getId() );
+
+      // another evaluation, only its own template items
+      m = authoringService.getTemplateItemsForEvaluationByIds( etdl.evaluationNew.getId(), 
+            new Long[] { etdl.templateItem1P.getId(), etdl.templateItem1User.getId() } );
+      Assert.assertEquals(1, m.size());
+      Assert.assertTrue( m.containsKey(etdl.templateItem1P.getId()) );
+
+      m = authoringService.getTemplateItemsForEvaluationByIds( etdl.evaluationActive.getId(), new Long[] {} );
+      Assert.assertTrue( m.isEmpty() );
+
+      try {
+         authoringService.getTemplateItemsForEvaluationByIds( EvalTestDataLoad.INVALID_LONG_ID, new Long[] {} );
+         Assert.fail("Should have thrown exception");
+      } catch (IllegalArgumentException e) {
+         Assert.assertNotNull(e);
+      }
+   }
+
+   /**
+    * Test method for {@link org.sakaiproject.evaluation.logic.EvalAuthoringServiceImpl#getCompiledTemplate(Long)}.
+    */
+   @Test
+   public void testGetCompiledTemplate() {
+      // locked template is compiled once and then reused
+      EvalCompiledTemplate compiled = authoringService.getCompiledTemplate( etdl.templateUser.getId() );
+      Assert.assertNotNull( compiled );
+      Assert.assertEquals( etdl.templateUser.getId(), compiled.getTemplateId() );
+      Assert.assertEquals(2, compiled.getTemplateItems().size());
+      List<Long> ids = EvalTestDataLoad.makeIdList(compiled.getTemplateItems());
+      Assert.assertTrue(ids.contains( etdl.templateItem1User.getId() ));
+      Assert.assertTrue(ids.contains( etdl.templateItem5User.getId() ));
+      Assert.assertSame( compiled, authoringService.getCompiledTemplate( etdl.templateUser.getId() ) );
+
+      // scale options are decoded
+      EvalScale scale = etdl.templateItem1User.getItem().getScale();
+      if (scale != null) {
+         Assert.assertEquals( scale.getOptions().size(), compiled.getScaleOptions(scale.getId()).length );
+      }
+
+      // the evaluation items come from the compiled template
+      List<EvalTemplateItem> l = authoringService.getTemplateItemsForEvaluation( etdl.evaluationActive.getId(), 
+            new String[] {}, new String[] {}, new String[] {} );
+      Assert.assertEquals(2, l.size());
+      Assert.assertTrue( compiled.getTemplateItems().containsAll(l) );
+
+      // unlocked templates are not compiled
+      Assert.assertNull( authoringService.getCompiledTemplate( etdl.templateUnused.getId() ) );
+
+      try {
+         authoringService.getCompiledTemplate( EvalTestDataLoad.INVALID_LONG_ID );
+         Assert.fail("Should have thrown exception");
+      } catch (IllegalArgumentException e) {
+         Assert.assertNotNull(e);
+      }
+   }
+
 
    /**
     * Test method for {@link org.sakaiproject.evaluation.logic.impl.EvalItemsLogicImpl#getBlockChildTemplateItemsForBlockParent(Long, boolean)}.
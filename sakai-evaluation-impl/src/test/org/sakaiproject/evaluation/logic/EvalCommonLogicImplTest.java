@@ -14,14 +14,21 @@
  */
 package org.sakaiproject.evaluation.logic;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Test;
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.model.EvalGroup;
+import org.sakaiproject.evaluation.logic.model.EvalUser;
 import org.sakaiproject.evaluation.test.EvalTestDataLoad;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 
 /**
  * Tests for {@link EvalCommonLogicImpl#countUserIdsForEvalGroups(java.util.Collection, String, Boolean)},
@@ -31,6 +38,13 @@ import org.sakaiproject.evaluation.test.EvalTestDataLoad;
  */
 public class EvalCommonLogicImplTest extends BaseTestEvalLogic {
 
+    @Autowired
+    @Qualifier("org.sakaiproject.evaluation.logic.EvalGroupCache")
+    private EvalGroupCache groupCache;
+    @Autowired
+    @Qualifier("org.sakaiproject.evaluation.logic.EvalUserCache")
+    private EvalUserCache userCache;
+
     @Test
     public void testCountUserIdsForEvalGroupsMatchesPerGroupCalls() {
         Map<String, Integer> counts = commonLogic.countUserIdsForEvalGroups(
@@ -95,4 +109,133 @@ public class EvalCommonLogicImplTest extends BaseTestEvalLogic {
         Assert.assertEquals(Integer.valueOf(expected), counts.get(adhocGroupId));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testGetUserIdsForEvalGroupsMatchesPerGroupCalls() {
+        Map<String, Set<String>> userIds = commonLogic.getUserIdsForEvalGroups(
+                Arrays.asList(EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.SITE2_REF),
+                EvalConstants.PERM_TAKE_EVALUATION, Boolean.FALSE);
+
+        Assert.assertNotNull(userIds);
+        Assert.assertEquals(2, userIds.size());
+        Assert.assertEquals(
+                commonLogic.getUserIdsForEvalGroup(EvalTestDataLoad.SITE1_REF, EvalConstants.PERM_TAKE_EVALUATION, Boolean.FALSE),
+                userIds.get(EvalTestDataLoad.SITE1_REF));
+        Assert.assertEquals(
+                commonLogic.getUserIdsForEvalGroup(EvalTestDataLoad.SITE2_REF, EvalConstants.PERM_TAKE_EVALUATION, Boolean.FALSE),
+                userIds.get(EvalTestDataLoad.SITE2_REF));
+        Assert.assertTrue(userIds.get(EvalTestDataLoad.SITE2_REF).contains(EvalTestDataLoad.STUDENT_USER_ID));
+    }
+
+    @Test
+    public void testGetUserIdsForEvalGroupsFallsBackToAdhocGroup() {
+        String adhocGroupId = etdl.group1.getEvalGroupId();
+
+        Map<String, Set<String>> userIds = commonLogic.getUserIdsForEvalGroups(
+                Arrays.asList(EvalTestDataLoad.SITE1_REF, adhocGroupId),
+                EvalConstants.PERM_TAKE_EVALUATION, Boolean.FALSE);
+
+        Assert.assertEquals(2, userIds.size());
+        Assert.assertEquals(2, userIds.get(adhocGroupId).size()); // group1 participants: STUDENT_USER_ID, user1
+        Assert.assertTrue(userIds.get(adhocGroupId).contains(EvalTestDataLoad.STUDENT_USER_ID));
+    }
+
+    @Test
+    public void testGroupLookupsAreCached() {
+        groupCache.clear();
+        long misses = groupCache.getStatistics().get("misses");
+        long hits = groupCache.getStatistics().get("hits");
+
+        // false checks are cached as well as true ones
+        Assert.assertTrue(commonLogic.isUserAllowedInEvalGroup(EvalTestDataLoad.MAINT_USER_ID, EvalConstants.PERM_ASSIGN_EVALUATION, EvalTestDataLoad.SITE1_REF));
+        Assert.assertFalse(commonLogic.isUserAllowedInEvalGroup(EvalTestDataLoad.MAINT_USER_ID, EvalConstants.PERM_ASSIGN_EVALUATION, EvalTestDataLoad.SITE2_REF));
+        Assert.assertEquals(misses + 2, (long) groupCache.getStatistics().get("misses"));
+        Assert.assertTrue(commonLogic.isUserAllowedInEvalGroup(EvalTestDataLoad.MAINT_USER_ID, EvalConstants.PERM_ASSIGN_EVALUATION, EvalTestDataLoad.SITE1_REF));
+        Assert.assertFalse(commonLogic.isUserAllowedInEvalGroup(EvalTestDataLoad.MAINT_USER_ID, EvalConstants.PERM_ASSIGN_EVALUATION, EvalTestDataLoad.SITE2_REF));
+        Assert.assertEquals(misses + 2, (long) groupCache.getStatistics().get("misses"));
+        Assert.assertEquals(hits + 2, (long) groupCache.getStatistics().get("hits"));
+
+        // cached groups cannot be changed by the callers
+        EvalGroup group = commonLogic.makeEvalGroupObject(EvalTestDataLoad.SITE1_REF);
+        String title = group.title;
+        group.title = "changed";
+        Assert.assertEquals(title, commonLogic.makeEvalGroupObject(EvalTestDataLoad.SITE1_REF).title);
+
+        List<EvalGroup> groups = commonLogic.getEvalGroupsForUser(EvalTestDataLoad.MAINT_USER_ID, EvalConstants.PERM_BE_EVALUATED);
+        Assert.assertEquals(groups, commonLogic.getEvalGroupsForUser(EvalTestDataLoad.MAINT_USER_ID, EvalConstants.PERM_BE_EVALUATED));
+
+        // a membership change for the site drops its entries and the groups for all users
+        long size = groupCache.getStatistics().get("size");
+        groupCache.invalidateEvalGroup(EvalTestDataLoad.SITE2_REF);
+        Assert.assertEquals(size - 2, (long) groupCache.getStatistics().get("size"));
+        misses = groupCache.getStatistics().get("misses");
+        Assert.assertTrue(commonLogic.isUserAllowedInEvalGroup(EvalTestDataLoad.MAINT_USER_ID, EvalConstants.PERM_ASSIGN_EVALUATION, EvalTestDataLoad.SITE1_REF));
+        Assert.assertEquals(misses, (long) groupCache.getStatistics().get("misses"));
+        Assert.assertFalse(commonLogic.isUserAllowedInEvalGroup(EvalTestDataLoad.MAINT_USER_ID, EvalConstants.PERM_ASSIGN_EVALUATION, EvalTestDataLoad.SITE2_REF));
+        Assert.assertEquals(misses + 1, (long) groupCache.getStatistics().get("misses"));
+
+        // a change to a group inside a site only drops that group, not the site
+        size = groupCache.getStatistics().get("size");
+        groupCache.invalidateResource("/realm/" + EvalTestDataLoad.SITE1_REF + "/group/other");
+        Assert.assertEquals(size, (long) groupCache.getStatistics().get("size"));
+
+        // a change to a realm which is not a site (e.g. a role template) keeps the site entries
+        groupCache.invalidateResource("/realm/!site.template");
+        Assert.assertEquals(size, (long) groupCache.getStatistics().get("size"));
+        misses = groupCache.getStatistics().get("misses");
+        Assert.assertTrue(commonLogic.isUserAllowedInEvalGroup(EvalTestDataLoad.MAINT_USER_ID, EvalConstants.PERM_ASSIGN_EVALUATION, EvalTestDataLoad.SITE1_REF));
+        Assert.assertEquals(misses, (long) groupCache.getStatistics().get("misses"));
+
+        // a change to the site itself drops its entries
+        groupCache.invalidateResource("/realm/" + EvalTestDataLoad.SITE1_REF);
+        Assert.assertTrue(commonLogic.isUserAllowedInEvalGroup(EvalTestDataLoad.MAINT_USER_ID, EvalConstants.PERM_ASSIGN_EVALUATION, EvalTestDataLoad.SITE1_REF));
+        Assert.assertEquals(misses + 1, (long) groupCache.getStatistics().get("misses"));
+    }
+
+    @Test
+    public void testUserLookupsAreCached() {
+        userCache.clear();
+        long misses = userCache.getStatistics().get("misses");
+        long hits = userCache.getStatistics().get("hits");
+
+        List<String> userIds = Arrays.asList(EvalTestDataLoad.USER_ID, EvalTestDataLoad.MAINT_USER_ID, "invalid-user-id");
+        List<EvalUser> users = commonLogic.getEvalUsersByIds(userIds);
+        Assert.assertEquals(3, users.size());
+        Assert.assertEquals(EvalTestDataLoad.USER_DISPLAY, users.get(0).displayName);
+        Assert.assertEquals(EvalConstants.USER_TYPE_INVALID, users.get(2).type);
+        Assert.assertEquals(misses + 3, (long) userCache.getStatistics().get("misses"));
+
+        // found and invalid users both come from the cache now, in the same order
+        List<EvalUser> cached = commonLogic.getEvalUsersByIds(userIds);
+        Assert.assertEquals(users, cached);
+        Assert.assertEquals(EvalConstants.USER_TYPE_INVALID, cached.get(2).type);
+        Assert.assertEquals(misses + 3, (long) userCache.getStatistics().get("misses"));
+        Assert.assertEquals(hits + 3, (long) userCache.getStatistics().get("hits"));
+
+        // single lookups share the cache and cannot change the cached user
+        EvalUser user = commonLogic.getEvalUserById(EvalTestDataLoad.MAINT_USER_ID);
+        Assert.assertEquals(EvalTestDataLoad.MAINT_USER_DISPLAY, user.displayName);
+        user.displayName = "changed";
+        Assert.assertEquals(EvalTestDataLoad.MAINT_USER_DISPLAY, commonLogic.getEvalUserById(EvalTestDataLoad.MAINT_USER_ID).displayName);
+        Assert.assertEquals(misses + 3, (long) userCache.getStatistics().get("misses"));
+
+        userCache.remove(EvalTestDataLoad.MAINT_USER_ID);
+        Assert.assertEquals(EvalTestDataLoad.MAINT_USER_DISPLAY, commonLogic.getEvalUserById(EvalTestDataLoad.MAINT_USER_ID).displayName);
+        Assert.assertEquals(misses + 4, (long) userCache.getStatistics().get("misses"));
+    }
+
+    @Test
+    public void testUserLookupsAreBatched() {
+        List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < 450; i++) {
+            userIds.add("batch-user-" + i);
+        }
+        userIds.add(EvalTestDataLoad.USER_ID);
+        long batches = userCache.getStatistics().get("batches");
+
+        Map<String, EvalUser> users = userCache.lookupInBatches(userIds, externalLogic::getEvalUsersByIds);
+        Assert.assertEquals(451, users.size());
+        Assert.assertEquals(EvalTestDataLoad.USER_DISPLAY, users.get(EvalTestDataLoad.USER_ID).displayName);
+        Assert.assertEquals(batches + 3, (long) userCache.getStatistics().get("batches")); // 200 per batch
+    }
+
+}
@@ -16,6 +16,7 @@ package org.sakaiproject.evaluation.logic;
 
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -26,6 +27,7 @@ import org.sakaiproject.evaluation.logic.exceptions.ResponseSaveException;
 import org.sakaiproject.evaluation.logic.model.EvalEmailMessage;
 import org.sakaiproject.evaluation.logic.model.EvalGroup;
 import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalAnswerStats;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalAssignUser;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
@@ -33,6 +35,8 @@ import org.sakaiproject.evaluation.model.EvalItem;
 import org.sakaiproject.evaluation.model.EvalResponse;
 import org.sakaiproject.evaluation.model.EvalTemplateItem;
 import org.sakaiproject.evaluation.test.EvalTestDataLoad;
+import org.sakaiproject.evaluation.utils.TemplateItemDataList;
+import org.sakaiproject.evaluation.utils.TemplateItemUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.test.util.AopTestUtils;
@@ -237,6 +241,51 @@ public class EvalDeliveryServiceImplResponseSaveTest extends BaseTestEvalLogic {
         Assert.assertEquals(EvalConstants.NO_MULTIPLE_ANSWER, savedNotApplicableAnswer.getMultiAnswerCode());
     }
 
+    @Test
+    public void testSaveResponseCompleteUpdatesAnswerStats() {
+        EvalTemplateItem multipleAnswerTemplateItem = createMultipleAnswerTemplateItem();
+        EvalEvaluation evaluation = createActiveAssignedEvaluation("service answer stats response", Boolean.TRUE);
+        String[] groupIds = new String[] {EvalTestDataLoad.SITE1_REF};
+
+        EvalResponse response = new EvalResponse(
+                EvalTestDataLoad.USER_ID,
+                EvalTestDataLoad.SITE1_REF,
+                evaluation,
+                new Date());
+        response.setEndTime(new Date());
+        response.setAnswers(new HashSet<>());
+        EvalAnswer answer = new EvalAnswer(response, multipleAnswerTemplateItem, multipleAnswerTemplateItem.getItem());
+        answer.multipleAnswers = new Integer[] {2, 0};
+        response.getAnswers().add(answer);
+        deliveryService.saveResponse(response, EvalTestDataLoad.USER_ID);
+
+        Map<String, EvalAnswerStats> stats = deliveryService.getAnswerStatsForEval(evaluation.getId(), groupIds);
+        Assert.assertNotNull(stats);
+        EvalAnswerStats itemStats = stats.get(TemplateItemUtils.makeTemplateItemAnswerKey(multipleAnswerTemplateItem.getId(), null, null));
+        Assert.assertNotNull(itemStats);
+        Assert.assertEquals(1, itemStats.getAnswerCount().intValue());
+        Assert.assertArrayEquals(new int[] {1, 0, 1, 0}, TemplateItemDataList.getAnswerChoicesCounts(itemStats, 3));
+    }
+
+    @Test
+    public void testSaveResponseCompleteLocksEvaluation() {
+        EvalEvaluation evaluation = createActiveAssignedEvaluation("service locking response", Boolean.TRUE);
+        Assert.assertFalse(evaluation.getLocked());
+        Assert.assertFalse(evaluation.getTemplate().getLocked());
+
+        EvalResponse response = new EvalResponse(
+                EvalTestDataLoad.USER_ID,
+                EvalTestDataLoad.SITE1_REF,
+                evaluation,
+                new Date());
+        response.setEndTime(new Date());
+        deliveryService.saveResponse(response, EvalTestDataLoad.USER_ID);
+
+        EvalEvaluation locked = (EvalEvaluation) persistence.findById(EvalEvaluation.class, evaluation.getId());
+        Assert.assertTrue(locked.getLocked());
+        Assert.assertTrue(locked.getTemplate().getLocked());
+    }
+
     private EvalEvaluation createActiveAssignedEvaluation(String title, Boolean blankResponsesAllowed) {
         EvalEvaluation evaluation = new EvalEvaluation(
                 EvalConstants.EVALUATION_TYPE_EVALUATION,
@@ -377,6 +426,10 @@ public class EvalDeliveryServiceImplResponseSaveTest extends BaseTestEvalLogic {
             return new String[0];
         }
 
+        public String[] sendEvalAvailableNotifications(Long evaluationId, boolean includeEvaluatees, String runId) {
+            return new String[0];
+        }
+
         public String[] sendEvalAvailableGroupNotification(Long evaluationId, String evalGroupId) {
             return new String[0];
         }
@@ -385,6 +438,10 @@ public class EvalDeliveryServiceImplResponseSaveTest extends BaseTestEvalLogic {
             return new String[0];
         }
 
+        public String[] sendEvalReminderNotifications(Long evaluationId, String includeConstant, String runId) {
+            return new String[0];
+        }
+
         public String[] sendEvalResultsNotifications(Long evaluationId, boolean includeEvaluatees,
                 boolean includeAdmins, String jobType) {
             return new String[0];
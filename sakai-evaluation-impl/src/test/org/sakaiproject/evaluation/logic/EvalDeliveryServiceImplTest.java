@@ -17,6 +17,7 @@ package org.sakaiproject.evaluation.logic;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -25,10 +26,12 @@ import org.junit.Test;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.exceptions.ResponseSaveException;
 import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalAnswerStats;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 import org.sakaiproject.evaluation.model.EvalResponse;
 import org.sakaiproject.evaluation.test.EvalTestDataLoad;
+import org.sakaiproject.evaluation.utils.TemplateItemDataList;
 import org.sakaiproject.evaluation.utils.TemplateItemUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -376,6 +379,50 @@ public class EvalDeliveryServiceImplTest extends BaseTestEvalLogic {
 
     }
 
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.logic.EvalDeliveryServiceImpl#getAnswerStatsForEval(Long, String[])}.
+     */
+    @Test
+    public void testGetAnswerStatsForEval() {
+        String[] groupIds = new String[] {EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.SITE2_REF};
+
+        // no stats for the preloaded responses until they are rebuilt
+        Assert.assertNull( deliveryService.getAnswerStatsForEval(etdl.evaluationClosed.getId(), groupIds) );
+        // the preloaded responses were not saved through the service so nothing marked them stale
+        Assert.assertFalse(deliveryService.getStaleAnswerStatsGroups().containsKey(etdl.evaluationClosed.getId()));
+
+        int stored = deliveryService.rebuildAnswerStats(etdl.evaluationClosed.getId());
+        Assert.assertTrue(stored > 0);
+        Assert.assertFalse(deliveryService.getStaleAnswerStatsGroups().containsKey(etdl.evaluationClosed.getId()));
+
+        Map<String, EvalAnswerStats> stats = deliveryService.getAnswerStatsForEval(etdl.evaluationClosed.getId(), groupIds);
+        Assert.assertNotNull(stats);
+        // only the scaled item is aggregated, the text answers are not
+        Assert.assertEquals(1, stats.size());
+        EvalAnswerStats itemStats = stats.get( TemplateItemUtils.makeTemplateItemAnswerKey(etdl.templateItem2A.getId(), null, null) );
+        Assert.assertNotNull(itemStats);
+        Assert.assertEquals(2, itemStats.getAnswerCount().intValue());
+
+        // counts must match the ones made from the answers
+        int scaleSize = etdl.item2.getScale().getOptions().size();
+        List<EvalAnswer> answers = deliveryService.getAnswersForEval(etdl.evaluationClosed.getId(), groupIds, new Long[] {etdl.templateItem2A.getId()});
+        Assert.assertArrayEquals(TemplateItemDataList.getAnswerChoicesCounts(EvalConstants.ITEM_TYPE_SCALED, scaleSize, answers),
+                TemplateItemDataList.getAnswerChoicesCounts(itemStats, scaleSize));
+
+        // single group
+        stats = deliveryService.getAnswerStatsForEval(etdl.evaluationClosed.getId(), new String[] {EvalTestDataLoad.SITE2_REF});
+        Assert.assertNotNull(stats);
+        Assert.assertEquals(1, stats.size());
+        Assert.assertEquals(1, stats.values().iterator().next().getAnswerCount().intValue());
+
+        try {
+            deliveryService.getAnswerStatsForEval(etdl.evaluationClosed.getId(), new String[0]);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
     /**
      * Test method for {@link org.sakaiproject.evaluation.logic.EvalDeliveryServiceImpl#getEvalResponseIds(Long, String[])}.
      */
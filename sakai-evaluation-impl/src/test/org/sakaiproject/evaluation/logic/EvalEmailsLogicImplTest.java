@@ -242,6 +242,22 @@ public class EvalEmailsLogicImplTest extends BaseTestEvalLogic {
 	@Test
    public void testMakeEmailMessage() {
    // TODO Assert.fail("Not yet implemented");
+   }
+
+	@Test
+   public void testTokenBucket() {
+      // no limit
+      EvalEmailsLogicImpl.TokenBucket unlimited = new EvalEmailsLogicImpl.TokenBucket(0);
+      Assert.assertEquals(0L, unlimited.reserve(1000));
+
+      // one second worth of permits are available at the start, taking more has to wait for them
+      EvalEmailsLogicImpl.TokenBucket bucket = new EvalEmailsLogicImpl.TokenBucket(10);
+      Assert.assertEquals(0L, bucket.reserve(10));
+      long waitNanos = bucket.reserve(5);
+      Assert.assertTrue(waitNanos > 400000000L);
+      Assert.assertTrue(waitNanos <= 500000000L);
+      // the permits already taken are owed so the next caller waits longer
+      Assert.assertTrue(bucket.reserve(5) > waitNanos);
    }
 
 }
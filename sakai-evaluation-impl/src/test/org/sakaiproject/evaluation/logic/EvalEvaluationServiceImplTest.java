@@ -15,6 +15,7 @@
 package org.sakaiproject.evaluation.logic;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -26,6 +27,7 @@ import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.constant.EvalEmailConstants;
 import org.sakaiproject.evaluation.logic.model.EvalGroup;
 import org.sakaiproject.evaluation.logic.model.EvalReminderStatus;
+import org.sakaiproject.evaluation.logic.model.EvalResponseRate;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalAssignHierarchy;
 import org.sakaiproject.evaluation.model.EvalAssignUser;
@@ -241,6 +243,60 @@ public class EvalEvaluationServiceImplTest extends BaseTestEvalLogic {
         // TODO - add tests for changing state when checked
     }    
 
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.logic.EvalEvaluationServiceImpl#getEffectiveEvalState(EvalEvaluation)}.
+     */
+    @Test
+    public void testGetEffectiveEvalState() {
+        EvalEvaluation eval = evaluationService.getEvaluationById( etdl.evaluationActive.getId() );
+        eval.setState(EvalConstants.EVALUATION_STATE_INQUEUE);
+        Assert.assertEquals(EvalConstants.EVALUATION_STATE_ACTIVE, evaluationService.getEffectiveEvalState(eval) );
+        // the evaluation is not changed
+        Assert.assertEquals(EvalConstants.EVALUATION_STATE_INQUEUE, eval.getState() );
+
+        Assert.assertEquals(EvalConstants.EVALUATION_STATE_CLOSED, 
+                evaluationService.getEffectiveEvalState( evaluationService.getEvaluationById( etdl.evaluationClosed.getId() ) ) );
+
+        // special states are left alone
+        Assert.assertEquals(EvalConstants.EVALUATION_STATE_PARTIAL, 
+                evaluationService.getEffectiveEvalState( evaluationService.getEvaluationById( etdl.evaluationPartial.getId() ) ) );
+        Assert.assertEquals(EvalConstants.EVALUATION_STATE_DELETED, 
+                evaluationService.getEffectiveEvalState( evaluationService.getEvaluationById( etdl.evaluationDeleted.getId() ) ) );
+    }
+
+    /**
+     * Test method for {@link org.sakaiproject.evaluation.logic.EvalEvaluationServiceImpl#advanceEvaluationStates()}.
+     */
+    @Test
+    public void testAdvanceEvaluationStates() {
+        // put some evals into out of date states
+        EvalEvaluation active = evaluationService.getEvaluationById( etdl.evaluationActive.getId() );
+        active.setState(EvalConstants.EVALUATION_STATE_INQUEUE);
+        queryDao.saveEvaluation(active);
+        EvalEvaluation closed = evaluationService.getEvaluationById( etdl.evaluationClosed.getId() );
+        closed.setState(EvalConstants.EVALUATION_STATE_ACTIVE);
+        queryDao.saveEvaluation(closed);
+
+        Map<Long, String> changed = evaluationService.advanceEvaluationStates();
+        Assert.assertNotNull(changed);
+        Assert.assertEquals(EvalConstants.EVALUATION_STATE_ACTIVE, changed.get( etdl.evaluationActive.getId() ) );
+        Assert.assertEquals(EvalConstants.EVALUATION_STATE_CLOSED, changed.get( etdl.evaluationClosed.getId() ) );
+        Assert.assertFalse( changed.containsKey( etdl.evaluationPartial.getId() ) );
+        Assert.assertFalse( changed.containsKey( etdl.evaluationDeleted.getId() ) );
+        Assert.assertFalse( changed.containsKey( etdl.evaluationViewable.getId() ) );
+
+        // the stored states are updated
+        Assert.assertEquals(EvalConstants.EVALUATION_STATE_ACTIVE, 
+                evaluationService.getEvaluationById( etdl.evaluationActive.getId() ).getState() );
+        Assert.assertEquals(EvalConstants.EVALUATION_STATE_CLOSED, 
+                evaluationService.getEvaluationById( etdl.evaluationClosed.getId() ).getState() );
+
+        // nothing left to change for these
+        changed = evaluationService.advanceEvaluationStates();
+        Assert.assertFalse( changed.containsKey( etdl.evaluationActive.getId() ) );
+        Assert.assertFalse( changed.containsKey( etdl.evaluationClosed.getId() ) );
+    }
+
     @Test
     public void testUpdateEvaluationReminderStatusForceCommit() {
         Long evaluationId = etdl.evaluationActive.getId();
@@ -550,6 +606,47 @@ public class EvalEvaluationServiceImplTest extends BaseTestEvalLogic {
         Assert.assertEquals(0, count);
     }
 
+    @Test
+    public void testGetResponseRates() {
+        Map<Long, String[]> evalGroupIds = new LinkedHashMap<>();
+        evalGroupIds.put(etdl.evaluationClosed.getId(), new String[] {EvalTestDataLoad.SITE1_REF, EvalTestDataLoad.SITE2_REF});
+        evalGroupIds.put(etdl.evaluationActiveUntaken.getId(), new String[] {EvalTestDataLoad.SITE1_REF});
+
+        Map<Long, Map<String, EvalResponseRate>> rates = evaluationService.getResponseRates(EvalTestDataLoad.MAINT_USER_ID, evalGroupIds);
+        Assert.assertNotNull(rates);
+        Assert.assertEquals(2, rates.size());
+        // the batch counts match the single pair counts
+        for (String evalGroupId : evalGroupIds.get(etdl.evaluationClosed.getId())) {
+            EvalResponseRate rate = rates.get(etdl.evaluationClosed.getId()).get(evalGroupId);
+            Assert.assertNotNull(rate);
+            Assert.assertEquals(evalGroupId, rate.getEvalGroupId());
+            Assert.assertEquals(evaluationService.countResponses(null, new Long[] {etdl.evaluationClosed.getId()}, new String[] {evalGroupId}, true),
+                    rate.getResponsesCount());
+            Assert.assertEquals(evaluationService.countParticipantsForEval(etdl.evaluationClosed.getId(), new String[] {evalGroupId}),
+                    rate.getParticipantsCount());
+        }
+        // check anon returns 0 participants
+        EvalResponseRate rate = rates.get(etdl.evaluationActiveUntaken.getId()).get(EvalTestDataLoad.SITE1_REF);
+        Assert.assertNotNull(rate);
+        Assert.assertEquals(0, rate.getParticipantsCount());
+
+        // cached results are reused for a subset of the pairs
+        evalGroupIds.remove(etdl.evaluationActiveUntaken.getId());
+        Map<Long, Map<String, EvalResponseRate>> cachedRates = evaluationService.getResponseRates(EvalTestDataLoad.MAINT_USER_ID, evalGroupIds);
+        Assert.assertEquals(1, cachedRates.size());
+        Assert.assertSame(rates.get(etdl.evaluationClosed.getId()).get(EvalTestDataLoad.SITE2_REF),
+                cachedRates.get(etdl.evaluationClosed.getId()).get(EvalTestDataLoad.SITE2_REF));
+
+        Assert.assertTrue(evaluationService.getResponseRates(EvalTestDataLoad.MAINT_USER_ID, new LinkedHashMap<>()).isEmpty());
+
+        try {
+            evaluationService.getResponseRates(null, evalGroupIds);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
 
     // EVAL AND GROUP ASSIGNS
 
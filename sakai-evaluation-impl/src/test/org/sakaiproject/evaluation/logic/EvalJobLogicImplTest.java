@@ -14,11 +14,15 @@
  */
 package org.sakaiproject.evaluation.logic;
 
+import java.util.Date;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.model.EvalScheduledJob;
 import org.sakaiproject.evaluation.logic.scheduling.EvalJobLogicImpl;
+import org.sakaiproject.evaluation.model.EvalJobSchedule;
 import org.sakaiproject.evaluation.test.EvalTestDataLoad;
 
 /**
@@ -59,6 +63,7 @@ public class EvalJobLogicImplTest extends BaseTestEvalLogic {
 		jobLogic.setEvaluationService(evaluationService);
 		jobLogic.setCommonLogic(commonLogic);
 		jobLogic.setSettings(settings);
+		jobLogic.setQueryDao(queryDao);
 		// FIXME set the remaining dependencies
 		
 	}
@@ -84,6 +89,47 @@ public class EvalJobLogicImplTest extends BaseTestEvalLogic {
 		Assert.assertFalse( EvalJobLogicImpl.isValidJobType(null));
 	}
 
+	/**
+	 * Test method for {@link EvalJobLogicImpl#claimDueJobs(int, String)}
+	 */
+   @Test
+	public void testClaimDueJobs() {
+		Long evalId = etdl.evaluationActive.getId();
+		queryDao.saveScheduledJob( new EvalJobSchedule(evalId, EvalConstants.JOB_TYPE_DUE, new Date(System.currentTimeMillis() - 60000)) );
+		queryDao.saveScheduledJob( new EvalJobSchedule(evalId, EvalConstants.JOB_TYPE_CLOSED, new Date(System.currentTimeMillis() + 60000)) );
+
+		EvalScheduledJob[] jobs = jobLogic.claimDueJobs(10, "holder1");
+		Assert.assertEquals(1, jobs.length);
+		Assert.assertEquals(evalId, jobs[0].evaluationId);
+		Assert.assertEquals(EvalConstants.JOB_TYPE_DUE, jobs[0].jobType);
+		// claimed jobs are not handed out again
+		Assert.assertEquals(0, jobLogic.claimDueJobs(10, "holder2").length);
+
+		// a released job is handed out again, a completed one is gone
+		jobLogic.releaseJob(jobs[0], "holder1");
+		jobs = jobLogic.claimDueJobs(10, "holder2");
+		Assert.assertEquals(1, jobs.length);
+		jobLogic.completeJob(jobs[0], "holder2");
+		Assert.assertEquals(0, queryDao.getScheduledJobs(evalId, EvalConstants.JOB_TYPE_DUE).size());
+
+		try {
+			jobLogic.claimDueJobs(0, "holder1");
+			Assert.fail("Should have thrown exception");
+		} catch (IllegalArgumentException e) {
+			Assert.assertNotNull(e);
+		}
+	}
+
+	/**
+	 * Test method for {@link EvalJobLogicImpl#migrateLegacyJobs()}
+	 */
+   @Test
+	public void testMigrateLegacyJobs() {
+		// the mock scheduler has no old invocations so nothing is moved and nothing is scheduled
+		Assert.assertEquals(0, jobLogic.migrateLegacyJobs());
+		Assert.assertEquals(0, jobLogic.claimDueJobs(10, "holder1").length);
+	}
+
 	// FIXME add in the remaining test cases
 
 }
\ No newline at end of file
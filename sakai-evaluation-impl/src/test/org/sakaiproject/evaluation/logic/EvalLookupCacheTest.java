@@ -0,0 +1,91 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.util.RequestFilter;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing the request memo scoping and LRU eviction of the lookup cache
+ */
+public class EvalLookupCacheTest extends TestCase {
+
+   private final Map<String, Object> threadLocals = new HashMap<>();
+
+   private EvalLookupCache<String> makeCache(int maxEntries) {
+      EvalLookupCache<String> cache = new EvalLookupCache<>(EvalLookupCacheTest.class);
+      cache.setThreadLocalManager(new ThreadLocalManager() {
+         public void set(String name, Object value) {
+            threadLocals.put(name, value);
+         }
+         public Object get(String name) {
+            return threadLocals.get(name);
+         }
+         public void clear() {
+            threadLocals.clear();
+         }
+      });
+      cache.setMaxEntries(maxEntries);
+      cache.init(null, null);
+      return cache;
+   }
+
+   public void testLeastRecentlyUsedEviction() {
+      EvalLookupCache<String> cache = makeCache(2);
+      cache.put("a", null, "A", 60);
+      cache.put("b", null, "B", 60);
+      assertEquals("A", cache.get("a"));
+      cache.put("c", null, "C", 60);
+      // only the least recently used entry is dropped
+      assertEquals("A", cache.get("a"));
+      assertNull(cache.get("b"));
+      assertEquals("C", cache.get("c"));
+      assertEquals(1L, (long) cache.getStatistics().get("evictions"));
+      assertEquals(2L, (long) cache.getStatistics().get("size"));
+   }
+
+   public void testRequestMemoOnlyInRequest() {
+      EvalLookupCache<String> cache = makeCache(10);
+      // no request on this thread (like a job) so nothing is kept in a memo
+      cache.put("a", null, "A", 0);
+      assertNull(cache.get("a"));
+      assertTrue(threadLocals.isEmpty());
+
+      threadLocals.put(RequestFilter.CURRENT_HTTP_REQUEST, new Object());
+      cache.put("a", null, "A", 0);
+      assertEquals("A", cache.get("a"));
+      assertEquals(1L, (long) cache.getStatistics().get("requestHits"));
+
+      // removing one key only drops that key from the memos
+      cache.put("c", null, "C", 0);
+      cache.remove("c");
+      assertNull(cache.get("c"));
+      assertEquals("A", cache.get("a"));
+      cache.put("c", null, "C2", 0);
+      assertEquals("C2", cache.get("c"));
+
+      // a removeIf discards the memos made before it
+      cache.put("b", "tag", "B", 60);
+      cache.removeIf("tag"::equals);
+      assertNull(cache.get("a"));
+      assertNull(cache.get("b"));
+   }
+
+}
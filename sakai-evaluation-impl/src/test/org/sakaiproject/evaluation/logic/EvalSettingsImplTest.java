@@ -17,6 +17,7 @@ package org.sakaiproject.evaluation.logic;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.sakaiproject.evaluation.dao.EvaluationSettingsDao;
 import org.sakaiproject.evaluation.model.EvalConfig;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -32,6 +33,10 @@ public class EvalSettingsImplTest extends BaseTestEvalLogic {
 	@Qualifier("org.sakaiproject.evaluation.logic.EvalSettings")
 	private EvalSettings evalSettings;
 
+	@Autowired
+	@Qualifier("org.sakaiproject.evaluation.dao.EvaluationSettingsDao")
+	private EvaluationSettingsDao settingsDao;
+
 	private EvalConfig config1;
 	private EvalConfig config3;
 
@@ -172,4 +177,36 @@ public class EvalSettingsImplTest extends BaseTestEvalLogic {
 
 	}
 
+	/**
+	 * Test method for {@link org.sakaiproject.evaluation.logic.EvalSettingsImpl#resetCache(java.lang.String)}.
+	 */
+	@Test
+	public void testResetCache() {
+		// load the value into the cache
+		evalSettings.resetCache(null);
+		Assert.assertEquals(TEST_VALUE1, evalSettings.get(TEST_CONSTANT1));
+
+		// change the value behind the cache without changing the version, the cached value is kept
+		config1.setValue(TEST_VALUE2);
+		persistence.save(config1);
+		evalSettings.resetCache(TEST_CONSTANT1);
+		Assert.assertEquals(TEST_VALUE1, evalSettings.get(TEST_CONSTANT1));
+
+		// bump the version like another server saving a setting would, now the value is reloaded
+		EvalConfig version = settingsDao.getEvalConfigByName(EvalSettingsImpl.SETTINGS_VERSION_NAME);
+		if (version == null) {
+			version = new EvalConfig(EvalSettingsImpl.SETTINGS_VERSION_NAME, "1");
+		} else {
+			version.setValue(Long.toString(Long.parseLong(version.getValue()) + 1L));
+		}
+		persistence.save(version);
+		evalSettings.resetCache(TEST_CONSTANT1);
+		Assert.assertEquals(TEST_VALUE2, evalSettings.get(TEST_CONSTANT1));
+
+		// the stats are kept
+		Assert.assertNotNull(evalSettings.getCacheStatistics());
+		Assert.assertTrue(evalSettings.getCacheStatistics().get("hits") > 0L);
+		Assert.assertTrue(evalSettings.getCacheStatistics().get("reloads") > 0L);
+	}
+
 }
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.logic.externals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.sakaiproject.evaluation.constant.EvalConstants;
+import org.sakaiproject.evaluation.logic.model.HierarchyNodeRule;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing the compiled hierarchy rules against checking each rule one at a time
+ */
+public class HierarchyRuleIndexTest extends TestCase {
+
+   private static final String SITE = EvalConstants.HIERARCHY_RULE_SITE;
+   private static final String SECTION = EvalConstants.HIERARCHY_RULE_SECTION;
+
+   public void testMatchSiteTitle() {
+      HierarchyRuleIndex index = new HierarchyRuleIndex(Arrays.asList(
+            new HierarchyNodeRule(1L, "ENG%", SITE),
+            new HierarchyNodeRule(2L, "%101", SITE),
+            new HierarchyNodeRule(3L, "%HIST%", SITE),
+            new HierarchyNodeRule(4L, "ENG 101", SITE),
+            new HierarchyNodeRule(5L, "%ISTOR%", SECTION)));
+      assertEquals(5, index.size());
+      assertTrue(index.hasSectionRules());
+
+      assertEquals(0, index.matchSiteTitle("ENG 200", false));
+      assertEquals(1, index.matchSiteTitle("MATH 101", false));
+      assertEquals(2, index.matchSiteTitle("WORLD HISTORY", false));
+      // several rules match, the last one wins
+      assertEquals(3, index.matchSiteTitle("ENG 101", false));
+      assertEquals(2, index.matchSiteTitle("ENG HIST 101", false));
+      assertEquals(HierarchyRuleIndex.NO_MATCH, index.matchSiteTitle("MATH 200", false));
+
+      // section rules only apply to the site title when asked for
+      assertEquals(2, index.matchSiteTitle("HISTORY", false));
+      assertEquals(4, index.matchSiteTitle("HISTORY", true));
+      assertEquals(4, index.matchSectionTitle("HISTORY 1"));
+      assertEquals(HierarchyRuleIndex.NO_MATCH, index.matchSectionTitle("ENG 101"));
+
+      assertEquals(Long.valueOf(3L), index.getNodeId(2));
+   }
+
+   public void testMatchesSameAsEachRule() {
+      // overlapping contains rules need the failure links of the automaton
+      String[] texts = {"%abab%", "%bab%", "%ba%", "%abc%", "%c%", "ab%", "abab%", "%ab", "%cab", "abc", "b", "%%"};
+      String[] titles = {"", "a", "b", "ab", "abab", "ababc", "cab", "xbabx", "abcab", "bba", "xyz", "abc", "aabab"};
+      for (int size = 1; size <= texts.length; size++) {
+         List<HierarchyNodeRule> rules = new ArrayList<>();
+         for (int i = 0; i < size; i++) {
+            rules.add(new HierarchyNodeRule((long) i, texts[i], SITE));
+         }
+         HierarchyRuleIndex index = new HierarchyRuleIndex(rules);
+         for (String title : titles) {
+            assertEquals("rules=" + size + ", title=" + title, matchEachRule(rules, title), index.matchSiteTitle(title, false));
+         }
+      }
+   }
+
+   public void testNoRules() {
+      HierarchyRuleIndex index = new HierarchyRuleIndex(new ArrayList<HierarchyNodeRule>());
+      assertEquals(0, index.size());
+      assertFalse(index.hasSectionRules());
+      assertEquals(HierarchyRuleIndex.NO_MATCH, index.matchSiteTitle("anything", true));
+   }
+
+   /**
+    * the original way of matching: check each rule in order and keep the last one which matches
+    */
+   private int matchEachRule(List<HierarchyNodeRule> rules, String title) {
+      int match = HierarchyRuleIndex.NO_MATCH;
+      for (int i = 0; i < rules.size(); i++) {
+         String qualifier = HierarchyRuleIndex.determineQualifier(rules.get(i).getRule());
+         String text = HierarchyRuleIndex.removeQualifier(rules.get(i).getRule());
+         if ((EvalConstants.HIERARCHY_QUALIFIER_CONTAINS.equals(qualifier) && title.contains(text))
+               || (EvalConstants.HIERARCHY_QUALIFIER_ENDS_WITH.equals(qualifier) && title.endsWith(text))
+               || (EvalConstants.HIERARCHY_QUALIFIER_STARTS_WITH.equals(qualifier) && title.startsWith(text))
+               || (EvalConstants.HIERARCHY_QUALIFIER_IS.equals(qualifier) && title.equals(text))) {
+            match = i;
+         }
+      }
+      return match;
+   }
+
+}
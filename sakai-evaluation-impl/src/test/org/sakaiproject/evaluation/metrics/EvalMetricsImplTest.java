@@ -0,0 +1,134 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.metrics;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing the metrics recording and percentiles
+ */
+public class EvalMetricsImplTest {
+
+    private EvalMetricsImpl evalMetrics;
+    private Method method;
+
+    @Before
+    public void setUp() throws Exception {
+        evalMetrics = new EvalMetricsImpl();
+        method = String.class.getMethod("length");
+    }
+
+    @Test
+    public void testPercentiles() {
+        evalMetrics.setMode(EvalMetrics.MODE_ALL);
+        MethodMetrics metrics = evalMetrics.getMethodMetrics(String.class, method);
+        Assert.assertNotNull(metrics);
+        Assert.assertSame(metrics, evalMetrics.getMethodMetrics(String.class, method));
+        // 1..100 milliseconds
+        for (int i = 1; i <= 100; i++) {
+            metrics.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        metrics.countError();
+
+        List<EvalMethodStats> stats = evalMetrics.getMethodStats();
+        Assert.assertEquals(1, stats.size());
+        EvalMethodStats s = stats.get(0);
+        Assert.assertEquals("String.length", s.getName());
+        Assert.assertEquals(100, s.getCalls());
+        Assert.assertEquals(100, s.getTimedCalls());
+        Assert.assertEquals(1, s.getErrors());
+        Assert.assertEquals(100000, s.getMaxMicros());
+        assertWithin(50000, s.getP50Micros());
+        assertWithin(95000, s.getP95Micros());
+        assertWithin(99000, s.getP99Micros());
+        assertWithin(50500, s.getMeanMicros());
+
+        evalMetrics.reset();
+        Assert.assertTrue(evalMetrics.getMethodStats().isEmpty());
+    }
+
+    @Test
+    public void testInheritedMethods() throws Exception {
+        evalMetrics.setMode(EvalMetrics.MODE_ALL);
+        // an inherited method is recorded separately for each class it is called on
+        Method toString = Object.class.getMethod("toString");
+        MethodMetrics stringMetrics = evalMetrics.getMethodMetrics(String.class, toString);
+        MethodMetrics integerMetrics = evalMetrics.getMethodMetrics(Integer.class, toString);
+        Assert.assertNotSame(stringMetrics, integerMetrics);
+        Assert.assertSame(stringMetrics, evalMetrics.getMethodMetrics(String.class, toString));
+        Assert.assertEquals(2, evalMetrics.getMethodStats().size());
+        // without a target class the declaring class is used
+        Assert.assertSame(evalMetrics.getMethodMetrics(Object.class, toString), evalMetrics.getMethodMetrics(null, toString));
+    }
+
+    @Test
+    public void testBuckets() {
+        Assert.assertEquals(0, MethodMetrics.bucketIndex(0));
+        Assert.assertEquals(0, MethodMetrics.bucketIndex(500));
+        Assert.assertEquals(MethodMetrics.BUCKETS - 1, MethodMetrics.bucketIndex(Long.MAX_VALUE));
+        long previous = 0;
+        for (int i = 0; i < MethodMetrics.BUCKETS; i++) {
+            long value = MethodMetrics.bucketValue(i);
+            Assert.assertTrue(value > previous);
+            Assert.assertEquals(i, MethodMetrics.bucketIndex(value));
+            previous = value;
+        }
+    }
+
+    @Test
+    public void testModes() {
+        evalMetrics.setMode(EvalMetrics.MODE_OFF);
+        Assert.assertNull(evalMetrics.getMethodMetrics(String.class, method));
+
+        evalMetrics.setMode(EvalMetrics.MODE_ALL);
+        Assert.assertTrue(evalMetrics.shouldTime());
+
+        evalMetrics.setMode(EvalMetrics.MODE_SAMPLED);
+        evalMetrics.setSampleRate(1);
+        Assert.assertTrue(evalMetrics.shouldTime());
+        evalMetrics.setSampleRate(1000);
+        int timed = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (evalMetrics.shouldTime()) {
+                timed++;
+            }
+        }
+        Assert.assertTrue(timed > 0 && timed < 100);
+
+        try {
+            evalMetrics.setMode("invalid");
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e.getMessage());
+        }
+        try {
+            evalMetrics.setSampleRate(0);
+            Assert.fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e.getMessage());
+        }
+    }
+
+    private void assertWithin(long expected, long actual) {
+        Assert.assertTrue("expected about " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 10);
+    }
+
+}
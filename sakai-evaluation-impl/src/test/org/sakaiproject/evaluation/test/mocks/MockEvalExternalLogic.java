@@ -564,6 +564,11 @@ public class MockEvalExternalLogic implements EvalExternalLogic {
         throw new UnsupportedOperationException();
     }
 
+    public EvalScheduledJob[] findAllScheduledJobs() {
+        // there are no jobs in the Sakai scheduler in the tests
+        return new EvalScheduledJob[0];
+    }
+
 
     // testing methods
 
@@ -721,6 +726,16 @@ public class MockEvalExternalLogic implements EvalExternalLogic {
         return result;
     }
 
+    public Map<String, Set<String>> getUserIdsForEvalGroups( Collection<String> evalGroupIDs, String permission, Boolean sectionAware )
+    {
+        Map<String, Set<String>> result = new HashMap<>();
+        for ( String evalGroupID : evalGroupIDs )
+        {
+            result.put( evalGroupID, getUserIdsForEvalGroup( evalGroupID, permission, sectionAware ) );
+        }
+        return result;
+    }
+
     public Set<String> getUserIdsForEvalGroup( String evalGroupID, String permission, Boolean sectionAware )
     {
         if (Boolean.TRUE.equals(sectionAware)) {
@@ -15,6 +15,7 @@
 package org.sakaiproject.evaluation.test.mocks;
 
 import org.sakaiproject.evaluation.logic.externals.EvalJobLogic;
+import org.sakaiproject.evaluation.logic.model.EvalScheduledJob;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -35,9 +36,41 @@ public class MockEvalJobLogic implements EvalJobLogic {
       // pretend all is ok and do nothing
    }
 
+   public void jobAction(EvalScheduledJob job) {
+      log.info("MOCK: jobAction(job="+job+")");
+      // pretend all is ok and do nothing
+   }
+
    public void processEvaluationStateChange(Long evaluationId, String actionState) {
       log.info("MOCK: jobAction(evaluationId="+evaluationId+", actionState="+actionState+")");
       // pretend all is ok and do nothing
    }
 
+   public EvalScheduledJob[] claimDueJobs(int maxJobs, String holder) {
+      log.info("MOCK: claimDueJobs(maxJobs="+maxJobs+", holder="+holder+")");
+      // pretend nothing is due
+      return new EvalScheduledJob[0];
+   }
+
+   public void completeJob(EvalScheduledJob job, String holder) {
+      log.info("MOCK: completeJob(job="+job+", holder="+holder+")");
+      // pretend all is ok and do nothing
+   }
+
+   public void releaseJob(EvalScheduledJob job, String holder) {
+      log.info("MOCK: releaseJob(job="+job+", holder="+holder+")");
+      // pretend all is ok and do nothing
+   }
+
+   public void legacyJobAction(Long evaluationId, String jobType) {
+      log.info("MOCK: legacyJobAction(evaluationId="+evaluationId+", jobType="+jobType+")");
+      // pretend all is ok and do nothing
+   }
+
+   public int migrateLegacyJobs() {
+      log.info("MOCK: migrateLegacyJobs()");
+      // pretend there was nothing to move
+      return 0;
+   }
+
 }
@@ -210,6 +210,17 @@ public class MockExternalHierarchyLogic implements ExternalHierarchyLogic {
         return l;
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.evaluation.logic.externals.ExternalHierarchyLogic#getNodesAboveEvalGroups(java.util.Collection)
+     */
+    public Map<String, List<EvalHierarchyNode>> getNodesAboveEvalGroups(Collection<String> evalGroupIds) {
+        Map<String, List<EvalHierarchyNode>> m = new HashMap<>();
+        for (String evalGroupId : evalGroupIds) {
+            m.put(evalGroupId, getNodesAboveEvalGroup(evalGroupId));
+        }
+        return m;
+    }
+
     /* (non-Javadoc)
      * @see org.sakaiproject.evaluation.providers.EvalHierarchyProvider#getNodesByIds(java.lang.String[])
      */
@@ -15,12 +15,17 @@
 package org.sakaiproject.evaluation.utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.model.EvalHierarchyNode;
+import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalItem;
+import org.sakaiproject.evaluation.model.EvalResponse;
 import org.sakaiproject.evaluation.model.EvalTemplateItem;
 import org.sakaiproject.evaluation.test.EvalTestDataLoad;
 import org.sakaiproject.evaluation.utils.TemplateItemDataList.DataTemplateItem;
@@ -187,4 +192,86 @@ public class TemplateItemDataListTest extends TestCase {
 
    }
 
+   /**
+    * Test the answers index and choice counts match the counts made from the answer lists
+    */
+   public void testAnswerAggregation() {
+      EvalTestDataLoad etdl = new EvalTestDataLoad(null);
+
+      etdl.templateItem2A.setId(102l);
+      etdl.templateItem5A.setId(105l);
+      EvalItem maItem = new EvalItem(EvalTestDataLoad.ADMIN_USER_ID, "MA", EvalConstants.SHARING_PRIVATE,
+            EvalConstants.ITEM_TYPE_MULTIPLEANSWER, false);
+      maItem.setScale(etdl.scale1);
+      EvalTemplateItem maTemplateItem = new EvalTemplateItem(EvalTestDataLoad.ADMIN_USER_ID, etdl.templateAdmin,
+            maItem, 4, EvalConstants.ITEM_CATEGORY_COURSE, EvalConstants.HIERARCHY_LEVEL_TOP,
+            EvalConstants.HIERARCHY_NODE_ID_NONE);
+      maTemplateItem.setId(106l);
+      List<EvalTemplateItem> testList = new ArrayList<>();
+      testList.add(etdl.templateItem2A); // course scaled
+      testList.add(etdl.templateItem5A); // instructor text
+      testList.add(maTemplateItem); // course multiple answer
+
+      List<EvalAnswer> answers = new ArrayList<>();
+      String[] maCodes = {":0:2:", ":1:", EvalConstants.NO_MULTIPLE_ANSWER, ":2:3:12:"};
+      for (long r = 1; r <= 4; r++) {
+         EvalResponse response = new EvalResponse(EvalTestDataLoad.USER_ID + r, EvalTestDataLoad.SITE1_REF, etdl.evaluationActive, new Date());
+         response.setId(r);
+         // r=4 is NA for the scaled item
+         answers.add(new EvalAnswer(response, etdl.templateItem2A, etdl.item2, null, EvalConstants.ITEM_CATEGORY_COURSE,
+               r == 4 ? EvalConstants.NA_VALUE : (int) r % 3));
+         answers.add(new EvalAnswer(response, etdl.templateItem5A, etdl.item5, EvalTestDataLoad.MAINT_USER_ID, EvalConstants.ITEM_CATEGORY_INSTRUCTOR,
+               "text " + r));
+         answers.add(new EvalAnswer(response, maTemplateItem, maItem, null, EvalConstants.ITEM_CATEGORY_COURSE,
+               null, EvalConstants.NO_NUMERIC_ANSWER, maCodes[(int) r - 1], null));
+      }
+      answers.get(1).setComment("comment");
+
+      Map<String, List<String>> associates = new HashMap<>();
+      List<String> associateIds = new ArrayList<>();
+      associateIds.add(EvalTestDataLoad.MAINT_USER_ID);
+      associates.put(EvalConstants.ITEM_CATEGORY_INSTRUCTOR, associateIds);
+      TemplateItemDataList tidl = new TemplateItemDataList(testList, null, associates, answers);
+
+      List<DataTemplateItem> flatList = tidl.getFlatListOfDataTemplateItems(true);
+      assertEquals(3, flatList.size());
+      for (DataTemplateItem dti : flatList) {
+         List<EvalAnswer> expected = new ArrayList<>();
+         for (EvalAnswer answer : answers) {
+            if (answer.getTemplateItem() == dti.templateItem) {
+               expected.add(answer);
+            }
+         }
+         assertEquals(expected, dti.getAnswers());
+         assertEquals(4, dti.countAnswers());
+         if (! EvalConstants.ITEM_TYPE_TEXT.equals(dti.getTemplateItemType())) {
+            assertTrue(Arrays.equals(TemplateItemDataList.getAnswerChoicesCounts(dti.getTemplateItemType(), 5, expected),
+                  dti.getAnswerChoicesCounts(5)));
+         }
+         assertEquals(expected.get(2), dti.getAnswer(3l));
+         assertNull(dti.getAnswer(99l));
+      }
+      // course scaled: 1,2,0 and one NA
+      assertTrue(Arrays.equals(new int[] {1, 1, 1, 0, 0, 1}, flatList.get(0).getAnswerChoicesCounts(5)));
+      assertTrue(answers.get(9).NA);
+      // multiple answer: 0,2 + 1 + none + 2,3,12 (12 is out of range so it is in the NA slot)
+      assertTrue(Arrays.equals(new int[] {1, 1, 2, 1, 0, 1}, flatList.get(1).getAnswerChoicesCounts(5)));
+      assertTrue(Arrays.equals(new Integer[] {2, 3, 12}, answers.get(11).multipleAnswers));
+      assertEquals(1, flatList.get(2).getComments().size());
+
+      assertEquals(4, tidl.getResponseIdsForAnswers().size());
+      assertEquals(Long.valueOf(1l), tidl.getResponseIdsForAnswers().get(0));
+      assertEquals(3, tidl.getAnswersByResponseId(2l).size());
+      assertEquals(0, tidl.getAnswersByResponseId(99l).size());
+
+      // invalid multiple answer codes still fail
+      answers.get(2).setMultiAnswerCode(":x:");
+      try {
+         new TemplateItemDataList(testList, null, associates, answers);
+         fail("Should have thrown exception");
+      } catch (IllegalArgumentException e) {
+         assertNotNull(e.getMessage());
+      }
+   }
+
 }
@@ -14,7 +14,10 @@
  */
 package org.sakaiproject.evaluation.utils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.TestCase;
@@ -126,4 +129,55 @@ public class TextTemplateLogicUtilsTest extends TestCase {
    }
 
 
+   public void testProcessTextTemplateCached() {
+      Map<String, String> rVals = new HashMap<>();
+      rVals.put("name", "Aaron Zeckoski");
+      rVals.put("email", "aaronz@vt.edu");
+      rVals.put("company", "CARET, University of Cambridge");
+
+      // the same template is processed from the cache
+      String result = TextTemplateLogicUtils.processTextTemplate(1L, SAMPLE1, rVals);
+      assertEquals(RESULT1, result);
+      result = TextTemplateLogicUtils.processTextTemplate(1L, SAMPLE1, rVals);
+      assertEquals(RESULT1, result);
+
+      // changing the text of a template is picked up
+      result = TextTemplateLogicUtils.processTextTemplate(1L, "Hello ${name}", rVals);
+      assertEquals("Hello Aaron Zeckoski", result);
+
+      // the cache stays bounded and still works after evictions
+      for (int i = 0; i < TextTemplateLogicUtils.MAX_CACHED_TEMPLATES * 2; i++) {
+         result = TextTemplateLogicUtils.processTextTemplate((long) i, "Number " + i + " for ${name}", rVals);
+         assertEquals("Number " + i + " for Aaron Zeckoski", result);
+      }
+      result = TextTemplateLogicUtils.processTextTemplate(1L, SAMPLE1, rVals);
+      assertEquals(RESULT1, result);
+      TextTemplateLogicUtils.clearTemplateCache();
+   }
+
+   public void testProcessTextTemplateConcurrent() throws Exception {
+      final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+      Thread[] threads = new Thread[8];
+      for (int t = 0; t < threads.length; t++) {
+         final String name = "user" + t;
+         threads[t] = new Thread(() -> {
+            Map<String, String> rVals = new HashMap<>();
+            rVals.put("name", name);
+            rVals.put("email", name + "@vt.edu");
+            rVals.put("company", "CARET");
+            for (int i = 0; i < 200; i++) {
+               String result = TextTemplateLogicUtils.processTextTemplate(2L, SAMPLE1, rVals);
+               if (! result.contains("Welcome " + name + ",") || ! result.contains(name + "@vt.edu")) {
+                  failures.add(result);
+               }
+            }
+         });
+         threads[t].start();
+      }
+      for (Thread thread : threads) {
+         thread.join();
+      }
+      assertTrue(failures.isEmpty());
+   }
+
 }
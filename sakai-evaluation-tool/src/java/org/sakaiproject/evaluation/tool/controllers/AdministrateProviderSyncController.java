@@ -56,6 +56,7 @@ public class AdministrateProviderSyncController extends EvalControllerSupport {
                              @RequestParam(required = false) Boolean syncOnStateChange,
                              @RequestParam(required = false) Boolean syncOnGroupSave,
                              @RequestParam(required = false) Boolean syncOnGroupUpdate,
+                             @RequestParam(required = false) Boolean syncOnMembershipChange,
                              @RequestParam(required = false) String syncServerId,
                              RedirectAttributes ra) {
         checkAdmin();
@@ -67,6 +68,8 @@ public class AdministrateProviderSyncController extends EvalControllerSupport {
             settings.set(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_GROUP_SAVE, syncOnGroupSave);
         if (syncOnGroupUpdate != null)
             settings.set(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_GROUP_UPDATE, syncOnGroupUpdate);
+        if (syncOnMembershipChange != null)
+            settings.set(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_MEMBERSHIP_CHANGE, syncOnMembershipChange);
         if (syncServerId != null && !syncServerId.isEmpty())
             settings.set(EvalSettings.SYNC_SERVER, syncServerId);
         ra.addFlashAttribute("successMessage", "administrate.sync.event.saved");
@@ -175,6 +178,8 @@ public class AdministrateProviderSyncController extends EvalControllerSupport {
                 Boolean.TRUE.equals(settings.get(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_GROUP_SAVE)));
         model.addAttribute("syncOnGroupUpdate",
                 Boolean.TRUE.equals(settings.get(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_GROUP_UPDATE)));
+        model.addAttribute("syncOnMembershipChange",
+                ! Boolean.FALSE.equals(settings.get(EvalSettings.SYNC_USER_ASSIGNMENTS_ON_MEMBERSHIP_CHANGE)));
         Object syncServer = settings.get(EvalSettings.SYNC_SERVER);
         model.addAttribute("syncServerId", syncServer != null ? syncServer.toString() : "");
 
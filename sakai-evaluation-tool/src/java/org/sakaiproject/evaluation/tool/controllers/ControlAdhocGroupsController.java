@@ -74,7 +74,7 @@ public class ControlAdhocGroupsController extends EvalControllerSupport {
             boolean anyLocked = false;
             List<EvalInfo> evalInfos = new ArrayList<>();
             for (EvalEvaluation eval : evals) {
-                String state = evaluationService.updateEvaluationState(eval.getId());
+                String state = evaluationService.getEffectiveEvalState(eval);
                 boolean locked = isLockedState(state);
                 if (locked) anyLocked = true;
                 evalInfos.add(new EvalInfo(eval.getId(), eval.getTitle(),
@@ -103,7 +103,7 @@ public class ControlAdhocGroupsController extends EvalControllerSupport {
         List<EvalEvaluation> evals = evaluationService.getEvaluationsForEvalGroups(
                 new String[]{group.getEvalGroupId()}, 0, 0);
         for (EvalEvaluation eval : evals) {
-            if (isLockedState(evaluationService.updateEvaluationState(eval.getId()))) {
+            if (isLockedState(evaluationService.getEffectiveEvalState(eval))) {
                 ra.addFlashAttribute("errorMessage", "controladhocgroups.cannot.delete.locked");
                 return "redirect:/control_adhoc_groups";
             }
@@ -201,7 +201,7 @@ public class ControlEvaluationsController extends EvalControllerSupport {
     private EvaluationBuckets bucketEvaluations(List<EvalEvaluation> evals) {
         EvaluationBuckets buckets = new EvaluationBuckets();
         for (EvalEvaluation eval : evals) {
-            String state = evaluationService.updateEvaluationState(eval.getId());
+            String state = evaluationService.getEffectiveEvalState(eval);
             if (EvalConstants.EVALUATION_STATE_PARTIAL.equals(state)) {
                 buckets.partialEvals.add(eval);
             } else if (EvalConstants.EVALUATION_STATE_INQUEUE.equals(state)) {
@@ -92,7 +92,7 @@ public class EvaluationAssignSelectController extends EvalControllerSupport {
         model.addAttribute("userRows", rows);
 
         // Current selection option for the group
-        String currentEvalState = evaluationService.updateEvaluationState(evaluationId);
+        String currentEvalState = evaluationService.getEffectiveEvalState(eval);
         String selectionOption = EvalUtils.getSelectionSetting(evalCategory, null, eval);
         if (EvalUtils.checkStateBefore(currentEvalState, EvalConstants.EVALUATION_STATE_PARTIAL, true)) {
             selectionOption = EvalAssignGroup.SELECTION_OPTION_MULTIPLE;
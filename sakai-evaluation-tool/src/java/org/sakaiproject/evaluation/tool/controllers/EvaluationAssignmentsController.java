@@ -114,7 +114,7 @@ public class EvaluationAssignmentsController extends EvalControllerSupport {
         model.addAttribute("evalTitle", eval.getTitle());
 
         // Link to modify assignments (only if state <= ACTIVE)
-        String evalState = evaluationService.updateEvaluationState(evaluationId);
+        String evalState = evaluationService.getEffectiveEvalState(eval);
         boolean canModify = EvalUtils.checkStateBefore(evalState, EvalConstants.EVALUATION_STATE_ACTIVE, true);
         model.addAttribute("canModify", canModify);
         if (canModify) {
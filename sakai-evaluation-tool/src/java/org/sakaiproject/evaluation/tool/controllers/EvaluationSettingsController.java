@@ -158,7 +158,7 @@ public class EvaluationSettingsController extends EvalControllerSupport {
 
     private EvaluationSettingsDisplayState buildDisplayState(EvalEvaluation eval, boolean reopen) {
         EvaluationSettingsDisplayState state = new EvaluationSettingsDisplayState();
-        state.currentEvalState = evaluationService.returnAndFixEvalState(eval, true);
+        state.currentEvalState = evaluationService.getEffectiveEvalState(eval);
         if (reopen) {
             Boolean enableReOpen = (Boolean) settings.get(EvalSettings.ENABLE_EVAL_REOPEN);
             if (Boolean.TRUE.equals(enableReOpen) &&
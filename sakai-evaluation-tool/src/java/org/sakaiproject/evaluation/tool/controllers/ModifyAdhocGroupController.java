@@ -301,7 +301,7 @@ public class ModifyAdhocGroupController extends EvalControllerSupport {
         List<EvalEvaluation> evals = evaluationService.getEvaluationsForEvalGroups(
                 new String[]{group.getEvalGroupId()}, 0, 0);
         for (EvalEvaluation eval : evals) {
-            if (ControlAdhocGroupsController.isLockedState(evaluationService.updateEvaluationState(eval.getId())))
+            if (ControlAdhocGroupsController.isLockedState(evaluationService.getEffectiveEvalState(eval)))
                 return true;
         }
         return false;
@@ -257,7 +257,7 @@ public class PreviewEvalController extends EvalControllerSupport {
                 List<DataTemplateItem> dtis = hng.getDataTemplateItems(false);
                 int rowIndex = 0;
                 for (DataTemplateItem dti : dtis) {
-                    ItemData itemData = buildItemData(dti.templateItem, displayNumber, locale);
+                    ItemData itemData = buildItemData(dti.templateItem, dti.blockChildItems, displayNumber, locale);
                     itemData.setOdd(rowIndex % 2 != 0);
                     ngd.getItems().add(itemData);
                     // increment display number
@@ -284,7 +284,7 @@ public class PreviewEvalController extends EvalControllerSupport {
 
     // ---- Item building -------------------------------------------------------
 
-    private ItemData buildItemData(EvalTemplateItem ti, int displayNumber, Locale locale) {
+    private ItemData buildItemData(EvalTemplateItem ti, List<EvalTemplateItem> childItems, int displayNumber, Locale locale) {
         EvalItemViewData base = EvalItemViewDataBuilder.build(ti, displayNumber);
         ItemData d = new ItemData();
         d.setItemType(base.getItemType());
@@ -308,10 +308,10 @@ public class PreviewEvalController extends EvalControllerSupport {
 
         if (EvalConstants.ITEM_TYPE_BLOCK_PARENT.equals(d.getItemType())) {
             List<EvalItemViewData> children = new ArrayList<>();
-            if (ti.childTemplateItems != null) {
+            if (childItems != null) {
                 int childNum = displayNumber;
-                for (EvalTemplateItem child : ti.childTemplateItems) {
-                    children.add(buildItemData(child, childNum++, locale));
+                for (EvalTemplateItem child : childItems) {
+                    children.add(buildItemData(child, null, childNum++, locale));
                 }
             }
             d.setChildItems(children);
@@ -198,7 +198,7 @@ public class ReportViewController extends EvalControllerSupport {
 
         boolean allEssays = VIEWMODE_ALLESSAYS.equals(viewmode);
 
-        TemplateItemDataList tidl = responseAggregator.prepareTemplateItemDataStructure(evaluationId, groupIds);
+        TemplateItemDataList tidl = responseAggregator.prepareTemplateItemSummaryStructure(evaluationId, groupIds);
         List<EvalTemplateItem> allTemplateItems = tidl.getAllTemplateItems();
 
         List<CategorySection> categorySections = new ArrayList<>();
@@ -366,7 +366,7 @@ public class ReportViewController extends EvalControllerSupport {
                 || EvalConstants.ITEM_TYPE_MULTIPLECHOICE.equals(type)
                 || EvalConstants.ITEM_TYPE_BLOCK_CHILD.equals(type)) {
 
-            int totalResponses = answers.size();
+            int totalResponses = dti.countAnswers();
             List<ChoiceRow> choices = new ArrayList<>();
             AnswersMean mean = null;
 
@@ -374,7 +374,7 @@ public class ReportViewController extends EvalControllerSupport {
                 EvalScale scale = templateItem.getItem().getScale();
                 List<String> opts = scale.getOptions();
                 List<String> labels = RenderingUtils.makeReportingScaleLabels(templateItem, opts);
-                int[] counts = TemplateItemDataList.getAnswerChoicesCounts(type, opts.size(), answers);
+                int[] counts = dti.getAnswerChoicesCounts(opts.size());
 
                 for (int x = 0; x < labels.size(); x++) {
                     choices.add(new ChoiceRow(labels.get(x), counts[x], makePercent(counts[x], totalResponses), false));
@@ -383,7 +383,7 @@ public class ReportViewController extends EvalControllerSupport {
                     int naCount = counts[counts.length - 1];
                     choices.add(new ChoiceRow("reporting.notapplicable.longlabel", naCount, makePercent(naCount, totalResponses), true));
                 }
-                mean = RenderingUtils.calculateAnswersMean(counts, opts, templateItem.getUsesNA());
+                mean = RenderingUtils.calculateAnswersMean(counts, opts, dti.usesNA());
             }
 
             boolean usesComments = dti.usesComments();
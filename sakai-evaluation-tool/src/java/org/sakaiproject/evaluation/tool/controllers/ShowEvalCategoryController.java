@@ -15,6 +15,7 @@
 package org.sakaiproject.evaluation.tool.controllers;
 
 import java.text.DateFormat;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -56,14 +57,15 @@ public class ShowEvalCategoryController extends EvalControllerSupport {
             Long[] evalIds = evals.stream().map(EvalEvaluation::getId).toArray(Long[]::new);
             Map<Long, List<EvalGroup>> groupsByEval = evaluationService.getEvalGroupsForEval(evalIds, false, null);
 
-            // Enrich each evaluation with its updated state and groups
+            // the current state of each evaluation (by id), only read so nothing is saved for a page view
+            Map<Long, String> evalStates = new HashMap<>();
             for (EvalEvaluation eval : evals) {
-                String state = evaluationService.updateEvaluationState(eval.getId());
-                eval.setState(state); // reuse the state field from the model
+                evalStates.put(eval.getId(), evaluationService.getEffectiveEvalState(eval));
             }
 
             model.addAttribute("evals", evals);
             model.addAttribute("groupsByEval", groupsByEval);
+            model.addAttribute("evalStates", evalStates);
             model.addAttribute("df", df);
             model.addAttribute("ACTIVE", EvalConstants.EVALUATION_STATE_ACTIVE);
             model.addAttribute("INVALID", EvalConstants.GROUP_TYPE_INVALID);
@@ -16,13 +16,19 @@ package org.sakaiproject.evaluation.tool.controllers;
 
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.EvalSettings;
 import org.sakaiproject.evaluation.logic.model.EvalGroup;
+import org.sakaiproject.evaluation.logic.model.EvalResponseRate;
 import org.sakaiproject.evaluation.model.EvalAssignGroup;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
 import org.sakaiproject.evaluation.model.EvalResponse;
@@ -143,7 +149,7 @@ public class SummaryController extends EvalControllerSupport {
         List<EvalResponse> responses = deliveryService.getEvaluationResponsesForUser(userId, evalIds, null);
 
         for (EvalEvaluation eval : evals) {
-            String state = evaluationService.returnAndFixEvalState(eval, true);
+            String state = evaluationService.getEffectiveEvalState(eval);
             if (!EvalConstants.EVALUATION_STATE_ACTIVE.equals(state)) {
                 continue;
             }
@@ -190,10 +196,27 @@ public class SummaryController extends EvalControllerSupport {
         }
         evals = EvalUtils.sortClosedEvalsToEnd(evals);
 
+        // fetch all the response rates and the groups the user can see the respondents of once for the whole box
+        Map<Long, String[]> evalGroupIds = new LinkedHashMap<>();
+        for (EvalEvaluation eval : evals) {
+            List<EvalGroup> groups = eval.getEvalGroups();
+            if (groups != null && !groups.isEmpty()) {
+                evalGroupIds.put(eval.getId(), groups.stream().map(g -> g.evalGroupId).toArray(String[]::new));
+            }
+        }
+        Map<Long, Map<String, EvalResponseRate>> responseRates = evaluationService.getResponseRates(userId, evalGroupIds);
+        Set<String> viewRespondersGroupIds = new HashSet<>();
+        for (EvalGroup group : commonLogic.getEvalGroupsForUser(userId, EvalConstants.PERM_VIEW_RESPONDERS)) {
+            viewRespondersGroupIds.add(group.evalGroupId);
+        }
+
         for (EvalEvaluation eval : evals) {
             boolean closed = EvalUtils.checkStateAfter(eval.getState(), EvalConstants.EVALUATION_STATE_CLOSED, true);
             List<EvalGroup> groups = eval.getEvalGroups();
             if (groups == null) groups = new ArrayList<>();
+            Map<String, EvalResponseRate> groupRates = responseRates.getOrDefault(eval.getId(), Collections.emptyMap());
+            String evalState = commonLogic.calculateViewability(eval.getState());
+            boolean showResultsLink = evalBeanUtils.checkInstructorViewResultsForEval(eval, evalState);
 
             for (EvalGroup group : groups) {
                 EvalResponseRow row = new EvalResponseRow();
@@ -204,15 +227,12 @@ public class SummaryController extends EvalControllerSupport {
                 Date dueDate = eval.getSafeDueDate() != null ? eval.getSafeDueDate() : eval.getDueDate();
                 row.setDueDate(dueDate != null ? df.format(dueDate) : "");
 
-                int responsesCount  = deliveryService.countResponses(eval.getId(), group.evalGroupId, true);
-                int enrollmentsCount = evaluationService.countParticipantsForEval(eval.getId(), new String[]{group.evalGroupId});
-                row.setResponseRate(EvalUtils.makeResponseRateStringFromCounts(responsesCount, enrollmentsCount));
-
-                String evalState = commonLogic.calculateViewability(eval.getState());
-                row.setShowResultsLink(evalBeanUtils.checkInstructorViewResultsForEval(eval, evalState));
+                EvalResponseRate rate = groupRates.get(group.evalGroupId);
+                row.setResponseRate(rate != null ? rate.getResponseRate()
+                        : EvalUtils.makeResponseRateStringFromCounts(0, 0));
 
-                List<EvalGroup> allowedGroups = commonLogic.getEvalGroupsForUser(userId, EvalConstants.PERM_VIEW_RESPONDERS);
-                row.setShowRespondentsLink(allowedGroups.stream().anyMatch(g -> g.evalGroupId.equals(group.evalGroupId)));
+                row.setShowResultsLink(showResultsLink);
+                row.setShowRespondentsLink(viewRespondersGroupIds.contains(group.evalGroupId));
 
                 if (closed) {
                     evalsClosed.add(row);
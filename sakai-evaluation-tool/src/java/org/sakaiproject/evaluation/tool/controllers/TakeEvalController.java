@@ -191,7 +191,7 @@ public class TakeEvalController extends EvalControllerSupport {
     }
 
     private boolean addEvaluationUnavailableMessage(EvalEvaluation eval, Locale locale, Model model) {
-        String evalState = evaluationService.returnAndFixEvalState(eval, true);
+        String evalState = evaluationService.getEffectiveEvalState(eval);
         if (EvalUtils.checkStateBefore(evalState, EvalConstants.EVALUATION_STATE_ACTIVE, false)) {
             model.addAttribute("cannotTakeMessage",
                     messageSource.getMessage("takeeval.eval.not.open", null, locale));
@@ -546,22 +546,40 @@ public class TakeEvalController extends EvalControllerSupport {
         return redirect.toString();
     }
 
-    /** Builds the answer set from the submitted form data. */
+    /**
+     * Builds the answer set from the submitted form data, the template items are resolved in one lookup
+     * (limited to the evaluation template) and the existing answers are indexed by id once
+     */
     private Set<EvalAnswer> buildAnswers(EvalResponse response, EvalFormWrapper formWrapper) {
         Set<EvalAnswer> answers = new HashSet<>();
+        Set<Long> templateItemIds = new HashSet<>();
+        for (EvalFormWrapper.AnswerSubmission sub : formWrapper.getAnswers()) {
+            if (sub.getTemplateItemId() != null) {
+                templateItemIds.add(sub.getTemplateItemId());
+            }
+        }
+        if (templateItemIds.isEmpty()) {
+            return answers;
+        }
+        Map<Long, EvalTemplateItem> templateItems = authoringService.getTemplateItemsForEvaluationByIds(
+                response.getEvaluation().getId(), templateItemIds.toArray(new Long[templateItemIds.size()]));
+        Map<Long, EvalAnswer> existingAnswers = indexAnswersById(response);
+
         for (EvalFormWrapper.AnswerSubmission sub : formWrapper.getAnswers()) {
             if (sub.getTemplateItemId() == null) continue;
 
-            EvalTemplateItem ti = authoringService.getTemplateItemById(sub.getTemplateItemId());
-            if (ti == null) continue;
+            EvalTemplateItem ti = templateItems.get(sub.getTemplateItemId());
+            if (ti == null) {
+                log.warn("Ignoring answer for template item {} which is not in evaluation {}",
+                        sub.getTemplateItemId(), response.getEvaluation().getId());
+                continue;
+            }
 
-            EvalAnswer answer;
+            EvalAnswer answer = null;
             if (sub.getExistingAnswerId() != null) {
-                answer = findAnswerInResponse(response, sub.getExistingAnswerId());
-                if (answer == null) {
-                    answer = new EvalAnswer(response, ti, ti.getItem());
-                }
-            } else {
+                answer = existingAnswers.get(sub.getExistingAnswerId());
+            }
+            if (answer == null) {
                 answer = new EvalAnswer(response, ti, ti.getItem());
             }
 
@@ -619,11 +637,15 @@ public class TakeEvalController extends EvalControllerSupport {
                 ti, displayNumber, associatedId, associatedType, answerIndex, existing, new FormItemData());
     }
 
-    private EvalAnswer findAnswerInResponse(EvalResponse response, Long answerId) {
-        if (response.getAnswers() == null) return null;
-        for (EvalAnswer a : response.getAnswers()) {
-            if (answerId.equals(a.getId())) return a;
+    private Map<Long, EvalAnswer> indexAnswersById(EvalResponse response) {
+        Map<Long, EvalAnswer> answersById = new HashMap<>();
+        if (response.getAnswers() != null) {
+            for (EvalAnswer a : response.getAnswers()) {
+                if (a.getId() != null) {
+                    answersById.put(a.getId(), a);
+                }
+            }
         }
-        return null;
+        return answersById;
     }
 }
@@ -19,12 +19,16 @@ import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -57,7 +61,6 @@ public class CSVReportExporter implements ReportExporter {
     private static final String COMMA_DELIMITER = ",";
     private static final String DOUBLE_QUOTE = "\"";
     private static final String NEW_LINE = "\n";
-    private static final int SECTION_OR_SITE_COLUMN_NUM = 0;
 
     private EvalCommonLogic commonLogic;
     public void setCommonLogic(EvalCommonLogic commonLogic) {
@@ -75,39 +78,31 @@ public class CSVReportExporter implements ReportExporter {
     }
 
     /**
-     * Utility method to take a list of strings and append them to a StringBuilder
+     * Utility method to take a list of strings and write them to a Writer
      * in CSV style
      *
-     * @param sb - the StringBuilder object to use
-     * @param entries - the entries to add to the StringBuilder
+     * @param writer - the Writer to use
+     * @param entries - the entries to write as a single line
      */
-    private void appendToStringBuilder( StringBuilder sb, List<String> entries )
+    private void writeRow( Writer writer, List<String> entries )
     {
-        String prefix = "";
-        for( String str : entries )
+        try
         {
-            sb.append( prefix ).append( DOUBLE_QUOTE ).append( str ).append(DOUBLE_QUOTE);
-            prefix = COMMA_DELIMITER;
-        }
-        sb.append( NEW_LINE );
-    }
-
-    /**
-     * Custom comparator to sort row data based on the section/site column
-     */
-    public static class SortBySectionOrSiteComparator implements Comparator<List<String>>
-    {
-        @Override
-        public int compare( List<String> row1, List<String> row2 )
-        {
-            String row1Value = row1.get( SECTION_OR_SITE_COLUMN_NUM );
-            String row2Value = row2.get( SECTION_OR_SITE_COLUMN_NUM );
-            return row1Value.compareTo( row2Value );
+            String prefix = "";
+            for( String str : entries )
+            {
+                writer.append( prefix ).append( DOUBLE_QUOTE ).append( str ).append( DOUBLE_QUOTE );
+                prefix = COMMA_DELIMITER;
+            }
+            writer.append( NEW_LINE );
         }
+        catch( IOException ex ) { throw new RuntimeException("Could not write the CSV row", ex); }
     }
 
     /**
      * Build the .csv report in the new (section based) format.
+     * The answers are streamed one response at a time and each row is written as soon as it is built,
+     * the responses are output in order by section/site name (instead of sorting all the rows in memory)
      *
      * @param evaluation - the EvalEvaluation object
      * @param groupIDs - group ID's associated with the evaluation
@@ -123,15 +118,13 @@ public class CSVReportExporter implements ReportExporter {
             String currentUserID = commonLogic.getCurrentUserId();
             boolean isCurrentUserAdmin = commonLogic.isUserAdmin(currentUserID);
 
-            // Get the TIDL and DTIs for this evaluation
-            TemplateItemDataList tidl = responseAggregator.prepareTemplateItemDataStructure( evaluation.getId(), groupIDs );
+            // Get the TIDL (structure only, the answers are streamed) and DTIs for this evaluation
+            TemplateItemDataList tidl = responseAggregator.prepareTemplateItemExportStructure( evaluation.getId(), groupIDs );
             List<DataTemplateItem> dtiList = tidl.getFlatListOfDataTemplateItems( true );
 
-            // Create all the holders
+            // Create the header holders
             List<String> instructorRelatedQuestionHeaders = new ArrayList<>();
             List<String> courseRelatedQuestionHeaders = new ArrayList<>();
-            List<List<String>> courseRelatedQuestions = new ArrayList<>();
-            List<List<String>> instructorRelatedQuestions = new ArrayList<>();
 
             // Generate static column headers
             if( evaluation.getSectionAwareness() )
@@ -150,7 +143,10 @@ public class CSVReportExporter implements ReportExporter {
             instructorRelatedQuestionHeaders.add( messages.getMessage( "viewreport.firstName.header" ) );
             instructorRelatedQuestionHeaders.add( messages.getMessage( "viewreport.lastName.header" ) );
 
-            // Generate dynamic question (column) headers
+            // Split the visible DTIs into course and instructor related items
+            List<DataTemplateItem> courseDTIs = new ArrayList<>();
+            List<DataTemplateItem> instructorDTIs = new ArrayList<>();
+            Set<Long> instructorTemplateItemIDs = new HashSet<>();
             for( DataTemplateItem dti : dtiList )
             {
                 // Skip items that aren't for the current user
@@ -159,6 +155,24 @@ public class CSVReportExporter implements ReportExporter {
                 {
                     continue;
                 }
+                if( EvalConstants.ITEM_CATEGORY_ASSISTANT.equals( dti.associateType ) || EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals( dti.associateType ) )
+                {
+                    instructorDTIs.add( dti );
+                    instructorTemplateItemIDs.add( dti.templateItem.getId() );
+                }
+                else
+                {
+                    courseDTIs.add( dti );
+                }
+            }
+
+            // Generate dynamic question (column) headers
+            for( DataTemplateItem dti : dtiList )
+            {
+                if( !courseDTIs.contains( dti ) && !instructorDTIs.contains( dti ) )
+                {
+                    continue;
+                }
 
                 // If there's already a header for a specific instructor question, don't list it twice
                 String questionText = commonLogic.makePlainTextFromHTML( dti.templateItem.getItem().getItemText() );
@@ -168,7 +182,7 @@ public class CSVReportExporter implements ReportExporter {
                 }
 
                 // Add the header to the appropriate CSV file
-                if( EvalConstants.ITEM_CATEGORY_ASSISTANT.equals( dti.associateType ) || EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals( dti.associateType ) )
+                if( instructorDTIs.contains( dti ) )
                 {
                     instructorRelatedQuestionHeaders.add( questionText );
                     if( dti.usesComments() )
@@ -186,175 +200,103 @@ public class CSVReportExporter implements ReportExporter {
                 }
             }
 
-            // Loop through the responses
-            List<Long> responseIDs = tidl.getResponseIdsForAnswers();
-            Map<Long, Map<User, List<EvalAnswer>>> answerMap = new HashMap<>();
-            for( Long responseID : responseIDs )
-            {
-                // Course related: section/site
-                List<String> row = new ArrayList<>();
-                String sectionName = "";
-                List<EvalAnswer> answers = tidl.getAnswersByResponseId( responseID );
-                if( answers != null && !answers.isEmpty() )
-                {
-                    sectionName = responseAggregator.getCommaSeparatedGroupNames( new String[] { answers.get( 0 ).getResponse().getEvalGroupId() } );
-                }
-                row.add( sectionName );
-
-                // Course related: response ID
-                row.add( responseID.toString() );
-
-                // Add the response ID to the answer map
-                answerMap.put( responseID, new HashMap<>() );
+            // The responses are output by section/site name, one name at a time
+            SortedMap<String, String[]> groupIDsByTitle = responseAggregator.getGroupIdsByDisplayTitle( groupIDs );
+            Writer writer = new OutputStreamWriter( zout );
 
-                // Loop through the DTIs
-                for( DataTemplateItem dti : dtiList )
+            // Create a ZipEntry for the course related data
+            ZipEntry entry = new ZipEntry( evalTitle + "-courseItems.csv" );
+            zout.putNextEntry( entry );
+            writeRow( writer, courseRelatedQuestionHeaders );
+            for( Entry<String, String[]> titleGroups : groupIDsByTitle.entrySet() )
+            {
+                String sectionName = titleGroups.getKey();
+                responseAggregator.getAnswersForEval( evaluation.getId(), titleGroups.getValue(), null, ( response, answers ) ->
                 {
-                    // Skip items that aren't for the current user
-                    if (!ReportItemVisibility.isVisibleToViewer(evaluation, isCurrentUserAdmin,
-                            currentUserID, dti.associateType, dti.associateId))
-                    {
-                        continue;
-                    }
-
-                    // If it's an instructor related item...
-                    EvalAnswer answer = dti.getAnswer( responseID );
-                    if( EvalConstants.ITEM_CATEGORY_ASSISTANT.equals( dti.associateType ) || EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals( dti.associateType ) )
-                    {
-                        // If the answer is NOT null (it would be null for an instructor from a different section than the evaluator)
-                        if( answer != null )
-                        {
-                            User instructor;
-                            try { instructor = UserDirectoryService.getUser( answer.getAssociatedId() ); }
-                            catch( UserNotDefinedException ex ) { continue; }
+                    Map<String, EvalAnswer> responseAnswers = TemplateItemDataList.makeResponseAnswersMap( answers );
 
-                            // If the answer map has a list of answers for this response and this instructor, add the answer to the list
-                            if( answerMap.get( responseID ).containsKey( instructor ) )
-                            {
-                                answerMap.get( responseID ).get( instructor ).add( answer );
-                            }
-
-                            // Otherwise, the answer map doesn't have a list of answers for this response and this instructor,
-                            // create the list and add the answer to it
-                            else
-                            {
-                                List<EvalAnswer> list = new ArrayList<>();
-                                list.add( answer );
-                                answerMap.get( responseID ).put( instructor, list );
-                            }
-                        }
-                    }
+                    // Course related: section/site, response ID
+                    List<String> row = new ArrayList<>();
+                    row.add( sectionName );
+                    row.add( response.getId().toString() );
 
-                    // If it's a course related item, add it to the course 'row'
-                    else
+                    // Loop through the course related DTIs
+                    for( DataTemplateItem dti : courseDTIs )
                     {
-                        // If the answer is not null, put the answer in the row
-                        if( answer != null )
-                        {
-                            row.add( responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
-                        }
-
-                        // Otherwise, put in a blank entry as a column placeholder
-                        else
-                        {
-                            row.add( "" );
-                        }
+                        // If the answer is not null, put the answer in the row, otherwise put in a blank entry as a column placeholder
+                        EvalAnswer answer = dti.getAnswer( responseAnswers );
+                        row.add( answer != null ? responseAggregator.formatForSpreadSheet( dti.templateItem, answer ) : "" );
 
                         // If this DTI uses comments, put in the comment or a blank placeholder in the next column
                         if( dti.usesComments() )
                         {
-                            row.add( StringUtils.trimToEmpty( answer.getComment() ) );
+                            row.add( answer != null ? StringUtils.trimToEmpty( answer.getComment() ) : "" );
                         }
                     }
-                }
-
-                // Add the 'row' to the course related items list
-                courseRelatedQuestions.add( row );
+                    writeRow( writer, row );
+                });
             }
+            writer.flush();
+            zout.closeEntry();
 
-            // Loop through the instructor related items
-            for( Long responseID : answerMap.keySet() )
+            // Create a ZipEntry for the instructor related data
+            entry = new ZipEntry( evalTitle + "-instructorItems.csv" );
+            zout.putNextEntry( entry );
+            writeRow( writer, instructorRelatedQuestionHeaders );
+            if( !instructorTemplateItemIDs.isEmpty() )
             {
-                // Loop through the instructors for the current response
-                for( User instructor : answerMap.get( responseID ).keySet() )
+                Long[] templateItemIDs = instructorTemplateItemIDs.toArray( new Long[instructorTemplateItemIDs.size()] );
+                Map<String, User> instructors = new HashMap<>();
+                for( Entry<String, String[]> titleGroups : groupIDsByTitle.entrySet() )
                 {
-                    // Loop through the questions for the current instructor and response
-                    int answerCounter = 0;
-                    List<String> row = new ArrayList<>();
-                    for( EvalAnswer answer : answerMap.get( responseID ).get( instructor ) )
+                    String sectionName = titleGroups.getKey();
+                    responseAggregator.getAnswersForEval( evaluation.getId(), titleGroups.getValue(), templateItemIDs, ( response, answers ) ->
                     {
-                        // If this is the first answer for this instructor and this response ID, add the qualifying columns
-                        if( answerCounter == 0  )
-                        {
-                            // Instructor related: section/site
-                            row.add( responseAggregator.getCommaSeparatedGroupNames( new String[] { answer.getResponse().getEvalGroupId() } ) );
-
-                            // Instructor related: response ID, instructor identifiers
-                            row.add( responseID.toString() );
-                            row.add( instructor.getDisplayId() );
-                            row.add( instructor.getFirstName() );
-                            row.add( instructor.getLastName() );
-                        }
+                        Map<String, EvalAnswer> responseAnswers = TemplateItemDataList.makeResponseAnswersMap( answers );
 
-                        // Instructor related response
-                        // If the answer is not null, put the answer in the row
-                        if( answer != null )
+                        // Collect the answers for each instructor in this response
+                        Map<User, List<EvalAnswer>> instructorAnswers = new LinkedHashMap<>();
+                        for( DataTemplateItem dti : instructorDTIs )
                         {
-                            row.add( responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
+                            // The answer is null for an instructor from a different section than the evaluator
+                            EvalAnswer answer = dti.getAnswer( responseAnswers );
+                            if( answer != null )
+                            {
+                                User instructor = getUser( instructors, answer.getAssociatedId() );
+                                if( instructor != null )
+                                {
+                                    instructorAnswers.computeIfAbsent( instructor, k -> new ArrayList<>() ).add( answer );
+                                }
+                            }
                         }
 
-                        // Otherwise, put in a blank entry as a column placeholder
-                        else
+                        // Write one row for each instructor in this response
+                        for( Entry<User, List<EvalAnswer>> instructorEntry : instructorAnswers.entrySet() )
                         {
-                            row.add( "" );
-                        }
+                            // Instructor related: section/site, response ID, instructor identifiers
+                            User instructor = instructorEntry.getKey();
+                            List<String> row = new ArrayList<>();
+                            row.add( sectionName );
+                            row.add( response.getId().toString() );
+                            row.add( instructor.getDisplayId() );
+                            row.add( instructor.getFirstName() );
+                            row.add( instructor.getLastName() );
 
-                        // If this uses comments, put in the comment or a blank placeholder in the next column
-                        if( answer != null && answer.getComment() != null )
-                        {
-                            row.add( EvalUtils.isBlank( answer.getComment() ) ? "" : answer.getComment() );
+                            // Instructor related responses, and the comments if there are any
+                            for( EvalAnswer answer : instructorEntry.getValue() )
+                            {
+                                row.add( responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
+                                if( answer.getComment() != null )
+                                {
+                                    row.add( EvalUtils.isBlank( answer.getComment() ) ? "" : answer.getComment() );
+                                }
+                            }
+                            writeRow( writer, row );
                         }
-
-                        // Increment the answer counter
-                        answerCounter++;
-                    }
-
-                    // Add the 'row' to the course related items list
-                    instructorRelatedQuestions.add( row );
+                    });
                 }
             }
-
-            // Sort the responses by section/site
-            SortBySectionOrSiteComparator sorter = new SortBySectionOrSiteComparator();
-            Collections.sort( courseRelatedQuestions, sorter );
-            Collections.sort( instructorRelatedQuestions, sorter );
-
-            // Dump all the aggregated data to StringBuilders
-            StringBuilder sbCourseItems = new StringBuilder();
-            StringBuilder sbInstructorItems = new StringBuilder();
-            appendToStringBuilder( sbCourseItems, courseRelatedQuestionHeaders );
-            appendToStringBuilder( sbInstructorItems, instructorRelatedQuestionHeaders );
-            for( List<String> row : courseRelatedQuestions )
-            {
-                appendToStringBuilder( sbCourseItems, row );
-            }
-            for( List<String> row : instructorRelatedQuestions )
-            {
-                appendToStringBuilder( sbInstructorItems, row );
-            }
-
-            // Create a ZipEntry for the course related data
-            ZipEntry entry = new ZipEntry( evalTitle + "-courseItems.csv" );
-            zout.putNextEntry( entry );
-            byte[] data = sbCourseItems.toString().getBytes();
-            zout.write( data, 0, data.length );
-            zout.closeEntry();
-
-            // Create a ZipEntry for the instructor related data
-            entry = new ZipEntry( evalTitle + "-instructorItems.csv" );
-            zout.putNextEntry( entry );
-            data = sbInstructorItems.toString().getBytes();
-            zout.write( data, 0, data.length );
+            writer.flush();
             zout.closeEntry();
 
             // Close the ZipOutputStream
@@ -363,6 +305,25 @@ public class CSVReportExporter implements ReportExporter {
         catch( IOException ex ) { throw new RuntimeException("Could not close the ZipOutputStream" ,  ex); }
     }
 
+    /**
+     * Looks up an instructor, the users are cached for the duration of the export
+     *
+     * @param instructors - the cache of users by id
+     * @param userID - the id of the instructor
+     * @return the User or null if the user is not defined
+     */
+    private User getUser( Map<String, User> instructors, String userID )
+    {
+        if( !instructors.containsKey( userID ) )
+        {
+            User instructor;
+            try { instructor = UserDirectoryService.getUser( userID ); }
+            catch( UserNotDefinedException ex ) { instructor = null; }
+            instructors.put( userID, instructor );
+        }
+        return instructors.get( userID );
+    }
+
     /* (non-Javadoc)
      * @see org.sakaiproject.evaluation.tool.reporting.ReportExporter#buildReport(org.sakaiproject.evaluation.model.EvalEvaluation, java.lang.String[], java.io.OutputStream)
      */
@@ -394,23 +355,24 @@ public class CSVReportExporter implements ReportExporter {
 
             boolean isCurrentUserAdmin = commonLogic.isUserAdmin(currentUserId);
 
-            // 1 Make TIDL
-            TemplateItemDataList tidl = responseAggregator.prepareTemplateItemDataStructure(evaluation.getId(), groupIds);
+            // 1 Make TIDL (structure only, the answers are streamed)
+            TemplateItemDataList tidl = responseAggregator.prepareTemplateItemExportStructure(evaluation.getId(), groupIds);
 
             // 2 get DTIs for this eval from tidl
-            List<DataTemplateItem> dtiList = tidl.getFlatListOfDataTemplateItems(true);
+            List<DataTemplateItem> dtiList = new ArrayList<>();
 
             // 3 use DTIs to make the headers
             List<String> questionCatRow = new ArrayList<>();
             List<String> questionTypeRow = new ArrayList<>();
             List<String> questionTextRow = new ArrayList<>();
-            for (DataTemplateItem dti : dtiList) {
+            for (DataTemplateItem dti : tidl.getFlatListOfDataTemplateItems(true)) {
 
                 if (!ReportItemVisibility.isVisibleToViewer(evaluation, isCurrentUserAdmin,
                         currentUserId, dti.associateType, dti.associateId)) {
                     //skip instructor items that aren't for the current user
                     continue;
                 }
+                dtiList.add(dti);
 
                 questionTypeRow.add(responseAggregator.getHeaderLabelForItemType(dti.getTemplateItemType()));
                 questionTextRow.add(commonLogic.makePlainTextFromHTML(dti.templateItem.getItem().getItemText()));
@@ -444,24 +406,15 @@ public class CSVReportExporter implements ReportExporter {
             writer.writeNext(questionTypeRow.toArray(new String[] {}));
             writer.writeNext(questionTextRow.toArray(new String[] {}));
 
-            // 4) get responseIds from tidl
-            List<Long> responseIds = tidl.getResponseIdsForAnswers();
-
-            // 5) loop over response ids
-            for (Long responseId : responseIds) {
-                // 6) loop over DTIs
+            // 4) stream the answers one response at a time (in order by group and response id)
+            responseAggregator.getAnswersForEval(evaluation.getId(), groupIds, null, (response, answers) -> {
+                Map<String, EvalAnswer> responseAnswers = TemplateItemDataList.makeResponseAnswersMap(answers);
+                // 5) loop over DTIs
                 List<String> nextResponseRow = new ArrayList<>();
                 for (DataTemplateItem dti : dtiList) {
-
-                    if (!ReportItemVisibility.isVisibleToViewer(evaluation, isCurrentUserAdmin,
-                            currentUserId, dti.associateType, dti.associateId)) {
-                        //skip instructor items that aren't for the current user
-                        continue;
-                    }
-
-                    EvalAnswer answer = dti.getAnswer(responseId);
+                    EvalAnswer answer = dti.getAnswer(responseAnswers);
                     if (answer != null) {
-                        nextResponseRow.add(responseAggregator.formatForSpreadSheet(answer.getTemplateItem(), answer));
+                        nextResponseRow.add(responseAggregator.formatForSpreadSheet(dti.templateItem, answer));
                         if (dti.usesComments()) {
                             // put comment in the next column
                             nextResponseRow.add(StringUtils.trimToEmpty(answer.getComment()));
@@ -474,7 +427,7 @@ public class CSVReportExporter implements ReportExporter {
                     }
                 }
                 writer.writeNext(nextResponseRow.toArray(new String[] {}));
-            }
+            });
 
             try {
                 writer.close();
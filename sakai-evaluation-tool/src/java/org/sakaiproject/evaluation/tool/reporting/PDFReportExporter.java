@@ -134,8 +134,8 @@ public class PDFReportExporter implements ReportExporter {
 
         // calculate the response rate
         // int responsesCount = deliveryService.countResponses(evaluation.getId(), null, true);
-        int responsesCount = evaluationService.countResponses(null, new Long[] {evaluation.getId()}, groupIds, null);
-        int enrollmentsCount = evaluationService.countParticipantsForEval(evaluation.getId(), groupIds);
+        int responsesCount = responseAggregator.countResponses(evaluation.getId(), groupIds);
+        int enrollmentsCount = responseAggregator.countParticipants(evaluation.getId(), groupIds);
 
         String groupNames = responseAggregator.getCommaSeparatedGroupNames(groupIds);
 
@@ -167,7 +167,7 @@ public class PDFReportExporter implements ReportExporter {
         displayNumber = 0;
 
         // 1 Make TIDL
-        TemplateItemDataList tidl = responseAggregator.prepareTemplateItemDataStructure(evaluation.getId(), groupIds);
+        TemplateItemDataList tidl = responseAggregator.prepareTemplateItemSummaryStructure(evaluation.getId(), groupIds);
 
         // Loop through the major group types: Course Questions, Instructor Questions, etc.
         for (TemplateItemGroup tig : tidl.getTemplateItemGroups()) {
@@ -306,14 +306,13 @@ public class PDFReportExporter implements ReportExporter {
             //evalPDFReportBuilder.addSectionHeader(questionText);
         	//evalPDFReportBuilder.addRegularText(" ");
 
-            int responseNo = itemAnswers.size();
+            int responseNo = dti.countAnswers();
             displayNumber++;
             List<String> itemScaleOptions = item.getScale().getOptions();
-            int[] responseArray = TemplateItemDataList.getAnswerChoicesCounts(templateItemType,
-                    itemScaleOptions.size(), itemAnswers);
+            int[] responseArray = dti.getAnswerChoicesCounts(itemScaleOptions.size());
 
             List<String> optionLabels = RenderingUtils.makeReportingScaleLabels(templateItem, itemScaleOptions);
-            if (templateItem.getUsesNA()) {
+            if (dti.usesNA()) {
                 // add in the N/A label to the end
                 optionLabels.add(optionLabels.size(), messages.getMessage("reporting.notapplicable.longlabel"));
             }
@@ -330,8 +329,8 @@ public class PDFReportExporter implements ReportExporter {
           */
 
             //20140226 - daniel.merino@unavarra.es - https://jira.sakaiproject.org/browse/EVALSYS-1100
-            double myWeightedMean = weightedMean(optionLabels, responseArray, templateItem.getUsesNA());
-            String answersAndMean = messages.getMessage("viewreport.numberanswers")+": "+this.numberAnswersInQuestion(responseArray, templateItem.getUsesNA());
+            double myWeightedMean = weightedMean(optionLabels, responseArray, dti.usesNA());
+            String answersAndMean = messages.getMessage("viewreport.numberanswers")+": "+this.numberAnswersInQuestion(responseArray, dti.usesNA());
 
             if (myWeightedMean!=-1.0)
             {
@@ -484,7 +483,6 @@ public class PDFReportExporter implements ReportExporter {
             templateItem = dti.templateItem;
             item = templateItem.getItem();
 
-            List<EvalAnswer> itemAnswers = dti.getAnswers();
             String templateItemType = TemplateItemUtils.getTemplateItemType(templateItem);
 
             if ((processingBlock) && (numberOfChildren==0))
@@ -502,7 +500,7 @@ public class PDFReportExporter implements ReportExporter {
             if (EvalConstants.ITEM_TYPE_BLOCK_PARENT.equals(templateItemType))
             {
                 processingBlock=true;
-                numberOfChildren = templateItem.childTemplateItems.size();
+                numberOfChildren = dti.blockChildItems.size();
             }
             else if (EvalConstants.ITEM_TYPE_HEADER.equals(templateItemType))
             {}
@@ -517,7 +515,7 @@ public class PDFReportExporter implements ReportExporter {
                 {
                     if (numberOfChildren>0) numberOfChildren--;
 
-                    int[] responseArray = TemplateItemDataList.getAnswerChoicesCounts(templateItemType, item.getScale().getOptions().size(), itemAnswers);
+                    int[] responseArray = dti.getAnswerChoicesCounts(item.getScale().getOptions().size());
                     int temporal;
 
                     optionLabels = item.getScale().getOptions();
@@ -129,8 +129,8 @@ public class PDFReportExporterIndividual implements ReportExporter {
 
         // calculate the response rate
         // int responsesCount = deliveryService.countResponses(evaluation.getId(), null, true);
-        int responsesCount = evaluationService.countResponses(null, new Long[] {evaluation.getId()}, groupIds, null);
-        int enrollmentsCount = evaluationService.countParticipantsForEval(evaluation.getId(), groupIds);
+        int responsesCount = responseAggregator.countResponses(evaluation.getId(), groupIds);
+        int enrollmentsCount = responseAggregator.countParticipants(evaluation.getId(), groupIds);
 
         String groupNames = responseAggregator.getCommaSeparatedGroupNames(groupIds);
 
@@ -164,7 +164,7 @@ public class PDFReportExporterIndividual implements ReportExporter {
         displayNumber = 0;
 
         // 1 Make TIDL
-        TemplateItemDataList tidl = responseAggregator.prepareTemplateItemDataStructure(evaluation.getId(), groupIds);
+        TemplateItemDataList tidl = responseAggregator.prepareTemplateItemSummaryStructure(evaluation.getId(), groupIds);
 
         // Loop through the major group types: Course Questions, Instructor Questions, etc.
         for (TemplateItemGroup tig : tidl.getTemplateItemGroups()) {
@@ -307,14 +307,13 @@ public class PDFReportExporterIndividual implements ReportExporter {
             // showPercentages = true;
             // }
 
-            int responseNo = itemAnswers.size();
+            int responseNo = dti.countAnswers();
             displayNumber++;
             List<String> itemScaleOptions = item.getScale().getOptions();
-            int[] responseArray = TemplateItemDataList.getAnswerChoicesCounts(templateItemType,
-                    itemScaleOptions.size(), itemAnswers);
+            int[] responseArray = dti.getAnswerChoicesCounts(itemScaleOptions.size());
 
             List<String> optionLabels = RenderingUtils.makeReportingScaleLabels(templateItem, itemScaleOptions);
-            if (templateItem.getUsesNA()) {
+            if (dti.usesNA()) {
                 // add in the N/A label to the end
                 //optionLabels = Arrays.copyOf(optionLabels, optionLabels.length+1);
                 optionLabels.add(optionLabels.size()-1, messages.getMessage("reporting.notapplicable.longlabel"));
@@ -332,8 +331,8 @@ public class PDFReportExporterIndividual implements ReportExporter {
              */
 
              //20140226 - daniel.merino@unavarra.es - https://jira.sakaiproject.org/browse/EVALSYS-1100
-             double myWeightedMean = weightedMean(optionLabels, responseArray, templateItem.getUsesNA());
-             String answersAndMean = messages.getMessage("viewreport.numberanswers")+": "+this.numberAnswersInQuestion(responseArray, templateItem.getUsesNA());
+             double myWeightedMean = weightedMean(optionLabels, responseArray, dti.usesNA());
+             String answersAndMean = messages.getMessage("viewreport.numberanswers")+": "+this.numberAnswersInQuestion(responseArray, dti.usesNA());
 
              if (myWeightedMean!=-1.0)
              {
@@ -492,7 +491,6 @@ public class PDFReportExporterIndividual implements ReportExporter {
             templateItem = dti.templateItem;
             item = templateItem.getItem();
 
-            List<EvalAnswer> itemAnswers = dti.getAnswers();
             String templateItemType = TemplateItemUtils.getTemplateItemType(templateItem);
 
             if ((processingBlock) && (numberOfChildren==0))
@@ -510,7 +508,7 @@ public class PDFReportExporterIndividual implements ReportExporter {
             if (EvalConstants.ITEM_TYPE_BLOCK_PARENT.equals(templateItemType))
             {
                 processingBlock=true;
-                numberOfChildren = templateItem.childTemplateItems.size();
+                numberOfChildren = dti.blockChildItems.size();
             }
             else if (EvalConstants.ITEM_TYPE_HEADER.equals(templateItemType))
             {}
@@ -525,7 +523,7 @@ public class PDFReportExporterIndividual implements ReportExporter {
                 {
                     if (numberOfChildren>0) numberOfChildren--;
 
-                    int[] responseArray = TemplateItemDataList.getAnswerChoicesCounts(templateItemType, item.getScale().getOptions().size(), itemAnswers);
+                    int[] responseArray = dti.getAnswerChoicesCounts(item.getScale().getOptions().size());
                     int temporal;
 
                     optionLabels = item.getScale().getOptions();
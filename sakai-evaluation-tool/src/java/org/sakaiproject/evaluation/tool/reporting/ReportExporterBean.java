@@ -17,11 +17,13 @@ package org.sakaiproject.evaluation.tool.reporting;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.sakaiproject.evaluation.logic.EvalCommonLogic;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.logic.ReportingPermissions;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
+import org.sakaiproject.evaluation.tool.utils.EvalResponseAggregatorUtil;
 import org.sakaiproject.evaluation.toolaccess.EvaluationAccessAPI;
 import org.sakaiproject.evaluation.toolaccess.ToolApi;
 import org.springframework.context.MessageSource;
@@ -59,6 +61,11 @@ public class ReportExporterBean implements ToolApi {
         this.exportersMap = exportersMap;
     }
 
+    private EvalResponseAggregatorUtil responseAggregator;
+    public void setEvalResponseAggregatorUtil(EvalResponseAggregatorUtil bean) {
+        this.responseAggregator = bean;
+    }
+
     private EvaluationAccessAPI evaluationAccessAPI = null;
 
     public void setEvaluationAccessAPI(EvaluationAccessAPI s) {
@@ -83,6 +90,46 @@ public class ReportExporterBean implements ToolApi {
     }
 
     public void exportReport(EvalEvaluation evaluation, String[] groupIds, String evaluateeId, OutputStream outputStream, String exportType) {
+      ReportExporter exporter = getExporter(exportType);
+      groupIds = checkViewableGroupIds(evaluation, groupIds);
+
+      exporter.setMessageSource(reportMessageSource);
+      if (EvalEvaluationService.PDF_RESULTS_REPORT_INDIVIDUAL.equals(exportType)) {
+        exporter.buildReport(evaluation, groupIds, evaluateeId, outputStream, exportType);
+      } else {
+        exporter.buildReport(evaluation, groupIds, outputStream, exportType);
+      }
+
+    }
+
+    public void exportReports(EvalEvaluation evaluation, String[] groupIds, Map<String, OutputStream> outputStreams) {
+      int streamingReports = 0;
+      for (String exportType : outputStreams.keySet()) {
+        getExporter(exportType);
+        if (EvalEvaluationService.PDF_RESULTS_REPORT_INDIVIDUAL.equals(exportType)) {
+          throw new IllegalArgumentException("Cannot export " + exportType + " without an evaluatee, use exportReport");
+        }
+        if (! EvalEvaluationService.PDF_RESULTS_REPORT.equals(exportType)
+                && ! EvalEvaluationService.CSV_TAKERS_REPORT.equals(exportType)) {
+          streamingReports++;
+        }
+      }
+      groupIds = checkViewableGroupIds(evaluation, groupIds);
+
+      // the structures and counts are loaded once and shared by all the reports
+      responseAggregator.openSharedReportData(streamingReports > 1);
+      try {
+        for (Entry<String, OutputStream> entry : outputStreams.entrySet()) {
+          ReportExporter exporter = getExporter(entry.getKey());
+          exporter.setMessageSource(reportMessageSource);
+          exporter.buildReport(evaluation, groupIds, entry.getValue(), entry.getKey());
+        }
+      } finally {
+        responseAggregator.closeSharedReportData();
+      }
+    }
+
+    private ReportExporter getExporter(String exportType) {
       ReportExporter exporter = exportersMap.get(exportType);
       if (exporter == null) {
         throw new IllegalArgumentException("No exporter found for export type: " + exportType);
@@ -90,6 +137,14 @@ public class ReportExporterBean implements ToolApi {
       if (log.isDebugEnabled()) {
         log.debug("Found exporter: " + exporter.getClass() + " for export type " + exportType);
       }
+      return exporter;
+    }
+
+    /**
+     * @return the groupIds or all the groups the current user can view results for if none are given
+     * @throws SecurityException if the current user cannot view the responses for the groups
+     */
+    private String[] checkViewableGroupIds(EvalEvaluation evaluation, String[] groupIds) {
       if (groupIds == null || groupIds.length==0) {
     	String[] groupIdsArray = new String [] {};
         groupIds = reportingPermissions.getResultsViewableEvalGroupIdsForCurrentUser(evaluation).toArray(groupIdsArray);
@@ -100,14 +155,7 @@ public class ReportExporterBean implements ToolApi {
         throw new SecurityException("Invalid user attempting to access report downloads: "
             + currentUserId);
       }
-
-      exporter.setMessageSource(reportMessageSource);
-      if (EvalEvaluationService.PDF_RESULTS_REPORT_INDIVIDUAL.equals(exportType)) {
-        exporter.buildReport(evaluation, groupIds, evaluateeId, outputStream, exportType);
-      } else {
-        exporter.buildReport(evaluation, groupIds, outputStream, exportType);
-      }
-
+      return groupIds;
     }
 
     public void init() {
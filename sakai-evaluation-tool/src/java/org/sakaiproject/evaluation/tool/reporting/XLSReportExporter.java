@@ -17,11 +17,13 @@ package org.sakaiproject.evaluation.tool.reporting;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.lang3.StringUtils;
 
 import org.apache.poi.ss.usermodel.CellStyle;
@@ -30,15 +32,13 @@ import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CreationHelper;
 import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.EvalCommonLogic;
 import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.logic.model.EvalUser;
 import org.sakaiproject.evaluation.model.EvalAnswer;
 import org.sakaiproject.evaluation.model.EvalEvaluation;
-import org.sakaiproject.evaluation.tool.reporting.CSVReportExporter.SortBySectionOrSiteComparator;
 import org.sakaiproject.evaluation.tool.utils.EvalResponseAggregatorUtil;
 import org.sakaiproject.evaluation.utils.EvalUtils;
 import org.sakaiproject.evaluation.utils.TemplateItemDataList;
@@ -62,12 +62,8 @@ public class XLSReportExporter implements ReportExporter {
     private static final short QUESTION_TEXT_ROW = 5;
     private static final short FIRST_ANSWER_ROW = 6;
     private static final short SECTION_OR_SITE_COLUMN_NUM = 0;
-    private static final short RESPONSE_ID_COLUMN_NUM = 1;
-    private static final short INSTRUCTOR_ID_COLUMN_NUM = 2;
-    private static final short INSTRUCTOR_FIRST_NAME_COLUMN_NUM = 3;
-    private static final short INSTRUCTOR_LAST_NAME_COLUMN_NUM = 4;
-    private static final short QUESTION_COMMENTS_COLUMN_START_INDEX_INSTRUCTOR_SHEET = 5;
-    private static final short QUESTION_COMMENTS_COLUMN_START_INDEX_COURSE_SHEET = 2;
+    // number of rows kept in memory for each sheet, older rows are flushed to a temporary file
+    private static final int ROW_ACCESS_WINDOW_SIZE = 100;
 
     private EvalCommonLogic commonLogic;
     public void setCommonLogic(EvalCommonLogic commonLogic) {
@@ -100,6 +96,8 @@ public class XLSReportExporter implements ReportExporter {
 
     /**
      * Build the .xls report in the new (section based) format.
+     * The answers are streamed one response at a time and the rows are written as they arrive
+     * (in order by section/site name), only a small window of rows is held in memory for each sheet
      *
      * @param evaluation
      * @param groupIDs
@@ -113,7 +111,7 @@ public class XLSReportExporter implements ReportExporter {
 
         TemplateItemDataList tidl = getEvalTIDL( evaluation, groupIDs );
         List<DataTemplateItem> dtiList = tidl.getFlatListOfDataTemplateItems( true );
-        Workbook wb = new XSSFWorkbook();
+        SXSSFWorkbook wb = new SXSSFWorkbook( ROW_ACCESS_WINDOW_SIZE );
         creationHelper = wb.getCreationHelper();
 
         // Title style
@@ -156,8 +154,8 @@ public class XLSReportExporter implements ReportExporter {
 
         // Calculate the response rate
         rowCounter++;
-        int responsesCount = evaluationService.countResponses( null, new Long[] { evaluation.getId() }, groupIDs, null );
-        int enrollmentsCount = evaluationService.countParticipantsForEval( evaluation.getId(), groupIDs );
+        int responsesCount = responseAggregator.countResponses(evaluation.getId(), groupIDs);
+        int enrollmentsCount = responseAggregator.countParticipants(evaluation.getId(), groupIDs);
         Row courseSheetRow2 = courseSheet.createRow( rowCounter );
         Row instructorSheetRow2 = instructorSheet.createRow( rowCounter );
         Cell courseSheetCellA2 = courseSheetRow2.createCell( (short) 0 );
@@ -276,199 +274,149 @@ public class XLSReportExporter implements ReportExporter {
             setPlainStringCell( questionTextHeaderCell, questionText );
         }
 
-        // Parse out the instructor and course related responeses into separate structures
-        List<Long> responseIDs = tidl.getResponseIdsForAnswers();
-        List<List<String>> courseRelatedResponses = new ArrayList<>();
-        Map<Long, Map<User, List<EvalAnswer>>> answerMap = new HashMap<>();
-        for( Long responseID : responseIDs )
+        // Split the visible DTIs into course and instructor related items
+        List<DataTemplateItem> courseDTIs = new ArrayList<>();
+        List<DataTemplateItem> instructorDTIs = new ArrayList<>();
+        for( DataTemplateItem dti : dtiList )
         {
-            // Dump the (course related) data into a list of strings representing a spreadsheet row (so it can be sorted)
-            List<String> row = new ArrayList<>();
-            String groupID = "";
-            List<EvalAnswer> answers = tidl.getAnswersByResponseId( responseID );
-            if( answers != null && !answers.isEmpty() )
+            // Skip items that aren't for the current user
+            if (!ReportItemVisibility.isVisibleToViewer(evaluation, isCurrentUserAdmin,
+                    currentUserId, dti.associateType, dti.associateId))
             {
-                groupID = answers.get( 0 ).getResponse().getEvalGroupId();
+                continue;
             }
-            row.add( SECTION_OR_SITE_COLUMN_NUM, responseAggregator.getCommaSeparatedGroupNames( new String[] { groupID } ) );
-            row.add( RESPONSE_ID_COLUMN_NUM, responseID.toString() );
-
-            // Add the response ID to the answer map
-            answerMap.put( responseID, new HashMap<>() );
-
-            // Loop through the data template items...
-            int questionCounter = 0;
-            for( DataTemplateItem dti : dtiList )
+            if( EvalConstants.ITEM_CATEGORY_ASSISTANT.equals( dti.associateType ) || EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals( dti.associateType ) )
             {
-                // Skip items that aren't for the current user
-                if (!ReportItemVisibility.isVisibleToViewer(evaluation, isCurrentUserAdmin,
-                        currentUserId, dti.associateType, dti.associateId))
-                {
-                    continue;
-                }
+                instructorDTIs.add( dti );
+            }
+            else
+            {
+                courseDTIs.add( dti );
+            }
+        }
 
-                // If it's an instructor related item...
-                EvalAnswer answer = dti.getAnswer( responseID );
-                if( EvalConstants.ITEM_CATEGORY_ASSISTANT.equals( dti.associateType ) || EvalConstants.ITEM_CATEGORY_INSTRUCTOR.equals( dti.associateType ) )
+        // Stream the answers one response at a time (by section/site name) and write the rows to both worksheets as they arrive
+        AtomicInteger courseRowCounter = new AtomicInteger();
+        AtomicInteger instructorRowCounter = new AtomicInteger();
+        Map<String, User> instructors = new HashMap<>();
+        for( Entry<String, String[]> titleGroups : responseAggregator.getGroupIdsByDisplayTitle( groupIDs ).entrySet() )
+        {
+            String sectionName = titleGroups.getKey();
+            responseAggregator.getAnswersForEval( evaluation.getId(), titleGroups.getValue(), null, ( response, answers ) ->
+            {
+                Map<String, EvalAnswer> responseAnswers = TemplateItemDataList.makeResponseAnswersMap( answers );
+
+                // Course sheet answer row, index cell
+                int rowNumber = courseRowCounter.getAndIncrement();
+                short columnCounter = SECTION_OR_SITE_COLUMN_NUM;
+                Row courseSheetAnswerRow = courseSheet.createRow( FIRST_ANSWER_ROW + rowNumber );
+                Cell courseAnswerIndexCell = courseSheetAnswerRow.createCell( columnCounter++ );
+                courseAnswerIndexCell.setCellValue( rowNumber + 1 );
+                courseAnswerIndexCell.setCellStyle( boldHeaderStyle );
+
+                // Course sheet section cell, response ID cell
+                courseSheetAnswerRow.createCell( columnCounter++ ).setCellValue( sectionName );
+                courseSheetAnswerRow.createCell( columnCounter++ ).setCellValue( response.getId() );
+
+                // Course related responses and comments
+                for( DataTemplateItem dti : courseDTIs )
                 {
-                    // If the answer is NOT null (it would be null for an instructor from a different section than the evaluator)
-                    if( answer != null )
+                    EvalAnswer answer = dti.getAnswer( responseAnswers );
+                    setPlainStringCell( courseSheetAnswerRow.createCell( columnCounter++ ),
+                            answer != null ? responseAggregator.formatForSpreadSheet( dti.templateItem, answer ) : "" );
+                    if( dti.usesComments() )
                     {
-                        // Get the instructor
-                        User instructor;
-                        try { instructor = userDirectoryService.getUser( answer.getAssociatedId() ); }
-                        catch( UserNotDefinedException ex ) { continue; }
-
-                        // If the answer map has a list of answers for this response and this instructor, add the answer to the list
-                        Map<User, List<EvalAnswer>> responseAnswers = answerMap.get( responseID );
-                        List<EvalAnswer> instructorAnswers = responseAnswers.get( instructor );
-                        if( instructorAnswers != null )
-                        {
-                            instructorAnswers.add( answer );
-                        }
-
-                        // Otherwise, the answer map doesn't have a list of answers for this response and this instructor,
-                        // create the list and add the answer to it
-                        else
-                        {
-                            instructorAnswers = new ArrayList<>();
-                            instructorAnswers.add( answer );
-                            responseAnswers.put( instructor, instructorAnswers );
-                        }
+                        setPlainStringCell( courseSheetAnswerRow.createCell( columnCounter++ ),
+                                answer != null ? StringUtils.trimToEmpty( answer.getComment() ) : "" );
                     }
                 }
 
-                // If it's a course related item, just add it normally to the course worksheet
-                else
+                // Collect the instructor related answers for each instructor in this response
+                Map<User, List<EvalAnswer>> instructorAnswers = new LinkedHashMap<>();
+                for( DataTemplateItem dti : instructorDTIs )
                 {
-                    row.add( QUESTION_COMMENTS_COLUMN_START_INDEX_COURSE_SHEET + questionCounter, "" );
+                    // The answer is null for an instructor from a different section than the evaluator
+                    EvalAnswer answer = dti.getAnswer( responseAnswers );
                     if( answer != null )
                     {
-                        row.set( QUESTION_COMMENTS_COLUMN_START_INDEX_COURSE_SHEET + questionCounter, responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
-                    }
-                    if( dti.usesComments() )
-                    {
-                        row.add( QUESTION_COMMENTS_COLUMN_START_INDEX_COURSE_SHEET + ++questionCounter, StringUtils.trimToEmpty( answer.getComment() ) );
+                        User instructor = getUser( instructors, answer.getAssociatedId() );
+                        if( instructor != null )
+                        {
+                            instructorAnswers.computeIfAbsent( instructor, k -> new ArrayList<>() ).add( answer );
+                        }
                     }
-                    questionCounter++;
-                }
-            }
-
-            // Add the course row data to the list of course data rows
-            courseRelatedResponses.add( row );
-        }
-
-        // Convert the map structure of instructor responses into a List<List<String>>, representing rows of data
-        List<List<String>> instructorRelatedResponses = new ArrayList<>();
-        for( Long responseID : answerMap.keySet() )
-        {
-            // Loop through the instructors for the current response
-            for( User instructor : answerMap.get( responseID ).keySet() )
-            {
-                // Dump the data into a list of strings representing a spreadsheet row (so it can be sorted)
-                List<String> row = new ArrayList<>();
-                row.add( SECTION_OR_SITE_COLUMN_NUM, "" );
-                row.add( RESPONSE_ID_COLUMN_NUM, responseID.toString() );
-                row.add( INSTRUCTOR_ID_COLUMN_NUM, "" );
-                row.add( INSTRUCTOR_FIRST_NAME_COLUMN_NUM, "" );
-                row.add( INSTRUCTOR_LAST_NAME_COLUMN_NUM, "" );
-                if( instructor != null )
-                {
-                    row.set( INSTRUCTOR_ID_COLUMN_NUM, instructor.getDisplayId() );
-                    row.set( INSTRUCTOR_FIRST_NAME_COLUMN_NUM, instructor.getFirstName() );
-                    row.set( INSTRUCTOR_LAST_NAME_COLUMN_NUM, instructor.getLastName() );
                 }
 
-                int questionCounter = 0;
-                for( EvalAnswer answer : answerMap.get( responseID ).get( instructor ) )
+                // Output one instructor sheet row for each instructor in this response
+                for( Entry<User, List<EvalAnswer>> instructorEntry : instructorAnswers.entrySet() )
                 {
-                    row.set( SECTION_OR_SITE_COLUMN_NUM, responseAggregator.getCommaSeparatedGroupNames( new String[] { answer.getResponse().getEvalGroupId() } ) );
-                    row.add( QUESTION_COMMENTS_COLUMN_START_INDEX_INSTRUCTOR_SHEET + questionCounter, "" );
-                    row.set( QUESTION_COMMENTS_COLUMN_START_INDEX_INSTRUCTOR_SHEET + questionCounter, responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
-                    String comment = StringUtils.trimToEmpty( answer.getComment() );
-                    if( !comment.isEmpty() )
+                    // Answer row, index cell
+                    int instructorRowNumber = instructorRowCounter.getAndIncrement();
+                    columnCounter = SECTION_OR_SITE_COLUMN_NUM;
+                    Row instructorSheetAnswerRow = instructorSheet.createRow( FIRST_ANSWER_ROW + instructorRowNumber );
+                    Cell instructorAnswerIndexCell = instructorSheetAnswerRow.createCell( columnCounter++ );
+                    instructorAnswerIndexCell.setCellValue( instructorRowNumber + 1 );
+                    instructorAnswerIndexCell.setCellStyle( boldHeaderStyle );
+
+                    // Section cell, response ID cell
+                    instructorSheetAnswerRow.createCell( columnCounter++ ).setCellValue( sectionName );
+                    instructorSheetAnswerRow.createCell( columnCounter++ ).setCellValue( response.getId() );
+
+                    // Instructor ID, first name, last name cells
+                    User instructor = instructorEntry.getKey();
+                    instructorSheetAnswerRow.createCell( columnCounter++ ).setCellValue( instructor.getDisplayId() );
+                    instructorSheetAnswerRow.createCell( columnCounter++ ).setCellValue( instructor.getFirstName() );
+                    instructorSheetAnswerRow.createCell( columnCounter++ ).setCellValue( instructor.getLastName() );
+
+                    // Responses and comments
+                    for( EvalAnswer answer : instructorEntry.getValue() )
                     {
-                        row.add( QUESTION_COMMENTS_COLUMN_START_INDEX_INSTRUCTOR_SHEET + ++questionCounter, ( StringUtils.trimToEmpty( answer.getComment() ) ) );
+                        setPlainStringCell( instructorSheetAnswerRow.createCell( columnCounter++ ),
+                                responseAggregator.formatForSpreadSheet( answer.getTemplateItem(), answer ) );
+                        String comment = StringUtils.trimToEmpty( answer.getComment() );
+                        if( !comment.isEmpty() )
+                        {
+                            setPlainStringCell( instructorSheetAnswerRow.createCell( columnCounter++ ), comment );
+                        }
                     }
-                    questionCounter++;
                 }
-
-                // Add the row to the list of rows
-                instructorRelatedResponses.add( row );
-            }
+            });
         }
 
-        // Sort the row data lists
-        SortBySectionOrSiteComparator sorter = new SortBySectionOrSiteComparator();
-        Collections.sort( instructorRelatedResponses, sorter );
-        Collections.sort( courseRelatedResponses, sorter );
-
-        // Output the sorted course related data into the course spreadsheet
-        rowCounter = 0;
-        for( List<String> row : courseRelatedResponses )
-        {
-            // Course sheet answer row, index cell
-            short columnCounter = SECTION_OR_SITE_COLUMN_NUM;
-            Row courseSheetAnswerRow = courseSheet.createRow( FIRST_ANSWER_ROW + rowCounter );
-            Cell courseAnswerIndexCell = courseSheetAnswerRow.createCell( columnCounter++ );
-            courseAnswerIndexCell.setCellValue( rowCounter + 1 );
-            courseAnswerIndexCell.setCellStyle( boldHeaderStyle );
-
-            // Course sheet section cell, response ID cell
-            Cell courseSheetSectionCell = courseSheetAnswerRow.createCell( columnCounter++ );
-            Cell courseSheetResponseIdCell = courseSheetAnswerRow.createCell( columnCounter++ );
-            courseSheetSectionCell.setCellValue( row.get( SECTION_OR_SITE_COLUMN_NUM ) );
-            courseSheetResponseIdCell.setCellValue( Integer.parseInt( row.get( RESPONSE_ID_COLUMN_NUM ) ) );
-
-            // Responses and comments
-            for( int i = QUESTION_COMMENTS_COLUMN_START_INDEX_COURSE_SHEET; i < row.size(); i++ )
-            {
-                setPlainStringCell( courseSheetAnswerRow.createCell( columnCounter++ ), row.get( i ) );
-            }
-
-            // Increment the row counter
-            rowCounter++;
-        }
+        // Dump the output to the response stream
+        writeWorkbook( wb, outputStream );
+    }
 
-        // Output the sorted instructor related data into the instructor spreadsheet
-        rowCounter = 0;
-        for( List<String> row : instructorRelatedResponses )
+    /**
+     * Looks up an instructor, the users are cached for the duration of the export
+     *
+     * @param instructors - the cache of users by id
+     * @param userID - the id of the instructor
+     * @return the User or null if the user is not defined
+     */
+    private User getUser( Map<String, User> instructors, String userID )
+    {
+        if( !instructors.containsKey( userID ) )
         {
-            // Answer row, index cell
-            short columnCounter = SECTION_OR_SITE_COLUMN_NUM;
-            Row instructorSheetAnswerRow = instructorSheet.createRow( FIRST_ANSWER_ROW + rowCounter );
-            Cell instructorAnswerIndexCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            instructorAnswerIndexCell.setCellValue( rowCounter + 1 );
-            instructorAnswerIndexCell.setCellStyle( boldHeaderStyle );
-
-            // Section cell, response ID cell
-            Cell instructorSheetSectionCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            Cell instructorSheetResponseIdCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            instructorSheetSectionCell.setCellValue( row.get( SECTION_OR_SITE_COLUMN_NUM ) );
-            instructorSheetResponseIdCell.setCellValue( Integer.parseInt( row.get( RESPONSE_ID_COLUMN_NUM ) ) );
-
-            // Instructor ID, first name, last name cells
-            Cell instructorIdCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            Cell instructorFirstNameCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            Cell instructorLastNameCell = instructorSheetAnswerRow.createCell( columnCounter++ );
-            instructorIdCell.setCellValue( row.get( INSTRUCTOR_ID_COLUMN_NUM ) );
-            instructorFirstNameCell.setCellValue( row.get( INSTRUCTOR_FIRST_NAME_COLUMN_NUM ) );
-            instructorLastNameCell.setCellValue( row.get( INSTRUCTOR_LAST_NAME_COLUMN_NUM ) );
-
-            // Responses and comments
-            for( int i = QUESTION_COMMENTS_COLUMN_START_INDEX_INSTRUCTOR_SHEET; i < row.size(); i++ )
-            {
-                setPlainStringCell( instructorSheetAnswerRow.createCell( columnCounter++ ), row.get( i ) );
-            }
-
-            // Increment the row counter
-            rowCounter++;
+            User instructor;
+            try { instructor = userDirectoryService.getUser( userID ); }
+            catch( UserNotDefinedException ex ) { instructor = null; }
+            instructors.put( userID, instructor );
         }
+        return instructors.get( userID );
+    }
 
-        // Dump the output to the response stream
+    /**
+     * Writes the workbook to the output stream and removes the temporary files used to stream the rows
+     *
+     * @param wb
+     * @param outputStream
+     */
+    private void writeWorkbook( SXSSFWorkbook wb, OutputStream outputStream )
+    {
         try { wb.write( outputStream ); }
         catch( IOException e ) { throw new RuntimeException("Could not get Writer to dump output to xls" ,  e); }
-
+        finally { wb.dispose(); }
     }
 
     /*
@@ -492,9 +440,9 @@ public class XLSReportExporter implements ReportExporter {
     public void buildReport(EvalEvaluation evaluation, String[] groupIds, String evaluateeId, OutputStream outputStream, String exportType) {
 
         /*
-         * Logic for creating this view 1) make tidl 2) get DTIs for this eval from tidl 3) use DTIs
-         * to make the headers 4) get responseIds from tidl 5) loop over response ids 6) loop over
-         * DTIs 7) check answersmap for an answer, if there put in cell, if missing, insert blank 8)
+         * Logic for creating this view 1) make tidl (without answers) 2) get DTIs for this eval from tidl
+         * 3) use DTIs to make the headers 4) stream the answers one response at a time 5) loop over
+         * DTIs 6) check the response answers for an answer, if there put in cell, if missing, insert blank 7)
          * done
          */
 
@@ -513,12 +461,12 @@ public class XLSReportExporter implements ReportExporter {
 
             boolean isCurrentUserAdmin = commonLogic.isUserAdmin(currentUserId);
 
-           // 1 Make TIDL
+           // 1 Make TIDL (structure only, the answers are streamed)
            TemplateItemDataList tidl = getEvalTIDL(evaluation, groupIds);
            // 2: get DTIs for this eval from tidl
            List<DataTemplateItem> dtiList = tidl.getFlatListOfDataTemplateItems(true);
 
-           Workbook wb = new XSSFWorkbook();
+           SXSSFWorkbook wb = new SXSSFWorkbook(ROW_ACCESS_WINDOW_SIZE);
            creationHelper = wb.getCreationHelper();
 
            Sheet sheet = wb.createSheet(messages.getMessage("reporting.xls.sheetname"));
@@ -559,9 +507,8 @@ public class XLSReportExporter implements ReportExporter {
            cellA1.setCellStyle(mainTitleStyle);
 
            // calculate the response rate
-           // int responsesCount = deliveryService.countResponses(evaluation.getId(), null, true);
-           int responsesCount = evaluationService.countResponses(null, new Long[] {evaluation.getId()}, groupIds, null);
-           int enrollmentsCount = evaluationService.countParticipantsForEval(evaluation.getId(), groupIds);
+           int responsesCount = responseAggregator.countResponses(evaluation.getId(), groupIds);
+           int enrollmentsCount = responseAggregator.countParticipants(evaluation.getId(), groupIds);
 
            Row row2 = sheet.createRow(1);
            Cell cellA2 = row2.createCell((short) 0);
@@ -592,6 +539,7 @@ public class XLSReportExporter implements ReportExporter {
            Row questionTypeRow = sheet.createRow(QUESTION_TYPE_ROW);
            Row questionTextRow = sheet.createRow(QUESTION_TEXT_ROW);
            short headerCount = 1;
+           List<DataTemplateItem> visibleDTIs = new ArrayList<>();
            for (DataTemplateItem dti : dtiList) {
 
                if (!ReportItemVisibility.isVisibleToViewer(evaluation, isCurrentUserAdmin,
@@ -599,6 +547,7 @@ public class XLSReportExporter implements ReportExporter {
                    // skip items that aren't for the current user
                    continue;
                }
+               visibleDTIs.add(dti);
 
                Cell cell = questionTypeRow.createCell(headerCount);
 
@@ -640,32 +589,24 @@ public class XLSReportExporter implements ReportExporter {
 
            }
 
-           // 4) get responseIds from tidl
-           List<Long> responseIds = tidl.getResponseIdsForAnswers();
-
-           // 5) loop over response ids
-           short responseIdCounter = 0;
-           for (Long responseId : responseIds) {
-               Row row = sheet.createRow(responseIdCounter + FIRST_ANSWER_ROW);
+           // 4) stream the answers one response at a time (in order by group and response id)
+           AtomicInteger responseIdCounter = new AtomicInteger();
+           responseAggregator.getAnswersForEval(evaluation.getId(), groupIds, null, (response, answers) -> {
+               Map<String, EvalAnswer> responseAnswers = TemplateItemDataList.makeResponseAnswersMap(answers);
+               int rowNumber = responseIdCounter.getAndIncrement();
+               Row row = sheet.createRow(rowNumber + FIRST_ANSWER_ROW);
                Cell indexCell = row.createCell((short) 0);
-               indexCell.setCellValue(responseIdCounter + 1);
+               indexCell.setCellValue(rowNumber + 1);
                indexCell.setCellStyle(boldHeaderStyle);
-               // 6) loop over DTIs
+               // 5) loop over DTIs
                short dtiCounter = 1;
-               for (DataTemplateItem dti : dtiList) {
-
-                   if (!ReportItemVisibility.isVisibleToViewer(evaluation, isCurrentUserAdmin,
-                           currentUserId, dti.associateType, dti.associateId)) {
-                       //skip instructor items that aren't for the current user
-                       continue;
-                   }
-
-                   // 7) check answersmap for an answer, if there put in cell, if missing, insert blank
-                   EvalAnswer answer = dti.getAnswer(responseId);
+               for (DataTemplateItem dti : visibleDTIs) {
+                   // 6) check the response answers for an answer, if there put in cell, if missing, insert blank
+                   EvalAnswer answer = dti.getAnswer(responseAnswers);
                    Cell responseCell = row.createCell(dtiCounter);
                    // In Eval, users can leave questions blank, in which case this will be null
                    if (answer != null) {
-                       setPlainStringCell(responseCell, responseAggregator.formatForSpreadSheet(answer.getTemplateItem(), answer));
+                       setPlainStringCell(responseCell, responseAggregator.formatForSpreadSheet(dti.templateItem, answer));
                    }
                    if (dti.usesComments()) {
                        // put comment in the extra column
@@ -675,21 +616,16 @@ public class XLSReportExporter implements ReportExporter {
                    }
                    dtiCounter++;
                }
-               responseIdCounter++;
-           }
+           });
 
            // dump the output to the response stream
-           try {
-               wb.write(outputStream);
-           } catch (IOException e) {
-               throw new RuntimeException("Could not get Writer to dump output to xls", e);
-           }
+           writeWorkbook(wb, outputStream);
         }
     }
 
     private TemplateItemDataList getEvalTIDL(EvalEvaluation evaluation,
 			String[] groupIds) {
-        return responseAggregator.prepareTemplateItemDataStructure(evaluation.getId(), groupIds);
+        return responseAggregator.prepareTemplateItemExportStructure(evaluation.getId(), groupIds);
 	}
 
 	/**
@@ -14,14 +14,24 @@
  */
 package org.sakaiproject.evaluation.tool.utils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.sakaiproject.evaluation.constant.EvalConstants;
 import org.sakaiproject.evaluation.logic.EvalAuthoringService;
 import org.sakaiproject.evaluation.logic.EvalCommonLogic;
 import org.sakaiproject.evaluation.logic.EvalDeliveryService;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService;
 import org.sakaiproject.evaluation.logic.externals.ExternalHierarchyLogic;
+import org.sakaiproject.evaluation.logic.model.EvalResponseAnswersHandler;
 import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalResponse;
 import org.sakaiproject.evaluation.model.EvalTemplateItem;
 import org.sakaiproject.evaluation.tool.reporting.ReportMessageSource;
 import org.sakaiproject.evaluation.utils.EvalUtils;
@@ -53,6 +63,11 @@ public class EvalResponseAggregatorUtil {
         this.deliveryService = deliveryService;
     }
 
+    private EvalEvaluationService evaluationService;
+    public void setEvaluationService(EvalEvaluationService evaluationService) {
+        this.evaluationService = evaluationService;
+    }
+
     private ReportMessageSource messages;
     public void setMessageSource(ReportMessageSource messageSource) {
         this.messages = messageSource;
@@ -63,6 +78,128 @@ public class EvalResponseAggregatorUtil {
         this.commonLogic = commonLogic;
     }
 
+    /**
+     * The most answers which will be held in memory so the streamed answers can be replayed
+     * for another report in the same shared report data scope, larger evaluations are streamed again
+     */
+    public static final int MAX_REPLAY_ANSWERS = 50000;
+
+    /**
+     * The data loaded for the reports built on the current thread while a shared report data scope is open
+     */
+    private static final ThreadLocal<SharedReportData> sharedReportData = new ThreadLocal<>();
+
+    /**
+     * Opens a shared report data scope on the current thread, while it is open the structures, group titles
+     * and counts used by the reports are loaded once and reused by every report built on this thread
+     * (e.g. the CSV and PDF reports for the same evaluation), the scope MUST be closed with
+     * {@link #closeSharedReportData()} in a finally block, nested calls reuse the outer scope
+     * 
+     * @param replayAnswers if true then the streamed answers are also held (up to {@link #MAX_REPLAY_ANSWERS})
+     * and replayed for the next report which streams the same answers, only use this when more than one
+     * of the reports will stream the answers
+     */
+    public void openSharedReportData(boolean replayAnswers) {
+        SharedReportData data = sharedReportData.get();
+        if (data == null) {
+            data = new SharedReportData(replayAnswers);
+            sharedReportData.set(data);
+        }
+        data.depth++;
+    }
+
+    /**
+     * Closes the shared report data scope opened by {@link #openSharedReportData(boolean)}
+     * and releases all the data held for it
+     */
+    public void closeSharedReportData() {
+        SharedReportData data = sharedReportData.get();
+        if (data != null && --data.depth <= 0) {
+            sharedReportData.remove();
+        }
+    }
+
+    /**
+     * Streams the answers for the evaluation one response at a time, this is a passthrough to
+     * {@link EvalDeliveryService#getAnswersForEval(Long, String[], Long[], EvalResponseAnswersHandler)} unless
+     * a shared report data scope which replays answers is open, in that case the answers streamed for the first
+     * report are held and replayed for the later reports (the replayed response and answers are detached
+     * so the handler should only read them)
+     * 
+     * @param evaluationId
+     * @param groupIds
+     * @param templateItemIds (OPTIONAL) only get the answers for these template items
+     * @param handler
+     * @return the number of responses handled
+     */
+    public int getAnswersForEval(Long evaluationId, String[] groupIds, Long[] templateItemIds, EvalResponseAnswersHandler handler) {
+        SharedReportData data = sharedReportData.get();
+        if (data == null || ! data.replayAnswers) {
+            return deliveryService.getAnswersForEval(evaluationId, groupIds, templateItemIds, handler);
+        }
+        String key = makeSharedKey(evaluationId, groupIds) + ":" + Arrays.toString(templateItemIds);
+        List<ReplayedResponse> replay = data.answers.get(key);
+        if (replay != null) {
+            for (ReplayedResponse replayed : replay) {
+                handler.handleResponseAnswers(replayed.response, replayed.answers);
+            }
+            return replay.size();
+        }
+        List<ReplayedResponse> held = new ArrayList<>();
+        int[] heldAnswers = new int[1];
+        int count = deliveryService.getAnswersForEval(evaluationId, groupIds, templateItemIds, (response, answers) -> {
+            handler.handleResponseAnswers(response, answers);
+            if (heldAnswers[0] >= 0) {
+                heldAnswers[0] += answers.size();
+                if (heldAnswers[0] > MAX_REPLAY_ANSWERS) {
+                    // too large to hold, the next report will stream the answers again
+                    held.clear();
+                    heldAnswers[0] = -1;
+                } else {
+                    held.add(new ReplayedResponse(response, new ArrayList<>(answers)));
+                }
+            }
+        });
+        if (heldAnswers[0] >= 0) {
+            data.answers.put(key, held);
+        }
+        return count;
+    }
+
+    /**
+     * Counts the completed responses for the evaluation in these groups,
+     * the count is reused while a shared report data scope is open
+     * 
+     * @param evaluationId
+     * @param groupIds
+     * @return the number of responses
+     */
+    public int countResponses(Long evaluationId, String[] groupIds) {
+        SharedReportData data = sharedReportData.get();
+        if (data == null) {
+            return evaluationService.countResponses(null, new Long[] {evaluationId}, groupIds, null);
+        }
+        return data.counts.computeIfAbsent("responses:" + makeSharedKey(evaluationId, groupIds),
+                k -> evaluationService.countResponses(null, new Long[] {evaluationId}, groupIds, null));
+    }
+
+    /**
+     * Counts the participants for the evaluation in these groups,
+     * the count is reused while a shared report data scope is open
+     * 
+     * @param evaluationId
+     * @param groupIds
+     * @return the number of participants
+     */
+    public int countParticipants(Long evaluationId, String[] groupIds) {
+        SharedReportData data = sharedReportData.get();
+        if (data == null) {
+            return evaluationService.countParticipantsForEval(evaluationId, groupIds);
+        }
+        return data.counts.computeIfAbsent("participants:" + makeSharedKey(evaluationId, groupIds),
+                k -> evaluationService.countParticipantsForEval(evaluationId, groupIds));
+    }
+
     public String formatForSpreadSheet(EvalTemplateItem templateItem, EvalAnswer answer) {
         String togo = "";
 
@@ -199,6 +336,70 @@ public class EvalResponseAggregatorUtil {
         return tidl;
     }
 
+    /**
+     * Does the preparation work for getting a TIDL for the summary reports, the counts for the
+     * numeric items come from the pre-aggregated answer stats when they are current so only the text
+     * and comment answers are loaded, this is just a passthrough to 
+     * {@link TemplateItemDataList#TemplateItemDataList(Long, String[], EvalAuthoringService, EvalDeliveryService, ExternalHierarchyLogic, boolean)} 
+     * 
+     * @param evaluationId
+     * @param groupIds
+     * @return a TIDL which is built for the given eval and group ids,
+     * use {@link TemplateItemDataList.DataTemplateItem#getAnswerChoicesCounts(int)} and {@link TemplateItemDataList.DataTemplateItem#countAnswers()} for the numeric items
+     */
+    public TemplateItemDataList prepareTemplateItemSummaryStructure(Long evaluationId, String[] groupIds) {
+        SharedReportData data = sharedReportData.get();
+        if (data != null) {
+            return data.structures.computeIfAbsent("summary:" + makeSharedKey(evaluationId, groupIds),
+                    k -> new TemplateItemDataList(evaluationId, groupIds, authoringService, deliveryService, hierarchyLogic, true));
+        }
+        TemplateItemDataList tidl = new TemplateItemDataList(evaluationId, groupIds,
+                authoringService, deliveryService, hierarchyLogic, true);
+        return tidl;
+    }
+
+    /**
+     * Does the preparation work for getting a TIDL for the exports, this only holds the structure
+     * (no answers are loaded), the answers should be streamed one response at a time using
+     * {@link EvalDeliveryService#getAnswersForEval(Long, String[], Long[], org.sakaiproject.evaluation.logic.model.EvalResponseAnswersHandler)}
+     * and matched to the DTIs with {@link TemplateItemDataList.DataTemplateItem#getAnswer(java.util.Map)}
+     * 
+     * @param evaluationId
+     * @param groupIds
+     * @return a TIDL which is built for the given eval and group ids without any answers
+     */
+    public TemplateItemDataList prepareTemplateItemExportStructure(Long evaluationId, String[] groupIds) {
+        SharedReportData data = sharedReportData.get();
+        if (data != null) {
+            return data.structures.computeIfAbsent("export:" + makeSharedKey(evaluationId, groupIds),
+                    k -> new TemplateItemDataList(evaluationId, groupIds, authoringService, deliveryService, hierarchyLogic, false, false));
+        }
+        TemplateItemDataList tidl = new TemplateItemDataList(evaluationId, groupIds,
+                authoringService, deliveryService, hierarchyLogic, false, false);
+        return tidl;
+    }
+
+    /**
+     * Groups the eval group ids by their human readable names (sorted by name),
+     * this allows the exports to output the responses in order by section/site
+     * while streaming the answers for one name at a time
+     * 
+     * @param groupIds
+     * @return a sorted map of group name -> the group ids with that name
+     */
+    public SortedMap<String, String[]> getGroupIdsByDisplayTitle(String[] groupIds) {
+        SortedMap<String, List<String>> titleGroups = new TreeMap<>();
+        for (String groupId : groupIds) {
+            String title = getDisplayTitle(groupId);
+            titleGroups.computeIfAbsent(title, k -> new ArrayList<>()).add(groupId);
+        }
+        SortedMap<String, String[]> togo = new TreeMap<>();
+        for (Entry<String, List<String>> entry : titleGroups.entrySet()) {
+            togo.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+        }
+        return togo;
+    }
+
     /**
      * Returns a comma separated list of the human readable names for the array
      * of group ids.  This is used in a number of the reporting classes.
@@ -212,7 +413,7 @@ public class EvalResponseAggregatorUtil {
             if (groupCounter > 0) {
                 groupsString.append(", ");
             }
-            groupsString.append( commonLogic.getDisplayTitle(groupIds[groupCounter]) );
+            groupsString.append( getDisplayTitle(groupIds[groupCounter]) );
         }
         return groupsString.toString();
     }
@@ -251,4 +452,46 @@ public class EvalResponseAggregatorUtil {
         return togo;
     }
 
+    /**
+     * @param groupId
+     * @return the display title for the group, reused while a shared report data scope is open
+     */
+    private String getDisplayTitle(String groupId) {
+        SharedReportData data = sharedReportData.get();
+        if (data == null) {
+            return commonLogic.getDisplayTitle(groupId);
+        }
+        return data.groupTitles.computeIfAbsent(groupId, commonLogic::getDisplayTitle);
+    }
+
+    private static String makeSharedKey(Long evaluationId, String[] groupIds) {
+        return evaluationId + ":" + Arrays.toString(groupIds);
+    }
+
+    /**
+     * Holds the data loaded for the reports built on one thread, only accessed by that thread
+     */
+    private static class SharedReportData {
+        final boolean replayAnswers;
+        int depth = 0;
+        final Map<String, TemplateItemDataList> structures = new HashMap<>();
+        final Map<String, String> groupTitles = new HashMap<>();
+        final Map<String, Integer> counts = new HashMap<>();
+        final Map<String, List<ReplayedResponse>> answers = new HashMap<>();
+
+        SharedReportData(boolean replayAnswers) {
+            this.replayAnswers = replayAnswers;
+        }
+    }
+
+    private static class ReplayedResponse {
+        final EvalResponse response;
+        final List<EvalAnswer> answers;
+
+        ReplayedResponse(EvalResponse response, List<EvalAnswer> answers) {
+            this.response = response;
+            this.answers = answers;
+        }
+    }
+
 }
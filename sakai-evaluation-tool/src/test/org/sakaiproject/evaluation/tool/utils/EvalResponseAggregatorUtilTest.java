@@ -0,0 +1,138 @@
+/**
+ * Copyright 2005 Sakai Foundation Licensed under the
+ * Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.sakaiproject.evaluation.tool.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.evaluation.logic.EvalDeliveryService;
+import org.sakaiproject.evaluation.logic.EvalEvaluationService;
+import org.sakaiproject.evaluation.logic.model.EvalResponseAnswersHandler;
+import org.sakaiproject.evaluation.model.EvalAnswer;
+import org.sakaiproject.evaluation.model.EvalResponse;
+
+/**
+ * Tests the shared report data scope in {@link EvalResponseAggregatorUtil}
+ */
+public class EvalResponseAggregatorUtilTest {
+
+    private static final Long EVAL_ID = 1L;
+    private static final String[] GROUP_IDS = new String[] {"group1", "group2"};
+
+    private EvalResponseAggregatorUtil responseAggregator;
+    private AtomicInteger answerQueries;
+    private AtomicInteger countQueries;
+
+    @Before
+    public void setUp() {
+        answerQueries = new AtomicInteger();
+        countQueries = new AtomicInteger();
+        EvalDeliveryService deliveryService = (EvalDeliveryService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {EvalDeliveryService.class}, (proxy, method, args) -> {
+                    if ("getAnswersForEval".equals(method.getName()) && args.length == 4) {
+                        answerQueries.incrementAndGet();
+                        EvalResponseAnswersHandler handler = (EvalResponseAnswersHandler) args[3];
+                        for (long i = 1; i <= 2; i++) {
+                            EvalResponse response = new EvalResponse();
+                            response.setId(i);
+                            handler.handleResponseAnswers(response, Collections.singletonList(new EvalAnswer()));
+                        }
+                        return 2;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        EvalEvaluationService evaluationService = (EvalEvaluationService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {EvalEvaluationService.class}, (proxy, method, args) -> {
+                    if ("countResponses".equals(method.getName()) || "countParticipantsForEval".equals(method.getName())) {
+                        return countQueries.incrementAndGet();
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        responseAggregator = new EvalResponseAggregatorUtil();
+        responseAggregator.setDeliveryService(deliveryService);
+        responseAggregator.setEvaluationService(evaluationService);
+    }
+
+    @Test
+    public void testGetAnswersForEvalStreamsWithoutScope() {
+        List<Long> responseIds = new ArrayList<>();
+        responseAggregator.getAnswersForEval(EVAL_ID, GROUP_IDS, null, (response, answers) -> responseIds.add(response.getId()));
+        responseAggregator.getAnswersForEval(EVAL_ID, GROUP_IDS, null, (response, answers) -> responseIds.add(response.getId()));
+        assertEquals(2, answerQueries.get());
+        assertEquals(4, responseIds.size());
+
+        // only held when the scope replays answers
+        responseAggregator.openSharedReportData(false);
+        try {
+            responseAggregator.getAnswersForEval(EVAL_ID, GROUP_IDS, null, (response, answers) -> {});
+            responseAggregator.getAnswersForEval(EVAL_ID, GROUP_IDS, null, (response, answers) -> {});
+        } finally {
+            responseAggregator.closeSharedReportData();
+        }
+        assertEquals(4, answerQueries.get());
+    }
+
+    @Test
+    public void testGetAnswersForEvalReplaysInScope() {
+        List<Long> firstIds = new ArrayList<>();
+        List<Long> secondIds = new ArrayList<>();
+        responseAggregator.openSharedReportData(true);
+        try {
+            assertEquals(2, responseAggregator.getAnswersForEval(EVAL_ID, GROUP_IDS, null, (response, answers) -> firstIds.add(response.getId())));
+            assertEquals(2, responseAggregator.getAnswersForEval(EVAL_ID, GROUP_IDS, null, (response, answers) -> secondIds.add(response.getId())));
+            assertEquals(1, answerQueries.get());
+            assertEquals(firstIds, secondIds);
+
+            // different template items are a different stream
+            responseAggregator.getAnswersForEval(EVAL_ID, GROUP_IDS, new Long[] {5L}, (response, answers) -> {});
+            assertEquals(2, answerQueries.get());
+        } finally {
+            responseAggregator.closeSharedReportData();
+        }
+
+        // the held answers are released when the scope closes
+        responseAggregator.getAnswersForEval(EVAL_ID, GROUP_IDS, null, (response, answers) -> {});
+        assertEquals(3, answerQueries.get());
+    }
+
+    @Test
+    public void testCountsSharedInScope() {
+        responseAggregator.openSharedReportData(false);
+        try {
+            // nested scopes reuse the outer one
+            responseAggregator.openSharedReportData(false);
+            try {
+                assertEquals(1, responseAggregator.countResponses(EVAL_ID, GROUP_IDS));
+            } finally {
+                responseAggregator.closeSharedReportData();
+            }
+            assertEquals(1, responseAggregator.countResponses(EVAL_ID, GROUP_IDS));
+            assertEquals(2, responseAggregator.countParticipants(EVAL_ID, GROUP_IDS));
+            assertEquals(2, responseAggregator.countParticipants(EVAL_ID, GROUP_IDS));
+            assertEquals(3, responseAggregator.countResponses(EVAL_ID, new String[] {"group1"}));
+        } finally {
+            responseAggregator.closeSharedReportData();
+        }
+        assertEquals(4, responseAggregator.countResponses(EVAL_ID, GROUP_IDS));
+    }
+
+}